@@ -0,0 +1,115 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.commons;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures attribute lookups through {@link AppendingAttributes}, which wraps
+ * the attributes of every search result that needs the entry DN appended.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AppendingAttributesBenchmark {
+
+    private Attributes attributes;
+
+    @Setup
+    public void setup() {
+        BasicAttributes delegate = new BasicAttributes(true);
+        for (int i = 0; i < 20; i++) {
+            delegate.put("attr" + i, "value" + i);
+        }
+        attributes = new SingleAppendingAttributes(
+                delegate, new BasicAttribute("entryDN", "uid=bugs.bunny,dc=example,dc=com"));
+    }
+
+    @Benchmark
+    public Attribute getExisting() {
+        return attributes.get("attr10");
+    }
+
+    @Benchmark
+    public Attribute getAppended() {
+        return attributes.get("entryDN");
+    }
+
+    @Benchmark
+    public void getAll(final Blackhole blackhole) throws NamingException {
+        NamingEnumeration<? extends Attribute> attrs = attributes.getAll();
+        while (attrs.hasMore()) {
+            blackhole.consume(attrs.next());
+        }
+    }
+
+    private static final class SingleAppendingAttributes extends AppendingAttributes {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Attribute toAppend;
+
+        public SingleAppendingAttributes(final Attributes delegate, final Attribute toAppend) {
+            super(delegate);
+            this.toAppend = toAppend;
+        }
+
+        @Override
+        public Object clone() {
+            return new SingleAppendingAttributes((Attributes) delegate.clone(), toAppend);
+        }
+
+        @Override
+        protected Set<String> getAttributeIDsToAppend() {
+            return Collections.singleton(toAppend.getID());
+        }
+
+        @Override
+        protected Attribute getAttributeToAppend(final String attrID) {
+            return toAppend.getID().equalsIgnoreCase(attrID) ? toAppend : null;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.commons;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the escaping of attribute values, which happens for every value
+ * of every translated filter.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LdapUtilBenchmark {
+
+    private final String plainValue = "bugs.bunny@example.com";
+
+    private final String specialValue = "Bunny, Bugs (*\\Looney Tunes*)";
+
+    private final byte[] binaryValue = new byte[] { 0x0f, 0x1e, 0x2d, 0x3c, 0x4b, 0x5a, 0x69, 0x78,
+        (byte) 0x87, (byte) 0x96, (byte) 0xa5, (byte) 0xb4, (byte) 0xc3, (byte) 0xd2, (byte) 0xe1, (byte) 0xf0 };
+
+    @Benchmark
+    public StringBuilder escapePlainString() {
+        StringBuilder builder = new StringBuilder();
+        LdapUtil.escapeAttrValue(plainValue, builder);
+        return builder;
+    }
+
+    @Benchmark
+    public StringBuilder escapeSpecialString() {
+        StringBuilder builder = new StringBuilder();
+        LdapUtil.escapeAttrValue(specialValue, builder);
+        return builder;
+    }
+
+    @Benchmark
+    public StringBuilder escapeByteArray() {
+        StringBuilder builder = new StringBuilder();
+        LdapUtil.escapeAttrValue(binaryValue, builder);
+        return builder;
+    }
+}
@@ -0,0 +1,90 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.schema;
+
+import java.util.concurrent.TimeUnit;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import net.tirasa.connid.bundles.ldap.LdapConfiguration;
+import net.tirasa.connid.bundles.ldap.LdapConnection;
+import net.tirasa.connid.bundles.ldap.commons.LdapEntry;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the mapping of single attributes between the connector and LDAP.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LdapSchemaMappingBenchmark {
+
+    private LdapSchemaMapping mapping;
+
+    private LdapEntry entry;
+
+    private Attribute attribute;
+
+    @Setup
+    public void setup() {
+        LdapConfiguration config = new LdapConfiguration();
+        config.setHost("localhost");
+        config.setBaseContexts("dc=example,dc=com");
+        mapping = new LdapConnection(config).getSchemaMapping();
+
+        BasicAttributes attributes = new BasicAttributes(true);
+        BasicAttribute mail = new BasicAttribute("mail");
+        for (int i = 0; i < 10; i++) {
+            mail.add("bugs.bunny" + i + "@example.com");
+        }
+        attributes.put(mail);
+        entry = LdapEntry.create("uid=bugs.bunny,dc=example,dc=com", attributes);
+
+        attribute = AttributeBuilder.build("mail", "bugs.bunny@example.com", "bugs@example.com");
+    }
+
+    @Benchmark
+    public Attribute createAttribute() {
+        return mapping.createAttribute(ObjectClass.ACCOUNT, "mail", entry, false);
+    }
+
+    @Benchmark
+    public javax.naming.directory.Attribute encodeAttribute() {
+        return mapping.encodeAttribute(ObjectClass.ACCOUNT, attribute);
+    }
+}
@@ -0,0 +1,95 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.search;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.tirasa.connid.bundles.ldap.LdapConfiguration;
+import net.tirasa.connid.bundles.ldap.LdapConnection;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.filter.Filter;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the translation of connector filters into native LDAP filters.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LdapFilterTranslatorBenchmark {
+
+    private LdapConnection conn;
+
+    private Filter equalsFilter;
+
+    private Filter compositeFilter;
+
+    @Setup
+    public void setup() {
+        LdapConfiguration config = new LdapConfiguration();
+        config.setHost("localhost");
+        config.setBaseContexts("dc=example,dc=com");
+        conn = new LdapConnection(config);
+
+        equalsFilter = FilterBuilder.equalTo(AttributeBuilder.build("mail", "bugs.bunny@example.com"));
+
+        Filter filter = FilterBuilder.startsWith(AttributeBuilder.build(Name.NAME, "uid=bugs"));
+        for (int i = 0; i < 8; i++) {
+            Filter leaf = FilterBuilder.and(
+                    FilterBuilder.equalTo(AttributeBuilder.build("givenName", "Bugs" + i)),
+                    FilterBuilder.contains(AttributeBuilder.build("description", "(Looney*Tunes)")));
+            filter = FilterBuilder.or(filter, leaf);
+        }
+        compositeFilter = filter;
+    }
+
+    private LdapFilterTranslator newTranslator() {
+        return new LdapFilterTranslator(conn.getSchemaMapping(), ObjectClass.ACCOUNT);
+    }
+
+    @Benchmark
+    public List<LdapFilter> translateEquals() {
+        return newTranslator().translate(equalsFilter);
+    }
+
+    @Benchmark
+    public List<LdapFilter> translateComposite() {
+        return newTranslator().translate(compositeFilter);
+    }
+}
@@ -0,0 +1,97 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.search;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchResult;
+import net.tirasa.connid.bundles.ldap.LdapConfiguration;
+import net.tirasa.connid.bundles.ldap.LdapConnection;
+import org.identityconnectors.common.CollectionUtil;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the conversion of a search result into a {@link ConnectorObject},
+ * which happens once for every entry returned by a search.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LdapSearchBenchmark {
+
+    @Param({ "5", "20" })
+    public int attributeCount;
+
+    private LdapSearch search;
+
+    private SearchResult result;
+
+    private ProjectionPlan plan;
+
+    @Setup
+    public void setup() {
+        LdapConfiguration config = new LdapConfiguration();
+        config.setHost("localhost");
+        config.setBaseContexts("dc=example,dc=com");
+        LdapConnection conn = new LdapConnection(config);
+
+        search = new LdapSearch(conn, ObjectClass.ACCOUNT, null, null, new OperationOptionsBuilder().build());
+
+        BasicAttributes attributes = new BasicAttributes(true);
+        attributes.put("entryUUID", "4cbd9ab4-5f1c-4a4b-9f27-1cbb8e1f6f1d");
+        Set<String> attrsToGet = CollectionUtil.newCaseInsensitiveSet();
+        for (int i = 0; i < attributeCount; i++) {
+            BasicAttribute attribute = new BasicAttribute("attr" + i);
+            attribute.add("value" + i);
+            attribute.add("other value" + i);
+            attributes.put(attribute);
+            attrsToGet.add("attr" + i);
+        }
+        result = new SearchResult("uid=bugs.bunny,ou=People", null, attributes);
+        plan = new ProjectionPlan(conn, ObjectClass.ACCOUNT, attrsToGet, false);
+    }
+
+    @Benchmark
+    public ConnectorObject createConnectorObject() {
+        return search.createConnectorObject("dc=example,dc=com", result, plan);
+    }
+}
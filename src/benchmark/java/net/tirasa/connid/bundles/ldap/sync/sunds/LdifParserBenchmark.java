@@ -0,0 +1,79 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.sync.sunds;
+
+import java.util.concurrent.TimeUnit;
+import net.tirasa.connid.bundles.ldap.sync.sunds.LdifParser.Line;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the parsing of the LDIF held in the {@code changes} attribute of
+ * change log entries.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LdifParserBenchmark {
+
+    @Param({ "10", "100" })
+    public int attributeCount;
+
+    private String ldif;
+
+    @Setup
+    public void setup() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < attributeCount; i++) {
+            builder.append("replace: attr").append(i).append('\n');
+            builder.append("attr").append(i).append(": a value long enough to be folded by the server ");
+            builder.append("\n  when written to the change log, number ").append(i).append('\n');
+            builder.append("-\n");
+        }
+        builder.append("replace: modifiersName\n");
+        builder.append("modifiersName: cn=Directory Manager\n");
+        builder.append("-\n");
+        ldif = builder.toString();
+    }
+
+    @Benchmark
+    public void parse(final Blackhole blackhole) {
+        for (Line line : new LdifParser(ldif)) {
+            blackhole.consume(line);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.sync.sunds;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.identityconnectors.common.security.GuardedString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the decryption of the passwords found in change log entries.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PasswordDecryptorBenchmark {
+
+    private static final byte[] KEY = "0123456789abcdefghijklmn".getBytes(Charset.forName("UTF-8"));
+
+    private static final byte[] IV = "12345678".getBytes(Charset.forName("UTF-8"));
+
+    private static final int MAGIC = 0x132d1403;
+
+    private PasswordDecryptor decryptor;
+
+    private byte[] encryptedPassword;
+
+    @Setup
+    public void setup() throws Exception {
+        decryptor = new PasswordDecryptor(KEY, IV);
+
+        byte[] password = "Secret.Password.123".getBytes(Charset.forName("UTF-8"));
+        int length = 12 + password.length;
+        length += (8 - length % 8) % 8;
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(MAGIC).putInt(password.length).put(password).putInt(MAGIC);
+
+        Cipher cipher = Cipher.getInstance("DESede/CBC/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(KEY, "DESede"), new IvParameterSpec(IV));
+        encryptedPassword = cipher.doFinal(buffer.array());
+    }
+
+    @Benchmark
+    public String decryptPassword() {
+        return decryptor.decryptPassword(encryptedPassword);
+    }
+
+    @Benchmark
+    public GuardedString decryptGuardedPassword() {
+        return decryptor.decryptGuardedPassword(encryptedPassword);
+    }
+}
@@ -0,0 +1,110 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import net.tirasa.connid.bundles.ldap.commons.JfrLdapMetrics;
+import net.tirasa.connid.bundles.ldap.commons.LdapMetrics;
+import net.tirasa.connid.bundles.ldap.commons.LdapMetrics.Request;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.junit.Test;
+
+public class JfrLdapMetricsTests {
+
+    private static RecordedEvent findEvent(final List<RecordedEvent> events, final String name) {
+        for (RecordedEvent event : events) {
+            if (name.equals(event.getEventType().getName())) {
+                return event;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testEvents() throws Exception {
+        JfrLdapMetrics metrics = new JfrLdapMetrics();
+
+        File file = File.createTempFile("ldap", ".jfr");
+        try {
+            Recording recording = new Recording();
+            try {
+                recording.enable("net.tirasa.connid.bundles.ldap.Operation");
+                recording.enable("net.tirasa.connid.bundles.ldap.Request");
+                recording.start();
+
+                LdapMetrics.beginOperation("executeQuery", ObjectClass.ACCOUNT, metrics);
+                LdapMetrics.countRequest();
+                Object started = metrics.startRequest("executeQuery", ObjectClass.ACCOUNT, Request.SEARCH);
+                Thread.sleep(20);
+                metrics.record(started, "executeQuery", ObjectClass.ACCOUNT, Request.SEARCH,
+                        "dc=example,dc=com", "(uid=foo)", 1, 20000000, 42, false);
+                Thread.sleep(20);
+                LdapMetrics.endOperation(metrics);
+
+                recording.stop();
+                recording.dump(file.toPath());
+            } finally {
+                recording.close();
+            }
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+
+            RecordedEvent request = findEvent(events, "net.tirasa.connid.bundles.ldap.Request");
+            assertNotNull(request);
+            assertEquals("executeQuery", request.getString("operation"));
+            assertEquals(ObjectClass.ACCOUNT_NAME, request.getString("objectClass"));
+            assertEquals("SEARCH", request.getString("request"));
+            assertEquals("dc=example,dc=com", request.getString("dn"));
+            assertEquals("(uid=foo)", request.getString("filter"));
+            assertEquals(1, request.getInt("entryCount"));
+            assertEquals(42, request.getLong("bytes"));
+            assertFalse(request.getBoolean("failed"));
+            // The event spans the request, not only its commit.
+            assertTrue(request.getDuration().toMillis() >= 20);
+
+            RecordedEvent operation = findEvent(events, "net.tirasa.connid.bundles.ldap.Operation");
+            assertNotNull(operation);
+            assertEquals("executeQuery", operation.getString("operation"));
+            assertEquals(1, operation.getInt("requests"));
+            // The operation began before its request and ended after it.
+            assertFalse(operation.getStartTime().isAfter(request.getStartTime()));
+            assertFalse(operation.getEndTime().isBefore(request.getEndTime()));
+            assertTrue(operation.getDuration().toMillis() >= 40);
+        } finally {
+            file.delete();
+        }
+
+        // The counters are kept too.
+        assertEquals(1, metrics.getRequestCount("executeQuery"));
+    }
+}
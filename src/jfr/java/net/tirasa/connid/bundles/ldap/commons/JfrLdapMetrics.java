@@ -0,0 +1,173 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.commons;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+
+/**
+ * An {@link LdapMetrics} which, besides keeping the counters of {@link DefaultLdapMetrics}, emits a Java Flight
+ * Recorder event for every connector operation and LDAP request, so that the LDAP latency can be correlated with GC
+ * and thread activity in a recording.
+ *
+ * The events begin when the operation or request starts and are committed when it completes, so that their start
+ * time and duration in the recording are those of the operation or request. Emitting them costs next to nothing
+ * when they are not enabled in the recording. This class is only loaded when configured as the metrics class.
+ *
+ * This class needs JDK 11 or later, to build and to run: its sources are only compiled by the {@code jfr} Maven
+ * profile, which is active on JDK 11 and later, so a connector built on JDK 8 does not contain it.
+ */
+public class JfrLdapMetrics extends DefaultLdapMetrics {
+
+    @Name("net.tirasa.connid.bundles.ldap.Operation")
+    @Label("LDAP Connector Operation")
+    @Category({ "ConnId", "LDAP" })
+    @Description("A connector operation and the LDAP requests it made")
+    static class OperationEvent extends Event {
+
+        @Label("Operation")
+        String operation;
+
+        @Label("Object Class")
+        String objectClass;
+
+        @Label("Requests")
+        int requests;
+
+    }
+
+    @Name("net.tirasa.connid.bundles.ldap.Request")
+    @Label("LDAP Request")
+    @Category({ "ConnId", "LDAP" })
+    @Description("An LDAP request made by the connector")
+    static class RequestEvent extends Event {
+
+        @Label("Operation")
+        String operation;
+
+        @Label("Object Class")
+        String objectClass;
+
+        @Label("Request")
+        String request;
+
+        @Label("DN")
+        @Description("The base DN of a search, or the entry DN of other requests")
+        String dn;
+
+        @Label("Filter")
+        String filter;
+
+        @Label("Entry Count")
+        int entryCount;
+
+        @Label("Bytes")
+        @Description("Estimated size of the DNs and attribute values sent or received")
+        @DataAmount
+        long bytes;
+
+        @Label("Failed")
+        boolean failed;
+
+    }
+
+    @Override
+    public Object startOperation(final String operation, final ObjectClass oclass) {
+        OperationEvent event = new OperationEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void recordOperation(
+            final Object started,
+            final String operation,
+            final ObjectClass oclass,
+            final long nanos,
+            final int requests) {
+
+        super.recordOperation(started, operation, oclass, nanos, requests);
+
+        if (started instanceof OperationEvent) {
+            OperationEvent event = (OperationEvent) started;
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = operation;
+                event.objectClass = oclass == null ? null : oclass.getObjectClassValue();
+                event.requests = requests;
+                event.commit();
+            }
+        }
+    }
+
+    @Override
+    public Object startRequest(final String operation, final ObjectClass oclass, final Request request) {
+        RequestEvent event = new RequestEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void record(
+            final Object started,
+            final String operation,
+            final ObjectClass oclass,
+            final Request request,
+            final String name,
+            final String filter,
+            final int entryCount,
+            final long nanos,
+            final long bytes,
+            final boolean failed) {
+
+        super.record(started, operation, oclass, request, name, filter, entryCount, nanos, bytes, failed);
+
+        if (started instanceof RequestEvent) {
+            RequestEvent event = (RequestEvent) started;
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = operation;
+                event.objectClass = oclass == null ? null : oclass.getObjectClassValue();
+                event.request = request.name();
+                event.dn = name;
+                event.filter = filter;
+                event.entryCount = entryCount;
+                event.bytes = bytes;
+                event.failed = failed;
+                event.commit();
+            }
+        }
+    }
+}
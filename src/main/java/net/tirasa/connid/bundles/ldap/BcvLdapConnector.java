@@ -24,14 +24,21 @@
 package net.tirasa.connid.bundles.ldap;
 
 import java.util.Set;
+import net.tirasa.connid.bundles.ldap.commons.LdapMetrics;
 import net.tirasa.connid.bundles.ldap.modify.LdapCreate;
 import net.tirasa.connid.bundles.ldap.modify.LdapDelete;
 import net.tirasa.connid.bundles.ldap.modify.LdapUpdate;
+import net.tirasa.connid.bundles.ldap.search.LdapBulkGet;
 import net.tirasa.connid.bundles.ldap.search.LdapFilter;
 import net.tirasa.connid.bundles.ldap.search.LdapFilterTranslator;
 import net.tirasa.connid.bundles.ldap.search.LdapSearch;
+import net.tirasa.connid.bundles.ldap.sync.LdapSyncStrategy;
+import net.tirasa.connid.bundles.ldap.sync.sunds.PersistentSearchListener;
+import net.tirasa.connid.bundles.ldap.sync.sunds.PersistentSearchControl;
+import net.tirasa.connid.bundles.ldap.sync.sunds.PersistentSearchSyncStrategy;
 import net.tirasa.connid.bundles.ldap.sync.sunds.SunDSChangeLogSyncStrategy;
 import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.objects.Attribute;
 import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.identityconnectors.framework.common.objects.OperationOptions;
@@ -83,22 +90,43 @@ public class BcvLdapConnector implements
 
     @Override
     public void dispose() {
+        PersistentSearchListener.release(conn);
         conn.close();
     }
 
     @Override
     public void test() {
-        conn.test();
+        execute("test", null, new Operation<Void>() {
+
+            @Override
+            public Void execute() {
+                conn.test();
+                return null;
+            }
+        });
     }
 
     @Override
     public void checkAlive() {
-        conn.checkAlive();
+        execute("checkAlive", null, new Operation<Void>() {
+
+            @Override
+            public Void execute() {
+                conn.checkAlive();
+                return null;
+            }
+        });
     }
 
     @Override
     public Schema schema() {
-        return conn.getSchemaMapping().schema();
+        return execute("schema", null, new Operation<Schema>() {
+
+            @Override
+            public Schema execute() {
+                return conn.getSchemaMapping().schema();
+            }
+        });
     }
 
     @Override
@@ -108,7 +136,13 @@ public class BcvLdapConnector implements
             final GuardedString password,
             final OperationOptions options) {
 
-        return new LdapAuthenticate(conn, objectClass, username, options).authenticate(password);
+        return execute("authenticate", objectClass, new Operation<Uid>() {
+
+            @Override
+            public Uid execute() {
+                return new LdapAuthenticate(conn, objectClass, username, options).authenticate(password);
+            }
+        });
     }
 
     @Override
@@ -117,7 +151,13 @@ public class BcvLdapConnector implements
             final String username,
             final OperationOptions options) {
 
-        return new LdapAuthenticate(conn, objectClass, username, options).resolveUsername();
+        return execute("resolveUsername", objectClass, new Operation<Uid>() {
+
+            @Override
+            public Uid execute() {
+                return new LdapAuthenticate(conn, objectClass, username, options).resolveUsername();
+            }
+        });
     }
 
     @Override
@@ -133,7 +173,18 @@ public class BcvLdapConnector implements
             final LdapFilter query,
             final ResultsHandler handler,
             final OperationOptions options) {
-        new LdapSearch(conn, oclass, query, handler, options).execute();
+        execute("executeQuery", oclass, new Operation<Void>() {
+
+            @Override
+            public Void execute() {
+                if (LdapBulkGet.isBulkGet(query, options)) {
+                    new LdapBulkGet(conn, oclass, query.getUids(), handler, options).execute();
+                } else {
+                    new LdapSearch(conn, oclass, query, handler, options).executeAsync();
+                }
+                return null;
+            }
+        });
     }
 
     @Override
@@ -141,7 +192,13 @@ public class BcvLdapConnector implements
             final ObjectClass oclass,
             final Set<Attribute> attrs,
             final OperationOptions options) {
-        return new LdapCreate(conn, oclass, attrs, options).execute();
+        return execute("create", oclass, new Operation<Uid>() {
+
+            @Override
+            public Uid execute() {
+                return new LdapCreate(conn, oclass, attrs, options).execute();
+            }
+        });
     }
 
     @Override
@@ -149,7 +206,14 @@ public class BcvLdapConnector implements
             final ObjectClass oclass,
             final Uid uid,
             final OperationOptions options) {
-        new LdapDelete(conn, oclass, uid).execute();
+        execute("delete", oclass, new Operation<Void>() {
+
+            @Override
+            public Void execute() {
+                new LdapDelete(conn, oclass, uid).execute();
+                return null;
+            }
+        });
     }
 
     @Override
@@ -158,7 +222,13 @@ public class BcvLdapConnector implements
             final Uid uid,
             final Set<Attribute> replaceAttributes,
             final OperationOptions options) {
-        return new LdapUpdate(conn, oclass, uid).update(replaceAttributes);
+        return execute("update", oclass, new Operation<Uid>() {
+
+            @Override
+            public Uid execute() {
+                return new LdapUpdate(conn, oclass, uid).update(replaceAttributes);
+            }
+        });
     }
 
     @Override
@@ -167,7 +237,13 @@ public class BcvLdapConnector implements
             final Uid uid,
             final Set<Attribute> valuesToAdd,
             final OperationOptions options) {
-        return new LdapUpdate(conn, oclass, uid).addAttributeValues(valuesToAdd);
+        return execute("addAttributeValues", oclass, new Operation<Uid>() {
+
+            @Override
+            public Uid execute() {
+                return new LdapUpdate(conn, oclass, uid).addAttributeValues(valuesToAdd);
+            }
+        });
     }
 
     @Override
@@ -175,14 +251,26 @@ public class BcvLdapConnector implements
             final ObjectClass oclass,
             final Uid uid,
             final Set<Attribute> valuesToRemove,
-            OperationOptions options) {
-        return new LdapUpdate(conn, oclass, uid).removeAttributeValues(valuesToRemove);
+            final OperationOptions options) {
+        return execute("removeAttributeValues", oclass, new Operation<Uid>() {
+
+            @Override
+            public Uid execute() {
+                return new LdapUpdate(conn, oclass, uid).removeAttributeValues(valuesToRemove);
+            }
+        });
     }
 
     @Override
     public SyncToken getLatestSyncToken(
             final ObjectClass oclass) {
-        return new SunDSChangeLogSyncStrategy(conn, oclass).getLatestSyncToken();
+        return execute("getLatestSyncToken", oclass, new Operation<SyncToken>() {
+
+            @Override
+            public SyncToken execute() {
+                return getSyncStrategy(oclass).getLatestSyncToken();
+            }
+        });
     }
 
     @Override
@@ -191,6 +279,48 @@ public class BcvLdapConnector implements
             final SyncToken token,
             final SyncResultsHandler handler,
             final OperationOptions options) {
-        new SunDSChangeLogSyncStrategy(conn, oclass).sync(token, handler, options);
+        execute("sync", oclass, new Operation<Void>() {
+
+            @Override
+            public Void execute() {
+                getSyncStrategy(oclass).sync(token, handler, options);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Runs the given operation, reporting the requests it makes to the metrics of the connection, if any.
+     */
+    private <T> T execute(final String name, final ObjectClass oclass, final Operation<T> operation) {
+        LdapMetrics.beginOperation(name, oclass, conn.getMetrics());
+        try {
+            return operation.execute();
+        } finally {
+            LdapMetrics.endOperation(conn.getMetrics());
+        }
+    }
+
+    private LdapSyncStrategy getSyncStrategy(final ObjectClass oclass) {
+        Class<? extends LdapSyncStrategy> syncStrategyClass = config.getSyncStrategyClass();
+        if (SunDSChangeLogSyncStrategy.class.equals(syncStrategyClass)) {
+            if (config.isUsePersistentSearch() && conn.supportsControl(PersistentSearchControl.OID)) {
+                return new PersistentSearchSyncStrategy(conn, oclass);
+            }
+            return new SunDSChangeLogSyncStrategy(conn, oclass);
+        }
+        try {
+            return syncStrategyClass.getConstructor(LdapConnection.class, ObjectClass.class).newInstance(conn, oclass);
+        } catch (Exception e) {
+            throw new ConnectorException("Could not instantiate sync strategy " + syncStrategyClass.getName(), e);
+        }
+    }
+
+    /**
+     * The body of a connector operation, see {@link #execute(String, ObjectClass, Operation)}.
+     */
+    private interface Operation<T> {
+
+        T execute();
     }
 }
@@ -34,9 +34,12 @@ import java.util.Set;
 import javax.naming.InvalidNameException;
 import javax.naming.ldap.LdapName;
 import net.tirasa.connid.bundles.ldap.commons.LdapConstants;
+import net.tirasa.connid.bundles.ldap.commons.LdapMetrics;
 import net.tirasa.connid.bundles.ldap.commons.LdapUtil;
 import net.tirasa.connid.bundles.ldap.commons.ObjectClassMappingConfig;
 import net.tirasa.connid.bundles.ldap.search.DefaultSearchStrategy;
+import net.tirasa.connid.bundles.ldap.sync.LdapSyncStrategy;
+import net.tirasa.connid.bundles.ldap.sync.sunds.SunDSChangeLogSyncStrategy;
 import org.identityconnectors.common.CollectionUtil;
 import org.identityconnectors.common.EqualsHashCodeBuilder;
 import org.identityconnectors.common.StringUtil;
@@ -207,6 +210,95 @@ public class LdapConfiguration extends AbstractConfiguration {
 
     private GuardedByteArray passwordDecryptionInitializationVector;
 
+    /**
+     * The class name of the {@link LdapSyncStrategy} implementation used for sync.
+     */
+    private String syncStrategy = SunDSChangeLogSyncStrategy.class.getName();
+
+    /**
+     * Whether to listen for changes with a persistent search instead of polling the change log.
+     */
+    private boolean usePersistentSearch;
+
+    /**
+     * The maximum number of changes buffered between two sync calls when using a persistent search.
+     */
+    private int persistentSearchQueueSize = 1000;
+
+    /**
+     * The maximum number of changes read by a single sync call, or 0 for no limit.
+     */
+    private int syncBatchSize;
+
+    /**
+     * The maximum time in milliseconds spent reading changes by a single sync call, or 0 for no limit.
+     */
+    private long syncBatchTime;
+
+    /**
+     * Whether to filter the change log entries by target DN, modifiersName and changed attributes on the server.
+     */
+    private boolean filterChangeLogOnServer;
+
+    /**
+     * The class name of the {@link LdapMetrics} implementation the LDAP requests are reported to, if any.
+     */
+    private String metricsClass;
+
+    /**
+     * The duration in milliseconds above which an LDAP request is logged as slow, or 0 to disable.
+     */
+    private long slowOperationThreshold;
+
+    /**
+     * The maximum number of slow requests kept in memory.
+     */
+    private int slowOperationLogSize = 100;
+
+    /**
+     * The maximum number of search results read ahead of the results handler, or 0 to call the handler on the
+     * thread reading the results.
+     */
+    private int searchResultsQueueSize;
+
+    /**
+     * The number of threads converting the search results read ahead of the results handler.
+     */
+    private int searchResultsConversionThreads = 2;
+
+    /**
+     * Whether to read the LDAP groups of an entry from its {@code memberOf} or {@code isMemberOf} attribute, when
+     * defined in the server schema, instead of searching for the groups.
+     */
+    private boolean readLdapGroupsFromMemberOf;
+
+    /**
+     * Whether the server maintains referential integrity for the group member attribute, so that LDAP group
+     * memberships need no client-side update when an entry is renamed or deleted.
+     */
+    private boolean serverReferentialIntegrity;
+
+    /**
+     * The time in milliseconds an entry DN lookup by Uid waits for other lookups to search for together, or 0 to
+     * search for each lookup alone.
+     */
+    private int uidLookupBatchWindow;
+
+    /**
+     * The maximum number of entry DN lookups by Uid searched for together.
+     */
+    private int uidLookupBatchSize = 50;
+
+    /**
+     * The number of threads, each with its own connection, getting the chunks of a query for many Uids.
+     */
+    private int uidBulkGetThreads = 1;
+
+    /**
+     * The LDAP attributes indexed by the server, whose terms are put first in the search filters.
+     */
+    private String[] indexedAttributes = {};
+
     private String statusManagementClass;
 
     private String dnAttribute = "entryDN";
@@ -306,6 +398,69 @@ public class LdapConfiguration extends AbstractConfiguration {
             failValidation("changeLogBlockSize.legalValue");
         }
 
+        checkNotBlank(syncStrategy, "syncStrategy.notBlank");
+        try {
+            loadSyncStrategyClass();
+        } catch (ClassNotFoundException e) {
+            failValidation("syncStrategy.classNotFound", syncStrategy);
+        } catch (ClassCastException e) {
+            failValidation("syncStrategy.notLdapSyncStrategy", syncStrategy);
+        }
+
+        if (persistentSearchQueueSize <= 0) {
+            failValidation("persistentSearchQueueSize.legalValue");
+        }
+
+        if (syncBatchSize < 0) {
+            failValidation("syncBatchSize.legalValue");
+        }
+
+        if (syncBatchTime < 0) {
+            failValidation("syncBatchTime.legalValue");
+        }
+
+        if (StringUtil.isNotBlank(metricsClass)) {
+            try {
+                Class.forName(metricsClass).asSubclass(LdapMetrics.class);
+            } catch (ClassNotFoundException e) {
+                failValidation("metricsClass.classNotFound", metricsClass);
+            } catch (ClassCastException e) {
+                failValidation("metricsClass.notLdapMetrics", metricsClass);
+            }
+        }
+
+        if (slowOperationThreshold < 0) {
+            failValidation("slowOperationThreshold.legalValue");
+        }
+
+        if (slowOperationLogSize <= 0) {
+            failValidation("slowOperationLogSize.legalValue");
+        }
+
+        if (searchResultsQueueSize < 0) {
+            failValidation("searchResultsQueueSize.legalValue");
+        }
+
+        if (searchResultsConversionThreads < 0) {
+            failValidation("searchResultsConversionThreads.legalValue");
+        }
+
+        if (uidLookupBatchWindow < 0) {
+            failValidation("uidLookupBatchWindow.legalValue");
+        }
+
+        if (uidLookupBatchSize <= 0) {
+            failValidation("uidLookupBatchSize.legalValue");
+        }
+
+        if (uidBulkGetThreads <= 0) {
+            failValidation("uidBulkGetThreads.legalValue");
+        }
+
+        if (indexedAttributes != null) {
+            checkNoBlankValues(indexedAttributes, "indexedAttributes.noBlankValues");
+        }
+
         if (synchronizePasswords) {
             checkNotBlank(passwordAttributeToSynchronize, "passwordAttributeToSynchronize.notBlank");
             checkNotBlank(passwordDecryptionKey, "decryptionKey.notBlank");
@@ -896,6 +1051,193 @@ public class LdapConfiguration extends AbstractConfiguration {
         this.aliasGroupMemberRefAttribute = aliasGroupMemberRefAttribute;
     }
 
+    @ConfigurationProperty(order = 47, operations = { SyncOp.class },
+            displayMessageKey = "usePersistentSearch.display",
+            helpMessageKey = "usePersistentSearch.help")
+    public boolean isUsePersistentSearch() {
+        return usePersistentSearch;
+    }
+
+    public void setUsePersistentSearch(boolean usePersistentSearch) {
+        this.usePersistentSearch = usePersistentSearch;
+    }
+
+    @ConfigurationProperty(order = 48, operations = { SyncOp.class },
+            displayMessageKey = "persistentSearchQueueSize.display",
+            helpMessageKey = "persistentSearchQueueSize.help")
+    public int getPersistentSearchQueueSize() {
+        return persistentSearchQueueSize;
+    }
+
+    public void setPersistentSearchQueueSize(int persistentSearchQueueSize) {
+        this.persistentSearchQueueSize = persistentSearchQueueSize;
+    }
+
+    @ConfigurationProperty(order = 49, operations = { SyncOp.class },
+            displayMessageKey = "syncStrategy.display",
+            helpMessageKey = "syncStrategy.help")
+    public String getSyncStrategy() {
+        return syncStrategy;
+    }
+
+    public void setSyncStrategy(String syncStrategy) {
+        this.syncStrategy = syncStrategy;
+    }
+
+    @ConfigurationProperty(order = 50, operations = { SyncOp.class },
+            displayMessageKey = "syncBatchSize.display",
+            helpMessageKey = "syncBatchSize.help")
+    public int getSyncBatchSize() {
+        return syncBatchSize;
+    }
+
+    public void setSyncBatchSize(int syncBatchSize) {
+        this.syncBatchSize = syncBatchSize;
+    }
+
+    @ConfigurationProperty(order = 51, operations = { SyncOp.class },
+            displayMessageKey = "syncBatchTime.display",
+            helpMessageKey = "syncBatchTime.help")
+    public long getSyncBatchTime() {
+        return syncBatchTime;
+    }
+
+    public void setSyncBatchTime(long syncBatchTime) {
+        this.syncBatchTime = syncBatchTime;
+    }
+
+    @ConfigurationProperty(order = 52, operations = { SyncOp.class },
+            displayMessageKey = "filterChangeLogOnServer.display",
+            helpMessageKey = "filterChangeLogOnServer.help")
+    public boolean isFilterChangeLogOnServer() {
+        return filterChangeLogOnServer;
+    }
+
+    public void setFilterChangeLogOnServer(boolean filterChangeLogOnServer) {
+        this.filterChangeLogOnServer = filterChangeLogOnServer;
+    }
+
+    @ConfigurationProperty(order = 53,
+            displayMessageKey = "metricsClass.display",
+            helpMessageKey = "metricsClass.help")
+    public String getMetricsClass() {
+        return metricsClass;
+    }
+
+    public void setMetricsClass(String metricsClass) {
+        this.metricsClass = metricsClass;
+    }
+
+    @ConfigurationProperty(order = 54,
+            displayMessageKey = "slowOperationThreshold.display",
+            helpMessageKey = "slowOperationThreshold.help")
+    public long getSlowOperationThreshold() {
+        return slowOperationThreshold;
+    }
+
+    public void setSlowOperationThreshold(long slowOperationThreshold) {
+        this.slowOperationThreshold = slowOperationThreshold;
+    }
+
+    @ConfigurationProperty(order = 55,
+            displayMessageKey = "slowOperationLogSize.display",
+            helpMessageKey = "slowOperationLogSize.help")
+    public int getSlowOperationLogSize() {
+        return slowOperationLogSize;
+    }
+
+    public void setSlowOperationLogSize(int slowOperationLogSize) {
+        this.slowOperationLogSize = slowOperationLogSize;
+    }
+
+    @ConfigurationProperty(order = 56,
+            displayMessageKey = "searchResultsQueueSize.display",
+            helpMessageKey = "searchResultsQueueSize.help")
+    public int getSearchResultsQueueSize() {
+        return searchResultsQueueSize;
+    }
+
+    public void setSearchResultsQueueSize(int searchResultsQueueSize) {
+        this.searchResultsQueueSize = searchResultsQueueSize;
+    }
+
+    @ConfigurationProperty(order = 57,
+            displayMessageKey = "searchResultsConversionThreads.display",
+            helpMessageKey = "searchResultsConversionThreads.help")
+    public int getSearchResultsConversionThreads() {
+        return searchResultsConversionThreads;
+    }
+
+    public void setSearchResultsConversionThreads(int searchResultsConversionThreads) {
+        this.searchResultsConversionThreads = searchResultsConversionThreads;
+    }
+
+    @ConfigurationProperty(order = 58,
+            displayMessageKey = "readLdapGroupsFromMemberOf.display",
+            helpMessageKey = "readLdapGroupsFromMemberOf.help")
+    public boolean isReadLdapGroupsFromMemberOf() {
+        return readLdapGroupsFromMemberOf;
+    }
+
+    public void setReadLdapGroupsFromMemberOf(boolean readLdapGroupsFromMemberOf) {
+        this.readLdapGroupsFromMemberOf = readLdapGroupsFromMemberOf;
+    }
+
+    @ConfigurationProperty(order = 59,
+            displayMessageKey = "serverReferentialIntegrity.display",
+            helpMessageKey = "serverReferentialIntegrity.help")
+    public boolean isServerReferentialIntegrity() {
+        return serverReferentialIntegrity;
+    }
+
+    public void setServerReferentialIntegrity(boolean serverReferentialIntegrity) {
+        this.serverReferentialIntegrity = serverReferentialIntegrity;
+    }
+
+    @ConfigurationProperty(order = 60,
+            displayMessageKey = "uidLookupBatchWindow.display",
+            helpMessageKey = "uidLookupBatchWindow.help")
+    public int getUidLookupBatchWindow() {
+        return uidLookupBatchWindow;
+    }
+
+    public void setUidLookupBatchWindow(int uidLookupBatchWindow) {
+        this.uidLookupBatchWindow = uidLookupBatchWindow;
+    }
+
+    @ConfigurationProperty(order = 61,
+            displayMessageKey = "uidLookupBatchSize.display",
+            helpMessageKey = "uidLookupBatchSize.help")
+    public int getUidLookupBatchSize() {
+        return uidLookupBatchSize;
+    }
+
+    public void setUidLookupBatchSize(int uidLookupBatchSize) {
+        this.uidLookupBatchSize = uidLookupBatchSize;
+    }
+
+    @ConfigurationProperty(order = 62,
+            displayMessageKey = "uidBulkGetThreads.display",
+            helpMessageKey = "uidBulkGetThreads.help")
+    public int getUidBulkGetThreads() {
+        return uidBulkGetThreads;
+    }
+
+    public void setUidBulkGetThreads(int uidBulkGetThreads) {
+        this.uidBulkGetThreads = uidBulkGetThreads;
+    }
+
+    @ConfigurationProperty(order = 63,
+            displayMessageKey = "indexedAttributes.display",
+            helpMessageKey = "indexedAttributes.help")
+    public String[] getIndexedAttributes() {
+        return indexedAttributes.clone();
+    }
+
+    public void setIndexedAttributes(String... indexedAttributes) {
+        this.indexedAttributes = indexedAttributes == null ? new String[0] : indexedAttributes.clone();
+    }
+
     // Getters and setters for configuration properties end here.
     public List<LdapName> getBaseContextsAsLdapNames() {
         if (baseContextsAsLdapNames == null) {
@@ -944,6 +1286,18 @@ public class LdapConfiguration extends AbstractConfiguration {
         return modifiersNamesToFilterOutAsLdapNames;
     }
 
+    public Class<? extends LdapSyncStrategy> getSyncStrategyClass() {
+        try {
+            return loadSyncStrategyClass();
+        } catch (ClassNotFoundException e) {
+            throw new ConfigurationException(e);
+        }
+    }
+
+    private Class<? extends LdapSyncStrategy> loadSyncStrategyClass() throws ClassNotFoundException {
+        return Class.forName(syncStrategy).asSubclass(LdapSyncStrategy.class);
+    }
+
     public Map<ObjectClass, ObjectClassMappingConfig> getObjectClassMappingConfigs() {
         Map<ObjectClass, ObjectClassMappingConfig> result = new HashMap<ObjectClass, ObjectClassMappingConfig>();
         result.put(accountConfig.getObjectClass(), accountConfig);
@@ -952,6 +1306,14 @@ public class LdapConfiguration extends AbstractConfiguration {
         return result;
     }
 
+    /**
+     * Returns a snapshot of the properties compared by {@link #equals}: equal configurations have equal keys, and
+     * later changes to this configuration do not affect the key.
+     */
+    public Object getEqualityKey() {
+        return createHashCodeBuilder();
+    }
+
     private EqualsHashCodeBuilder createHashCodeBuilder() {
         EqualsHashCodeBuilder builder = new EqualsHashCodeBuilder();
         // Exposed configuration properties.
@@ -1000,6 +1362,25 @@ public class LdapConfiguration extends AbstractConfiguration {
         builder.append(passwordAttributeToSynchronize);
         builder.append(passwordDecryptionKey);
         builder.append(passwordDecryptionInitializationVector);
+        builder.append(syncStrategy);
+        builder.append(usePersistentSearch);
+        builder.append(persistentSearchQueueSize);
+        builder.append(syncBatchSize);
+        builder.append(syncBatchTime);
+        builder.append(filterChangeLogOnServer);
+        builder.append(metricsClass);
+        builder.append(slowOperationThreshold);
+        builder.append(slowOperationLogSize);
+        builder.append(searchResultsQueueSize);
+        builder.append(searchResultsConversionThreads);
+        builder.append(readLdapGroupsFromMemberOf);
+        builder.append(serverReferentialIntegrity);
+        builder.append(uidLookupBatchWindow);
+        builder.append(uidLookupBatchSize);
+        builder.append(uidBulkGetThreads);
+        for (String indexedAttribute : indexedAttributes) {
+            builder.append(indexedAttribute);
+        }
         // Other state.
         builder.append(accountConfig);
         builder.append(groupConfig);
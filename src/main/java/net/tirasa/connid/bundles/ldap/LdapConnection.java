@@ -24,28 +24,48 @@
 package net.tirasa.connid.bundles.ldap;
 
 import com.sun.jndi.ldap.ctl.PasswordExpiredResponseControl;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.naming.AuthenticationException;
 import javax.naming.Context;
+import javax.naming.InvalidNameException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
 import javax.naming.ldap.Control;
 import javax.naming.ldap.InitialLdapContext;
 import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+import net.tirasa.connid.bundles.ldap.commons.InstrumentedLdapContext;
 import net.tirasa.connid.bundles.ldap.commons.LdapConstants;
+import net.tirasa.connid.bundles.ldap.commons.LdapMetrics;
 import net.tirasa.connid.bundles.ldap.commons.LdapNativeSchema;
 import net.tirasa.connid.bundles.ldap.commons.LdapUtil;
 import net.tirasa.connid.bundles.ldap.commons.ServerNativeSchema;
+import net.tirasa.connid.bundles.ldap.commons.SlowOperationLog;
+import net.tirasa.connid.bundles.ldap.commons.SlowOperationLog.SlowOperation;
 import net.tirasa.connid.bundles.ldap.commons.StaticNativeSchema;
 import net.tirasa.connid.bundles.ldap.schema.LdapSchemaMapping;
+import net.tirasa.connid.bundles.ldap.search.EntryDNLoader;
+import net.tirasa.connid.bundles.ldap.search.SearchPlanCache;
+import net.tirasa.connid.bundles.ldap.sync.sunds.PasswordDecryptor;
 import org.identityconnectors.common.CollectionUtil;
 import org.identityconnectors.common.Pair;
 import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.common.security.GuardedByteArray;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.common.security.GuardedString.Accessor;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
@@ -61,6 +81,25 @@ public class LdapConnection {
 
     private static final Set<String> LDAP_BINARY_OPTION_ATTRS;
 
+    /**
+     * The operational attributes listing the groups of an entry, in order of preference: {@code memberOf} for Active
+     * Directory, 389-DS and the OpenLDAP overlay, {@code isMemberOf} for OpenDJ and Sun DSEE.
+     */
+    private static final String[] MEMBER_OF_ATTRS = { "memberOf", "isMemberOf" };
+
+    /**
+     * The capability advertised in the root DSE by Active Directory, which maintains the linked {@code member}
+     * attribute on its own.
+     */
+    public static final String AD_CAPABILITY_OID = "1.2.840.113556.1.4.800";
+
+    /**
+     * The configuration entries of the referential integrity plugins of 389-DS and Sun DSEE, and of OpenDJ.
+     */
+    private static final String DS_REFERINT_PLUGIN_DN = "cn=referential integrity postoperation,cn=plugins,cn=config";
+
+    private static final String OPENDJ_REFERINT_PLUGIN_DN = "cn=Referential Integrity,cn=Plugins,cn=config";
+
     static {
         // Cf. http://java.sun.com/products/jndi/tutorial/ldap/misc/attrs.html.
         LDAP_BINARY_SYNTAX_ATTRS = CollectionUtil.newCaseInsensitiveSet();
@@ -98,19 +137,60 @@ public class LdapConnection {
 
     private static final Log LOG = Log.getLog(LdapConnection.class);
 
+    private static final AtomicInteger WORKER_NUMBER = new AtomicInteger();
+
     private final LdapConfiguration config;
 
     private final LdapSchemaMapping schemaMapping;
 
+    /**
+     * The sink of the requests made through the contexts of this connection, or {@code null} if not configured.
+     */
+    private final LdapMetrics metrics;
+
+    /**
+     * The log of the slow requests made through the contexts of this connection, or {@code null} if not configured.
+     */
+    private final SlowOperationLog slowOperationLog;
+
+    private final SearchPlanCache searchPlanCache = new SearchPlanCache();
+
     private LdapContext initCtx;
 
     private Set<String> supportedControls;
 
+    private Set<String> supportedCapabilities;
+
     private ServerType serverType;
 
+    private String memberOfAttribute;
+
+    private boolean memberOfAttributeChecked;
+
+    private Set<String> referentialIntegrityAttrs;
+
+    /**
+     * The threads doing the background work of the operations on this connection; created when first needed.
+     */
+    private ExecutorService executor;
+
+    /**
+     * The idle connections used by background tasks which cannot share this one; guarded by itself.
+     */
+    private final Deque<LdapConnection> workerConns = new ArrayDeque<LdapConnection>();
+
+    /**
+     * Decrypts the passwords in the change log; created when first needed and disposed of on close.
+     */
+    private PasswordDecryptor passwordDecryptor;
+
     public LdapConnection(LdapConfiguration config) {
         this.config = config;
         schemaMapping = new LdapSchemaMapping(this);
+        metrics = LdapMetrics.getInstance(config.getMetricsClass());
+        slowOperationLog = config.getSlowOperationThreshold() > 0
+                ? new SlowOperationLog(config.getSlowOperationThreshold(), config.getSlowOperationLogSize())
+                : null;
     }
 
     public String format(String key, String dflt, Object... args) {
@@ -181,9 +261,10 @@ public class LdapConnection {
 
     private Pair<AuthenticationResult, LdapContext> createContext(final Hashtable<?, ?> env) {
         AuthenticationResult authnResult = null;
-        InitialLdapContext context = null;
+        LdapContext context = null;
+        long start = System.nanoTime();
         try {
-            context = new InitialLdapContext(env, null);
+            context = InstrumentedLdapContext.wrap(new InitialLdapContext(env, null), metrics, slowOperationLog);
             if (config.isRespectResourcePasswordPolicyChangeAfterReset()) {
                 if (hasPasswordExpiredControl(context.getResponseControls())) {
                     authnResult = new AuthenticationResult(
@@ -207,6 +288,18 @@ public class LdapConnection {
             assert context != null;
             authnResult = new AuthenticationResult(AuthenticationResultType.SUCCESS);
         }
+        long nanos = System.nanoTime() - start;
+        boolean failed = authnResult.getType() != AuthenticationResultType.SUCCESS;
+        String principal = (String) env.get(Context.SECURITY_PRINCIPAL);
+        LdapMetrics.countRequest();
+        if (metrics != null) {
+            metrics.record(LdapMetrics.getOperation(), LdapMetrics.getObjectClass(), LdapMetrics.Request.BIND,
+                    principal, null, -1, nanos, 0, failed);
+        }
+        if (slowOperationLog != null) {
+            slowOperationLog.record(new SlowOperation(LdapMetrics.getOperation(), LdapMetrics.getObjectClass(),
+                    LdapMetrics.Request.BIND, principal, null, null, null, -1, nanos, failed));
+        }
         return new Pair<AuthenticationResult, LdapContext>(authnResult, context);
     }
 
@@ -239,9 +332,98 @@ public class LdapConnection {
             quietClose(initCtx);
         } finally {
             initCtx = null;
+            EntryDNLoader.release(this);
+            synchronized (this) {
+                if (executor != null) {
+                    executor.shutdown();
+                    executor = null;
+                }
+                if (passwordDecryptor != null) {
+                    passwordDecryptor.dispose();
+                    passwordDecryptor = null;
+                }
+            }
+            synchronized (workerConns) {
+                for (LdapConnection workerConn : workerConns) {
+                    workerConn.close();
+                }
+                workerConns.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns a connection with the same configuration for a background task, reusing an idle one if any. Pass it
+     * back to {@link #releaseWorkerConnection} when done; it is closed along with this connection.
+     */
+    public LdapConnection acquireWorkerConnection() {
+        synchronized (workerConns) {
+            LdapConnection workerConn = workerConns.pollFirst();
+            if (workerConn != null) {
+                return workerConn;
+            }
+        }
+        return new LdapConnection(config);
+    }
+
+    /**
+     * Makes a connection from {@link #acquireWorkerConnection} idle again, or closes it if it failed.
+     */
+    public void releaseWorkerConnection(final LdapConnection workerConn, final boolean failed) {
+        if (failed) {
+            workerConn.close();
+        } else {
+            synchronized (workerConns) {
+                workerConns.addFirst(workerConn);
+            }
         }
     }
 
+    /**
+     * Returns the executor running the background work of the operations on this connection, such as reading search
+     * results ahead of the handler. Its threads are reused across operations, end after being idle for a while, and
+     * all end once the connection is closed. Callers bound how many tasks they run at once.
+     */
+    public synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ldap-worker-" + WORKER_NUMBER.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Returns the decryptor of the passwords in the change log, built from the configured key and initialization
+     * vector, shared by the operations on this connection until it is closed.
+     */
+    public synchronized PasswordDecryptor getPasswordDecryptor() {
+        if (passwordDecryptor == null) {
+            final PasswordDecryptor[] result = new PasswordDecryptor[1];
+            config.getPasswordDecryptionKey().access(new GuardedByteArray.Accessor() {
+
+                @Override
+                public void access(final byte[] decryptionKey) {
+                    config.getPasswordDecryptionInitializationVector().access(new GuardedByteArray.Accessor() {
+
+                        @Override
+                        public void access(final byte[] decryptionIV) {
+                            result[0] = new PasswordDecryptor(decryptionKey, decryptionIV);
+                        }
+                    });
+                }
+            });
+            passwordDecryptor = result[0];
+        }
+        return passwordDecryptor;
+    }
+
     private static void quietClose(LdapContext ctx) {
         try {
             if (ctx != null) {
@@ -252,6 +434,27 @@ public class LdapConnection {
         }
     }
 
+    /**
+     * Returns the sink of the requests made through this connection, or {@code null} if not configured.
+     */
+    public LdapMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the log of the slow requests, or {@code null} if no slow operation threshold is configured.
+     */
+    public SlowOperationLog getSlowOperationLog() {
+        return slowOperationLog;
+    }
+
+    /**
+     * Returns the search plans computed for the searches made through this connection.
+     */
+    public SearchPlanCache getSearchPlanCache() {
+        return searchPlanCache;
+    }
+
     public LdapSchemaMapping getSchemaMapping() {
         return schemaMapping;
     }
@@ -313,6 +516,162 @@ public class LdapConnection {
         return supportedControls;
     }
 
+    /**
+     * Returns the operational attribute from which the LDAP groups of an entry are read, or {@code null} if the groups
+     * are to be searched for. This is only non-null when enabled in the configuration and the attribute is defined
+     * in the server schema.
+     */
+    public String getMemberOfAttribute() {
+        if (!memberOfAttributeChecked) {
+            if (config.isReadLdapGroupsFromMemberOf()) {
+                memberOfAttribute = detectMemberOfAttribute();
+            }
+            memberOfAttributeChecked = true;
+        }
+        return memberOfAttribute;
+    }
+
+    private String detectMemberOfAttribute() {
+        try {
+            DirContext schemaCtx = getInitialContext().getSchema("");
+            try {
+                for (String attrName : MEMBER_OF_ATTRS) {
+                    try {
+                        schemaCtx.getAttributes("AttributeDefinition/" + attrName);
+                        LOG.ok("Reading LDAP groups from {0}", attrName);
+                        return attrName;
+                    } catch (NameNotFoundException e) {
+                        // Try the next one.
+                    }
+                }
+            } finally {
+                schemaCtx.close();
+            }
+        } catch (NamingException e) {
+            LOG.warn(e, "Exception while looking up the member of attributes in the schema");
+        }
+        LOG.warn("No member of attribute in the schema, searching for LDAP groups instead");
+        return null;
+    }
+
+    /**
+     * Returns {@code true} if the server updates or removes the values of the given attribute referencing an entry
+     * when the entry is renamed or deleted, either because the configuration says so, or because a referential
+     * integrity plugin was found enabled on the server for the attribute, with a scope covering all the configured
+     * base contexts.
+     */
+    public boolean hasReferentialIntegrity(final String attrName) {
+        if (config.isServerReferentialIntegrity()) {
+            return true;
+        }
+        if (referentialIntegrityAttrs == null) {
+            referentialIntegrityAttrs = detectReferentialIntegrityAttrs();
+        }
+        return referentialIntegrityAttrs.contains(attrName);
+    }
+
+    private Set<String> detectReferentialIntegrityAttrs() {
+        Set<String> result = CollectionUtil.newCaseInsensitiveSet();
+        if (supportsCapability(AD_CAPABILITY_OID)) {
+            result.add("member");
+        }
+
+        // The plugin configuration is usually only readable by administrators.
+        List<LdapName> baseContexts = config.getBaseContextsAsLdapNames();
+        try {
+            Attributes attrs = getInitialContext().getAttributes(DS_REFERINT_PLUGIN_DN);
+            if ("on".equalsIgnoreCase(LdapUtil.getStringAttrValue(attrs, "nsslapd-pluginEnabled"))
+                    && isInPluginScope(baseContexts, attrs, "nsslapd-pluginExcludeEntryScope",
+                            "nsslapd-pluginEntryScope", "nsslapd-pluginContainerScope")) {
+
+                result.addAll(LdapUtil.getStringAttrValues(attrs, "referint-membership-attr"));
+                // Older versions and Sun DSEE list the attributes in the plugin arguments, after the update delay
+                // and the log file, which never match an attribute name.
+                NamingEnumeration<? extends Attribute> attrsEnum = attrs.getAll();
+                while (attrsEnum.hasMore()) {
+                    Attribute attr = attrsEnum.next();
+                    if (attr.getID().toLowerCase().startsWith("nsslapd-pluginarg")) {
+                        result.add(attr.get().toString());
+                    }
+                }
+            }
+        } catch (NamingException e) {
+            LOG.ok("No 389-DS or Sun DSEE referential integrity plugin found: {0}", e.getMessage());
+        }
+        try {
+            Attributes attrs = getInitialContext().getAttributes(OPENDJ_REFERINT_PLUGIN_DN);
+            if ("true".equalsIgnoreCase(LdapUtil.getStringAttrValue(attrs, "ds-cfg-enabled"))
+                    && isInPluginScope(baseContexts, attrs, null, "ds-cfg-base-dn")) {
+
+                result.addAll(LdapUtil.getStringAttrValues(attrs, "ds-cfg-attribute-type"));
+            }
+        } catch (NamingException e) {
+            LOG.ok("No OpenDJ referential integrity plugin found: {0}", e.getMessage());
+        }
+
+        LOG.ok("Attributes with server referential integrity: {0}", result);
+        return result;
+    }
+
+    /**
+     * Returns {@code true} if the scope of a referential integrity plugin covers all the given base contexts: each
+     * of them is under one of the DNs of every scope attribute with a value in the plugin configuration, and
+     * neither under nor above any excluded DN. A plugin without a scope covers the whole server.
+     */
+    static boolean isInPluginScope(
+            final List<LdapName> baseContexts,
+            final Attributes pluginAttrs,
+            final String excludeScopeAttr,
+            final String... scopeAttrs) throws InvalidNameException {
+
+        for (String scopeAttr : scopeAttrs) {
+            Set<String> scope = LdapUtil.getStringAttrValues(pluginAttrs, scopeAttr);
+            if (!scope.isEmpty()) {
+                List<LdapName> scopeNames = new ArrayList<LdapName>(scope.size());
+                for (String dn : scope) {
+                    scopeNames.add(new LdapName(dn));
+                }
+                for (LdapName baseContext : baseContexts) {
+                    if (!LdapUtil.isUnderContexts(baseContext, scopeNames)) {
+                        LOG.ok("Base context {0} is out of the {1} of the referential integrity plugin",
+                                baseContext, scopeAttr);
+                        return false;
+                    }
+                }
+            }
+        }
+        if (excludeScopeAttr != null) {
+            for (String dn : LdapUtil.getStringAttrValues(pluginAttrs, excludeScopeAttr)) {
+                LdapName excluded = new LdapName(dn);
+                for (LdapName baseContext : baseContexts) {
+                    if (baseContext.startsWith(excluded) || excluded.startsWith(baseContext)) {
+                        LOG.ok("Base context {0} overlaps the {1} of the referential integrity plugin",
+                                baseContext, excludeScopeAttr);
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns {@code true} if the server advertises the capability with the given OID, as Active Directory does.
+     */
+    public boolean supportsCapability(final String oid) {
+        if (supportedCapabilities == null) {
+            try {
+                Attributes attrs = getInitialContext().getAttributes("", new String[] { "supportedCapabilities" });
+                supportedCapabilities =
+                        Collections.unmodifiableSet(LdapUtil.getStringAttrValues(attrs, "supportedCapabilities"));
+            } catch (NamingException e) {
+                LOG.warn(e, "Exception while retrieving the supported capabilities");
+                supportedCapabilities = Collections.emptySet();
+            }
+        }
+        return supportedCapabilities.contains(oid);
+    }
+
     public ServerType getServerType() {
         if (serverType == null) {
             serverType = detectServerType();
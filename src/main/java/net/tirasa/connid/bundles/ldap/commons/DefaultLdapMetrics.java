@@ -0,0 +1,354 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.commons;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+
+/**
+ * The default {@link LdapMetrics}, keeping counters and a latency histogram in memory for each combination of
+ * connector operation, object class and request type, and the number of operations and of requests they made for
+ * each combination of connector operation and object class. It only uses atomic counters, so recording never blocks.
+ */
+public class DefaultLdapMetrics extends LdapMetrics {
+
+    /**
+     * The number of histogram buckets. Bucket {@code i} counts the requests which took less than
+     * {@code 2^i} microseconds (and at least {@code 2^(i-1)}); the last bucket counts all slower requests.
+     */
+    public static final int BUCKETS = 32;
+
+    private final ConcurrentMap<Key, Statistics> statistics = new ConcurrentHashMap<Key, Statistics>();
+
+    private final ConcurrentMap<Key, OperationStatistics> operationStatistics =
+            new ConcurrentHashMap<Key, OperationStatistics>();
+
+    @Override
+    public void recordOperation(
+            final String operation, final ObjectClass oclass, final long nanos, final int requests) {
+
+        Key key = new Key(operation, oclass, null);
+        OperationStatistics stats = operationStatistics.get(key);
+        if (stats == null) {
+            stats = new OperationStatistics(key);
+            OperationStatistics existing = operationStatistics.putIfAbsent(key, stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+        stats.record(nanos, requests);
+    }
+
+    @Override
+    public void record(
+            final String operation,
+            final ObjectClass oclass,
+            final Request request,
+            final long nanos,
+            final long bytes,
+            final boolean failed) {
+
+        Key key = new Key(operation, oclass, request);
+        Statistics stats = statistics.get(key);
+        if (stats == null) {
+            stats = new Statistics(key);
+            Statistics existing = statistics.putIfAbsent(key, stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+        stats.record(nanos, bytes, failed);
+    }
+
+    /**
+     * Returns the statistics of the given request type made for the given operation and object class, or
+     * {@code null} if there were none.
+     */
+    public Statistics getStatistics(final String operation, final ObjectClass oclass, final Request request) {
+        return statistics.get(new Key(operation, oclass, request));
+    }
+
+    public List<Statistics> getStatistics() {
+        return new ArrayList<Statistics>(statistics.values());
+    }
+
+    /**
+     * Returns the number of requests made for the given operation, or for all operations if {@code null}.
+     */
+    public long getRequestCount(final String operation) {
+        long count = 0;
+        for (Statistics stats : statistics.values()) {
+            if (operation == null || operation.equals(stats.getOperation())) {
+                count += stats.getCount();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the statistics of the given operation for the given object class, or {@code null} if there were none.
+     */
+    public OperationStatistics getOperationStatistics(final String operation, final ObjectClass oclass) {
+        return operationStatistics.get(new Key(operation, oclass, null));
+    }
+
+    public List<OperationStatistics> getOperationStatistics() {
+        return new ArrayList<OperationStatistics>(operationStatistics.values());
+    }
+
+    /**
+     * Returns the average number of requests made by the given operation, for all object classes, or by all
+     * operations if {@code null}; 0 if there were none.
+     */
+    public double getRequestsPerOperation(final String operation) {
+        long count = 0;
+        long requests = 0;
+        for (OperationStatistics stats : operationStatistics.values()) {
+            if (operation == null || operation.equals(stats.getOperation())) {
+                count += stats.getCount();
+                requests += stats.getRequests();
+            }
+        }
+        return count == 0 ? 0 : (double) requests / count;
+    }
+
+    public void reset() {
+        statistics.clear();
+        operationStatistics.clear();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (OperationStatistics stats : operationStatistics.values()) {
+            if (builder.length() > 0) {
+                builder.append('\n');
+            }
+            builder.append(stats);
+        }
+        for (Statistics stats : statistics.values()) {
+            if (builder.length() > 0) {
+                builder.append('\n');
+            }
+            builder.append(stats);
+        }
+        return builder.toString();
+    }
+
+    private static final class Key {
+
+        private final String operation;
+
+        private final ObjectClass oclass;
+
+        /**
+         * The type of request, or {@code null} for the statistics of the operation itself.
+         */
+        private final Request request;
+
+        public Key(final String operation, final ObjectClass oclass, final Request request) {
+            this.operation = operation;
+            this.oclass = oclass;
+            this.request = request;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return operation.equals(other.operation)
+                    && (oclass == null ? other.oclass == null : oclass.equals(other.oclass))
+                    && request == other.request;
+        }
+
+        @Override
+        public int hashCode() {
+            return (operation.hashCode() * 31 + (oclass == null ? 0 : oclass.hashCode())) * 31
+                    + (request == null ? 0 : request.hashCode());
+        }
+    }
+
+    public static final class Statistics {
+
+        private final Key key;
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong failures = new AtomicLong();
+
+        private final AtomicLong bytes = new AtomicLong();
+
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        private Statistics(final Key key) {
+            this.key = key;
+        }
+
+        void record(final long nanos, final long bytes, final boolean failed) {
+            count.incrementAndGet();
+            if (failed) {
+                failures.incrementAndGet();
+            }
+            this.bytes.addAndGet(bytes);
+            totalNanos.addAndGet(nanos);
+            histogram.incrementAndGet(getBucket(nanos));
+        }
+
+        static int getBucket(final long nanos) {
+            long micros = nanos / 1000;
+            int bucket = 64 - Long.numberOfLeadingZeros(micros);
+            return Math.min(bucket, BUCKETS - 1);
+        }
+
+        public String getOperation() {
+            return key.operation;
+        }
+
+        public ObjectClass getObjectClass() {
+            return key.oclass;
+        }
+
+        public Request getRequest() {
+            return key.request;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.get();
+        }
+
+        /**
+         * Returns the request counts of the latency histogram, see {@link DefaultLdapMetrics#BUCKETS}.
+         */
+        public long[] getHistogram() {
+            long[] result = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                result[i] = histogram.get(i);
+            }
+            return result;
+        }
+
+        /**
+         * Returns an upper bound of the given latency percentile in microseconds, from the histogram.
+         */
+        public long getPercentileMicros(final double percentile) {
+            long[] buckets = getHistogram();
+            long total = 0;
+            for (long bucket : buckets) {
+                total += bucket;
+            }
+            long threshold = (long) Math.ceil(percentile / 100 * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= threshold && seen > 0) {
+                    return 1L << i;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return key.operation + " " + (key.oclass == null ? "-" : key.oclass.getObjectClassValue()) + " "
+                    + key.request + ": " + getCount() + " requests, " + getFailures() + " failed, " + getBytes()
+                    + " bytes, " + getTotalNanos() / 1000 + " us, p99 < " + getPercentileMicros(99) + " us";
+        }
+    }
+
+    public static final class OperationStatistics {
+
+        private final Key key;
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong requests = new AtomicLong();
+
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        private OperationStatistics(final Key key) {
+            this.key = key;
+        }
+
+        void record(final long nanos, final int requests) {
+            count.incrementAndGet();
+            this.requests.addAndGet(requests);
+            totalNanos.addAndGet(nanos);
+        }
+
+        public String getOperation() {
+            return key.operation;
+        }
+
+        public ObjectClass getObjectClass() {
+            return key.oclass;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getRequests() {
+            return requests.get();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.get();
+        }
+
+        /**
+         * Returns the average number of requests made by an operation.
+         */
+        public double getRequestsPerOperation() {
+            long operations = getCount();
+            return operations == 0 ? 0 : (double) getRequests() / operations;
+        }
+
+        @Override
+        public String toString() {
+            return key.operation + " " + (key.oclass == null ? "-" : key.oclass.getObjectClassValue()) + ": "
+                    + getCount() + " operations, " + getRequests() + " requests, " + getTotalNanos() / 1000 + " us";
+        }
+    }
+}
@@ -29,18 +29,26 @@ import java.util.Collection;
 
 import static java.util.Collections.singletonList;
 
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
 import javax.naming.directory.AttributeInUseException;
 import javax.naming.directory.BasicAttribute;
 import javax.naming.directory.BasicAttributes;
 import javax.naming.directory.DirContext;
 import javax.naming.directory.ModificationItem;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
 import javax.naming.ldap.LdapName;
 import net.tirasa.connid.bundles.ldap.LdapConnection;
 
@@ -58,8 +66,31 @@ public class GroupHelper {
 
     private static final Log log = Log.getLog(GroupHelper.class);
 
+    /**
+     * The maximum number of member references searched for with one OR filter.
+     */
+    private static final int MEMBER_REFS_PER_SEARCH = 100;
+
+    /**
+     * The Permissive Modify control, which makes the server ignore adding a value already present, or removing a value
+     * not present, instead of failing.
+     */
+    public static final String PERMISSIVE_MODIFY_OID = "1.2.840.113556.1.4.1413";
+
+    /**
+     * The in-chain matching rule of Active Directory, which matches the entries referencing a DN either directly or
+     * through any number of nested entries.
+     */
+    public static final String IN_CHAIN_MATCHING_RULE_OID = "1.2.840.113556.1.4.1941";
+
     private final LdapConnection conn;
 
+    /**
+     * The LDAP groups of the groups seen so far while resolving transitive memberships, so that each group is only
+     * searched for once for the lifetime of this helper.
+     */
+    private final Map<LdapName, List<String>> parentGroups = new HashMap<LdapName, List<String>>();
+
     public GroupHelper(LdapConnection conn) {
         this.conn = conn;
     }
@@ -82,7 +113,7 @@ public class GroupHelper {
         return aliasRef;
     }
     
-    private String getLdapGroupMemberAttribute() {
+    public String getLdapGroupMemberAttribute() {
         String memberAttr = conn.getConfiguration().getGroupMemberAttribute();
         if (memberAttr == null) {
             memberAttr = "uniqueMember"; // For groupOfUniqueNames.
@@ -98,6 +129,14 @@ public class GroupHelper {
     	return memberAttr;
     }
 
+    /**
+     * Returns {@code true} if the server itself updates the LDAP groups referencing an entry when the entry is renamed
+     * or deleted.
+     */
+    public boolean isLdapGroupMembershipMaintainedByServer() {
+        return conn.hasReferentialIntegrity(getLdapGroupMemberAttribute());
+    }
+
     public List<String> getLdapGroups(String entryDN) {
         log.ok("Retrieving LDAP groups for {0}", entryDN);
         String filter = createAttributeFilter(getLdapGroupMemberAttribute(), singletonList(entryDN));
@@ -106,6 +145,79 @@ public class GroupHelper {
         return handler.getResults();
     }
 
+    /**
+     * Returns the LDAP groups listed in the given member of attribute, which may be {@code null}, leaving out the
+     * groups outside the base contexts, like {@link #getLdapGroups(String)} would.
+     */
+    public List<String> getLdapGroups(Attribute memberOf) {
+        if (memberOf == null) {
+            return new ArrayList<String>(0);
+        }
+        List<LdapName> baseContexts = conn.getConfiguration().getBaseContextsAsLdapNames();
+        List<String> result = new ArrayList<String>(memberOf.size());
+        try {
+            NamingEnumeration<?> values = memberOf.getAll();
+            while (values.hasMore()) {
+                String groupDN = values.next().toString();
+                if (LdapUtil.isUnderContexts(LdapUtil.quietCreateLdapName(groupDN), baseContexts)) {
+                    result.add(groupDN);
+                }
+            }
+        } catch (NamingException e) {
+            throw new ConnectorException(e);
+        }
+        return result;
+    }
+
+    /**
+     * Returns {@code true} if the transitive LDAP groups of an entry can be found with a single search through the
+     * in-chain matching rule.
+     */
+    public boolean isInChainSupported() {
+        return conn.supportsCapability(LdapConnection.AD_CAPABILITY_OID);
+    }
+
+    /**
+     * Returns the LDAP groups of the given entry, either direct or nested in other LDAP groups.
+     */
+    public List<String> getTransitiveLdapGroups(String entryDN) {
+        if (isInChainSupported()) {
+            log.ok("Retrieving transitive LDAP groups for {0}", entryDN);
+            String filter = createAttributeFilter(
+                    getLdapGroupMemberAttribute() + ":" + IN_CHAIN_MATCHING_RULE_OID + ":", singletonList(entryDN));
+            ToDNHandler handler = new ToDNHandler();
+            LdapSearches.findEntries(handler, conn, filter);
+            return handler.getResults();
+        }
+        return getTransitiveLdapGroups(getLdapGroups(entryDN));
+    }
+
+    /**
+     * Returns the given LDAP groups, followed by the LDAP groups they are nested in, at any depth. Each group is only
+     * searched for once, and cycles in the group graph are walked once.
+     */
+    public List<String> getTransitiveLdapGroups(List<String> ldapGroups) {
+        List<String> result = new ArrayList<String>();
+        Set<LdapName> visited = new HashSet<LdapName>();
+        LinkedList<String> toVisit = new LinkedList<String>(ldapGroups);
+        while (!toVisit.isEmpty()) {
+            String groupDN = toVisit.removeFirst();
+            LdapName groupName = LdapUtil.quietCreateLdapName(groupDN);
+            if (!visited.add(groupName)) {
+                continue;
+            }
+            result.add(groupDN);
+
+            List<String> parents = parentGroups.get(groupName);
+            if (parents == null) {
+                parents = getLdapGroups(groupDN);
+                parentGroups.put(groupName, parents);
+            }
+            toVisit.addAll(parents);
+        }
+        return result;
+    }
+
     public Set<GroupMembership> getLdapGroupMemberships(String entryDN) {
         log.ok("Retrieving LDAP group memberships for {0}", entryDN);
         String filter = createAttributeFilter(getLdapGroupMemberAttribute(), singletonList(entryDN));
@@ -152,28 +264,41 @@ public class GroupHelper {
 
     public Set<GroupMembership> getPosixGroupMemberships(Collection<String> posixRefAttrs) {
         log.ok("Retrieving POSIX group memberships for {0}", posixRefAttrs);
-        ToGroupMembershipHandler handler = new ToGroupMembershipHandler();
-        for (String posixRefAttr : posixRefAttrs) {
-            String filter = createAttributeFilter("memberUid", singletonList(posixRefAttr));
-            handler.setMemberRef(posixRefAttr);
-            LdapSearches.findEntries(handler, conn, filter);
-        }
-        return handler.getResults();
+        return getGroupMemberships("memberUid", posixRefAttrs);
     }
     
     public Set<GroupMembership> getAliasGroupMemberships(Set<String> aliasRefAttrs) {
     	log.ok("Retrieving Alias group memberships for {0}", aliasRefAttrs);
-    	ToGroupMembershipHandler handler = new ToGroupMembershipHandler();
-        if (aliasRefAttrs != null) {
-            for (String aliasRefAttr : aliasRefAttrs) {
-                String filter = createAttributeFilter(getAliasGroupMemberAttribute(), singletonList(aliasRefAttr));
-                handler.setMemberRef(aliasRefAttr);
-                LdapSearches.findEntries(handler, conn, filter);
-            }
+        if (aliasRefAttrs == null) {
+            return new HashSet<GroupMembership>();
         }
-        return handler.getResults();
+        return getGroupMemberships(getAliasGroupMemberAttribute(), aliasRefAttrs);
 	}
 
+    /**
+     * Returns the memberships of the groups referencing any of the given values through the given member attribute.
+     * A single value is searched for alone; otherwise the values are searched for with one OR filter per
+     * {@link #MEMBER_REFS_PER_SEARCH} values, reading the member attribute of the groups found to tell which values
+     * they reference.
+     */
+    private Set<GroupMembership> getGroupMemberships(String memberAttr, Collection<String> memberRefs) {
+        ToGroupMembershipHandler handler = new ToGroupMembershipHandler();
+        if (memberRefs.size() == 1) {
+            String memberRef = memberRefs.iterator().next();
+            handler.setMemberRef(memberRef);
+            LdapSearches.findEntries(handler, conn, createAttributeFilter(memberAttr, singletonList(memberRef)));
+            return handler.getResults();
+        }
+
+        List<String> refs = new ArrayList<String>(memberRefs);
+        for (int i = 0; i < refs.size(); i += MEMBER_REFS_PER_SEARCH) {
+            List<String> chunk = refs.subList(i, Math.min(refs.size(), i + MEMBER_REFS_PER_SEARCH));
+            handler.setMemberRefs(memberAttr, chunk);
+            LdapSearches.findEntries(handler, conn, createAttributeFilter(memberAttr, chunk), memberAttr);
+        }
+        return handler.getResults();
+    }
+
     public void addPosixGroupMemberships(String posixRefAttr, Collection<String> groupDNs) {
         log.ok("Adding {0} to POSIX groups {1}", posixRefAttr, groupDNs);
         for (String groupDN : groupDNs) {
@@ -255,6 +380,14 @@ public class GroupHelper {
         }
     }
 
+    /**
+     * Whether adding an existing membership or removing a missing one is a no-op, because the group modifications are
+     * sent with the Permissive Modify control. Then the current memberships need not be read to avoid conflicts.
+     */
+    public boolean isPermissiveModify() {
+        return conn.supportsControl(PERMISSIVE_MODIFY_OID);
+    }
+
     private String createAttributeFilter(String memberAttr, Collection<?> memberValues) {
         StringBuilder builder = new StringBuilder();
         boolean multi = memberValues.size() > 1;
@@ -279,7 +412,7 @@ public class GroupHelper {
         ModificationItem item = new ModificationItem(DirContext.ADD_ATTRIBUTE,
                 attr);
         try {
-            conn.getInitialContext().modifyAttributes(groupDN, new ModificationItem[]{item});
+            modifyGroup(groupDN, item);
         } catch (AttributeInUseException e) {
             throw new ConnectorException(conn.format("memberAlreadyInGroup", null, memberValue, groupDN), e);
         } catch (NamingException e) {
@@ -291,12 +424,26 @@ public class GroupHelper {
         BasicAttribute attr = new BasicAttribute(memberAttr, memberValue);
         ModificationItem item = new ModificationItem(DirContext.REMOVE_ATTRIBUTE, attr);
         try {
-            conn.getInitialContext().modifyAttributes(groupDN, new ModificationItem[]{item});
+            modifyGroup(groupDN, item);
         } catch (NamingException e) {
             throw new ConnectorException(e);
         }
     }
 
+    private void modifyGroup(String groupDN, ModificationItem item) throws NamingException {
+        if (isPermissiveModify()) {
+            LdapContext ctx = conn.getInitialContext().newInstance(new Control[] {
+                new BasicControl(PERMISSIVE_MODIFY_OID, Control.NONCRITICAL, null) });
+            try {
+                ctx.modifyAttributes(groupDN, new ModificationItem[] { item });
+            } finally {
+                ctx.close();
+            }
+        } else {
+            conn.getInitialContext().modifyAttributes(groupDN, new ModificationItem[] { item });
+        }
+    }
+
     public static final class GroupMembership {
 
         private final String memberRef;
@@ -426,8 +573,29 @@ public class GroupHelper {
 
         private String memberRef;
 
+        private String memberAttr;
+
+        /**
+         * The searched member references, keyed ignoring case like the member attributes usually match.
+         */
+        private final Map<String, String> memberRefs = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+
         public void setMemberRef(String memberRef) {
             this.memberRef = memberRef;
+            this.memberAttr = null;
+        }
+
+        /**
+         * Makes the handler read the given member attribute of each group found to tell which of the given member
+         * references it contains.
+         */
+        public void setMemberRefs(String memberAttr, Collection<String> memberRefs) {
+            this.memberRef = null;
+            this.memberAttr = memberAttr;
+            this.memberRefs.clear();
+            for (String ref : memberRefs) {
+                this.memberRefs.put(ref, ref);
+            }
         }
 
         @Override
@@ -435,7 +603,16 @@ public class GroupHelper {
                 throws NamingException {
 
             LdapName groupDN = LdapEntry.create(baseDN, searchResult).getDN();
-            results.add(new GroupMembership(memberRef, groupDN.toString()));
+            if (memberAttr == null) {
+                results.add(new GroupMembership(memberRef, groupDN.toString()));
+            } else {
+                for (String value : LdapUtil.getStringAttrValues(searchResult.getAttributes(), memberAttr)) {
+                    String ref = memberRefs.get(value);
+                    if (ref != null) {
+                        results.add(new GroupMembership(ref, groupDN.toString()));
+                    }
+                }
+            }
             return true;
         }
 
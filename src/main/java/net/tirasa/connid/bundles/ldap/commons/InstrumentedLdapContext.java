@@ -0,0 +1,335 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.commons;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.NoSuchElementException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.ModificationItem;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import net.tirasa.connid.bundles.ldap.commons.LdapMetrics.Request;
+import net.tirasa.connid.bundles.ldap.commons.SlowOperationLog.SlowOperation;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+
+/**
+ * Wraps an {@link LdapContext} so that every request made through it is reported to an {@link LdapMetrics}, and
+ * the slow ones to a {@link SlowOperationLog}.
+ *
+ * JNDI does not expose the encoded messages, so the reported bytes are an estimate based on the DNs, attribute
+ * names and values sent or received. Search requests are reported when their results have been read, or when the
+ * enumeration is closed.
+ */
+public final class InstrumentedLdapContext implements InvocationHandler {
+
+    /**
+     * Returns the given context wrapped, or the context itself if neither metrics nor a slow operation log is given.
+     */
+    public static LdapContext wrap(final LdapContext ctx, final LdapMetrics metrics, final SlowOperationLog slowLog) {
+        if (ctx == null || (metrics == null && slowLog == null)) {
+            return ctx;
+        }
+        return (LdapContext) Proxy.newProxyInstance(
+                InstrumentedLdapContext.class.getClassLoader(),
+                new Class<?>[] { LdapContext.class },
+                new InstrumentedLdapContext(ctx, metrics, slowLog));
+    }
+
+    private final LdapContext ctx;
+
+    private final LdapMetrics metrics;
+
+    private final SlowOperationLog slowLog;
+
+    private InstrumentedLdapContext(final LdapContext ctx, final LdapMetrics metrics, final SlowOperationLog slowLog) {
+        this.ctx = ctx;
+        this.metrics = metrics;
+        this.slowLog = slowLog;
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        String name = method.getName();
+        if ("newInstance".equals(name)) {
+            return wrap((LdapContext) invokeTarget(method, args), metrics, slowLog);
+        }
+
+        Request request = getRequest(name);
+        if (request == null) {
+            return invokeTarget(method, args);
+        }
+
+        long bytes = 0;
+        if (metrics != null && args != null && request != Request.BIND) {
+            for (int i = 0; i < args.length; i++) {
+                // The name, the filter or new name, and the attributes or modifications.
+                if (i == 0 || args[i] instanceof String
+                        || args[i] instanceof Attributes || args[i] instanceof ModificationItem[]) {
+                    bytes += size(args[i]);
+                }
+            }
+        }
+
+        Call call = new Call(request, args);
+        Object result;
+        try {
+            result = invokeTarget(method, args);
+        } catch (Throwable t) {
+            call.finish(bytes, -1, true);
+            throw t;
+        }
+
+        if (request == Request.SEARCH) {
+            return new SearchEnumeration((NamingEnumeration<?>) result, call, bytes);
+        }
+        if (result instanceof Attributes) {
+            bytes += size(result);
+        }
+        call.finish(bytes, -1, false);
+        return result;
+    }
+
+    private Object invokeTarget(final Method method, final Object[] args) throws Throwable {
+        try {
+            return method.invoke(ctx, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static Request getRequest(final String methodName) {
+        if ("search".equals(methodName)) {
+            return Request.SEARCH;
+        } else if ("getAttributes".equals(methodName)) {
+            return Request.READ;
+        } else if ("modifyAttributes".equals(methodName)) {
+            return Request.MODIFY;
+        } else if ("createSubcontext".equals(methodName)) {
+            return Request.ADD;
+        } else if ("destroySubcontext".equals(methodName)) {
+            return Request.DELETE;
+        } else if ("rename".equals(methodName)) {
+            return Request.RENAME;
+        } else if ("reconnect".equals(methodName)) {
+            return Request.BIND;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the estimated encoded size of the given name, attributes, modifications or search result.
+     */
+    static long size(final Object object) throws NamingException {
+        if (object == null) {
+            return 0;
+        }
+        if (object instanceof SearchResult) {
+            SearchResult result = (SearchResult) object;
+            return result.getName().length() + size(result.getAttributes());
+        }
+        if (object instanceof Attributes) {
+            long size = 0;
+            NamingEnumeration<? extends Attribute> attrs = ((Attributes) object).getAll();
+            while (attrs.hasMore()) {
+                size += size(attrs.next());
+            }
+            return size;
+        }
+        if (object instanceof ModificationItem[]) {
+            long size = 0;
+            for (ModificationItem item : (ModificationItem[]) object) {
+                size += size(item.getAttribute());
+            }
+            return size;
+        }
+        if (object instanceof Attribute) {
+            Attribute attr = (Attribute) object;
+            long size = attr.getID().length();
+            for (int i = 0; i < attr.size(); i++) {
+                Object value = attr.get(i);
+                if (value instanceof byte[]) {
+                    size += ((byte[]) value).length;
+                } else if (value instanceof char[]) {
+                    size += ((char[]) value).length;
+                } else if (value != null) {
+                    size += value.toString().length();
+                }
+            }
+            return size;
+        }
+        return object.toString().length();
+    }
+
+    /**
+     * A request in progress, with what is needed to report it when done.
+     */
+    private final class Call {
+
+        private final Request request;
+
+        private final String operation = LdapMetrics.getOperation();
+
+        private final ObjectClass oclass = LdapMetrics.getObjectClass();
+
+        private final String name;
+
+        private final String filter;
+
+        private final SearchControls searchControls;
+
+        private final Control[] controls;
+
+        private final Object started;
+
+        private final long start;
+
+        public Call(final Request request, final Object[] args) throws NamingException {
+            this.request = request;
+
+            String name = null;
+            String filter = null;
+            SearchControls searchControls = null;
+            if (args != null && request != Request.BIND) {
+                name = String.valueOf(args[0]);
+                for (int i = 1; i < args.length; i++) {
+                    if (request == Request.SEARCH && filter == null && args[i] instanceof String) {
+                        filter = (String) args[i];
+                    } else if (args[i] instanceof SearchControls) {
+                        searchControls = (SearchControls) args[i];
+                    }
+                }
+            }
+            this.name = name;
+            this.filter = filter;
+            this.searchControls = searchControls;
+            this.controls = slowLog == null ? null : ctx.getRequestControls();
+
+            LdapMetrics.countRequest();
+            this.started = metrics == null ? null : metrics.startRequest(operation, oclass, request);
+            this.start = System.nanoTime();
+        }
+
+        public void finish(final long bytes, final int resultCount, final boolean failed) {
+            long nanos = System.nanoTime() - start;
+            if (metrics != null) {
+                metrics.record(started, operation, oclass, request, name, filter, resultCount, nanos, bytes, failed);
+            }
+            if (slowLog != null && slowLog.isSlow(nanos)) {
+                slowLog.record(new SlowOperation(operation, oclass, request, name, filter, searchControls, controls,
+                        resultCount, nanos, failed));
+            }
+        }
+    }
+
+    private static final class SearchEnumeration implements NamingEnumeration<Object> {
+
+        private final NamingEnumeration<?> delegate;
+
+        private final Call call;
+
+        private long bytes;
+
+        private int count;
+
+        private boolean finished;
+
+        public SearchEnumeration(final NamingEnumeration<?> delegate, final Call call, final long bytes) {
+            this.delegate = delegate;
+            this.call = call;
+            this.bytes = bytes;
+        }
+
+        private void finish(final boolean failed) {
+            if (!finished) {
+                finished = true;
+                call.finish(bytes, count, failed);
+            }
+        }
+
+        @Override
+        public boolean hasMore() throws NamingException {
+            try {
+                boolean hasMore = delegate.hasMore();
+                if (!hasMore) {
+                    finish(false);
+                }
+                return hasMore;
+            } catch (NamingException e) {
+                finish(true);
+                throw e;
+            }
+        }
+
+        @Override
+        public Object next() throws NamingException {
+            try {
+                Object next = delegate.next();
+                count++;
+                bytes += size(next);
+                return next;
+            } catch (NoSuchElementException e) {
+                finish(false);
+                throw e;
+            } catch (NamingException e) {
+                finish(true);
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+            boolean hasMore = delegate.hasMoreElements();
+            if (!hasMore) {
+                finish(false);
+            }
+            return hasMore;
+        }
+
+        @Override
+        public Object nextElement() {
+            Object next = delegate.nextElement();
+            count++;
+            try {
+                bytes += size(next);
+            } catch (NamingException e) {
+                // Only an estimate.
+            }
+            return next;
+        }
+
+        @Override
+        public void close() throws NamingException {
+            finish(false);
+            delegate.close();
+        }
+    }
+}
@@ -36,6 +36,12 @@ public class LdapConstants {
 
     public static final String LDAP_GROUPS_NAME = "ldapGroups";
 
+    /**
+     * The LDAP groups an entry is a member of either directly or through nested groups. Read only: it is ignored
+     * by create and update, which only apply the direct memberships in {@link #LDAP_GROUPS_NAME}.
+     */
+    public static final String TRANSITIVE_LDAP_GROUPS_NAME = "transitiveLdapGroups";
+
     public static final String POSIX_GROUPS_NAME = "posixGroups";
 
     public static final String ALIAS_GROUPS_NAME = "aliasGroups";
@@ -63,6 +69,10 @@ public class LdapConstants {
         return LDAP_GROUPS_NAME.equalsIgnoreCase(attrName);
     }
 
+    public static boolean isTransitiveLdapGroups(String attrName) {
+        return TRANSITIVE_LDAP_GROUPS_NAME.equalsIgnoreCase(attrName);
+    }
+
     public static boolean isPosixGroups(String attrName) {
         return POSIX_GROUPS_NAME.equalsIgnoreCase(attrName);
     }
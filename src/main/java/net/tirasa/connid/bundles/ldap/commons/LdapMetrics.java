@@ -0,0 +1,325 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.commons;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.identityconnectors.common.StringUtil;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+
+/**
+ * A sink for the LDAP requests made by the connector. When configured, every request sent through the
+ * {@code LdapContext}s of the connection is reported with the connector operation and the {@link ObjectClass} it
+ * was made for, see {@link #beginOperation(String, ObjectClass)}.
+ *
+ * Implementations are shared by all connector instances, so they must be thread safe.
+ */
+public abstract class LdapMetrics {
+
+    /**
+     * The operation requests are reported for when no connector operation is in progress on the current thread,
+     * e.g. for the persistent search listener.
+     */
+    public static final String NO_OPERATION = "none";
+
+    public enum Request {
+
+        BIND,
+        SEARCH,
+        READ,
+        ADD,
+        MODIFY,
+        DELETE,
+        RENAME
+
+    }
+
+    private static final ConcurrentMap<String, LdapMetrics> INSTANCES = new ConcurrentHashMap<String, LdapMetrics>();
+
+    private static final ThreadLocal<Scope> SCOPE = new ThreadLocal<Scope>();
+
+    /**
+     * Returns the shared instance of the given class, or {@code null} if no class is given.
+     */
+    public static LdapMetrics getInstance(final String className) {
+        if (StringUtil.isBlank(className)) {
+            return null;
+        }
+
+        LdapMetrics instance = INSTANCES.get(className);
+        if (instance == null) {
+            try {
+                instance = Class.forName(className).asSubclass(LdapMetrics.class).
+                        getDeclaredConstructor().newInstance();
+            } catch (Exception e) {
+                throw new ConnectorException("Could not instantiate metrics " + className, e);
+            }
+            LdapMetrics existing = INSTANCES.putIfAbsent(className, instance);
+            if (existing != null) {
+                instance = existing;
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Marks the start of a connector operation on the current thread. The requests made until
+     * {@link #endOperation(LdapMetrics)} are reported for it.
+     */
+    public static void beginOperation(final String operation, final ObjectClass oclass) {
+        beginOperation(operation, oclass, null);
+    }
+
+    /**
+     * Marks the start of a connector operation on the current thread, and tells the given metrics if any, see
+     * {@link #startOperation(String, ObjectClass)}.
+     */
+    public static void beginOperation(final String operation, final ObjectClass oclass, final LdapMetrics metrics) {
+        Object started = metrics == null ? null : metrics.startOperation(operation, oclass);
+        SCOPE.set(new Scope(operation, oclass, started));
+    }
+
+    /**
+     * Marks the end of the connector operation on the current thread, and reports it to the given metrics if any.
+     */
+    public static void endOperation(final LdapMetrics metrics) {
+        Scope scope = SCOPE.get();
+        SCOPE.remove();
+        if (metrics != null && scope != null) {
+            metrics.recordOperation(scope.started,
+                    scope.operation, scope.oclass, System.nanoTime() - scope.start, scope.requests.get());
+        }
+    }
+
+    public static void endOperation() {
+        endOperation(null);
+    }
+
+    /**
+     * Returns the connector operation in progress on the current thread, or {@code null}. Pass it to
+     * {@link #joinOperation(Scope)} to report the requests made by another thread for the same operation.
+     */
+    public static Scope currentOperation() {
+        return SCOPE.get();
+    }
+
+    /**
+     * Reports the requests made on the current thread for the given operation, until {@link #leaveOperation()}.
+     */
+    public static void joinOperation(final Scope scope) {
+        if (scope == null) {
+            SCOPE.remove();
+        } else {
+            SCOPE.set(scope);
+        }
+    }
+
+    /**
+     * Stops reporting the requests made on the current thread for a joined operation, without ending it.
+     */
+    public static void leaveOperation() {
+        SCOPE.remove();
+    }
+
+    public static String getOperation() {
+        Scope scope = SCOPE.get();
+        return scope == null ? NO_OPERATION : scope.operation;
+    }
+
+    public static ObjectClass getObjectClass() {
+        Scope scope = SCOPE.get();
+        return scope == null ? null : scope.oclass;
+    }
+
+    /**
+     * Counts a request made for the connector operation on the current thread.
+     */
+    public static void countRequest() {
+        Scope scope = SCOPE.get();
+        if (scope != null) {
+            scope.requests.incrementAndGet();
+        }
+    }
+
+    /**
+     * Called when a connector operation starts, before any of its requests is made. Returns {@code null} by default.
+     *
+     * @param operation the connector operation.
+     * @param oclass the object class of the operation, or {@code null} if the operation has none.
+     * @return an object passed back to {@link #recordOperation(Object, String, ObjectClass, long, int)} when the
+     * operation completes.
+     */
+    public Object startOperation(final String operation, final ObjectClass oclass) {
+        return null;
+    }
+
+    /**
+     * Records a completed connector operation started with {@link #startOperation(String, ObjectClass)}. By default
+     * only the operation, time and number of requests are recorded, see
+     * {@link #recordOperation(String, ObjectClass, long, int)}.
+     *
+     * @param started what {@link #startOperation(String, ObjectClass)} returned, {@code null} if it was not called.
+     * @param operation the connector operation.
+     * @param oclass the object class of the operation, or {@code null} if the operation has none.
+     * @param nanos the time taken by the operation.
+     * @param requests the number of LDAP requests made by the operation.
+     */
+    public void recordOperation(
+            final Object started,
+            final String operation,
+            final ObjectClass oclass,
+            final long nanos,
+            final int requests) {
+
+        recordOperation(operation, oclass, nanos, requests);
+    }
+
+    /**
+     * Records a completed connector operation. Does nothing by default.
+     *
+     * @param operation the connector operation.
+     * @param oclass the object class of the operation, or {@code null} if the operation has none.
+     * @param nanos the time taken by the operation.
+     * @param requests the number of LDAP requests made by the operation.
+     */
+    public void recordOperation(
+            final String operation, final ObjectClass oclass, final long nanos, final int requests) {
+        // Nothing to do.
+    }
+
+    /**
+     * Called when a request is about to be sent. Returns {@code null} by default.
+     *
+     * @param operation the connector operation the request is made for.
+     * @param oclass the object class of the operation, or {@code null} if the operation has none.
+     * @param request the type of request.
+     * @return an object passed back to
+     * {@link #record(Object, String, ObjectClass, Request, String, String, int, long, long, boolean)} when the
+     * request completes.
+     */
+    public Object startRequest(final String operation, final ObjectClass oclass, final Request request) {
+        return null;
+    }
+
+    /**
+     * Records a completed request started with {@link #startRequest(String, ObjectClass, Request)}. By default
+     * the request is recorded with
+     * {@link #record(String, ObjectClass, Request, String, String, int, long, long, boolean)}.
+     *
+     * @param started what {@link #startRequest(String, ObjectClass, Request)} returned.
+     * @param operation the connector operation the request was made for.
+     * @param oclass the object class of the operation, or {@code null} if the operation has none.
+     * @param request the type of request.
+     * @param name the base DN of a search, the entry DN of other requests, or {@code null} for a bind.
+     * @param filter the filter of a search, otherwise {@code null}.
+     * @param entryCount the number of entries returned by a search, otherwise -1.
+     * @param nanos the time taken by the request, including reading all search results.
+     * @param bytes the estimated size of the DNs and attribute values sent or received.
+     * @param failed whether the request failed.
+     */
+    public void record(
+            final Object started,
+            final String operation,
+            final ObjectClass oclass,
+            final Request request,
+            final String name,
+            final String filter,
+            final int entryCount,
+            final long nanos,
+            final long bytes,
+            final boolean failed) {
+
+        record(operation, oclass, request, name, filter, entryCount, nanos, bytes, failed);
+    }
+
+    /**
+     * Records a completed request with its details. By default only the request type, time, size and outcome are
+     * recorded, see {@link #record(String, ObjectClass, Request, long, long, boolean)}.
+     *
+     * @param operation the connector operation the request was made for.
+     * @param oclass the object class of the operation, or {@code null} if the operation has none.
+     * @param request the type of request.
+     * @param name the base DN of a search, the entry DN of other requests, or {@code null} for a bind.
+     * @param filter the filter of a search, otherwise {@code null}.
+     * @param entryCount the number of entries returned by a search, otherwise -1.
+     * @param nanos the time taken by the request, including reading all search results.
+     * @param bytes the estimated size of the DNs and attribute values sent or received.
+     * @param failed whether the request failed.
+     */
+    public void record(
+            final String operation,
+            final ObjectClass oclass,
+            final Request request,
+            final String name,
+            final String filter,
+            final int entryCount,
+            final long nanos,
+            final long bytes,
+            final boolean failed) {
+
+        record(operation, oclass, request, nanos, bytes, failed);
+    }
+
+    /**
+     * Records a completed request.
+     *
+     * @param operation the connector operation the request was made for.
+     * @param oclass the object class of the operation, or {@code null} if the operation has none.
+     * @param request the type of request.
+     * @param nanos the time taken by the request, including reading all search results.
+     * @param bytes the estimated size of the DNs and attribute values sent or received.
+     * @param failed whether the request failed.
+     */
+    public abstract void record(
+            String operation,
+            ObjectClass oclass,
+            Request request,
+            long nanos,
+            long bytes,
+            boolean failed);
+
+    public static final class Scope {
+
+        private final String operation;
+
+        private final ObjectClass oclass;
+
+        private final long start = System.nanoTime();
+
+        private final AtomicInteger requests = new AtomicInteger();
+
+        /**
+         * What the metrics returned when the operation started, see {@link LdapMetrics#startOperation}.
+         */
+        private final Object started;
+
+        private Scope(final String operation, final ObjectClass oclass, final Object started) {
+            this.operation = operation;
+            this.oclass = oclass;
+            this.started = started;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.commons;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * The LDAP Post-Read request control (RFC 4527, 1.3.6.1.1.13.2), asking the server to return some attributes of the
+ * entry as it is after an add, modify or modify DN request.
+ *
+ * The control value is the BER encoding of:
+ * <pre>
+ * AttributeSelection ::= SEQUENCE OF selector LDAPString
+ * </pre>
+ * The response control value is the entry, encoded as a {@code SearchResultEntry}; see {@link #getEntry(Control[])}.
+ */
+public class PostReadControl extends BasicControl {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String OID = "1.3.6.1.1.13.2";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static final int TAG_OCTET_STRING = 0x04;
+
+    static final int TAG_SEQUENCE = 0x30;
+
+    static final int TAG_SET = 0x31;
+
+    static final int TAG_SEARCH_RESULT_ENTRY = 0x64;
+
+    public PostReadControl(final String[] attributes, final boolean criticality) {
+        super(OID, criticality, encodeValue(attributes));
+    }
+
+    static byte[] encodeValue(final String[] attributes) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (String attribute : attributes) {
+            encode(TAG_OCTET_STRING, attribute.getBytes(UTF8), content);
+        }
+
+        ByteArrayOutputStream value = new ByteArrayOutputStream();
+        encode(TAG_SEQUENCE, content.toByteArray(), value);
+        return value.toByteArray();
+    }
+
+    private static void encode(final int tag, final byte[] content, final ByteArrayOutputStream out) {
+        out.write(tag);
+        int length = content.length;
+        if (length < 0x80) {
+            out.write(length);
+        } else {
+            int count = 0;
+            for (int l = length; l > 0; l >>= 8) {
+                count++;
+            }
+            out.write(0x80 | count);
+            for (int i = count - 1; i >= 0; i--) {
+                out.write(length >> (i * 8));
+            }
+        }
+        out.write(content, 0, content.length);
+    }
+
+    /**
+     * Returns the attributes of the entry in the Post-Read response control among the given ones, or {@code null} if
+     * there is none. JNDI does not know this control, so it is returned as a generic control to decode here. The
+     * values are returned as strings.
+     */
+    public static Attributes getEntry(final Control[] controls) {
+        if (controls != null) {
+            for (Control control : controls) {
+                if (OID.equals(control.getID())) {
+                    return decode(control.getEncodedValue());
+                }
+            }
+        }
+        return null;
+    }
+
+    static Attributes decode(final byte[] value) {
+        Reader reader = new Reader(value);
+        Reader entry = new Reader(reader.read(TAG_SEARCH_RESULT_ENTRY));
+        // The DN of the entry, which is known to the caller.
+        entry.read(TAG_OCTET_STRING);
+
+        Attributes result = new BasicAttributes(true);
+        Reader attributes = new Reader(entry.read(TAG_SEQUENCE));
+        while (attributes.hasMore()) {
+            Reader partialAttribute = new Reader(attributes.read(TAG_SEQUENCE));
+            Attribute attribute = new BasicAttribute(new String(partialAttribute.read(TAG_OCTET_STRING), UTF8));
+            Reader values = new Reader(partialAttribute.read(TAG_SET));
+            while (values.hasMore()) {
+                attribute.add(new String(values.read(TAG_OCTET_STRING), UTF8));
+            }
+            result.put(attribute);
+        }
+        return result;
+    }
+
+    private static final class Reader {
+
+        private final byte[] bytes;
+
+        private int offset;
+
+        Reader(final byte[] bytes) {
+            if (bytes == null) {
+                throw new ConnectorException("Empty Post-Read response control");
+            }
+            this.bytes = bytes;
+        }
+
+        boolean hasMore() {
+            return offset < bytes.length;
+        }
+
+        byte[] read(final int tag) {
+            if (readByte() != tag) {
+                throw new ConnectorException("Unexpected BER tag in Post-Read response control");
+            }
+            int length = readByte();
+            if ((length & 0x80) != 0) {
+                int count = length & 0x7F;
+                if (count == 0 || count > 4) {
+                    throw new ConnectorException("Invalid BER length in Post-Read response control");
+                }
+                length = 0;
+                for (int i = 0; i < count; i++) {
+                    length = (length << 8) | readByte();
+                }
+            }
+            if (length < 0 || offset + length > bytes.length) {
+                throw new ConnectorException("Truncated Post-Read response control");
+            }
+            byte[] content = Arrays.copyOfRange(bytes, offset, offset + length);
+            offset += length;
+            return content;
+        }
+
+        private int readByte() {
+            if (offset >= bytes.length) {
+                throw new ConnectorException("Truncated Post-Read response control");
+            }
+            return bytes[offset++] & 0xFF;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.commons;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.Rdn;
+import net.tirasa.connid.bundles.ldap.LdapConnection;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * Reads attributes whose values the server returns in ranges, as Active Directory does with
+ * {@code member;range=0-1499} for attributes with more values than its MaxValRange, and computes incremental
+ * modifications of DN-valued attributes, so that large group member lists are not replaced as a whole.
+ */
+public final class RangedAttributes {
+
+    private static final Log LOG = Log.getLog(RangedAttributes.class);
+
+    private static final String RANGE_OPTION = ";range=";
+
+    private RangedAttributes() {
+    }
+
+    /**
+     * Receives the values of a ranged attribute one range at a time, see
+     * {@link RangedAttributes#read(LdapConnection, String, Attributes, String, RangeHandler)}.
+     */
+    public interface RangeHandler {
+
+        /**
+         * Handles a range of values, or all the values of an attribute the server did not return in ranges.
+         *
+         * @return whether to read the next range, if any.
+         */
+        boolean handle(Attribute range) throws NamingException;
+    }
+
+    /**
+     * Passes the given attribute of an entry to the handler one range at a time, reading the remaining ranges from
+     * the server if the search returned only the first range of its values, so that the values are never all held
+     * at once. The remaining ranges are read through a new context sharing the connection, since this may be called
+     * while the search is still being read on another thread.
+     *
+     * @return {@code false} if the attribute is not in the given attributes.
+     */
+    public static boolean read(
+            final LdapConnection conn,
+            final String entryDN,
+            final Attributes attrs,
+            final String attrName,
+            final RangeHandler handler) {
+
+        try {
+            Attribute attr = attrs.get(attrName);
+            if (attr != null) {
+                handler.handle(attr);
+                return true;
+            }
+            Attribute range = findRange(attrs, attrName);
+            if (range == null) {
+                return false;
+            }
+
+            LdapContext ctx = null;
+            try {
+                while (handler.handle(range)) {
+                    String high = range.getID().substring(range.getID().lastIndexOf('-') + 1);
+                    if ("*".equals(high)) {
+                        break;
+                    }
+                    String next;
+                    try {
+                        next = attrName + RANGE_OPTION + (Long.parseLong(high) + 1) + "-*";
+                    } catch (NumberFormatException e) {
+                        throw new ConnectorException("Invalid range " + range.getID(), e);
+                    }
+                    if (ctx == null) {
+                        ctx = conn.getInitialContext().newInstance(null);
+                    }
+                    LOG.ok("Reading {0} of {1}", next, entryDN);
+                    range = findRange(ctx.getAttributes(entryDN, new String[] { next }), attrName);
+                    if (range == null) {
+                        break;
+                    }
+                }
+            } finally {
+                quietClose(ctx);
+            }
+            return true;
+        } catch (NamingException e) {
+            throw new ConnectorException(e);
+        }
+    }
+
+    /**
+     * Returns the modifications turning the current values of a DN-valued attribute of an entry into the given ones:
+     * a removal of the values no longer present and an addition of the new values, either of which may be missing.
+     * Values are compared as normalized DNs, see {@link #normalizeDN(String)}, and the current values are read one
+     * range at a time.
+     */
+    public static List<ModificationItem> getIncrementalModifications(
+            final LdapConnection conn, final String entryDN, final Attribute newAttr) {
+
+        final String attrName = newAttr.getID();
+        try {
+            // The new values not yet found among the current ones, by normalized DN.
+            final Map<String, Object> added = new LinkedHashMap<String, Object>();
+            NamingEnumeration<?> newEnum = newAttr.getAll();
+            while (newEnum.hasMore()) {
+                Object value = newEnum.next();
+                added.put(normalizeDN(value.toString()), value);
+            }
+            final Set<String> newValues = new HashSet<String>(added.keySet());
+
+            final Attribute removed = new BasicAttribute(attrName);
+            read(conn, entryDN, conn.getInitialContext().getAttributes(entryDN, new String[] { attrName }), attrName,
+                    new RangeHandler() {
+
+                @Override
+                public boolean handle(final Attribute range) throws NamingException {
+                    NamingEnumeration<?> currentEnum = range.getAll();
+                    while (currentEnum.hasMore()) {
+                        Object value = currentEnum.next();
+                        String normalized = normalizeDN(value.toString());
+                        if (newValues.contains(normalized)) {
+                            added.remove(normalized);
+                        } else {
+                            removed.add(value);
+                        }
+                    }
+                    return true;
+                }
+            });
+
+            List<ModificationItem> result = new ArrayList<ModificationItem>(2);
+            if (removed.size() > 0) {
+                result.add(new ModificationItem(DirContext.REMOVE_ATTRIBUTE, removed));
+            }
+            if (!added.isEmpty()) {
+                Attribute addedAttr = new BasicAttribute(attrName);
+                for (Object value : added.values()) {
+                    addedAttr.add(value);
+                }
+                result.add(new ModificationItem(DirContext.ADD_ATTRIBUTE, addedAttr));
+            }
+            return result;
+        } catch (NamingException e) {
+            throw new ConnectorException(e);
+        }
+    }
+
+    /**
+     * Returns a string which is the same for DNs differing only in case or in spaces around the separators. Only the
+     * DNs with escaped characters, quotes or multi-valued RDNs are parsed.
+     */
+    static String normalizeDN(final String dn) {
+        if (dn.indexOf('\\') >= 0 || dn.indexOf('"') >= 0 || dn.indexOf('+') >= 0) {
+            List<Rdn> rdns = LdapUtil.quietCreateLdapName(dn).getRdns();
+            StringBuilder builder = new StringBuilder(dn.length());
+            for (int i = rdns.size() - 1; i >= 0; i--) {
+                if (builder.length() > 0) {
+                    builder.append(',');
+                }
+                builder.append(rdns.get(i).toString());
+            }
+            return builder.toString().toLowerCase(Locale.ENGLISH);
+        }
+
+        String trimmed = dn.trim();
+        StringBuilder builder = new StringBuilder(trimmed.length());
+        for (int i = 0; i < trimmed.length(); i++) {
+            char c = trimmed.charAt(i);
+            if (c == ' ') {
+                int next = i + 1;
+                while (next < trimmed.length() && trimmed.charAt(next) == ' ') {
+                    next++;
+                }
+                char last = builder.length() == 0 ? ',' : builder.charAt(builder.length() - 1);
+                char following = trimmed.charAt(next);
+                if (last == ',' || last == '=' || following == ',' || following == '=') {
+                    i = next - 1;
+                    continue;
+                }
+            }
+            builder.append(Character.toLowerCase(c));
+        }
+        return builder.toString();
+    }
+
+    private static void quietClose(final LdapContext ctx) {
+        try {
+            if (ctx != null) {
+                ctx.close();
+            }
+        } catch (NamingException e) {
+            LOG.warn(e, null);
+        }
+    }
+
+    private static Attribute findRange(final Attributes attrs, final String attrName) {
+        String prefix = attrName.toLowerCase() + RANGE_OPTION;
+        NamingEnumeration<? extends Attribute> attrEnum = attrs.getAll();
+        while (attrEnum.hasMoreElements()) {
+            Attribute attr = attrEnum.nextElement();
+            if (attr.getID().toLowerCase().startsWith(prefix)) {
+                return attr;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,248 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.commons;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.naming.directory.SearchControls;
+import javax.naming.ldap.Control;
+import net.tirasa.connid.bundles.ldap.commons.LdapMetrics.Request;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+
+/**
+ * Keeps the LDAP requests which took longer than a threshold in a bounded ring buffer, and logs them at info level,
+ * so that e.g. the filters which need a server index can be found without enabling debug logging.
+ */
+public class SlowOperationLog {
+
+    private static final Log LOG = Log.getLog(SlowOperationLog.class);
+
+    private final long thresholdNanos;
+
+    private final AtomicReferenceArray<SlowOperation> operations;
+
+    private final AtomicLong next = new AtomicLong();
+
+    public SlowOperationLog(final long thresholdMillis, final int size) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.operations = new AtomicReferenceArray<SlowOperation>(size);
+    }
+
+    public boolean isSlow(final long nanos) {
+        return nanos >= thresholdNanos;
+    }
+
+    public void record(final SlowOperation operation) {
+        if (!isSlow(operation.getNanos())) {
+            return;
+        }
+        LOG.info("Slow LDAP request: {0}", operation);
+        int index = (int) (next.getAndIncrement() % operations.length());
+        operations.set(index, operation);
+    }
+
+    /**
+     * Returns the recorded requests, from the oldest to the most recent.
+     */
+    public List<SlowOperation> getOperations() {
+        int size = operations.length();
+        long end = next.get();
+        List<SlowOperation> result = new ArrayList<SlowOperation>(size);
+        for (long i = Math.max(0, end - size); i < end; i++) {
+            SlowOperation operation = operations.get((int) (i % size));
+            if (operation != null) {
+                result.add(operation);
+            }
+        }
+        return result;
+    }
+
+    public void clear() {
+        for (int i = 0; i < operations.length(); i++) {
+            operations.set(i, null);
+        }
+        next.set(0);
+    }
+
+    public static final class SlowOperation {
+
+        private final long timestamp = System.currentTimeMillis();
+
+        private final String operation;
+
+        private final ObjectClass oclass;
+
+        private final Request request;
+
+        private final String name;
+
+        private final String filter;
+
+        private final SearchControls searchControls;
+
+        private final Control[] controls;
+
+        private final int resultCount;
+
+        private final long nanos;
+
+        private final boolean failed;
+
+        public SlowOperation(
+                final String operation,
+                final ObjectClass oclass,
+                final Request request,
+                final String name,
+                final String filter,
+                final SearchControls searchControls,
+                final Control[] controls,
+                final int resultCount,
+                final long nanos,
+                final boolean failed) {
+
+            this.operation = operation;
+            this.oclass = oclass;
+            this.request = request;
+            this.name = name;
+            this.filter = filter;
+            this.searchControls = searchControls;
+            this.controls = controls;
+            this.resultCount = resultCount;
+            this.nanos = nanos;
+            this.failed = failed;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public ObjectClass getObjectClass() {
+            return oclass;
+        }
+
+        public Request getRequest() {
+            return request;
+        }
+
+        /**
+         * Returns the base DN of a search, or the entry DN of any other request.
+         */
+        public String getName() {
+            return name;
+        }
+
+        public String getFilter() {
+            return filter;
+        }
+
+        public String getScope() {
+            if (searchControls == null) {
+                return null;
+            }
+            switch (searchControls.getSearchScope()) {
+                case SearchControls.OBJECT_SCOPE:
+                    return "OBJECT";
+
+                case SearchControls.ONELEVEL_SCOPE:
+                    return "ONELEVEL";
+
+                case SearchControls.SUBTREE_SCOPE:
+                default:
+                    return "SUBTREE";
+            }
+        }
+
+        public List<String> getAttributes() {
+            return searchControls == null || searchControls.getReturningAttributes() == null
+                    ? null
+                    : Arrays.asList(searchControls.getReturningAttributes());
+        }
+
+        /**
+         * Returns the OIDs of the request controls.
+         */
+        public List<String> getControls() {
+            List<String> result = new ArrayList<String>();
+            if (controls != null) {
+                for (Control control : controls) {
+                    result.add(control.getID());
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Returns the number of entries returned by a search, or -1 for other requests.
+         */
+        public int getResultCount() {
+            return resultCount;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public boolean isFailed() {
+            return failed;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(request).append(' ').append(name);
+            if (filter != null) {
+                builder.append(" filter=").append(filter);
+            }
+            if (searchControls != null) {
+                builder.append(" scope=").append(getScope()).append(" attributes=").append(getAttributes());
+            }
+            if (controls != null && controls.length > 0) {
+                builder.append(" controls=").append(getControls());
+            }
+            if (resultCount >= 0) {
+                builder.append(" results=").append(resultCount);
+            }
+            builder.append(" took ").append(TimeUnit.NANOSECONDS.toMillis(nanos)).append(" ms");
+            if (failed) {
+                builder.append(" and failed");
+            }
+            builder.append(" (operation ").append(operation);
+            if (oclass != null) {
+                builder.append(' ').append(oclass.getObjectClassValue());
+            }
+            builder.append(" at ").append(new Date(timestamp)).append(')');
+            return builder.toString();
+        }
+    }
+}
@@ -37,6 +37,7 @@ import net.tirasa.connid.bundles.ldap.commons.StatusManagement;
 import net.tirasa.connid.bundles.ldap.schema.GuardedPasswordAttribute;
 import net.tirasa.connid.bundles.ldap.schema.GuardedPasswordAttribute.Accessor;
 import org.identityconnectors.common.CollectionUtil;
+import org.identityconnectors.common.Pair;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.objects.Attribute;
@@ -100,6 +101,8 @@ public class LdapCreate extends LdapModifyOperation {
             } else if (LdapConstants.isLdapGroups(attr.getName())) {
                 ldapGroups.addAll(
                         LdapUtil.checkedListByFilter(CollectionUtil.nullAsEmpty(attr.getValue()), String.class));
+            } else if (LdapConstants.isTransitiveLdapGroups(attr.getName())) {
+                // Read only.
             } else if (LdapConstants.isPosixGroups(attr.getName())) {
                 posixGroups.addAll(
                         LdapUtil.checkedListByFilter(CollectionUtil.nullAsEmpty(attr.getValue()), String.class));
@@ -142,6 +145,7 @@ public class LdapCreate extends LdapModifyOperation {
         }
 
         final String[] entryDN = { null };
+        final Uid[] uid = { null };
         if (pwdAttr != null) {
             pwdAttr.access(new Accessor() {
 
@@ -149,11 +153,15 @@ public class LdapCreate extends LdapModifyOperation {
                 public void access(javax.naming.directory.Attribute passwordAttr) {
                     hashPassword(passwordAttr, null);
                     ldapAttrs.put(passwordAttr);
-                    entryDN[0] = conn.getSchemaMapping().create(oclass, nameAttr, ldapAttrs);
+                    Pair<String, Uid> entry = conn.getSchemaMapping().createEntry(oclass, nameAttr, ldapAttrs);
+                    entryDN[0] = entry.first;
+                    uid[0] = entry.second;
                 }
             });
         } else {
-            entryDN[0] = conn.getSchemaMapping().create(oclass, nameAttr, ldapAttrs);
+            Pair<String, Uid> entry = conn.getSchemaMapping().createEntry(oclass, nameAttr, ldapAttrs);
+            entryDN[0] = entry.first;
+            uid[0] = entry.second;
         }
 
         if (!CollectionUtil.isEmpty(ldapGroups)) {
@@ -172,6 +180,6 @@ public class LdapCreate extends LdapModifyOperation {
             groupHelper.addAliasGroupMemberships(aliasRefAttr, aliasGroups);
         }
 
-        return conn.getSchemaMapping().createUid(oclass, entryDN[0]);
+        return uid[0] == null ? conn.getSchemaMapping().createUid(oclass, entryDN[0]) : uid[0];
     }
 }
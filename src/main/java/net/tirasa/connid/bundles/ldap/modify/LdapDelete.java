@@ -50,7 +50,8 @@ public class LdapDelete extends LdapModifyOperation {
     public void execute() {
         String entryDN = LdapSearches.getEntryDN(conn, oclass, uid);
 
-        if (conn.getConfiguration().isMaintainLdapGroupMembership()) {
+        if (conn.getConfiguration().isMaintainLdapGroupMembership()
+                && !groupHelper.isLdapGroupMembershipMaintainedByServer()) {
             List<String> ldapGroups = groupHelper.getLdapGroups(entryDN);
             groupHelper.removeLdapGroupMemberships(entryDN, ldapGroups);
         }
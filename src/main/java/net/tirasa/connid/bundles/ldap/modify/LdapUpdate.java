@@ -57,6 +57,7 @@ import net.tirasa.connid.bundles.ldap.commons.GroupHelper.Modification;
 import net.tirasa.connid.bundles.ldap.commons.LdapConstants;
 import net.tirasa.connid.bundles.ldap.commons.LdapModifyOperation;
 import net.tirasa.connid.bundles.ldap.commons.LdapUtil;
+import net.tirasa.connid.bundles.ldap.commons.RangedAttributes;
 import net.tirasa.connid.bundles.ldap.commons.StatusManagement;
 import net.tirasa.connid.bundles.ldap.schema.GuardedPasswordAttribute;
 import net.tirasa.connid.bundles.ldap.schema.GuardedPasswordAttribute.Accessor;
@@ -140,8 +141,8 @@ public class LdapUpdate extends LdapModifyOperation {
                             ldapGroups);
         }
 
-        // Update the attributes.
-        modifyAttributes(entryDN, attrToModify, DirContext.REPLACE_ATTRIBUTE);
+        // Update the attributes, reading the Uid along if possible.
+        Uid newUid = modifyAttributes(entryDN, attrToModify, DirContext.REPLACE_ATTRIBUTE, true);
 
         // Rename the entry if needed.
         String oldEntryDN = null;
@@ -155,13 +156,17 @@ public class LdapUpdate extends LdapModifyOperation {
             	aliasMember.getAliasRefAttributes();
             }
             oldEntryDN = entryDN;
-            entryDN = conn.getSchemaMapping().rename(oclass, oldEntryDN, newName);
+            // The Uid read when modifying may be changed by the rename.
+            Pair<String, Uid> renamed = conn.getSchemaMapping().renameEntry(oclass, oldEntryDN, newName);
+            entryDN = renamed.first;
+            newUid = renamed.second;
         }
 
         // Update the LDAP groups.
         final Modification<GroupMembership> ldapGroupMod = new Modification<GroupMembership>();
 
-        if (oldEntryDN != null && conn.getConfiguration().isMaintainLdapGroupMembership()) {
+        if (oldEntryDN != null && conn.getConfiguration().isMaintainLdapGroupMembership()
+                && !groupHelper.isLdapGroupMembershipMaintainedByServer()) {
             Set<GroupMembership> members = groupHelper.getLdapGroupMemberships(oldEntryDN);
             ldapGroupMod.removeAll(members);
             for (GroupMembership member : members) {
@@ -170,6 +175,8 @@ public class LdapUpdate extends LdapModifyOperation {
         }
 
         if (ldapGroups != null) {
+            // Only the memberships the new DN already has on the server: the ones moved from the old DN above are
+            // still pending, and removing them too would cancel out the groups which are kept.
             Set<GroupMembership> members = groupHelper.getLdapGroupMemberships(entryDN);
             ldapGroupMod.removeAll(members);
             ldapGroupMod.clearAdded(); // Since we will be replacing with the new groups.
@@ -240,7 +247,7 @@ public class LdapUpdate extends LdapModifyOperation {
         
         groupHelper.modifyAliasGroupMemberships(aliasGroupMod);
 
-        return conn.getSchemaMapping().createUid(oclass, entryDN);
+        return newUid == null ? conn.getSchemaMapping().createUid(oclass, entryDN) : newUid;
     }
 
     public Uid addAttributeValues(final Set<Attribute> attrs) {
@@ -248,7 +255,7 @@ public class LdapUpdate extends LdapModifyOperation {
         PosixGroupMember posixMember = new PosixGroupMember(entryDN);
 
         Pair<Attributes, GuardedPasswordAttribute> attrsToModify = getAttributesToModify(attrs);
-        modifyAttributes(entryDN, attrsToModify, DirContext.ADD_ATTRIBUTE);
+        modifyAttributes(entryDN, attrsToModify, DirContext.ADD_ATTRIBUTE, false);
 
         List<String> ldapGroups = getStringListValue(attrs, LdapConstants.LDAP_GROUPS_NAME);
         if (!CollectionUtil.isEmpty(ldapGroups)) {
@@ -277,7 +284,7 @@ public class LdapUpdate extends LdapModifyOperation {
             checkRemovedPosixRefAttrs(removedPosixRefAttrs, posixMember.getPosixGroupMemberships());
         }
 
-        modifyAttributes(entryDN, attrsToModify, DirContext.REMOVE_ATTRIBUTE);
+        modifyAttributes(entryDN, attrsToModify, DirContext.REMOVE_ATTRIBUTE, false);
 
         List<String> ldapGroups = getStringListValue(attrs, LdapConstants.LDAP_GROUPS_NAME);
         if (!CollectionUtil.isEmpty(ldapGroups)) {
@@ -326,6 +333,8 @@ public class LdapUpdate extends LdapModifyOperation {
                 throw new IllegalArgumentException("Unable to modify an object's name");
             } else if (LdapConstants.isLdapGroups(attr.getName())) {
                 // Handled elsewhere.
+            } else if (LdapConstants.isTransitiveLdapGroups(attr.getName())) {
+                // Read only.
             } else if (LdapConstants.isPosixGroups(attr.getName())) {
                 // Handled elsewhere.
             } else if (LdapConstants.isAliasGroups(attr.getName())) {
@@ -364,15 +373,27 @@ public class LdapUpdate extends LdapModifyOperation {
         return new Pair<Attributes, GuardedPasswordAttribute>(ldapAttrs, pwdAttr);
     }
     
-    private void modifyAttributes(final String entryDN, Pair<Attributes, GuardedPasswordAttribute> attrs,
-            final int ldapModifyOp) {
+    /**
+     * @return the {@link Uid} of the entry after the modification if {@code readUid} and the server returned it,
+     * otherwise {@code null}.
+     */
+    private Uid modifyAttributes(final String entryDN, Pair<Attributes, GuardedPasswordAttribute> attrs,
+            final int ldapModifyOp, final boolean readUid) {
 
         final List<ModificationItem> modItems = new ArrayList<ModificationItem>(attrs.first.size());
         NamingEnumeration<? extends javax.naming.directory.Attribute> attrEnum = attrs.first.getAll();
         while (attrEnum.hasMoreElements()) {
-            modItems.add(new ModificationItem(ldapModifyOp, attrEnum.nextElement()));
+            javax.naming.directory.Attribute attr = attrEnum.nextElement();
+            if (ldapModifyOp == DirContext.REPLACE_ATTRIBUTE
+                    && attr.getID().equalsIgnoreCase(groupHelper.getLdapGroupMemberAttribute())) {
+                // Only send the changed members instead of the whole, possibly huge, list.
+                modItems.addAll(RangedAttributes.getIncrementalModifications(conn, entryDN, attr));
+            } else {
+                modItems.add(new ModificationItem(ldapModifyOp, attr));
+            }
         }
 
+        final Uid[] uid = { null };
         if (attrs.second != null) {
             attrs.second.access(new Accessor() {
 
@@ -381,17 +402,23 @@ public class LdapUpdate extends LdapModifyOperation {
                     // Do not add the password to the result Attributes because it is a guarded value.
                     hashPassword(passwordAttr, entryDN);
                     modItems.add(new ModificationItem(ldapModifyOp, passwordAttr));
-                    modifyAttributes(entryDN, modItems);
+                    uid[0] = modifyAttributes(entryDN, modItems, readUid);
                 }
             });
         } else {
-            modifyAttributes(entryDN, modItems);
+            uid[0] = modifyAttributes(entryDN, modItems, readUid);
         }
+        return uid[0];
     }
 
-    private void modifyAttributes(final String entryDN, final List<ModificationItem> modItems) {
+    private Uid modifyAttributes(final String entryDN, final List<ModificationItem> modItems, final boolean readUid) {
+        ModificationItem[] items = modItems.toArray(new ModificationItem[modItems.size()]);
+        if (readUid) {
+            return conn.getSchemaMapping().modify(oclass, entryDN, items);
+        }
         try {
-            conn.getInitialContext().modifyAttributes(entryDN, modItems.toArray(new ModificationItem[modItems.size()]));
+            conn.getInitialContext().modifyAttributes(entryDN, items);
+            return null;
         } catch (NamingException e) {
             throw new ConnectorException(e);
         }
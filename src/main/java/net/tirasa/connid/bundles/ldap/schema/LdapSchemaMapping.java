@@ -41,10 +41,17 @@ import javax.naming.NamingException;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.BasicAttribute;
 import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.ModificationItem;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
 import javax.naming.ldap.LdapName;
 import net.tirasa.connid.bundles.ldap.LdapConnection;
 import net.tirasa.connid.bundles.ldap.commons.LdapEntry;
 import net.tirasa.connid.bundles.ldap.commons.ObjectClassMappingConfig;
+import net.tirasa.connid.bundles.ldap.commons.PostReadControl;
+import net.tirasa.connid.bundles.ldap.commons.RangedAttributes;
+import net.tirasa.connid.bundles.ldap.commons.RangedAttributes.RangeHandler;
+import org.identityconnectors.common.Pair;
 import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.common.security.GuardedString;
@@ -264,7 +271,10 @@ public class LdapSchemaMapping {
         }
     }
 
-    private Uid createUid(String ldapUidAttr, Attributes attributes) {
+    /**
+     * Creates a {@link Uid} from the value of the given LDAP attribute, which is expected to be present.
+     */
+    public static Uid createUid(String ldapUidAttr, Attributes attributes) {
         String value = getStringAttrValue(attributes, ldapUidAttr);
         if (value != null) {
             return new Uid(value);
@@ -294,36 +304,85 @@ public class LdapSchemaMapping {
      */
     public Attribute createAttribute(ObjectClass oclass, String attrName, LdapEntry entry, boolean emptyWhenNotFound) {
         String ldapAttrNameForTransfer = getLdapAttribute(oclass, attrName, true);
-        javax.naming.directory.Attribute ldapAttr = null;
+        Attribute attr = null;
         if (ldapAttrNameForTransfer != null) {
-            ldapAttr = entry.getAttributes().get(ldapAttrNameForTransfer);
+            attr = createAttribute(
+                    conn, entry.getDN().toString(), entry.getAttributes(), ldapAttrNameForTransfer, attrName);
         }
-        if (ldapAttr == null) {
+        if (attr == null) {
             return emptyWhenNotFound ? AttributeBuilder.build(attrName, Collections.emptyList()) : null;
         }
+        return attr;
+    }
+
+    /**
+     * Decodes the values of an LDAP attribute of an entry into an attribute with the given name, one range at a time
+     * if the server returns them in ranges, see {@link RangedAttributes}; returns {@code null} if the LDAP attribute
+     * is not in the given attributes.
+     */
+    public static Attribute createAttribute(
+            LdapConnection conn,
+            String entryDN,
+            javax.naming.directory.Attributes ldapAttrs,
+            String ldapAttrName,
+            final String attrName) {
+
+        final AttributeBuilder builder = new AttributeBuilder();
+        builder.setName(attrName);
+        boolean found = RangedAttributes.read(conn, entryDN, ldapAttrs, ldapAttrName, new RangeHandler() {
 
+            @Override
+            public boolean handle(javax.naming.directory.Attribute range) throws NamingException {
+                addValues(attrName, range, builder);
+                return true;
+            }
+        });
+        return found ? builder.build() : null;
+    }
+
+    /**
+     * Decodes the values of an LDAP attribute into an attribute with the given name. The value of
+     * {@link OperationalAttributes#PASSWORD_NAME} is returned as a {@link GuardedString}.
+     */
+    public static Attribute createAttribute(String attrName, javax.naming.directory.Attribute ldapAttr) {
         AttributeBuilder builder = new AttributeBuilder();
         builder.setName(attrName);
         try {
-            if (OperationalAttributes.PASSWORD_NAME.equals(attrName)) {
-                String password = new String((byte[]) ldapAttr.get());
-                builder.addValue(new GuardedString(password.toCharArray()));
-            } else {
-                NamingEnumeration<?> valEnum = ldapAttr.getAll();
-                while (valEnum.hasMore()) {
-                    builder.addValue(valEnum.next());
-                }
-            }
+            addValues(attrName, ldapAttr, builder);
         } catch (NamingException e) {
             throw new ConnectorException(e);
         }
         return builder.build();
     }
 
+    private static void addValues(String attrName, javax.naming.directory.Attribute ldapAttr, AttributeBuilder builder)
+            throws NamingException {
+
+        if (OperationalAttributes.PASSWORD_NAME.equals(attrName)) {
+            String password = new String((byte[]) ldapAttr.get());
+            builder.addValue(new GuardedString(password.toCharArray()));
+        } else {
+            NamingEnumeration<?> valEnum = ldapAttr.getAll();
+            while (valEnum.hasMore()) {
+                builder.addValue(valEnum.next());
+            }
+        }
+    }
+
     public String create(ObjectClass oclass, Name name, javax.naming.directory.Attributes initialAttrs) {
-        LdapName entryName = quietCreateLdapName(getEntryDN(oclass, name));
+        return createEntry(oclass, name, initialAttrs).first;
+    }
+
+    /**
+     * Creates the entry, and returns its DN and, when the server returned it along with the add response, its
+     * {@link Uid}; see {@link #write}.
+     */
+    public Pair<String, Uid> createEntry(
+            ObjectClass oclass, Name name, javax.naming.directory.Attributes initialAttrs) {
 
-        BasicAttributes ldapAttrs = new BasicAttributes();
+        final LdapName entryName = quietCreateLdapName(getEntryDN(oclass, name));
+
+        final BasicAttributes ldapAttrs = new BasicAttributes();
         NamingEnumeration<? extends javax.naming.directory.Attribute> initialAttrEnum = initialAttrs.
                 getAll();
         while (initialAttrEnum.hasMoreElements()) {
@@ -337,12 +396,28 @@ public class LdapSchemaMapping {
         ldapAttrs.put(objectClass);
 
         LOG.ok("Creating LDAP subcontext {0} with attributes {1}", entryName, ldapAttrs);
-        try {
-            conn.getInitialContext().createSubcontext(entryName, ldapAttrs).close();
-            return entryName.toString();
-        } catch (NamingException e) {
-            throw new ConnectorException(e);
-        }
+        Uid uid = write(oclass, new WriteRequest() {
+
+            @Override
+            public void execute(final LdapContext ctx) throws NamingException {
+                ctx.createSubcontext(entryName, ldapAttrs).close();
+            }
+        });
+        return new Pair<String, Uid>(entryName.toString(), uid);
+    }
+
+    /**
+     * Modifies the entry, and returns its {@link Uid} if the server returned it along with the modify response, or
+     * {@code null}; see {@link #write}.
+     */
+    public Uid modify(ObjectClass oclass, final String entryDN, final ModificationItem[] modItems) {
+        return write(oclass, new WriteRequest() {
+
+            @Override
+            public void execute(final LdapContext ctx) throws NamingException {
+                ctx.modifyAttributes(entryDN, modItems);
+            }
+        });
     }
 
     public javax.naming.directory.Attribute encodeAttribute(ObjectClass oclass, Attribute attr) {
@@ -391,10 +466,59 @@ public class LdapSchemaMapping {
     }
 
     public String rename(ObjectClass oclass, String entryDN, Name newName) {
-        String newEntryDN = getEntryDN(oclass, newName);
+        return renameEntry(oclass, entryDN, newName).first;
+    }
+
+    /**
+     * Renames the entry, and returns its new DN and, when the server returned it along with the modify DN response,
+     * its {@link Uid}; see {@link #write}.
+     */
+    public Pair<String, Uid> renameEntry(ObjectClass oclass, final String entryDN, Name newName) {
+        final String newEntryDN = getEntryDN(oclass, newName);
+        Uid uid = write(oclass, new WriteRequest() {
+
+            @Override
+            public void execute(final LdapContext ctx) throws NamingException {
+                ctx.rename(entryDN, newEntryDN);
+            }
+        });
+        return new Pair<String, Uid>(newEntryDN, uid);
+    }
+
+    private interface WriteRequest {
+
+        void execute(LdapContext ctx) throws NamingException;
+    }
+
+    /**
+     * Executes a write request. If the server supports the Post-Read control, the request asks for the attribute
+     * mapped to {@link Uid}, which saves reading it back afterwards.
+     *
+     * @return the {@link Uid} of the entry after the request, or {@code null} if it was not returned, in which case
+     * {@link #createUid(ObjectClass, String)} should be used. Never returned when the {@link Uid} is the entry DN,
+     * which is known anyway, or a binary attribute.
+     */
+    private Uid write(ObjectClass oclass, WriteRequest request) {
+        String ldapUidAttr = getLdapUidAttribute(oclass);
         try {
-            conn.getInitialContext().rename(entryDN, newEntryDN);
-            return newEntryDN;
+            if (isDNAttribute(ldapUidAttr)
+                    || conn.isBinarySyntax(ldapUidAttr)
+                    || !conn.supportsControl(PostReadControl.OID)) {
+
+                request.execute(conn.getInitialContext());
+                return null;
+            }
+
+            LdapContext ctx = conn.getInitialContext().newInstance(new Control[] {
+                new PostReadControl(new String[] { ldapUidAttr }, Control.NONCRITICAL) });
+            try {
+                request.execute(ctx);
+                Attributes entry = PostReadControl.getEntry(ctx.getResponseControls());
+                String value = entry == null ? null : getStringAttrValue(entry, ldapUidAttr);
+                return value == null ? null : new Uid(value);
+            } finally {
+                ctx.close();
+            }
         } catch (NamingException e) {
             throw new ConnectorException(e);
         }
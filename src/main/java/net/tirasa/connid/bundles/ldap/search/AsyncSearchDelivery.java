@@ -0,0 +1,262 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.naming.NamingException;
+import javax.naming.directory.SearchResult;
+import net.tirasa.connid.bundles.ldap.commons.LdapMetrics;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+
+/**
+ * Delivers the results of an {@link LdapInternalSearch} to a {@link ResultsHandler} through a bounded queue. A reader
+ * task runs the search and queues the results, optionally converting them on up to a given number of concurrent
+ * tasks, while the calling thread passes them to the handler in the order they were read. When the queue is full the
+ * reader waits, so the server is never read further ahead of the handler than the queue size. The tasks run on the
+ * executor of the connection, and their requests are reported under the operation of the calling thread.
+ *
+ * When the handler returns {@code false} the reader stops at the next result, and {@link #execute} only returns once
+ * the reader is done with the connection.
+ */
+final class AsyncSearchDelivery {
+
+    private static final Log LOG = Log.getLog(AsyncSearchDelivery.class);
+
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    /**
+     * Converts a search result to a connector object.
+     */
+    interface Converter {
+
+        ConnectorObject convert(String baseDN, SearchResult result);
+    }
+
+    private static final Future<ConnectorObject> END = new FutureTask<ConnectorObject>(
+            new Callable<ConnectorObject>() {
+
+        @Override
+        public ConnectorObject call() {
+            return null;
+        }
+    });
+
+    private final ExecutorService executor;
+
+    private final BlockingQueue<Future<ConnectorObject>> queue;
+
+    /**
+     * The conversions which may run at once, or {@code null} to convert on the reader.
+     */
+    private final Semaphore conversions;
+
+    private volatile boolean cancelled;
+
+    private volatile Throwable failure;
+
+    /**
+     * @param executor the executor running the reader and the conversions.
+     * @param queueSize the maximum number of results read ahead of the handler.
+     * @param conversionThreads the number of results converted at once, or 0 to convert them on the reader.
+     */
+    AsyncSearchDelivery(final ExecutorService executor, final int queueSize, final int conversionThreads) {
+        this.executor = executor;
+        this.queue = new ArrayBlockingQueue<Future<ConnectorObject>>(queueSize);
+        this.conversions = conversionThreads > 0 ? new Semaphore(conversionThreads) : null;
+    }
+
+    void execute(final LdapInternalSearch search, final Converter converter, final ResultsHandler handler) {
+        final LdapMetrics.Scope operation = LdapMetrics.currentOperation();
+        Future<?> reader = executor.submit(new Runnable() {
+
+            @Override
+            public void run() {
+                LdapMetrics.joinOperation(operation);
+                try {
+                    search.execute(new LdapSearchResultsHandler() {
+
+                        @Override
+                        public boolean handle(final String baseDN, final SearchResult result) throws NamingException {
+                            if (cancelled) {
+                                return false;
+                            }
+
+                            Future<ConnectorObject> object;
+                            if (conversions == null) {
+                                FutureTask<ConnectorObject> task = new FutureTask<ConnectorObject>(
+                                        new Callable<ConnectorObject>() {
+
+                                    @Override
+                                    public ConnectorObject call() {
+                                        return converter.convert(baseDN, result);
+                                    }
+                                });
+                                task.run();
+                                object = task;
+                            } else {
+                                if (!acquireConversion()) {
+                                    return false;
+                                }
+                                object = executor.submit(new Callable<ConnectorObject>() {
+
+                                    @Override
+                                    public ConnectorObject call() {
+                                        LdapMetrics.joinOperation(operation);
+                                        try {
+                                            return converter.convert(baseDN, result);
+                                        } finally {
+                                            LdapMetrics.leaveOperation();
+                                            conversions.release();
+                                        }
+                                    }
+                                });
+                            }
+                            return offer(object);
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    failure = e;
+                } catch (Error e) {
+                    failure = e;
+                } finally {
+                    LdapMetrics.leaveOperation();
+                    offer(END);
+                }
+            }
+        });
+
+        try {
+            Future<ConnectorObject> next;
+            while ((next = take()) != END) {
+                if (!handler.handle(get(next))) {
+                    LOG.ok("Search cancelled by the results handler");
+                    break;
+                }
+            }
+        } finally {
+            cancelled = true;
+            List<Future<ConnectorObject>> pending = new ArrayList<Future<ConnectorObject>>();
+            queue.drainTo(pending);
+            for (Future<ConnectorObject> object : pending) {
+                object.cancel(false);
+            }
+            await(reader);
+        }
+
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+    }
+
+    /**
+     * Queues a result, waiting for room unless the delivery is cancelled.
+     *
+     * @return whether the reader should go on.
+     */
+    private boolean offer(final Future<ConnectorObject> object) {
+        try {
+            while (!cancelled) {
+                if (queue.offer(object, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Waits for a conversion to be allowed, unless the delivery is cancelled.
+     */
+    private boolean acquireConversion() {
+        try {
+            while (!cancelled) {
+                if (conversions.tryAcquire(OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private Future<ConnectorObject> take() {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorException(e);
+        }
+    }
+
+    private static ConnectorObject get(final Future<ConnectorObject> object) {
+        try {
+            return object.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ConnectorException(e.getCause());
+        }
+    }
+
+    private static void await(final Future<?> reader) {
+        boolean interrupted = false;
+        for (;;) {
+            try {
+                reader.get();
+                break;
+            } catch (InterruptedException e) {
+                // The reader stops soon since the delivery is cancelled, and must not outlive the operation.
+                interrupted = true;
+            } catch (ExecutionException e) {
+                // The reader keeps its own failures.
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
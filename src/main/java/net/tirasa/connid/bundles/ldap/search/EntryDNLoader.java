@@ -0,0 +1,282 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import net.tirasa.connid.bundles.ldap.LdapConfiguration;
+import net.tirasa.connid.bundles.ldap.LdapConnection;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.UnknownUidException;
+import org.identityconnectors.framework.common.objects.AttributeUtil;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.identityconnectors.framework.common.objects.Uid;
+
+/**
+ * Coalesces the entry DN lookups by Uid made at nearly the same time by the connector instances sharing a
+ * configuration. The first lookup of an object class opens a batch and waits for the configured window, or until the
+ * batch is full; the lookups arriving meanwhile join the batch, which is then resolved with a single search ORing
+ * the Uids together, on the connection of the first lookup. A lookup for a Uid already in a pending or running batch
+ * waits for that batch instead of searching again.
+ */
+public final class EntryDNLoader {
+
+    private static final Log LOG = Log.getLog(EntryDNLoader.class);
+
+    /**
+     * The loaders by {@link LdapConfiguration#getEqualityKey() configuration key}. The pooled connector instances
+     * each have their own configuration and connection, but equal configurations share a loader.
+     */
+    private static final Map<Object, EntryDNLoader> LOADERS = new HashMap<Object, EntryDNLoader>();
+
+    /**
+     * The connections which looked up entries with this loader and are not closed yet.
+     */
+    private final Set<LdapConnection> users =
+            Collections.newSetFromMap(new IdentityHashMap<LdapConnection, Boolean>());
+
+    private final long window;
+
+    private final int maxBatchSize;
+
+    private final Object lock = new Object();
+
+    /**
+     * The batch collecting lookups, by object class.
+     */
+    private final Map<ObjectClass, Batch> pending = new HashMap<ObjectClass, Batch>();
+
+    /**
+     * The batches being searched for, by object class.
+     */
+    private final Map<ObjectClass, List<Batch>> running = new HashMap<ObjectClass, List<Batch>>();
+
+    /**
+     * Returns the loader for the configuration of the given connection, or {@code null} if lookups are not to be
+     * coalesced, and records the connection as one of its users until {@link #release}.
+     */
+    public static synchronized EntryDNLoader getInstance(final LdapConnection conn) {
+        LdapConfiguration config = conn.getConfiguration();
+        if (config.getUidLookupBatchWindow() <= 0) {
+            return null;
+        }
+        Object key = config.getEqualityKey();
+        EntryDNLoader loader = LOADERS.get(key);
+        if (loader == null) {
+            loader = new EntryDNLoader(config.getUidLookupBatchWindow(), config.getUidLookupBatchSize());
+            LOADERS.put(key, loader);
+        }
+        loader.users.add(conn);
+        return loader;
+    }
+
+    /**
+     * Records that the given connection, which is being closed, no longer uses any loader. The loaders left without
+     * users are dropped; the lookups in progress on them still complete.
+     */
+    public static synchronized void release(final LdapConnection conn) {
+        for (Iterator<EntryDNLoader> it = LOADERS.values().iterator(); it.hasNext();) {
+            EntryDNLoader loader = it.next();
+            if (loader.users.remove(conn) && loader.users.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    EntryDNLoader(final long window, final int maxBatchSize) {
+        this.window = window;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Returns the DN of the entry of the given object class identified by the given Uid, throwing
+     * {@link UnknownUidException} if there is no such entry.
+     */
+    public String load(final LdapConnection conn, final ObjectClass oclass, final Uid uid) {
+        final String value = uid.getUidValue();
+        Batch batch;
+        boolean leader = false;
+        synchronized (lock) {
+            batch = findRunning(oclass, value);
+            if (batch == null) {
+                batch = pending.get(oclass);
+                if (batch == null) {
+                    batch = new Batch(oclass);
+                    pending.put(oclass, batch);
+                    leader = true;
+                }
+                batch.uids.add(value);
+                if (batch.uids.size() >= maxBatchSize) {
+                    close(batch);
+                }
+            }
+        }
+
+        if (leader) {
+            awaitWindow(batch);
+            try {
+                batch.execute(conn);
+            } finally {
+                synchronized (lock) {
+                    running.get(oclass).remove(batch);
+                }
+            }
+        } else {
+            batch.await();
+        }
+        return batch.getEntryDN(uid);
+    }
+
+    private Batch findRunning(final ObjectClass oclass, final String value) {
+        List<Batch> batches = running.get(oclass);
+        if (batches != null) {
+            for (Batch batch : batches) {
+                if (batch.uids.contains(value)) {
+                    return batch;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stops the given pending batch from collecting lookups. Must be called holding the lock.
+     */
+    private void close(final Batch batch) {
+        if (pending.get(batch.oclass) == batch) {
+            pending.remove(batch.oclass);
+            List<Batch> batches = running.get(batch.oclass);
+            if (batches == null) {
+                batches = new ArrayList<Batch>(1);
+                running.put(batch.oclass, batches);
+            }
+            batches.add(batch);
+            lock.notifyAll();
+        }
+    }
+
+    private void awaitWindow(final Batch batch) {
+        synchronized (lock) {
+            long deadline = System.currentTimeMillis() + window;
+            long remaining = window;
+            try {
+                while (pending.get(batch.oclass) == batch && remaining > 0) {
+                    lock.wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close(batch);
+            }
+        }
+    }
+
+    private static final class Batch {
+
+        private final ObjectClass oclass;
+
+        /**
+         * The Uid values to look up. They are compared exactly, as the matching rule of the Uid attribute is not
+         * known: Uids are the values the server returned, and an entry is never mistaken for another one whose Uid
+         * only differs in case.
+         */
+        private final Set<String> uids = new LinkedHashSet<String>();
+
+        private final Map<String, String> entryDNs = new HashMap<String, String>();
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private RuntimeException failure;
+
+        Batch(final ObjectClass oclass) {
+            this.oclass = oclass;
+        }
+
+        /**
+         * Searches for all the Uids of this batch. The Uids are not added to after the batch is closed, so they can
+         * be read without the lock.
+         */
+        void execute(final LdapConnection conn) {
+            try {
+                LOG.ok("Searching for {0} objects of class {1}", uids.size(), oclass.getObjectClassValue());
+
+                LdapFilter filter =
+                        new LdapFilterTranslator(conn.getSchemaMapping(), oclass).createUidsExpression(uids);
+
+                OperationOptionsBuilder builder = new OperationOptionsBuilder();
+                final String dnAttribute = conn.getConfiguration().getDnAttribute();
+                builder.setAttributesToGet(dnAttribute);
+
+                new LdapSearch(conn, oclass, filter, new ResultsHandler() {
+
+                    @Override
+                    public boolean handle(final ConnectorObject object) {
+                        String value = object.getUid().getUidValue();
+                        if (!entryDNs.containsKey(value)) {
+                            entryDNs.put(value, AttributeUtil.getStringValue(object.getAttributeByName(dnAttribute)));
+                        }
+                        return true;
+                    }
+                }, builder.build()).execute();
+            } catch (RuntimeException e) {
+                failure = e;
+            } finally {
+                done.countDown();
+            }
+        }
+
+        void await() {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConnectorException(e);
+            }
+        }
+
+        String getEntryDN(final Uid uid) {
+            if (failure != null) {
+                throw failure;
+            }
+            String entryDN = entryDNs.get(uid.getUidValue());
+            if (entryDN == null) {
+                throw new UnknownUidException(uid, oclass);
+            }
+            return entryDN;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import net.tirasa.connid.bundles.ldap.LdapConnection;
+import net.tirasa.connid.bundles.ldap.commons.LdapMetrics;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.identityconnectors.framework.common.objects.SearchResult;
+import org.identityconnectors.framework.spi.SearchResultsHandler;
+
+/**
+ * Gets many objects by Uid, as asked by a query "ORing" together equality filters on the Uid. The Uids are searched
+ * for in chunks of at most the configured Uid lookup batch size, each with a flat OR filter, either one after the
+ * other on the connection or concurrently on up to the configured number of Uid bulk get threads, each with a worker
+ * connection of its own, reused across queries. The objects are passed to the handler on the calling thread as each
+ * chunk completes.
+ *
+ * <p>The Uids not found are passed to the handler if it is a {@link MissingUidsHandler}; a
+ * {@link SearchResultsHandler} is told whether the search completed, rather than being stopped by the handler.</p>
+ */
+public final class LdapBulkGet {
+
+    private static final Log LOG = Log.getLog(LdapBulkGet.class);
+
+    private final LdapConnection conn;
+
+    private final ObjectClass oclass;
+
+    private final List<String> uids;
+
+    private final ResultsHandler handler;
+
+    private final OperationOptions options;
+
+    /**
+     * The Uid values found, compared ignoring case like most Uid attributes match.
+     */
+    private final Set<String> found = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+
+    /**
+     * Returns {@code true} if the given query asks for more than one object by Uid, with options a bulk get
+     * honors: no paging.
+     */
+    public static boolean isBulkGet(final LdapFilter query, final OperationOptions options) {
+        return query != null && query.getUids() != null && query.getUids().size() > 1
+                && options.getPageSize() == null && options.getPagedResultsCookie() == null
+                && options.getPagedResultsOffset() == null;
+    }
+
+    public LdapBulkGet(
+            final LdapConnection conn,
+            final ObjectClass oclass,
+            final List<String> uids,
+            final ResultsHandler handler,
+            final OperationOptions options) {
+
+        this.conn = conn;
+        this.oclass = oclass;
+        this.uids = uids;
+        this.handler = handler;
+        this.options = options;
+    }
+
+    /**
+     * Gets the objects and passes them to the handler, until it returns {@code false}, then reports the Uids not
+     * found to the handler.
+     *
+     * @return the Uid values no object was found for, empty if the handler stopped the search.
+     */
+    public Set<String> execute() {
+        List<LdapFilter> chunks = getChunks();
+        int threads = Math.min(chunks.size(), conn.getConfiguration().getUidBulkGetThreads());
+        boolean completed = threads <= 1 ? executeSequentially(chunks) : executeConcurrently(chunks, threads);
+
+        Set<String> missing = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        if (completed) {
+            missing.addAll(uids);
+            missing.removeAll(found);
+            if (!missing.isEmpty()) {
+                LOG.ok("No object of class {0} found for the Uids {1}", oclass.getObjectClassValue(), missing);
+                if (handler instanceof MissingUidsHandler) {
+                    ((MissingUidsHandler) handler).handleMissingUids(Collections.unmodifiableSet(missing));
+                }
+            }
+        }
+        if (handler instanceof SearchResultsHandler) {
+            ((SearchResultsHandler) handler).handleResult(new SearchResult(null, -1, completed));
+        }
+        return missing;
+    }
+
+    private List<LdapFilter> getChunks() {
+        // Duplicate Uids are only searched for once.
+        Set<String> seen = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        List<String> distinct = new ArrayList<String>(uids.size());
+        for (String uid : uids) {
+            if (seen.add(uid)) {
+                distinct.add(uid);
+            }
+        }
+
+        LdapFilterTranslator translator = new LdapFilterTranslator(conn.getSchemaMapping(), oclass);
+        int chunkSize = conn.getConfiguration().getUidLookupBatchSize();
+        List<LdapFilter> chunks = new ArrayList<LdapFilter>();
+        for (int i = 0; i < distinct.size(); i += chunkSize) {
+            chunks.add(translator.createUidsExpression(distinct.subList(i, Math.min(distinct.size(), i + chunkSize))));
+        }
+        return chunks;
+    }
+
+    private boolean executeSequentially(final List<LdapFilter> chunks) {
+        final boolean[] proceed = { true };
+        for (LdapFilter chunk : chunks) {
+            new LdapSearch(conn, oclass, chunk, new ResultsHandler() {
+
+                @Override
+                public boolean handle(final ConnectorObject object) {
+                    found.add(object.getUid().getUidValue());
+                    proceed[0] = handler.handle(object);
+                    return proceed[0];
+                }
+            }, options).execute();
+            if (!proceed[0]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean executeConcurrently(final List<LdapFilter> chunks, final int threads) {
+        final LdapMetrics.Scope operation = LdapMetrics.currentOperation();
+        CompletionService<List<ConnectorObject>> completion =
+                new ExecutorCompletionService<List<ConnectorObject>>(conn.getExecutor());
+        List<Future<List<ConnectorObject>>> submitted = new ArrayList<Future<List<ConnectorObject>>>(chunks.size());
+        try {
+            // No more chunks are searched at once than threads, so no more worker connections are used.
+            int next = 0;
+            for (; next < threads; next++) {
+                submitted.add(completion.submit(newChunkSearch(chunks.get(next), operation)));
+            }
+            for (int i = 0; i < chunks.size(); i++) {
+                List<ConnectorObject> objects = completion.take().get();
+                if (next < chunks.size()) {
+                    submitted.add(completion.submit(newChunkSearch(chunks.get(next++), operation)));
+                }
+                for (ConnectorObject object : objects) {
+                    found.add(object.getUid().getUidValue());
+                    if (!handler.handle(object)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ConnectorException(e.getCause());
+        } finally {
+            // The searches still running, at most one per thread, must not outlive the operation.
+            for (Future<List<ConnectorObject>> search : submitted) {
+                await(search);
+            }
+        }
+    }
+
+    private Callable<List<ConnectorObject>> newChunkSearch(
+            final LdapFilter chunk, final LdapMetrics.Scope operation) {
+
+        return new Callable<List<ConnectorObject>>() {
+
+            @Override
+            public List<ConnectorObject> call() {
+                LdapMetrics.joinOperation(operation);
+                // Searches cannot share a context, so each worker uses a connection of its own.
+                LdapConnection workerConn = conn.acquireWorkerConnection();
+                boolean failed = true;
+                try {
+                    final List<ConnectorObject> objects = new ArrayList<ConnectorObject>();
+                    new LdapSearch(workerConn, oclass, chunk, new ResultsHandler() {
+
+                        @Override
+                        public boolean handle(final ConnectorObject object) {
+                            objects.add(object);
+                            return true;
+                        }
+                    }, options).execute();
+                    failed = false;
+                    return objects;
+                } finally {
+                    conn.releaseWorkerConnection(workerConn, failed);
+                    LdapMetrics.leaveOperation();
+                }
+            }
+        };
+    }
+
+    private static void await(final Future<?> search) {
+        boolean interrupted = false;
+        for (;;) {
+            try {
+                search.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
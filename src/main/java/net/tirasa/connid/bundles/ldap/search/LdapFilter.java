@@ -23,7 +23,11 @@
  */
 package net.tirasa.connid.bundles.ldap.search;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.Uid;
 import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
 
 /**
@@ -55,6 +59,7 @@ public final class LdapFilter {
 
     private final String nativeFilter;
     private final String entryDN;
+    private final List<String> uids;
 
     public static LdapFilter forEntryDN(String entryDN) {
         return new LdapFilter(null, entryDN);
@@ -64,9 +69,22 @@ public final class LdapFilter {
         return new LdapFilter(nativeFilter, null);
     }
 
+    /**
+     * Returns a filter matching the objects with any of the given Uids, given the native filter matching them;
+     * see {@link LdapFilterTranslator#createUidsExpression}.
+     */
+    public static LdapFilter forUids(List<String> uids, String nativeFilter) {
+        return new LdapFilter(nativeFilter, null, Collections.unmodifiableList(new ArrayList<String>(uids)));
+    }
+
     private LdapFilter(String nativeFilter, String entryDN) {
+        this(nativeFilter, entryDN, null);
+    }
+
+    private LdapFilter(String nativeFilter, String entryDN, List<String> uids) {
         this.nativeFilter = nativeFilter;
         this.entryDN = entryDN;
+        this.uids = uids;
     }
 
     public LdapFilter withNativeFilter(String nativeFilter) {
@@ -81,6 +99,14 @@ public final class LdapFilter {
         return entryDN;
     }
 
+    /**
+     * Returns the Uid values if this filter only matches the objects with any of them, as for a query
+     * "ORing" together equality filters on {@link Uid}; otherwise {@code null}.
+     */
+    public List<String> getUids() {
+        return uids;
+    }
+
     /**
      * Logically "ANDs" together this filter with another filter.
      *
@@ -0,0 +1,288 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import org.identityconnectors.common.CollectionUtil;
+import org.identityconnectors.common.StringUtil;
+
+/**
+ * Rewrites an LDAP search filter (RFC 4515) into an equivalent and simpler one before it is sent to the server:
+ * nested "ANDs" and "ORs" are flattened, duplicate terms and always true terms are removed, and within an "AND" the
+ * terms on indexed attributes are put first, so that the server more likely evaluates the filter through its indexes.
+ * Since the search filter combines the object class filter, the configured filters and the query filter, this also
+ * merges the <code>objectClass</code> terms repeated among them.
+ *
+ * <p>A filter which cannot be parsed is returned unchanged, leaving it to the server to reject it.</p>
+ */
+final class LdapFilterOptimizer {
+
+    private static final Node ALWAYS_TRUE = Node.item("objectClass=*");
+
+    private final Set<String> indexedAttrs;
+
+    LdapFilterOptimizer(final String[] indexedAttrs) {
+        this.indexedAttrs = CollectionUtil.newCaseInsensitiveSet();
+        if (indexedAttrs != null) {
+            Collections.addAll(this.indexedAttrs, indexedAttrs);
+        }
+    }
+
+    String optimize(final String filter) {
+        if (StringUtil.isBlank(filter)) {
+            return filter;
+        }
+        Node node = new Parser(filter).parse();
+        if (node == null) {
+            return filter;
+        }
+        StringBuilder builder = new StringBuilder(filter.length());
+        simplify(node).appendTo(builder);
+        return builder.toString();
+    }
+
+    private Node simplify(final Node node) {
+        switch (node.op) {
+            case '!':
+                Node negated = simplify(node.children.get(0));
+                // (!(!x)) is x, Undefined included.
+                return negated.op == '!' ? negated.children.get(0) : Node.composite('!', negated);
+
+            case '&':
+            case '|':
+                boolean and = node.op == '&';
+                List<Node> children = new ArrayList<Node>(node.children.size());
+                Set<String> keys = new HashSet<String>();
+                for (Node child : node.children) {
+                    Node simplified = simplify(child);
+                    List<Node> operands = simplified.op == node.op
+                            ? simplified.children
+                            : Collections.singletonList(simplified);
+                    for (Node operand : operands) {
+                        if (operand.isAlwaysTrue()) {
+                            if (and) {
+                                continue;
+                            }
+                            return ALWAYS_TRUE;
+                        }
+                        if (keys.add(operand.getKey())) {
+                            children.add(operand);
+                        }
+                    }
+                }
+                if (and && children.isEmpty()) {
+                    return ALWAYS_TRUE;
+                }
+                if (children.size() == 1) {
+                    return children.get(0);
+                }
+                if (and && !indexedAttrs.isEmpty()) {
+                    // Stable, so the order of the other terms is kept.
+                    Collections.sort(children, new Comparator<Node>() {
+
+                        @Override
+                        public int compare(final Node left, final Node right) {
+                            return (isIndexed(left) ? 0 : 1) - (isIndexed(right) ? 0 : 1);
+                        }
+                    });
+                }
+                return new Node(node.op, null, children);
+
+            default:
+                return node;
+        }
+    }
+
+    /**
+     * Returns whether the server can evaluate the given filter through its indexes alone.
+     */
+    private boolean isIndexed(final Node node) {
+        switch (node.op) {
+            case '&':
+                for (Node child : node.children) {
+                    if (isIndexed(child)) {
+                        return true;
+                    }
+                }
+                return false;
+
+            case '|':
+                for (Node child : node.children) {
+                    if (!isIndexed(child)) {
+                        return false;
+                    }
+                }
+                return !node.children.isEmpty();
+
+            case '!':
+                return false;
+
+            default:
+                return indexedAttrs.contains(node.getAttribute());
+        }
+    }
+
+    private static final class Node {
+
+        /**
+         * The operator: <code>&</code>, <code>|</code>, <code>!</code>, or <code>0</code> for an item.
+         */
+        final char op;
+
+        /**
+         * The text of an item between its parentheses, such as <code>cn=Foo*</code>.
+         */
+        final String item;
+
+        final List<Node> children;
+
+        private String key;
+
+        static Node item(final String item) {
+            return new Node((char) 0, item, Collections.<Node>emptyList());
+        }
+
+        static Node composite(final char op, final Node child) {
+            return new Node(op, null, Collections.singletonList(child));
+        }
+
+        Node(final char op, final String item, final List<Node> children) {
+            this.op = op;
+            this.item = item;
+            this.children = children;
+        }
+
+        String getAttribute() {
+            int end = 0;
+            while (end < item.length() && "=~<>:".indexOf(item.charAt(end)) < 0) {
+                end++;
+            }
+            return item.substring(0, end);
+        }
+
+        boolean isAlwaysTrue() {
+            // Every entry has an object class; "(&)" is the absolute true filter of RFC 4526.
+            return op == '&' ? children.isEmpty() : op == 0 && "objectclass=*".equals(getKey());
+        }
+
+        /**
+         * Returns a text which is the same for two filters the server evaluates the same way: attribute names are
+         * case-insensitive, and so are object class values.
+         */
+        String getKey() {
+            if (key == null) {
+                if (op == 0) {
+                    String attr = getAttribute();
+                    String lowerAttr = attr.toLowerCase(Locale.ENGLISH);
+                    key = "objectclass".equals(lowerAttr)
+                            ? item.toLowerCase(Locale.ENGLISH)
+                            : lowerAttr + item.substring(attr.length());
+                } else {
+                    StringBuilder builder = new StringBuilder().append(op);
+                    for (Node child : children) {
+                        builder.append('(').append(child.getKey()).append(')');
+                    }
+                    key = builder.toString();
+                }
+            }
+            return key;
+        }
+
+        void appendTo(final StringBuilder builder) {
+            builder.append('(');
+            if (op == 0) {
+                builder.append(item);
+            } else {
+                builder.append(op);
+                for (Node child : children) {
+                    child.appendTo(builder);
+                }
+            }
+            builder.append(')');
+        }
+    }
+
+    private static final class Parser {
+
+        private final String filter;
+
+        private int pos;
+
+        Parser(final String filter) {
+            this.filter = filter.trim();
+        }
+
+        Node parse() {
+            Node node = parseFilter();
+            return node != null && pos == filter.length() ? node : null;
+        }
+
+        private Node parseFilter() {
+            if (pos + 1 >= filter.length() || filter.charAt(pos) != '(') {
+                return null;
+            }
+            pos++;
+            Node node;
+            char op = filter.charAt(pos);
+            if (op == '&' || op == '|' || op == '!') {
+                pos++;
+                List<Node> children = new ArrayList<Node>();
+                while (pos < filter.length() && filter.charAt(pos) == '(') {
+                    Node child = parseFilter();
+                    if (child == null) {
+                        return null;
+                    }
+                    children.add(child);
+                }
+                if (op == '!' && children.size() != 1) {
+                    return null;
+                }
+                node = new Node(op, null, children);
+            } else {
+                // Parentheses in values are escaped, so the first one closes the item.
+                int end = filter.indexOf(')', pos);
+                if (end < 0) {
+                    return null;
+                }
+                String item = filter.substring(pos, end);
+                if (item.indexOf('(') >= 0 || item.indexOf('=') <= 0) {
+                    return null;
+                }
+                node = Node.item(item);
+                pos = end;
+            }
+            if (pos >= filter.length() || filter.charAt(pos) != ')') {
+                return null;
+            }
+            pos++;
+            return node;
+        }
+    }
+}
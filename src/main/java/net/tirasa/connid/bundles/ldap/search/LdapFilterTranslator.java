@@ -26,15 +26,21 @@ package net.tirasa.connid.bundles.ldap.search;
 import static net.tirasa.connid.bundles.ldap.commons.LdapEntry.isDNAttribute;
 import static net.tirasa.connid.bundles.ldap.commons.LdapUtil.escapeAttrValue;
 
+import static java.util.Collections.singletonList;
+
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.Uid;
 import org.identityconnectors.framework.common.objects.filter.AbstractFilterTranslator;
 import org.identityconnectors.framework.common.objects.filter.AttributeFilter;
 import org.identityconnectors.framework.common.objects.filter.ContainsAllValuesFilter;
 import org.identityconnectors.framework.common.objects.filter.ContainsFilter;
 import org.identityconnectors.framework.common.objects.filter.EndsWithFilter;
 import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
 import org.identityconnectors.framework.common.objects.filter.GreaterThanFilter;
 import org.identityconnectors.framework.common.objects.filter.GreaterThanOrEqualFilter;
 import org.identityconnectors.framework.common.objects.filter.LessThanFilter;
@@ -72,9 +78,31 @@ public class LdapFilterTranslator extends AbstractFilterTranslator<LdapFilter> {
 
     @Override
     public LdapFilter createOrExpression(LdapFilter leftExpression, LdapFilter rightExpression) {
+        List<String> leftUids = leftExpression.getUids();
+        List<String> rightUids = rightExpression.getUids();
+        if (leftUids != null && rightUids != null) {
+            // Keep an OR of Uids flat rather than nesting one level per Uid.
+            List<String> uids = new ArrayList<String>(leftUids.size() + rightUids.size());
+            uids.addAll(leftUids);
+            uids.addAll(rightUids);
+            StringBuilder builder = new StringBuilder("(|");
+            appendUidFilters(leftExpression, builder);
+            appendUidFilters(rightExpression, builder);
+            return LdapFilter.forUids(uids, builder.append(')').toString());
+        }
         return leftExpression.or(rightExpression);
     }
 
+    private static void appendUidFilters(LdapFilter uidsFilter, StringBuilder builder) {
+        String nativeFilter = uidsFilter.getNativeFilter();
+        if (uidsFilter.getUids().size() == 1) {
+            builder.append(nativeFilter);
+        } else {
+            // The filters "ORed" inside "(|...)".
+            builder.append(nativeFilter, 2, nativeFilter.length() - 1);
+        }
+    }
+
     @Override
     public LdapFilter createContainsExpression(ContainsFilter filter, boolean not) {
         String attrName = mapping.getLdapAttribute(objectClass, filter.
@@ -119,7 +147,38 @@ public class LdapFilterTranslator extends AbstractFilterTranslator<LdapFilter> {
     public LdapFilter createEqualsExpression(EqualsFilter filter, boolean not) {
         // XXX is there a way in LDAP to test that the values of an attribute
         // exactly match a given list of values?
-        return createContainsAllValuesFilter(filter, not);
+        LdapFilter result = createContainsAllValuesFilter(filter, not);
+        // Remember the Uid, so that an OR of many Uids can be told apart and split, see LdapBulkGet.
+        if (result != null && result.getEntryDN() == null && !not && filter.getAttribute().is(Uid.NAME)) {
+            String uid = filter.getAttribute().getValue().get(0).toString();
+            result = LdapFilter.forUids(singletonList(uid), result.getNativeFilter());
+        }
+        return result;
+    }
+
+    /**
+     * Returns a filter matching the objects with any of the given Uids, or {@code null} if the Uid is mapped to the
+     * entry DN, which cannot be "ORed".
+     */
+    public LdapFilter createUidsExpression(Collection<String> uids) {
+        if (uids.isEmpty()) {
+            return null;
+        }
+        List<String> values = new ArrayList<String>(uids.size());
+        StringBuilder builder = new StringBuilder();
+        for (String uid : uids) {
+            EqualsFilter equals = (EqualsFilter) FilterBuilder.equalTo(new Uid(uid));
+            LdapFilter filter = createContainsAllValuesFilter(equals, false);
+            if (filter == null || filter.getEntryDN() != null) {
+                return null;
+            }
+            values.add(uid);
+            builder.append(filter.getNativeFilter());
+        }
+        if (values.size() > 1) {
+            builder.insert(0, "(|").append(')');
+        }
+        return LdapFilter.forUids(values, builder.toString());
     }
 
     @Override
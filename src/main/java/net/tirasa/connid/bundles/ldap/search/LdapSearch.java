@@ -24,7 +24,6 @@
 package net.tirasa.connid.bundles.ldap.search;
 
 import com.sun.jndi.ldap.ctl.VirtualListViewControl;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -129,37 +128,89 @@ public class LdapSearch {
      * Performs the search and passes the resulting {@link ConnectorObject}s to the given handler.
      */
     public final void execute() {
-        final String[] attrsToGetOption = options.getAttributesToGet();
-        final Set<String> attrsToGet = getAttributesToGet(attrsToGetOption);
+        final SearchPlan plan = getSearchPlan();
 
-        final LdapInternalSearch search = getInternalSearch(attrsToGet);
+        final LdapInternalSearch search = getInternalSearch(plan, getSearchResultsHandler());
 
         search.execute(new LdapSearchResultsHandler() {
 
             @Override
             public boolean handle(final String baseDN, final SearchResult result) throws NamingException {
-                return handler.handle(createConnectorObject(baseDN, result, attrsToGet, attrsToGetOption != null));
+                return handler.handle(createConnectorObject(baseDN, result, plan.projection));
             }
         });
     }
 
+    /**
+     * Performs the search like {@link #execute()}, but when a search results queue size is configured, the results
+     * are read and converted on separate threads, ahead of the handler, which is still called in order on the
+     * current thread. Entry DN lookups are always performed like {@link #execute()}.
+     */
+    public final void executeAsync() {
+        final int queueSize = conn.getConfiguration().getSearchResultsQueueSize();
+        if (queueSize <= 0 || (filter != null && filter.getEntryDN() != null)) {
+            execute();
+            return;
+        }
+
+        final SearchPlan plan = getSearchPlan();
+
+        // The paged results cookie is only passed to the handler once it has handled all the results.
+        final org.identityconnectors.framework.common.objects.SearchResult[] searchResult =
+                new org.identityconnectors.framework.common.objects.SearchResult[] { null };
+        final SearchResultsHandler searchResultsHandler = getSearchResultsHandler() == null
+                ? null
+                : new SearchResultsHandler() {
+
+                    @Override
+                    public boolean handle(final ConnectorObject object) {
+                        return handler.handle(object);
+                    }
+
+                    @Override
+                    public void handleResult(
+                            final org.identityconnectors.framework.common.objects.SearchResult result) {
+                        searchResult[0] = result;
+                    }
+                };
+
+        final LdapInternalSearch search = getInternalSearch(plan, searchResultsHandler);
+
+        // Converting group memberships needs further searches, which are left to the reader using the connection.
+        final int conversionThreads = plan.projection.needsLookups()
+                ? 0
+                : conn.getConfiguration().getSearchResultsConversionThreads();
+
+        AsyncSearchDelivery delivery = new AsyncSearchDelivery(conn.getExecutor(), queueSize, conversionThreads);
+        delivery.execute(search, new AsyncSearchDelivery.Converter() {
+
+            @Override
+            public ConnectorObject convert(final String baseDN, final SearchResult result) {
+                return createConnectorObject(baseDN, result, plan.projection);
+            }
+        }, handler);
+
+        if (searchResult[0] != null) {
+            getSearchResultsHandler().handleResult(searchResult[0]);
+        }
+    }
+
     /**
      * Executes the query against all configured base DNs and returns the first {@link ConnectorObject} or {@code null}.
      *
      * @return the first {@link ConnectorObject} or {@code null}
      */
     public final ConnectorObject getSingleResult() {
-        final String[] attrsToGetOption = options.getAttributesToGet();
-        final Set<String> attrsToGet = getAttributesToGet(attrsToGetOption);
+        final SearchPlan plan = getSearchPlan();
         final ConnectorObject[] results = new ConnectorObject[] { null };
 
-        final LdapInternalSearch search = getInternalSearch(attrsToGet);
+        final LdapInternalSearch search = getInternalSearch(plan, getSearchResultsHandler());
 
         search.execute(new LdapSearchResultsHandler() {
 
             @Override
             public boolean handle(final String baseDN, final SearchResult result) throws NamingException {
-                results[0] = createConnectorObject(baseDN, result, attrsToGet, attrsToGetOption != null);
+                results[0] = createConnectorObject(baseDN, result, plan.projection);
                 return false;
             }
         });
@@ -167,7 +218,48 @@ public class LdapSearch {
         return results[0];
     }
 
-    private LdapInternalSearch getInternalSearch(final Set<String> attrsToGet) {
+    /**
+     * Returns the plan for the object class and options of this search, computing it only if the connection has not
+     * cached it yet.
+     */
+    SearchPlan getSearchPlan() {
+        final String[] attrsToGetOption = options.getAttributesToGet();
+        final String optionsFilter = LdapConstants.getSearchFilter(options);
+        final SearchPlan.Key key = new SearchPlan.Key(oclass, attrsToGetOption, options.getScope(), optionsFilter);
+
+        final SearchPlanCache cache = conn.getSearchPlanCache();
+        SearchPlan plan = cache.get(key);
+        if (plan == null) {
+            final Set<String> attrsToGet = getAttributesToGet(attrsToGetOption);
+
+            String searchFilter = null;
+            if (oclass.equals(ObjectClass.ACCOUNT)) {
+                searchFilter = conn.getConfiguration().getAccountSearchFilter();
+            } else if (oclass.equals(ObjectClass.GROUP)) {
+                searchFilter = conn.getConfiguration().getGroupSearchFilter();
+            }
+
+            plan = new SearchPlan(
+                    attrsToGet,
+                    getLdapAttributesToGet(attrsToGet),
+                    new ProjectionPlan(conn, oclass, attrsToGet, attrsToGetOption != null),
+                    getLdapSearchScope(),
+                    getObjectClassFilter(),
+                    optionsFilter,
+                    searchFilter,
+                    new LdapFilterOptimizer(conn.getConfiguration().getIndexedAttributes()));
+            cache.put(key, plan);
+        }
+        return plan;
+    }
+
+    private SearchResultsHandler getSearchResultsHandler() {
+        return handler instanceof SearchResultsHandler ? (SearchResultsHandler) handler : null;
+    }
+
+    private LdapInternalSearch getInternalSearch(
+            final SearchPlan plan, final SearchResultsHandler searchResultsHandler) {
+
         // This is a bit tricky. If the LdapFilter has an entry DN,
         // we only need to look at that entry and check whether it matches
         // the native filter. Moreover, when looking at the entry DN
@@ -184,9 +276,9 @@ public class LdapSearch {
 
         String filterEntryDN = filter == null ? null : filter.getEntryDN();
         if (filterEntryDN == null) {
-            strategy = getSearchStrategy();
+            strategy = getSearchStrategy(searchResultsHandler);
             dns = getBaseDNs();
-            searchScope = getLdapSearchScope();
+            searchScope = plan.searchScope;
         } else {
             // Would be good to check that filterEntryDN is under the configured base contexts.
             // However, the adapter is likely to pass entries outside the base contexts,
@@ -197,36 +289,36 @@ public class LdapSearch {
         }
 
         SearchControls controls = LdapInternalSearch.createDefaultSearchControls();
-        Set<String> ldapAttrsToGet = getLdapAttributesToGet(attrsToGet);
-
-        controls.setReturningAttributes(ldapAttrsToGet.toArray(new String[ldapAttrsToGet.size()]));
-
+        controls.setReturningAttributes(plan.getLdapAttributesToGet());
         controls.setSearchScope(searchScope);
 
-        String optionsFilter = LdapConstants.getSearchFilter(options);
-        String searchFilter = null;
-        if (oclass.equals(ObjectClass.ACCOUNT)) {
-            searchFilter = conn.getConfiguration().getAccountSearchFilter();
-        } else if (oclass.equals(ObjectClass.GROUP)) {
-            searchFilter = conn.getConfiguration().getGroupSearchFilter();
-        }
         String nativeFilter = filter == null ? null : filter.getNativeFilter();
-        return new LdapInternalSearch(conn,
-                getSearchFilter(optionsFilter, nativeFilter, searchFilter),
-                dns, strategy, controls);
+        return new LdapInternalSearch(conn, plan.getSearchFilter(nativeFilter), dns, strategy, controls);
     }
 
     private Set<String> getLdapAttributesToGet(final Set<String> attrsToGet) {
         final Set<String> cleanAttrsToGet = CollectionUtil.newCaseInsensitiveSet();
 
         cleanAttrsToGet.addAll(attrsToGet);
-        cleanAttrsToGet.remove(LdapConstants.LDAP_GROUPS_NAME);
+        final boolean ldapGroups = cleanAttrsToGet.remove(LdapConstants.LDAP_GROUPS_NAME);
+        final boolean transitiveLdapGroups = cleanAttrsToGet.remove(LdapConstants.TRANSITIVE_LDAP_GROUPS_NAME);
 
         final boolean posixGroups = cleanAttrsToGet.remove(LdapConstants.POSIX_GROUPS_NAME);
         final boolean aliasGroups = cleanAttrsToGet.remove(LdapConstants.ALIAS_GROUPS_NAME);
         
         final Set<String> result = conn.getSchemaMapping().getLdapAttributes(oclass, cleanAttrsToGet, true);
 
+        final String memberOfAttr = ldapGroups ? conn.getMemberOfAttribute() : null;
+        if (memberOfAttr != null) {
+            result.add(memberOfAttr);
+        }
+
+        final String transitiveMemberOfAttr =
+                transitiveLdapGroups ? ProjectionPlan.getTransitiveMemberOfAttribute(conn) : null;
+        if (transitiveMemberOfAttr != null) {
+            result.add(transitiveMemberOfAttr);
+        }
+
         if (posixGroups) {
             result.add(GroupHelper.getPosixRefAttribute());
         }
@@ -251,43 +343,67 @@ public class LdapSearch {
      * Creates a {@link ConnectorObject} based on the given search result. The search result name is expected to be a
      * relative one, thus the {@code
      * baseDN} parameter is needed in order to create the whole entry DN, which is used to compute the connector
-     * object's name attribute.
+     * object's name attribute. The attributes are converted as prescribed by the given {@link ProjectionPlan}, which
+     * is computed once per search.
      */
-    private ConnectorObject createConnectorObject(
+    ConnectorObject createConnectorObject(
             final String baseDN,
             final SearchResult result,
-            final Set<String> attrsToGet,
-            final boolean emptyAttrWhenNotFound) {
+            final ProjectionPlan plan) {
 
         final LdapEntry entry = LdapEntry.create(baseDN, result);
 
         final ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
         builder.setObjectClass(oclass);
-        builder.setUid(conn.getSchemaMapping().createUid(oclass, entry));
+        builder.setUid(plan.createUid(entry, result));
         builder.setName(conn.getSchemaMapping().createName(oclass, entry));
 
-        final List<String> ldapGroups = new ArrayList<String>();
-        final List<String> posixGroups = new ArrayList<String>();
+        List<String> ldapGroups = Collections.emptyList();
+        List<String> posixGroups = Collections.emptyList();
 
-        for (String attrName : attrsToGet) {
+        for (ProjectionPlan.Column column : plan.columns) {
             Attribute attribute;
-            if (LdapConstants.isLdapGroups(attrName)) {
-                ldapGroups.addAll(groupHelper.getLdapGroups(entry.getDN().toString()));
-
-                attribute = AttributeBuilder.build(LdapConstants.LDAP_GROUPS_NAME, ldapGroups);
-            } else if (LdapConstants.isPosixGroups(attrName)) {
-                final Set<String> posixRefAttrs = LdapUtil.getStringAttrValues(entry.getAttributes(), GroupHelper.
-                        getPosixRefAttribute());
-
-                posixGroups.addAll(groupHelper.getPosixGroups(posixRefAttrs));
-
-                attribute = AttributeBuilder.build(LdapConstants.POSIX_GROUPS_NAME, posixGroups);
-            } else if (LdapConstants.PASSWORD.is(attrName)
-                    && !conn.getConfiguration().getRetrievePasswordsWithSearch()) {
-
-                attribute = AttributeBuilder.build(attrName, new GuardedString());
-            } else {
-                attribute = conn.getSchemaMapping().createAttribute(oclass, attrName, entry, emptyAttrWhenNotFound);
+            switch (column.kind) {
+                case LDAP_GROUPS:
+                    ldapGroups = column.ldapAttrName == null
+                            ? groupHelper.getLdapGroups(entry.getDN().toString())
+                            : groupHelper.getLdapGroups(result.getAttributes().get(column.ldapAttrName));
+                    attribute = AttributeBuilder.build(LdapConstants.LDAP_GROUPS_NAME, ldapGroups);
+                    break;
+
+                case TRANSITIVE_LDAP_GROUPS:
+                    final List<String> transitiveLdapGroups = column.ldapAttrName == null
+                            ? groupHelper.getTransitiveLdapGroups(entry.getDN().toString())
+                            : groupHelper.getTransitiveLdapGroups(
+                                    groupHelper.getLdapGroups(result.getAttributes().get(column.ldapAttrName)));
+                    attribute = AttributeBuilder.build(
+                            LdapConstants.TRANSITIVE_LDAP_GROUPS_NAME, transitiveLdapGroups);
+                    break;
+
+                case POSIX_GROUPS:
+                    final Set<String> posixRefAttrs = LdapUtil.getStringAttrValues(
+                            result.getAttributes(), GroupHelper.getPosixRefAttribute());
+                    posixGroups = groupHelper.getPosixGroups(posixRefAttrs);
+                    attribute = AttributeBuilder.build(LdapConstants.POSIX_GROUPS_NAME, posixGroups);
+                    break;
+
+                case MASKED_PASSWORD:
+                    attribute = AttributeBuilder.build(column.attrName, new GuardedString());
+                    break;
+
+                default:
+                    javax.naming.directory.Attribute ldapAttr = plan.getLdapAttribute(column, entry, result);
+                    if (ldapAttr != null) {
+                        attribute = LdapSchemaMapping.createAttribute(column.attrName, ldapAttr);
+                    } else if (column.ldapAttrName != null && !column.dnAttribute) {
+                        attribute = LdapSchemaMapping.createAttribute(conn, entry.getDN().toString(),
+                                result.getAttributes(), column.ldapAttrName, column.attrName);
+                    } else {
+                        attribute = null;
+                    }
+                    if (attribute == null && plan.emptyAttrWhenNotFound) {
+                        attribute = AttributeBuilder.build(column.attrName, Collections.emptyList());
+                    }
             }
 
             if (attribute != null) {
@@ -295,8 +411,7 @@ public class LdapSearch {
             }
         }
 
-        final Boolean status = StatusManagement.getInstance(conn.getConfiguration().getStatusManagementClass()).
-                getStatus(result.getAttributes(), posixGroups, ldapGroups);
+        final Boolean status = plan.statusManagement.getStatus(result.getAttributes(), posixGroups, ldapGroups);
 
         if (status != null) {
             builder.addAttribute(AttributeBuilder.buildEnabled(status));
@@ -310,9 +425,8 @@ public class LdapSearch {
      * filter to be applied before the object class filters, the filters for all LDAP object classes for the given
      * {@code ObjectClass}, and an optional filter to be applied before the object class filters.
      */
-    private String getSearchFilter(final String... optionalFilters) {
+    static String getSearchFilter(final String ocFilter, final String... optionalFilters) {
         StringBuilder builder = new StringBuilder();
-        String ocFilter = getObjectClassFilter();
         int nonBlank = StringUtil.isBlank(ocFilter) ? 0 : 1;
 
         for (String optionalFilter : optionalFilters) {
@@ -391,7 +505,7 @@ public class LdapSearch {
         return result;
     }
 
-    private LdapSearchStrategy getSearchStrategy() {
+    private LdapSearchStrategy getSearchStrategy(final SearchResultsHandler searchResultsHandler) {
         LdapSearchStrategy result = conn.getConfiguration().newDefaultSearchStrategy(false);
         if (options.getPageSize() != null) {
             if (conn.getConfiguration().isUseVlvControls() && conn.supportsControl(VirtualListViewControl.OID)) {
@@ -402,7 +516,7 @@ public class LdapSearch {
                         options.getPageSize(),
                         options.getPagedResultsCookie(),
                         options.getPagedResultsOffset(),
-                        handler instanceof SearchResultsHandler ? (SearchResultsHandler) handler : null,
+                        searchResultsHandler,
                         options.getSortKeys()
                 );
             }
@@ -442,6 +556,7 @@ public class LdapSearch {
         // send them to LdapSchemaMapping. This, for example, avoid an (unlikely)
         // conflict with a custom attribute defined in the server schema.
         boolean ldapGroups = attributes.remove(LdapConstants.LDAP_GROUPS_NAME);
+        boolean transitiveLdapGroups = attributes.remove(LdapConstants.TRANSITIVE_LDAP_GROUPS_NAME);
         boolean posixGroups = attributes.remove(LdapConstants.POSIX_GROUPS_NAME);
         boolean aliasGroups = attributes.remove(LdapConstants.ALIAS_GROUPS_NAME);
 
@@ -451,6 +566,10 @@ public class LdapSearch {
             attributes.add(LdapConstants.LDAP_GROUPS_NAME);
         }
 
+        if (transitiveLdapGroups) {
+            attributes.add(LdapConstants.TRANSITIVE_LDAP_GROUPS_NAME);
+        }
+
         if (posixGroups) {
             attributes.add(LdapConstants.POSIX_GROUPS_NAME);
         }
@@ -104,6 +104,10 @@ public final class LdapSearches {
                 return uid.getUidValue();
             }
         } else {
+            EntryDNLoader loader = EntryDNLoader.getInstance(conn);
+            if (loader != null) {
+                return loader.load(conn, oclass, uid);
+            }
             EqualsFilter filter = (EqualsFilter) FilterBuilder.equalTo(uid);
             ldapFilter = new LdapFilterTranslator(conn.getSchemaMapping(), oclass).
                     createEqualsExpression(filter, false);
@@ -0,0 +1,171 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchResult;
+import net.tirasa.connid.bundles.ldap.LdapConnection;
+import net.tirasa.connid.bundles.ldap.commons.GroupHelper;
+import net.tirasa.connid.bundles.ldap.commons.LdapConstants;
+import net.tirasa.connid.bundles.ldap.commons.LdapEntry;
+import net.tirasa.connid.bundles.ldap.commons.StatusManagement;
+import net.tirasa.connid.bundles.ldap.schema.LdapSchemaMapping;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.Uid;
+
+/**
+ * The attributes to return from a search, resolved once against the schema mapping so that each search result can be
+ * converted to a connector object without looking up the mapping again.
+ */
+final class ProjectionPlan {
+
+    enum Kind {
+
+        LDAP_GROUPS,
+        TRANSITIVE_LDAP_GROUPS,
+        POSIX_GROUPS,
+        MASKED_PASSWORD,
+        VALUES
+
+    }
+
+    static final class Column {
+
+        final String attrName;
+
+        final Kind kind;
+
+        /**
+         * The LDAP attribute to read, including the binary option if needed. Set for {@link Kind#VALUES}, unless the
+         * attribute is not mapped, and for {@link Kind#LDAP_GROUPS} and {@link Kind#TRANSITIVE_LDAP_GROUPS} when
+         * the direct groups are read from the member of attribute instead of searched for.
+         */
+        final String ldapAttrName;
+
+        /**
+         * Whether the LDAP attribute is computed from the entry DN rather than returned by the server.
+         */
+        final boolean dnAttribute;
+
+        Column(final String attrName, final Kind kind, final String ldapAttrName) {
+            this.attrName = attrName;
+            this.kind = kind;
+            this.ldapAttrName = ldapAttrName;
+            this.dnAttribute = ldapAttrName != null && LdapEntry.isDNAttribute(ldapAttrName);
+        }
+    }
+
+    final ObjectClass oclass;
+
+    final Column[] columns;
+
+    final boolean emptyAttrWhenNotFound;
+
+    final StatusManagement statusManagement;
+
+    private final String ldapUidAttr;
+
+    private final boolean uidFromDN;
+
+    ProjectionPlan(
+            final LdapConnection conn,
+            final ObjectClass oclass,
+            final Set<String> attrsToGet,
+            final boolean emptyAttrWhenNotFound) {
+
+        this.oclass = oclass;
+        this.emptyAttrWhenNotFound = emptyAttrWhenNotFound;
+
+        LdapSchemaMapping mapping = conn.getSchemaMapping();
+        boolean retrievePasswords = conn.getConfiguration().getRetrievePasswordsWithSearch();
+
+        List<Column> result = new ArrayList<Column>(attrsToGet.size());
+        for (String attrName : attrsToGet) {
+            if (LdapConstants.isLdapGroups(attrName)) {
+                result.add(new Column(attrName, Kind.LDAP_GROUPS, conn.getMemberOfAttribute()));
+            } else if (LdapConstants.isTransitiveLdapGroups(attrName)) {
+                result.add(new Column(attrName, Kind.TRANSITIVE_LDAP_GROUPS, getTransitiveMemberOfAttribute(conn)));
+            } else if (LdapConstants.isPosixGroups(attrName)) {
+                result.add(new Column(attrName, Kind.POSIX_GROUPS, null));
+            } else if (LdapConstants.PASSWORD.is(attrName) && !retrievePasswords) {
+                result.add(new Column(attrName, Kind.MASKED_PASSWORD, null));
+            } else {
+                result.add(new Column(attrName, Kind.VALUES, mapping.getLdapAttribute(oclass, attrName, true)));
+            }
+        }
+        this.columns = result.toArray(new Column[result.size()]);
+
+        this.ldapUidAttr = mapping.getLdapUidAttribute(oclass);
+        this.uidFromDN = LdapEntry.isDNAttribute(ldapUidAttr);
+
+        this.statusManagement = StatusManagement.getInstance(
+                conn.getConfiguration().getStatusManagementClass());
+    }
+
+    /**
+     * Returns the attribute to read the direct LDAP groups from before walking up the nested groups, or {@code null}
+     * if the groups are to be searched for.
+     */
+    static String getTransitiveMemberOfAttribute(final LdapConnection conn) {
+        // A single in-chain search is cheaper than reading the direct groups and walking up from them.
+        if (new GroupHelper(conn).isInChainSupported()) {
+            return null;
+        }
+        return conn.getMemberOfAttribute();
+    }
+
+    /**
+     * Whether converting an entry needs further searches, i.e. for the group memberships.
+     */
+    boolean needsLookups() {
+        for (Column column : columns) {
+            if (column.kind == Kind.LDAP_GROUPS && column.ldapAttrName == null
+                    || column.kind == Kind.TRANSITIVE_LDAP_GROUPS || column.kind == Kind.POSIX_GROUPS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    Uid createUid(final LdapEntry entry, final SearchResult result) {
+        return LdapSchemaMapping.createUid(ldapUidAttr, uidFromDN ? entry.getAttributes() : result.getAttributes());
+    }
+
+    /**
+     * Returns the LDAP attribute read by the given column, or {@code null}. Only attributes computed from the entry DN
+     * need the {@link LdapEntry} view of the search result.
+     */
+    javax.naming.directory.Attribute getLdapAttribute(
+            final Column column, final LdapEntry entry, final SearchResult result) {
+
+        if (column.ldapAttrName == null) {
+            return null;
+        }
+        Attributes attributes = column.dnAttribute ? entry.getAttributes() : result.getAttributes();
+        return attributes.get(column.ldapAttrName);
+    }
+}
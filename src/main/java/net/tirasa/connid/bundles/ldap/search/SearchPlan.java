@@ -0,0 +1,138 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.search;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import org.identityconnectors.common.StringUtil;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+
+/**
+ * The part of an {@link LdapSearch} which only depends on the object class and the operation options: the
+ * attributes to get, the LDAP attributes to ask the server for, the search scope and the filters to combine with the
+ * query filter. Instances are immutable and shared through the {@link SearchPlanCache} of the connection.
+ *
+ * <p>The combined search filters are simplified by a {@link LdapFilterOptimizer} before being sent.</p>
+ */
+final class SearchPlan {
+
+    final Set<String> attrsToGet;
+
+    private final String[] ldapAttrsToGet;
+
+    final ProjectionPlan projection;
+
+    final int searchScope;
+
+    private final String objectClassFilter;
+
+    private final String optionsFilter;
+
+    private final String configuredFilter;
+
+    private final LdapFilterOptimizer optimizer;
+
+    /**
+     * The search filter for queries without a native filter, such as entry DN lookups.
+     */
+    private final String searchFilter;
+
+    SearchPlan(
+            final Set<String> attrsToGet,
+            final Set<String> ldapAttrsToGet,
+            final ProjectionPlan projection,
+            final int searchScope,
+            final String objectClassFilter,
+            final String optionsFilter,
+            final String configuredFilter,
+            final LdapFilterOptimizer optimizer) {
+
+        this.attrsToGet = Collections.unmodifiableSet(attrsToGet);
+        this.ldapAttrsToGet = ldapAttrsToGet.toArray(new String[ldapAttrsToGet.size()]);
+        this.projection = projection;
+        this.searchScope = searchScope;
+        this.objectClassFilter = objectClassFilter;
+        this.optionsFilter = optionsFilter;
+        this.configuredFilter = configuredFilter;
+        this.optimizer = optimizer;
+        this.searchFilter = optimizer.optimize(
+                LdapSearch.getSearchFilter(objectClassFilter, optionsFilter, null, configuredFilter));
+    }
+
+    String[] getLdapAttributesToGet() {
+        return ldapAttrsToGet.clone();
+    }
+
+    String getSearchFilter(final String nativeFilter) {
+        return StringUtil.isBlank(nativeFilter)
+                ? searchFilter
+                : optimizer.optimize(
+                        LdapSearch.getSearchFilter(objectClassFilter, optionsFilter, nativeFilter, configuredFilter));
+    }
+
+    static final class Key {
+
+        private final ObjectClass oclass;
+
+        private final List<String> attrsToGet;
+
+        private final String scope;
+
+        private final String optionsFilter;
+
+        private final int hashCode;
+
+        Key(final ObjectClass oclass, final String[] attrsToGet, final String scope, final String optionsFilter) {
+            this.oclass = oclass;
+            this.attrsToGet = attrsToGet == null ? null : Arrays.asList(attrsToGet.clone());
+            this.scope = scope;
+            this.optionsFilter = optionsFilter;
+            this.hashCode = Arrays.hashCode(new Object[] { oclass, this.attrsToGet, scope, optionsFilter });
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return oclass.equals(other.oclass)
+                    && (attrsToGet == null ? other.attrsToGet == null : attrsToGet.equals(other.attrsToGet))
+                    && (scope == null ? other.scope == null : scope.equals(other.scope))
+                    && (optionsFilter == null
+                            ? other.optionsFilter == null
+                            : optionsFilter.equals(other.optionsFilter));
+        }
+    }
+}
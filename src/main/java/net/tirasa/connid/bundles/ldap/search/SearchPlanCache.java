@@ -0,0 +1,74 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.search;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least recently used cache of the {@link SearchPlan}s of a connection, so that repeated searches (most
+ * notably the internal entry lookups) do not recompute the attributes to get and the object class filter.
+ */
+public final class SearchPlanCache {
+
+    /**
+     * The search filter option is free text, so the number of distinct plans is not bounded by the schema.
+     */
+    static final int MAX_SIZE = 256;
+
+    private final Map<SearchPlan.Key, SearchPlan> plans =
+            new LinkedHashMap<SearchPlan.Key, SearchPlan>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<SearchPlan.Key, SearchPlan> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    SearchPlan get(final SearchPlan.Key key) {
+        synchronized (plans) {
+            return plans.get(key);
+        }
+    }
+
+    void put(final SearchPlan.Key key, final SearchPlan plan) {
+        synchronized (plans) {
+            plans.put(key, plan);
+        }
+    }
+
+    public int size() {
+        synchronized (plans) {
+            return plans.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (plans) {
+            plans.clear();
+        }
+    }
+}
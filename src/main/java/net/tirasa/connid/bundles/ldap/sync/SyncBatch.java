@@ -0,0 +1,116 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.sync;
+
+import net.tirasa.connid.bundles.ldap.LdapConfiguration;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.identityconnectors.framework.spi.SyncTokenResultsHandler;
+
+/**
+ * Bounds the number of changes read and the time spent by a single sync call, as configured by
+ * {@link LdapConfiguration#getSyncBatchSize()} and {@link LdapConfiguration#getSyncBatchTime()},
+ * and reports the token of the last change read to handlers implementing {@link SyncTokenResultsHandler}.
+ *
+ * The changes which are skipped count as read, so the next sync call does not read them again even
+ * when no delta was delivered after them.
+ */
+public class SyncBatch {
+
+    private static final Log LOG = Log.getLog(SyncBatch.class);
+
+    private final SyncResultsHandler handler;
+
+    private final int size;
+
+    private final long time;
+
+    private final long start;
+
+    private int count;
+
+    private SyncToken lastToken;
+
+    public SyncBatch(final SyncResultsHandler handler, final LdapConfiguration config) {
+        this(handler, config.getSyncBatchSize(), config.getSyncBatchTime());
+    }
+
+    SyncBatch(final SyncResultsHandler handler, final int size, final long time) {
+        this.handler = handler;
+        this.size = size;
+        this.time = time;
+        this.start = System.currentTimeMillis();
+    }
+
+    /**
+     * Records a change which was read, whether a delta was delivered for it or not.
+     *
+     * @param token the token to resume from after this change
+     * @return whether more changes can be read by this sync call
+     */
+    public boolean read(final SyncToken token) {
+        return read(token, 1);
+    }
+
+    /**
+     * Records several changes which were read, for strategies which can only resume after a group of changes.
+     *
+     * @param token the token to resume from after these changes
+     * @param changes the number of changes
+     * @return whether more changes can be read by this sync call
+     */
+    public boolean read(final SyncToken token, final int changes) {
+        count += changes;
+        lastToken = token;
+        return !isFull();
+    }
+
+    public boolean isFull() {
+        if (size > 0 && count >= size) {
+            LOG.ok("Sync batch size of {0} changes reached", size);
+            return true;
+        }
+        if (time > 0 && System.currentTimeMillis() - start >= time) {
+            LOG.ok("Sync batch time of {0} ms reached after {1} changes", time, count);
+            return true;
+        }
+        return false;
+    }
+
+    public SyncToken getLastToken() {
+        return lastToken;
+    }
+
+    /**
+     * Reports the token of the last change read, if any. Not to be called when the handler
+     * stopped the sync, since the change it was given may not have been processed.
+     */
+    public void finish() {
+        if (lastToken != null && handler instanceof SyncTokenResultsHandler) {
+            LOG.ok("Reporting sync token {0} after {1} changes", lastToken.getValue(), count);
+            ((SyncTokenResultsHandler) handler).handleResult(lastToken);
+        }
+    }
+}
@@ -0,0 +1,395 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.sync.ad;
+
+import static net.tirasa.connid.bundles.ldap.commons.LdapUtil.addStringAttrValues;
+import static net.tirasa.connid.bundles.ldap.commons.LdapUtil.getStringAttrValue;
+import static net.tirasa.connid.bundles.ldap.commons.LdapUtil.isUnderContexts;
+import static net.tirasa.connid.bundles.ldap.commons.LdapUtil.quietCreateLdapName;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+import net.tirasa.connid.bundles.ldap.LdapConnection;
+import net.tirasa.connid.bundles.ldap.commons.LdapConstants;
+import net.tirasa.connid.bundles.ldap.commons.LdapEntry;
+import net.tirasa.connid.bundles.ldap.search.LdapInternalSearch;
+import net.tirasa.connid.bundles.ldap.search.LdapSearch;
+import net.tirasa.connid.bundles.ldap.sync.LdapSyncStrategy;
+import net.tirasa.connid.bundles.ldap.sync.SyncBatch;
+import org.identityconnectors.common.CollectionUtil;
+import org.identityconnectors.common.StringUtil;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.AttributeUtil;
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.SyncDeltaBuilder;
+import org.identityconnectors.framework.common.objects.SyncDeltaType;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.identityconnectors.framework.common.objects.Uid;
+
+/**
+ * An implementation of the sync operation for Active Directory, based on the DirSync control.
+ *
+ * The server only returns the entries changed since the cookie, with the changed attributes among
+ * the requested ones; the delta objects therefore only contain those attributes. Deleted entries
+ * are returned as tombstones and reported as deletions when they still carry the Uid attribute,
+ * which is the case for {@code objectGUID}.
+ *
+ * The cookie is the value of the sync token. Since a cookie only applies once a whole DirSync round
+ * was read, all the deltas of a round carry the cookie the round started from, except the last one:
+ * resuming after an interrupted round reads that round again. The deltas are handled as the entries
+ * are read, each one once the next one is known, so that a round is never held in memory.
+ */
+public class ADDirSyncStrategy implements LdapSyncStrategy {
+
+    private static final Log LOG = Log.getLog(ADDirSyncStrategy.class);
+
+    static final String IS_DELETED = "isDeleted";
+
+    private static final int FLAGS = DirSyncControl.OBJECT_SECURITY | DirSyncControl.ANCESTORS_FIRST_ORDER;
+
+    // The special attribute list asking for no attributes at all.
+    private static final String[] NO_ATTRIBUTES = { "1.1" };
+
+    private final LdapConnection conn;
+
+    private final ObjectClass oclass;
+
+    public ADDirSyncStrategy(final LdapConnection conn, final ObjectClass oclass) {
+        this.conn = conn;
+        this.oclass = oclass;
+    }
+
+    @Override
+    public SyncToken getLatestSyncToken() {
+        // There is no way to ask for the current cookie: read and discard all the changes, without their attributes.
+        byte[] cookie = readChanges(null, Collections.<String>emptySet(), null);
+        return new SyncToken(cookie == null ? new byte[0] : cookie);
+    }
+
+    @Override
+    public void sync(
+            final SyncToken token,
+            final SyncResultsHandler handler,
+            final OperationOptions options) {
+
+        Set<String> attrsToGet = CollectionUtil.newCaseInsensitiveSet();
+        if (options.getAttributesToGet() != null) {
+            attrsToGet.addAll(Arrays.asList(options.getAttributesToGet()));
+        } else {
+            attrsToGet.addAll(LdapSearch.getAttributesReturnedByDefault(conn, oclass));
+        }
+
+        readChanges(getCookie(token), attrsToGet, handler);
+    }
+
+    /**
+     * Reads the changes since the given cookie, passing them to the handler if not {@code null}; without
+     * a handler, only the entry names are read. Returns the cookie to start from next time, or
+     * {@code null} if the handler stopped.
+     */
+    private byte[] readChanges(
+            final byte[] startCookie,
+            final Set<String> attrsToGet,
+            final SyncResultsHandler handler) {
+        if (!conn.supportsControl(DirSyncControl.OID)) {
+            throw new ConnectorException("The server does not support the DirSync control");
+        }
+
+        String namingContext = getNamingContext();
+        String filter = getSearchFilter();
+
+        SearchControls controls = LdapInternalSearch.createDefaultSearchControls();
+        controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        if (handler == null) {
+            controls.setReturningAttributes(NO_ATTRIBUTES);
+        } else {
+            Set<String> ldapAttrsToGet = getLdapAttributesToGet(attrsToGet);
+            controls.setReturningAttributes(ldapAttrsToGet.toArray(new String[ldapAttrsToGet.size()]));
+        }
+
+        LOG.ok("Reading changes in {0} with filter {1}", namingContext, filter);
+
+        SyncBatch batch = handler == null ? null : new SyncBatch(handler, conn.getConfiguration());
+        byte[] cookie = startCookie;
+        try {
+            LdapContext ctx = conn.getInitialContext().newInstance(null);
+            try {
+                DirSyncResponseControl response;
+                do {
+                    ctx.setRequestControls(new Control[] {
+                        new DirSyncControl(FLAGS, Integer.MAX_VALUE, cookie, Control.CRITICAL) });
+
+                    SyncToken startToken = new SyncToken(cookie == null ? new byte[0] : cookie);
+                    SyncDeltaBuilder pending = null;
+                    int count = 0;
+                    NamingEnumeration<SearchResult> results = ctx.search(namingContext, filter, controls);
+                    try {
+                        while (results.hasMore()) {
+                            SearchResult result = results.next();
+                            count++;
+                            if (handler == null) {
+                                continue;
+                            }
+                            SyncDeltaBuilder syncDeltaBuilder =
+                                    createSyncDelta(LdapEntry.create(namingContext, result), attrsToGet);
+                            if (syncDeltaBuilder == null) {
+                                continue;
+                            }
+                            // Only the last delta of the round gets the new cookie, so wait for the next one.
+                            if (pending != null && !handle(pending, startToken, handler)) {
+                                return null;
+                            }
+                            pending = syncDeltaBuilder;
+                        }
+                    } finally {
+                        results.close();
+                    }
+
+                    response = DirSyncResponseControl.find(ctx.getResponseControls());
+                    if (response == null) {
+                        throw new ConnectorException("The server did not return a DirSync response control");
+                    }
+                    LOG.ok("Read a DirSync round of {0} changed entries", count);
+
+                    cookie = response.getCookie();
+                    if (pending != null && !handle(pending, new SyncToken(cookie), handler)) {
+                        return null;
+                    }
+                    if (batch != null) {
+                        // The cookie only applies at the end of a round, so the batch can only end there.
+                        batch.read(new SyncToken(cookie), count);
+                    }
+                } while (response.hasMoreResults() && (batch == null || !batch.isFull()));
+            } finally {
+                ctx.close();
+            }
+        } catch (NamingException e) {
+            throw new ConnectorException(e);
+        }
+
+        if (batch != null) {
+            batch.finish();
+        }
+        return cookie;
+    }
+
+    private static boolean handle(
+            final SyncDeltaBuilder syncDeltaBuilder,
+            final SyncToken token,
+            final SyncResultsHandler handler) {
+
+        syncDeltaBuilder.setToken(token);
+        return handler.handle(syncDeltaBuilder.build());
+    }
+
+    private SyncDeltaBuilder createSyncDelta(final LdapEntry entry, final Set<String> attrsToGet) {
+        String uidAttr = conn.getSchemaMapping().getLdapUidAttribute(oclass);
+        boolean hasUid = entry.getAttributes().get(uidAttr) != null;
+
+        SyncDeltaBuilder syncDeltaBuilder = new SyncDeltaBuilder();
+
+        if ("TRUE".equalsIgnoreCase(getStringAttrValue(entry.getAttributes(), IS_DELETED))) {
+            // The tombstone has moved to the deleted objects container, so do not filter by base contexts.
+            if (!hasUid) {
+                LOG.warn("Skipping deleted entry {0} because it has no {1} attribute", entry.getDN(), uidAttr);
+                return null;
+            }
+            Uid deletedUid = conn.getSchemaMapping().createUid(oclass, entry);
+            LOG.ok("Creating sync delta for deleted entry {0}", deletedUid);
+
+            ConnectorObjectBuilder objectBuilder = new ConnectorObjectBuilder();
+            objectBuilder.setObjectClass(oclass);
+            objectBuilder.setUid(deletedUid);
+            objectBuilder.setName(entry.getDN().toString());
+            objectBuilder.addAttributes(Collections.<Attribute>emptySet());
+
+            syncDeltaBuilder.setDeltaType(SyncDeltaType.DELETE);
+            syncDeltaBuilder.setUid(deletedUid);
+            syncDeltaBuilder.setObject(objectBuilder.build());
+            return syncDeltaBuilder;
+        }
+
+        if (!isUnderContexts(entry.getDN(), getBaseContextsToSynchronize())) {
+            LOG.ok("Skipping entry {0} because it does not match any of the base contexts to synchronize",
+                    entry.getDN());
+            return null;
+        }
+
+        // The Uid attribute is only returned when it changed, unless it is objectGUID.
+        Uid uid = hasUid
+                ? conn.getSchemaMapping().createUid(oclass, entry)
+                : conn.getSchemaMapping().createUid(oclass, entry.getDN().toString());
+
+        ConnectorObjectBuilder objectBuilder = new ConnectorObjectBuilder();
+        objectBuilder.setObjectClass(oclass);
+        objectBuilder.setUid(uid);
+        objectBuilder.setName(conn.getSchemaMapping().createName(oclass, entry));
+        for (String attrName : attrsToGet) {
+            if (AttributeUtil.isSpecialName(attrName)
+                    || LdapConstants.isLdapGroups(attrName)
+                    || LdapConstants.isTransitiveLdapGroups(attrName)
+                    || LdapConstants.isPosixGroups(attrName)
+                    || LdapConstants.isAliasGroups(attrName)) {
+                continue;
+            }
+            // Only the changed attributes are returned, so do not add empty attributes for the missing ones.
+            Attribute attribute = conn.getSchemaMapping().createAttribute(oclass, attrName, entry, false);
+            if (attribute != null) {
+                objectBuilder.addAttribute(attribute);
+            }
+        }
+
+        LOG.ok("Creating sync delta for created or updated entry {0}", uid);
+        syncDeltaBuilder.setDeltaType(SyncDeltaType.CREATE_OR_UPDATE);
+        syncDeltaBuilder.setUid(uid);
+        syncDeltaBuilder.setObject(objectBuilder.build());
+        return syncDeltaBuilder;
+    }
+
+    private Set<String> getLdapAttributesToGet(final Set<String> attrsToGet) {
+        Set<String> cleanAttrsToGet = CollectionUtil.newCaseInsensitiveSet();
+        cleanAttrsToGet.addAll(attrsToGet);
+        cleanAttrsToGet.remove(LdapConstants.LDAP_GROUPS_NAME);
+        cleanAttrsToGet.remove(LdapConstants.TRANSITIVE_LDAP_GROUPS_NAME);
+        cleanAttrsToGet.remove(LdapConstants.POSIX_GROUPS_NAME);
+        cleanAttrsToGet.remove(LdapConstants.ALIAS_GROUPS_NAME);
+
+        Set<String> result = conn.getSchemaMapping().getLdapAttributes(oclass, cleanAttrsToGet, true);
+        result.add(conn.getSchemaMapping().getLdapUidAttribute(oclass));
+        result.add(IS_DELETED);
+        result.removeAll(LdapEntry.ENTRY_DN_ATTRS);
+        return result;
+    }
+
+    private String getSearchFilter() {
+        StringBuilder builder = new StringBuilder();
+        List<String> ldapClasses = conn.getSchemaMapping().getLdapClasses(oclass);
+        for (String ldapClass : ldapClasses) {
+            builder.append("(objectClass=").append(ldapClass).append(')');
+        }
+
+        String syncFilter = null;
+        if (oclass.equals(ObjectClass.ACCOUNT)) {
+            syncFilter = conn.getConfiguration().getAccountSynchronizationFilter();
+        }
+        if (StringUtil.isNotBlank(syncFilter)) {
+            syncFilter = syncFilter.trim();
+            if (syncFilter.charAt(0) != '(') {
+                syncFilter = "(" + syncFilter + ")";
+            }
+            // The tombstones do not keep most attributes, so they would not match the filter.
+            builder.append("(|(").append(IS_DELETED).append("=TRUE)").append(syncFilter).append(')');
+        }
+
+        if (builder.length() == 0) {
+            return "(objectClass=*)";
+        }
+        return ldapClasses.size() + (StringUtil.isNotBlank(syncFilter) ? 1 : 0) > 1
+                ? "(&" + builder + ")"
+                : builder.toString();
+    }
+
+    private List<LdapName> getBaseContextsToSynchronize() {
+        List<LdapName> baseContexts = conn.getConfiguration().getBaseContextsToSynchronizeAsLdapNames();
+        if (baseContexts.isEmpty()) {
+            baseContexts = conn.getConfiguration().getBaseContextsAsLdapNames();
+        }
+        return baseContexts;
+    }
+
+    /**
+     * Returns the naming context containing the base contexts to synchronize, since DirSync
+     * only accepts the root of a naming context as search base.
+     */
+    private String getNamingContext() {
+        List<LdapName> namingContexts = new ArrayList<LdapName>();
+        try {
+            Attributes attrs = conn.getInitialContext().getAttributes("", new String[] { "namingContexts" });
+            Set<String> values = CollectionUtil.newCaseInsensitiveSet();
+            addStringAttrValues(attrs, "namingContexts", values);
+            for (String value : values) {
+                namingContexts.add(quietCreateLdapName(value));
+            }
+        } catch (NamingException e) {
+            throw new ConnectorException(e);
+        }
+
+        LdapName result = null;
+        for (LdapName baseContext : getBaseContextsToSynchronize()) {
+            LdapName namingContext = getNamingContext(baseContext, namingContexts);
+            if (namingContext == null) {
+                throw new ConnectorException("No naming context found for " + baseContext);
+            }
+            if (result == null) {
+                result = namingContext;
+            } else if (!result.equals(namingContext)) {
+                throw new ConnectorException("All the base contexts to synchronize must belong to the same naming "
+                        + "context, found " + result + " and " + namingContext);
+            }
+        }
+        if (result == null) {
+            throw new ConnectorException("No base context to synchronize");
+        }
+        return result.toString();
+    }
+
+    static LdapName getNamingContext(final LdapName baseContext, final List<LdapName> namingContexts) {
+        LdapName result = null;
+        for (LdapName namingContext : namingContexts) {
+            // The innermost naming context wins, e.g. a child domain over its parent.
+            if (baseContext.startsWith(namingContext)
+                    && (result == null || namingContext.size() > result.size())) {
+                result = namingContext;
+            }
+        }
+        return result;
+    }
+
+    static byte[] getCookie(final SyncToken token) {
+        if (token == null) {
+            return null;
+        }
+        if (!(token.getValue() instanceof byte[])) {
+            throw new ConnectorException("Invalid DirSync sync token: " + token.getValue());
+        }
+        byte[] cookie = (byte[]) token.getValue();
+        return cookie.length == 0 ? null : cookie;
+    }
+}
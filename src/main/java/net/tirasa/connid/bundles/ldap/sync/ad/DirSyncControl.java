@@ -0,0 +1,127 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.sync.ad;
+
+import java.io.ByteArrayOutputStream;
+import javax.naming.ldap.BasicControl;
+
+/**
+ * The Active Directory DirSync request control (1.2.840.113556.1.4.841).
+ *
+ * The control value is the BER encoding of:
+ * <pre>
+ * realReplControlValue ::= SEQUENCE {
+ *     parentsFirst          INTEGER
+ *     maxAttributeCount     INTEGER
+ *     cookie                OCTET STRING
+ * }
+ * </pre>
+ * where {@code parentsFirst} actually holds the flags.
+ */
+public class DirSyncControl extends BasicControl {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String OID = "1.2.840.113556.1.4.841";
+
+    /**
+     * Only return the objects and attributes the caller is allowed to read, instead of requiring
+     * the "Replicating Directory Changes" right.
+     */
+    public static final int OBJECT_SECURITY = 0x00000001;
+
+    /**
+     * Return the parents before their children.
+     */
+    public static final int ANCESTORS_FIRST_ORDER = 0x00000800;
+
+    /**
+     * Do not return secret data, such as password hashes.
+     */
+    public static final int PUBLIC_DATA_ONLY = 0x00002000;
+
+    /**
+     * Only return the changed values of multi-valued attributes.
+     */
+    public static final int INCREMENTAL_VALUES = 0x80000000;
+
+    static final int TAG_INTEGER = 0x02;
+
+    static final int TAG_OCTET_STRING = 0x04;
+
+    static final int TAG_SEQUENCE = 0x30;
+
+    public DirSyncControl(
+            final int flags, final int maxAttributeCount, final byte[] cookie, final boolean criticality) {
+        super(OID, criticality, encodeValue(flags, maxAttributeCount, cookie));
+    }
+
+    static byte[] encodeValue(final int flags, final int maxAttributeCount, final byte[] cookie) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        encodeInteger(flags, content);
+        encodeInteger(maxAttributeCount, content);
+        encode(TAG_OCTET_STRING, cookie == null ? new byte[0] : cookie, content);
+
+        ByteArrayOutputStream value = new ByteArrayOutputStream();
+        encode(TAG_SEQUENCE, content.toByteArray(), value);
+        return value.toByteArray();
+    }
+
+    private static void encodeInteger(final int value, final ByteArrayOutputStream out) {
+        // Two's complement, big endian, without redundant leading bytes.
+        int length = 4;
+        while (length > 1) {
+            int leading = (value >> ((length - 1) * 8)) & 0xFF;
+            int next = (value >> ((length - 2) * 8)) & 0x80;
+            if ((leading == 0x00 && next == 0) || (leading == 0xFF && next != 0)) {
+                length--;
+            } else {
+                break;
+            }
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (value >> ((length - 1 - i) * 8));
+        }
+        encode(TAG_INTEGER, bytes, out);
+    }
+
+    private static void encode(final int tag, final byte[] content, final ByteArrayOutputStream out) {
+        out.write(tag);
+        int length = content.length;
+        if (length < 0x80) {
+            out.write(length);
+        } else {
+            int count = 0;
+            for (int l = length; l > 0; l >>= 8) {
+                count++;
+            }
+            out.write(0x80 | count);
+            for (int i = count - 1; i >= 0; i--) {
+                out.write(length >> (i * 8));
+            }
+        }
+        out.write(content, 0, content.length);
+    }
+}
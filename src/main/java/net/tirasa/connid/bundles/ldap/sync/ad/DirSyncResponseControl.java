@@ -0,0 +1,142 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.sync.ad;
+
+import java.util.Arrays;
+import javax.naming.ldap.Control;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * The Active Directory DirSync response control. Its value has the same structure as the
+ * request one, with the flags telling whether more changes are available.
+ */
+public final class DirSyncResponseControl {
+
+    private final boolean moreResults;
+
+    private final byte[] cookie;
+
+    private DirSyncResponseControl(final boolean moreResults, final byte[] cookie) {
+        this.moreResults = moreResults;
+        this.cookie = cookie;
+    }
+
+    /**
+     * Returns the DirSync response control among the given ones, or {@code null} if there is none.
+     * JNDI does not know this control, so it is returned as a generic control to decode here.
+     */
+    public static DirSyncResponseControl find(final Control[] controls) {
+        if (controls != null) {
+            for (Control control : controls) {
+                if (DirSyncControl.OID.equals(control.getID())) {
+                    return decode(control.getEncodedValue());
+                }
+            }
+        }
+        return null;
+    }
+
+    static DirSyncResponseControl decode(final byte[] value) {
+        Reader reader = new Reader(value);
+        Reader sequence = new Reader(reader.read(DirSyncControl.TAG_SEQUENCE));
+        int flags = sequence.readInteger();
+        // The maximum attribute count is meaningless in the response.
+        sequence.readInteger();
+        byte[] cookie = sequence.read(DirSyncControl.TAG_OCTET_STRING);
+        return new DirSyncResponseControl(flags != 0, cookie);
+    }
+
+    /**
+     * Whether the server has more changes to return, which should be read with the new cookie.
+     */
+    public boolean hasMoreResults() {
+        return moreResults;
+    }
+
+    public byte[] getCookie() {
+        return cookie;
+    }
+
+    @Override
+    public String toString() {
+        return "DirSyncResponseControl[moreResults=" + moreResults + ", cookie=" + Arrays.toString(cookie) + "]";
+    }
+
+    private static final class Reader {
+
+        private final byte[] bytes;
+
+        private int offset;
+
+        Reader(final byte[] bytes) {
+            if (bytes == null) {
+                throw new ConnectorException("Empty DirSync response control");
+            }
+            this.bytes = bytes;
+        }
+
+        int readInteger() {
+            byte[] content = read(DirSyncControl.TAG_INTEGER);
+            if (content.length == 0 || content.length > 4) {
+                throw new ConnectorException("Invalid INTEGER in DirSync response control");
+            }
+            // Sign extension of the first byte.
+            int result = content[0];
+            for (int i = 1; i < content.length; i++) {
+                result = (result << 8) | (content[i] & 0xFF);
+            }
+            return result;
+        }
+
+        byte[] read(final int tag) {
+            if (readByte() != tag) {
+                throw new ConnectorException("Unexpected BER tag in DirSync response control");
+            }
+            int length = readByte();
+            if ((length & 0x80) != 0) {
+                int count = length & 0x7F;
+                if (count == 0 || count > 4) {
+                    throw new ConnectorException("Invalid BER length in DirSync response control");
+                }
+                length = 0;
+                for (int i = 0; i < count; i++) {
+                    length = (length << 8) | readByte();
+                }
+            }
+            if (length < 0 || offset + length > bytes.length) {
+                throw new ConnectorException("Truncated DirSync response control");
+            }
+            byte[] content = Arrays.copyOfRange(bytes, offset, offset + length);
+            offset += length;
+            return content;
+        }
+
+        private int readByte() {
+            if (offset >= bytes.length) {
+                throw new ConnectorException("Truncated DirSync response control");
+            }
+            return bytes[offset++] & 0xFF;
+        }
+    }
+}
@@ -26,10 +26,10 @@ package net.tirasa.connid.bundles.ldap.sync.sunds;
 public final class ChangeLogAttributes {
 
     private String changeLogContext;
-    private int firstChangeNumber;
-    private int lastChangeNumber;
+    private long firstChangeNumber;
+    private long lastChangeNumber;
 
-    public ChangeLogAttributes(String changeLogContext, int firstChangeNumber, int lastChangeNumber) {
+    public ChangeLogAttributes(String changeLogContext, long firstChangeNumber, long lastChangeNumber) {
         this.changeLogContext = changeLogContext;
         this.firstChangeNumber = firstChangeNumber;
         this.lastChangeNumber = lastChangeNumber;
@@ -39,11 +39,11 @@ public final class ChangeLogAttributes {
         return changeLogContext;
     }
 
-    public int getFirstChangeNumber() {
+    public long getFirstChangeNumber() {
         return firstChangeNumber;
     }
 
-    public int getLastChangeNumber() {
+    public long getLastChangeNumber() {
         return lastChangeNumber;
     }
 }
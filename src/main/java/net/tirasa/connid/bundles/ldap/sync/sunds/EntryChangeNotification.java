@@ -0,0 +1,97 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.sync.sunds;
+
+/**
+ * A change reported by a persistent search through the Entry Change Notification control.
+ */
+public final class EntryChangeNotification {
+
+    private final long changeNumber;
+
+    private final String changeType;
+
+    private final String targetDN;
+
+    private final String newTargetDN;
+
+    private final String targetEntryUUID;
+
+    private final String modifiersName;
+
+    public EntryChangeNotification(
+            final long changeNumber,
+            final String changeType,
+            final String targetDN,
+            final String newTargetDN,
+            final String targetEntryUUID,
+            final String modifiersName) {
+
+        this.changeNumber = changeNumber;
+        this.changeType = changeType;
+        this.targetDN = targetDN;
+        this.newTargetDN = newTargetDN;
+        this.targetEntryUUID = targetEntryUUID;
+        this.modifiersName = modifiersName;
+    }
+
+    public long getChangeNumber() {
+        return changeNumber;
+    }
+
+    /**
+     * Returns the change type using the names of the retro change log: "add", "delete", "modify" or "modrdn".
+     */
+    public String getChangeType() {
+        return changeType;
+    }
+
+    /**
+     * Returns the DN of the entry before the change.
+     */
+    public String getTargetDN() {
+        return targetDN;
+    }
+
+    /**
+     * Returns the DN of the entry after the change; it only differs from the target DN for "modrdn" changes.
+     */
+    public String getNewTargetDN() {
+        return newTargetDN;
+    }
+
+    public String getTargetEntryUUID() {
+        return targetEntryUUID;
+    }
+
+    public String getModifiersName() {
+        return modifiersName;
+    }
+
+    @Override
+    public String toString() {
+        return "EntryChangeNotification[changeNumber: " + changeNumber + "; changeType: " + changeType
+                + "; targetDN: " + targetDN + "]";
+    }
+}
@@ -0,0 +1,175 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.sync.sunds;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import javax.naming.ldap.Control;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * The Entry Change Notification response control (2.16.840.1.113730.3.4.7), returned with each
+ * entry of a persistent search. Its value is the BER encoding of:
+ * <pre>
+ * EntryChangeNotification ::= SEQUENCE {
+ *     changeType     ENUMERATED,
+ *     previousDN     LDAPDN OPTIONAL,
+ *     changeNumber   INTEGER OPTIONAL
+ * }
+ * </pre>
+ * where the change type is one of the {@link PersistentSearchControl} change types.
+ */
+public final class EntryChangeResponseControl {
+
+    public static final String OID = "2.16.840.1.113730.3.4.7";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int changeType;
+
+    private final String previousDN;
+
+    private final long changeNumber;
+
+    private EntryChangeResponseControl(final int changeType, final String previousDN, final long changeNumber) {
+        this.changeType = changeType;
+        this.previousDN = previousDN;
+        this.changeNumber = changeNumber;
+    }
+
+    /**
+     * Returns the entry change response control among the given ones, or {@code null} if there is none.
+     * JNDI does not know this control, so it is returned as a generic control to decode here.
+     */
+    public static EntryChangeResponseControl find(final Control[] controls) {
+        if (controls != null) {
+            for (Control control : controls) {
+                if (OID.equals(control.getID())) {
+                    return decode(control.getEncodedValue());
+                }
+            }
+        }
+        return null;
+    }
+
+    static EntryChangeResponseControl decode(final byte[] value) {
+        Reader reader = new Reader(value);
+        Reader sequence = new Reader(reader.read(PersistentSearchControl.TAG_SEQUENCE));
+        int changeType = (int) sequence.readInteger(PersistentSearchControl.TAG_ENUMERATED);
+        String previousDN = null;
+        if (sequence.hasMore(PersistentSearchControl.TAG_OCTET_STRING)) {
+            previousDN = new String(sequence.read(PersistentSearchControl.TAG_OCTET_STRING), UTF8);
+        }
+        long changeNumber = -1;
+        if (sequence.hasMore(PersistentSearchControl.TAG_INTEGER)) {
+            changeNumber = sequence.readInteger(PersistentSearchControl.TAG_INTEGER);
+        }
+        return new EntryChangeResponseControl(changeType, previousDN, changeNumber);
+    }
+
+    public int getChangeType() {
+        return changeType;
+    }
+
+    /**
+     * The DN the entry had before a rename, or {@code null}.
+     */
+    public String getPreviousDN() {
+        return previousDN;
+    }
+
+    /**
+     * The change number of the change in the retro change log, or {@code -1} if the server did not return it.
+     */
+    public long getChangeNumber() {
+        return changeNumber;
+    }
+
+    @Override
+    public String toString() {
+        return "EntryChangeResponseControl[changeType=" + changeType + ", previousDN=" + previousDN
+                + ", changeNumber=" + changeNumber + "]";
+    }
+
+    private static final class Reader {
+
+        private final byte[] bytes;
+
+        private int offset;
+
+        Reader(final byte[] bytes) {
+            if (bytes == null) {
+                throw new ConnectorException("Empty entry change response control");
+            }
+            this.bytes = bytes;
+        }
+
+        boolean hasMore(final int tag) {
+            return offset < bytes.length && (bytes[offset] & 0xFF) == tag;
+        }
+
+        long readInteger(final int tag) {
+            byte[] content = read(tag);
+            if (content.length == 0 || content.length > 8) {
+                throw new ConnectorException("Invalid INTEGER in entry change response control");
+            }
+            // Sign extension of the first byte.
+            long result = content[0];
+            for (int i = 1; i < content.length; i++) {
+                result = (result << 8) | (content[i] & 0xFF);
+            }
+            return result;
+        }
+
+        byte[] read(final int tag) {
+            if (readByte() != tag) {
+                throw new ConnectorException("Unexpected BER tag in entry change response control");
+            }
+            int length = readByte();
+            if ((length & 0x80) != 0) {
+                int count = length & 0x7F;
+                if (count == 0 || count > 4) {
+                    throw new ConnectorException("Invalid BER length in entry change response control");
+                }
+                length = 0;
+                for (int i = 0; i < count; i++) {
+                    length = (length << 8) | readByte();
+                }
+            }
+            if (length < 0 || offset + length > bytes.length) {
+                throw new ConnectorException("Truncated entry change response control");
+            }
+            byte[] content = Arrays.copyOfRange(bytes, offset, offset + length);
+            offset += length;
+            return content;
+        }
+
+        private int readByte() {
+            if (offset >= bytes.length) {
+                throw new ConnectorException("Truncated entry change response control");
+            }
+            return bytes[offset++] & 0xFF;
+        }
+    }
+}
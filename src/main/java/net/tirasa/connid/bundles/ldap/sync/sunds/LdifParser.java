@@ -23,56 +23,45 @@
  */
 package net.tirasa.connid.bundles.ldap.sync.sunds;
 
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
 import java.util.NoSuchElementException;
 
+/**
+ * Parses the LDIF of a change log entry. The lines are read and unfolded lazily in a single pass,
+ * only allocating the names and values returned.
+ */
 public class LdifParser implements Iterable<LdifParser.Line> {
 
-    private final String ldif;
+    private final CharSequence ldif;
 
-    public LdifParser(String ldif) {
+    public LdifParser(CharSequence ldif) {
         this.ldif = ldif;
     }
 
     public Iterator<Line> iterator() {
-        return new LineIterator(getUnfoldedLines());
-    }
-
-    private List<String> getUnfoldedLines() {
-        String[] lines = ldif.split("\n", -1);
-        ArrayList<String> result = new ArrayList<String>(lines.length);
-        StringBuilder builder = null;
-        for (String line : lines) {
-            if (line.startsWith(" ")) {
-                String content = line.substring(1);
-                if (builder == null) {
-                    builder = new StringBuilder(content);
-                } else {
-                    builder.append(content);
-                }
-            } else {
-                if (builder != null) {
-                    result.add(builder.toString());
-                }
-                builder = new StringBuilder(line);
-            }
-        }
-        if (builder != null) {
-            result.add(builder.toString());
-        }
-        return result;
+        return new LineIterator(ldif);
     }
 
     private static final class LineIterator implements Iterator<Line> {
 
-        private final Iterator<String> rawLines;
+        private final CharSequence ldif;
+
+        // Only used for folded lines, reused across them.
+        private final StringBuilder folded = new StringBuilder();
+
+        // The start of the next physical line, or -1 after the last one.
+        private int position;
+
+        // The current unfolded line.
+        private CharSequence text;
+        private int start;
+        private int end;
+
         private Line lastLine;
         private Line next;
 
-        public LineIterator(List<String> rawLines) {
-            this.rawLines = rawLines.iterator();
+        public LineIterator(CharSequence ldif) {
+            this.ldif = ldif;
         }
 
         public boolean hasNext() {
@@ -96,18 +85,15 @@ public class LdifParser implements Iterable<LdifParser.Line> {
 
         private Line getNext() {
             Line result = null;
-            while (result == null && rawLines.hasNext()) {
-                String rawLine = rawLines.next();
-                if (rawLine.trim().length() == 0 && lastLine != ChangeSeparator.INSTANCE) {
+            while (result == null && nextUnfoldedLine()) {
+                if (isBlank() && lastLine != ChangeSeparator.INSTANCE) {
                     result = ChangeSeparator.INSTANCE;
-                } else if (rawLine.startsWith("-") && lastLine != Separator.INSTANCE) {
+                } else if (start < end && text.charAt(start) == '-' && lastLine != Separator.INSTANCE) {
                     result = Separator.INSTANCE;
                 } else {
-                    int sepIndex = rawLine.indexOf(':');
-                    if (sepIndex > 0) {
-                        String name = rawLine.substring(0, sepIndex).trim();
-                        String value = rawLine.substring(sepIndex + 1).trim();
-                        result = new NameValue(name, value);
+                    int sepIndex = indexOf(':');
+                    if (sepIndex > start) {
+                        result = new NameValue(trimmed(start, sepIndex), trimmed(sepIndex + 1, end));
                     }
                 }
             }
@@ -119,6 +105,79 @@ public class LdifParser implements Iterable<LdifParser.Line> {
             return result;
         }
 
+        /**
+         * Moves to the next line, appending the continuation lines (starting with a space) to it.
+         */
+        private boolean nextUnfoldedLine() {
+            if (position < 0) {
+                return false;
+            }
+            text = ldif;
+            start = position;
+            end = lineEnd(position);
+            if (start == 0 && start < end && ldif.charAt(start) == ' ') {
+                // A continuation without a line to continue.
+                start++;
+            }
+            position = end < ldif.length() ? end + 1 : -1;
+
+            boolean isFolded = false;
+            while (position >= 0 && position < ldif.length() && ldif.charAt(position) == ' ') {
+                if (!isFolded) {
+                    folded.setLength(0);
+                    folded.append(ldif, start, end);
+                    isFolded = true;
+                }
+                int continuationEnd = lineEnd(position);
+                folded.append(ldif, position + 1, continuationEnd);
+                position = continuationEnd < ldif.length() ? continuationEnd + 1 : -1;
+            }
+            if (isFolded) {
+                text = folded;
+                start = 0;
+                end = folded.length();
+            }
+            return true;
+        }
+
+        private int lineEnd(int from) {
+            int length = ldif.length();
+            for (int i = from; i < length; i++) {
+                if (ldif.charAt(i) == '\n') {
+                    return i;
+                }
+            }
+            return length;
+        }
+
+        private boolean isBlank() {
+            for (int i = start; i < end; i++) {
+                if (text.charAt(i) > ' ') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int indexOf(char c) {
+            for (int i = start; i < end; i++) {
+                if (text.charAt(i) == c) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private String trimmed(int from, int to) {
+            while (from < to && text.charAt(from) <= ' ') {
+                from++;
+            }
+            while (to > from && text.charAt(to - 1) <= ' ') {
+                to--;
+            }
+            return text.subSequence(from, to).toString();
+        }
+
         public void remove() {
             throw new UnsupportedOperationException();
         }
@@ -23,22 +23,38 @@
  */
 package net.tirasa.connid.bundles.ldap.sync.sunds;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 import org.identityconnectors.common.Assertions;
+import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
 
+/**
+ * Decrypts the passwords stored in the change log by the password synchronization plugin.
+ *
+ * Instances are thread safe: each call decrypts with a {@link Cipher} and buffers of its own, which are
+ * cleared after each password and kept for the next calls, up to a few of them. The connection shares its
+ * instance among the sync calls, see {@link net.tirasa.connid.bundles.ldap.LdapConnection#getPasswordDecryptor},
+ * and {@link #dispose disposes} of it when closed.
+ */
 public class PasswordDecryptor {
     
     private static final String ENCRYPTION_ALGORITHM = "DESede/CBC/NoPadding";
@@ -49,24 +65,72 @@ public class PasswordDecryptor {
     
     // Decrypted password format: (4 bytes) magic, (4 bytes) length, password, (4 bytes) magic, padding.
     private static final int LENGTH_INDEX = 4;
-    
-    private final Cipher cipher;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // How many idle ciphers and buffers are kept; more concurrent calls create and drop their own.
+    private static final int MAX_IDLE_BUFFERS = 4;
+
+    private final SecretKeySpec keyspec;
+    private final IvParameterSpec ivspec;
     private final int blockSize;
 
+    // Guarded by itself.
+    private final Deque<Buffers> idleBuffers = new ArrayDeque<Buffers>();
+
+    private boolean disposed;
+
     public PasswordDecryptor(byte[] desedeKey, byte[] iv) {
         Assertions.nullCheck(desedeKey, "desedeKey");
         Assertions.nullCheck(iv, "iv");
 
-        IvParameterSpec ivspec = new IvParameterSpec(iv);
+        ivspec = new IvParameterSpec(iv);
         // triple-DES key is used
-        SecretKeySpec keyspec = new SecretKeySpec(desedeKey, "DESede");
-        
+        keyspec = new SecretKeySpec(desedeKey, "DESede");
+        // Fail early on an invalid key.
+        Buffers first = new Buffers(newCipher());
+        blockSize = first.cipher.getBlockSize();
+        idleBuffers.add(first);
+    }
+
+    /**
+     * Drops the idle ciphers and buffers; the ones in use are dropped when their call ends. Later calls still
+     * decrypt, without keeping anything.
+     */
+    public void dispose() {
+        synchronized (idleBuffers) {
+            disposed = true;
+            idleBuffers.clear();
+        }
+    }
+
+    private Buffers acquireBuffers() {
+        synchronized (idleBuffers) {
+            Buffers idle = idleBuffers.pollFirst();
+            if (idle != null) {
+                return idle;
+            }
+        }
+        return new Buffers(newCipher());
+    }
+
+    private void releaseBuffers(Buffers current) {
+        current.clear();
+        synchronized (idleBuffers) {
+            if (!disposed && idleBuffers.size() < MAX_IDLE_BUFFERS) {
+                idleBuffers.addFirst(current);
+            }
+        }
+    }
+
+    private Cipher newCipher() {
         try {
             // The cipher algorithm is triple-DES (DESede).
             // Mode: cipher blocking chaining.
             // Padding: no padding.
-            cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
+            Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
             cipher.init(Cipher.DECRYPT_MODE, keyspec, ivspec);
+            return cipher;
         } catch (NoSuchAlgorithmException e) {
             throw new ConnectorException(e);
         } catch (NoSuchPaddingException e) {
@@ -76,7 +140,6 @@ public class PasswordDecryptor {
         } catch (InvalidKeyException e) {
             throw new ConnectorException(e);
         }
-        blockSize = cipher.getBlockSize();
     }
 
     /**
@@ -87,46 +150,83 @@ public class PasswordDecryptor {
      * @throws ConnectorException if the password value could not be decrypted.
      */
     public String decryptPassword(byte[] encryptedPassword) {
-        byte decryptInput[];
-        byte decryptedBytes[];
-        
+        Buffers current = acquireBuffers();
+        try {
+            int length = decrypt(encryptedPassword, current);
+            return new String(current.chars, 0, length);
+        } finally {
+            releaseBuffers(current);
+        }
+    }
+
+    /**
+     * Decrypts the password value using the configured symmetric key, without creating any
+     * {@link String} holding the clear-text password.
+     * 
+     * @param encryptedPassword the encrypted password to decrypt.
+     * @return The clear-text password.
+     * @throws ConnectorException if the password value could not be decrypted.
+     */
+    public GuardedString decryptGuardedPassword(byte[] encryptedPassword) {
+        Buffers current = acquireBuffers();
+        char[] password = null;
+        try {
+            int length = decrypt(encryptedPassword, current);
+            password = Arrays.copyOf(current.chars, length);
+            return new GuardedString(password);
+        } finally {
+            if (password != null) {
+                Arrays.fill(password, '\0');
+            }
+            releaseBuffers(current);
+        }
+    }
+
+    /**
+     * Decrypts the password into the chars of the given buffers, returning its length.
+     */
+    private int decrypt(byte[] encryptedPassword, Buffers current) {
         // Pad input if necessary.
-        if (encryptedPassword.length % blockSize != 0) {
-            decryptInput = new byte[((encryptedPassword.length / blockSize) + 1) * blockSize];
-            System.arraycopy(encryptedPassword, 0, decryptInput, 0, encryptedPassword.length);
-            Arrays.fill(decryptInput, encryptedPassword.length, decryptInput.length, (byte) 0);
-        } else {
+        int inputLength = encryptedPassword.length % blockSize == 0
+                ? encryptedPassword.length
+                : ((encryptedPassword.length / blockSize) + 1) * blockSize;
+        byte[] decryptInput;
+        if (inputLength == encryptedPassword.length) {
             decryptInput = encryptedPassword;
+        } else {
+            decryptInput = current.input(inputLength);
+            System.arraycopy(encryptedPassword, 0, decryptInput, 0, encryptedPassword.length);
+            Arrays.fill(decryptInput, encryptedPassword.length, inputLength, (byte) 0);
         }
 
+        byte[] decryptedBytes = current.output(inputLength);
+        int decryptedLength;
         try {
-            decryptedBytes = cipher.doFinal(decryptInput);
+            decryptedLength = current.cipher.doFinal(decryptInput, 0, inputLength, decryptedBytes, 0);
         } catch (IllegalStateException e) {
             throw new ConnectorException(e);
         } catch (IllegalBlockSizeException e) {
             throw new ConnectorException(e);
         } catch (BadPaddingException e) {
             throw new ConnectorException(e);
-        }
-
-        try {
-            return getDecryptedPassword(decryptedBytes);
-        } catch (UnsupportedEncodingException e) {
+        } catch (ShortBufferException e) {
             throw new ConnectorException(e);
         }
+
+        int len = getDecryptedPasswordLength(decryptedBytes, decryptedLength);
+        return current.decode(decryptedBytes, 8, len);
     }
 
     /**
      * @param password byte array including the decrypted password value.
-     * @return the decrypted password extracted from the raw, unencrypted byte array.
+     * @param length the length of the decrypted password value in the array.
+     * @return the length of the decrypted password, which starts at index 8.
      * @throws ConnectorException
      *             if the magic cannot be extracted from the byte array for some
      *             reason, or the magic does not match the expected value.
-     * @throws UnsupportedEncodingException
-     *             if conversion of the password value to String fails.
      */
-    private final String getDecryptedPassword(byte[] password) throws ConnectorException, UnsupportedEncodingException {
-        if (password.length < LENGTH_INDEX + 4) { // Length is 4 bytes.
+    private final int getDecryptedPasswordLength(byte[] password, int length) throws ConnectorException {
+        if (length < LENGTH_INDEX + 4) { // Length is 4 bytes.
             throw new ConnectorException("Invalid decrypted password value: too short");
         }
         int len = getIntValueFromByteArray(password, LENGTH_INDEX);
@@ -137,16 +237,17 @@ public class PasswordDecryptor {
         // Check to see if the computed password length is in the valid range
         // 12: = 2 * magic length + password length
         // the raw password field is padded with 0 ... blockSize - 1 bytes.
-        if (len <= password.length - 12 - blockSize || len > password.length - 12) {
+        if (len <= length - 12 - blockSize || len > length - 12) {
             throw new ConnectorException("Invalid password length");
         }
 
-        checkKeyVersionMagic(password, 8 + len);
-        return new String(password, 8, len, "UTF8");
+        checkKeyVersionMagic(password, length, 8 + len);
+        return len;
     }
 
-    private final void checkKeyVersionMagic(byte[] password, int postMagicIndex) throws ConnectorException {
-        if (postMagicIndex < LENGTH_INDEX + 4 || postMagicIndex > password.length - 4) {
+    private final void checkKeyVersionMagic(byte[] password, int length, int postMagicIndex)
+            throws ConnectorException {
+        if (postMagicIndex < LENGTH_INDEX + 4 || postMagicIndex > length - 4) {
             throw new ConnectorException("Invalid start index for post password magic");
         }
         int premagic = getIntValueFromByteArray(password, 0);
@@ -171,4 +272,58 @@ public class PasswordDecryptor {
             return b;
         }
     }
+
+    /**
+     * The cipher and the buffers of a call, grown as needed and cleared after each password.
+     */
+    private static final class Buffers {
+
+        private final Cipher cipher;
+
+        private final CharsetDecoder decoder = UTF8.newDecoder().
+                onMalformedInput(CodingErrorAction.REPLACE).
+                onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        private byte[] input = new byte[0];
+
+        private byte[] output = new byte[0];
+
+        private char[] chars = new char[0];
+
+        Buffers(Cipher cipher) {
+            this.cipher = cipher;
+        }
+
+        byte[] input(int length) {
+            if (input.length < length) {
+                input = new byte[length];
+            }
+            return input;
+        }
+
+        byte[] output(int length) {
+            if (output.length < length) {
+                output = new byte[length];
+            }
+            return output;
+        }
+
+        int decode(byte[] bytes, int offset, int length) {
+            // A UTF-8 encoded password never has more chars than bytes.
+            if (chars.length < length) {
+                chars = new char[length];
+            }
+            CharBuffer result = CharBuffer.wrap(chars);
+            decoder.reset();
+            decoder.decode(ByteBuffer.wrap(bytes, offset, length), result, true);
+            decoder.flush(result);
+            return result.position();
+        }
+
+        void clear() {
+            Arrays.fill(input, (byte) 0);
+            Arrays.fill(output, (byte) 0);
+            Arrays.fill(chars, '\0');
+        }
+    }
 }
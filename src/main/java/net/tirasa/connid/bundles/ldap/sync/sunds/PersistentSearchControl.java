@@ -0,0 +1,92 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.sync.sunds;
+
+import java.io.ByteArrayOutputStream;
+import javax.naming.ldap.BasicControl;
+
+/**
+ * The Persistent Search request control (2.16.840.1.113730.3.4.3).
+ *
+ * The control value is the BER encoding of:
+ * <pre>
+ * PersistentSearch ::= SEQUENCE {
+ *     changeTypes    INTEGER,
+ *     changesOnly    BOOLEAN,
+ *     returnECs      BOOLEAN
+ * }
+ * </pre>
+ * where {@code changeTypes} is a combination of {@link #ADD}, {@link #DELETE}, {@link #MODIFY}
+ * and {@link #RENAME}.
+ */
+public class PersistentSearchControl extends BasicControl {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String OID = "2.16.840.1.113730.3.4.3";
+
+    public static final int ADD = 1;
+
+    public static final int DELETE = 2;
+
+    public static final int MODIFY = 4;
+
+    public static final int RENAME = 8;
+
+    public static final int ANY = ADD | DELETE | MODIFY | RENAME;
+
+    static final int TAG_BOOLEAN = 0x01;
+
+    static final int TAG_INTEGER = 0x02;
+
+    static final int TAG_OCTET_STRING = 0x04;
+
+    static final int TAG_ENUMERATED = 0x0a;
+
+    static final int TAG_SEQUENCE = 0x30;
+
+    public PersistentSearchControl(
+            final int changeTypes, final boolean changesOnly, final boolean returnECs, final boolean criticality) {
+        super(OID, criticality, encodeValue(changeTypes, changesOnly, returnECs));
+    }
+
+    static byte[] encodeValue(final int changeTypes, final boolean changesOnly, final boolean returnECs) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        // The change types fit in a single byte, with no sign bit.
+        encode(TAG_INTEGER, new byte[] { (byte) (changeTypes & ANY) }, content);
+        encode(TAG_BOOLEAN, new byte[] { (byte) (changesOnly ? 0xff : 0x00) }, content);
+        encode(TAG_BOOLEAN, new byte[] { (byte) (returnECs ? 0xff : 0x00) }, content);
+
+        ByteArrayOutputStream value = new ByteArrayOutputStream();
+        encode(TAG_SEQUENCE, content.toByteArray(), value);
+        return value.toByteArray();
+    }
+
+    private static void encode(final int tag, final byte[] content, final ByteArrayOutputStream out) {
+        // The value is always shorter than 128 bytes, so the short length form is enough.
+        out.write(tag);
+        out.write(content.length);
+        out.write(content, 0, content.length);
+    }
+}
@@ -0,0 +1,380 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.sync.sunds;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.HasControls;
+import javax.naming.ldap.LdapContext;
+import net.tirasa.connid.bundles.ldap.LdapConfiguration;
+import net.tirasa.connid.bundles.ldap.LdapConnection;
+import net.tirasa.connid.bundles.ldap.commons.LdapEntry;
+import net.tirasa.connid.bundles.ldap.commons.LdapUtil;
+import net.tirasa.connid.bundles.ldap.search.LdapInternalSearch;
+import org.identityconnectors.common.Pair;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+
+/**
+ * Keeps a persistent search (2.16.840.1.113730.3.4.3) open against each base context to synchronize
+ * and buffers the reported changes in a bounded queue, to be drained by
+ * {@link PersistentSearchSyncStrategy}.
+ *
+ * The queue only holds the changes made while the persistent search was active, so after the listener
+ * is started, reconnected, or the queue overflows, a catch-up through the change log is required
+ * before the queue can be trusted again.
+ *
+ * A listener is stopped once all the connector instances using it were disposed: its persistent
+ * searches are abandoned and its threads end.
+ */
+public class PersistentSearchListener {
+
+    private static final Log LOG = Log.getLog(PersistentSearchListener.class);
+
+    /**
+     * How long to wait before re-establishing a failed persistent search.
+     */
+    private static final long RECONNECT_DELAY = 5000;
+
+    private static final Map<Pair<LdapConfiguration, ObjectClass>, PersistentSearchListener> LISTENERS =
+            new HashMap<Pair<LdapConfiguration, ObjectClass>, PersistentSearchListener>();
+
+    private final LdapConfiguration config;
+
+    private final BlockingQueue<EntryChangeNotification> queue;
+
+    /**
+     * The connections of the connector instances using this listener; guarded by the class.
+     */
+    private final Set<LdapConnection> users =
+            Collections.newSetFromMap(new IdentityHashMap<LdapConnection, Boolean>());
+
+    private final List<Thread> threads = new ArrayList<Thread>();
+
+    /**
+     * The persistent searches currently open, to be abandoned when stopping; guarded by itself.
+     */
+    private final Set<NamingEnumeration<SearchResult>> searches = new HashSet<NamingEnumeration<SearchResult>>();
+
+    private volatile boolean stopped;
+
+    private volatile boolean catchUpRequired = true;
+
+    /**
+     * The change number after which the queue holds all the changes; guarded by this.
+     */
+    private long coveredAfter = -1;
+
+    /**
+     * Returns the listener for the configuration of the given connection and the given object class,
+     * starting it if needed, and records the connection as one of its users until {@link #release}.
+     * Listeners are shared by all the connector instances with an equal configuration, as a pooled
+     * connector instance does not live long enough to keep the persistent search open.
+     */
+    public static synchronized PersistentSearchListener getInstance(
+            final LdapConnection conn, final ObjectClass oclass) {
+
+        LdapConfiguration config = conn.getConfiguration();
+        Pair<LdapConfiguration, ObjectClass> key = new Pair<LdapConfiguration, ObjectClass>(config, oclass);
+        PersistentSearchListener listener = LISTENERS.get(key);
+        if (listener == null) {
+            listener = new PersistentSearchListener(config, config.getPersistentSearchQueueSize());
+            listener.start();
+            LISTENERS.put(key, listener);
+        }
+        listener.users.add(conn);
+        return listener;
+    }
+
+    /**
+     * To be called when the connector instance owning the given connection is disposed: the listeners
+     * left without users are stopped.
+     */
+    public static synchronized void release(final LdapConnection conn) {
+        for (Iterator<PersistentSearchListener> it = LISTENERS.values().iterator(); it.hasNext();) {
+            PersistentSearchListener listener = it.next();
+            if (listener.users.remove(conn) && listener.users.isEmpty()) {
+                it.remove();
+                listener.stop();
+            }
+        }
+    }
+
+    PersistentSearchListener(final LdapConfiguration config, final int queueSize) {
+        this.config = config;
+        this.queue = new ArrayBlockingQueue<EntryChangeNotification>(queueSize);
+    }
+
+    private void start() {
+        List<String> baseDNs = Arrays.asList(LdapUtil.nullAsEmpty(config.getBaseContextsToSynchronize()));
+        if (baseDNs.isEmpty()) {
+            baseDNs = Arrays.asList(config.getBaseContexts());
+        }
+        for (final String baseDN : baseDNs) {
+            Thread thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    listen(baseDN);
+                }
+            }, "LDAP persistent search on " + config.getHost() + ":" + config.getPort() + "/" + baseDN);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Abandons the persistent searches and makes the threads end, without waiting for them.
+     */
+    void stop() {
+        stopped = true;
+        synchronized (searches) {
+            for (NamingEnumeration<SearchResult> results : searches) {
+                // Unblocks the thread waiting for the next change.
+                try {
+                    results.close();
+                } catch (NamingException e) {
+                    LOG.ok(e, "Could not abandon a persistent search");
+                }
+            }
+            searches.clear();
+        }
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+    }
+
+    boolean isStopped() {
+        return stopped;
+    }
+
+    boolean isRunning() {
+        for (Thread thread : threads) {
+            if (thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean addSearch(final NamingEnumeration<SearchResult> results) {
+        synchronized (searches) {
+            return !stopped && searches.add(results);
+        }
+    }
+
+    private void removeSearch(final NamingEnumeration<SearchResult> results) {
+        synchronized (searches) {
+            searches.remove(results);
+        }
+    }
+
+    private void listen(final String baseDN) {
+        while (!stopped) {
+            LdapConnection conn = new LdapConnection(config);
+            try {
+                LdapContext ctx = conn.getInitialContext().newInstance(new Control[] {
+                    new PersistentSearchControl(PersistentSearchControl.ANY, true, true, Control.CRITICAL) });
+                try {
+                    SearchControls controls = LdapInternalSearch.createDefaultSearchControls();
+                    controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+                    controls.setReturningAttributes(new String[] { "entryUUID", "modifiersName" });
+
+                    // Whatever happened before the search was established is only in the change log.
+                    requireCatchUp();
+
+                    LOG.ok("Starting persistent search in {0}", baseDN);
+                    NamingEnumeration<SearchResult> results = ctx.search(baseDN, "(objectClass=*)", controls);
+                    try {
+                        if (addSearch(results)) {
+                            while (!stopped && results.hasMore()) {
+                                EntryChangeNotification notification = createNotification(baseDN, results.next());
+                                if (notification != null) {
+                                    offer(notification);
+                                }
+                            }
+                        }
+                    } finally {
+                        removeSearch(results);
+                        results.close();
+                    }
+                    if (!stopped) {
+                        LOG.warn("Persistent search in {0} ended", baseDN);
+                    }
+                } finally {
+                    ctx.close();
+                }
+            } catch (NamingException e) {
+                logFailure(baseDN, e);
+            } catch (ConnectorException e) {
+                logFailure(baseDN, e);
+            } finally {
+                requireCatchUp();
+                conn.close();
+            }
+
+            if (stopped) {
+                break;
+            }
+            try {
+                Thread.sleep(RECONNECT_DELAY);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        LOG.ok("Persistent search in {0} stopped", baseDN);
+    }
+
+    private void logFailure(final String baseDN, final Exception e) {
+        if (stopped) {
+            LOG.ok("Persistent search in {0} abandoned", baseDN);
+        } else {
+            LOG.warn(e, "Persistent search in {0} failed", baseDN);
+        }
+    }
+
+    private EntryChangeNotification createNotification(final String baseDN, final SearchResult result)
+            throws NamingException {
+
+        EntryChangeResponseControl entryChange = null;
+        if (result instanceof HasControls) {
+            entryChange = EntryChangeResponseControl.find(((HasControls) result).getControls());
+        }
+        if (entryChange == null || entryChange.getChangeNumber() <= 0) {
+            // Without a change number the change cannot be related to a sync token.
+            LOG.ok("Change notification without a change number, the change log will be used instead");
+            requireCatchUp();
+            return null;
+        }
+
+        LdapEntry entry = LdapEntry.create(baseDN, result);
+        String entryDN = entry.getDN().toString();
+        String targetDN = entryDN;
+        String changeType;
+        switch (entryChange.getChangeType()) {
+            case PersistentSearchControl.ADD:
+                changeType = "add";
+                break;
+            case PersistentSearchControl.DELETE:
+                changeType = "delete";
+                break;
+            case PersistentSearchControl.RENAME:
+                changeType = "modrdn";
+                if (entryChange.getPreviousDN() != null) {
+                    targetDN = entryChange.getPreviousDN();
+                }
+                break;
+            default:
+                changeType = "modify";
+        }
+
+        return new EntryChangeNotification(
+                entryChange.getChangeNumber(),
+                changeType,
+                targetDN,
+                entryDN,
+                LdapUtil.getStringAttrValue(entry.getAttributes(), "entryUUID"),
+                LdapUtil.getStringAttrValue(entry.getAttributes(), "modifiersName"));
+    }
+
+    void offer(final EntryChangeNotification notification) {
+        if (!queue.offer(notification)) {
+            LOG.warn("Persistent search queue is full, the change log will be used instead");
+            queue.clear();
+            requireCatchUp();
+        }
+    }
+
+    void requireCatchUp() {
+        catchUpRequired = true;
+    }
+
+    /**
+     * Returns {@code true} if all the changes after the given change number are in the queue.
+     */
+    synchronized boolean isCaughtUp(final long lastChangeNumber) {
+        return !catchUpRequired && lastChangeNumber >= coveredAfter;
+    }
+
+    /**
+     * To be called before reading the change log; if the persistent search fails while
+     * the change log is read, a new catch-up will be required.
+     */
+    void beginCatchUp() {
+        catchUpRequired = false;
+    }
+
+    /**
+     * To be called after reading the change log.
+     *
+     * @param latestChangeNumber the last change number of the change log before it was read
+     * @param lastHandledChangeNumber the last change number which was read from the change log
+     */
+    synchronized void endCatchUp(final long latestChangeNumber, final long lastHandledChangeNumber) {
+        coveredAfter = latestChangeNumber;
+        long discardUpTo = Math.max(latestChangeNumber, lastHandledChangeNumber);
+        for (EntryChangeNotification notification : queue) {
+            if (notification.getChangeNumber() <= discardUpTo) {
+                queue.remove(notification);
+            }
+        }
+    }
+
+    /**
+     * Removes all the queued changes and returns them ordered by change number.
+     */
+    List<EntryChangeNotification> drain() {
+        List<EntryChangeNotification> result = new ArrayList<EntryChangeNotification>(queue.size());
+        queue.drainTo(result);
+        // Changes from different base contexts can be queued out of order.
+        Collections.sort(result, new Comparator<EntryChangeNotification>() {
+
+            @Override
+            public int compare(final EntryChangeNotification o1, final EntryChangeNotification o2) {
+                return o1.getChangeNumber() < o2.getChangeNumber()
+                        ? -1
+                        : (o1.getChangeNumber() == o2.getChangeNumber() ? 0 : 1);
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,190 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.sync.sunds;
+
+import static java.util.Collections.singletonList;
+
+import java.util.List;
+import java.util.Map;
+import javax.naming.InvalidNameException;
+import net.tirasa.connid.bundles.ldap.LdapConnection;
+import net.tirasa.connid.bundles.ldap.sync.LdapSyncStrategy;
+import net.tirasa.connid.bundles.ldap.sync.SyncBatch;
+import org.identityconnectors.common.CollectionUtil;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.SyncDelta;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.identityconnectors.framework.spi.SyncTokenResultsHandler;
+
+/**
+ * An implementation of the sync operation which delivers the changes buffered by a
+ * {@link PersistentSearchListener}, without querying the server when nothing changed.
+ * When the buffered changes cannot be trusted (after the persistent search was started
+ * or re-established, or when the buffer overflowed) the retro change log is read instead,
+ * through {@link SunDSChangeLogSyncStrategy}.
+ */
+public class PersistentSearchSyncStrategy implements LdapSyncStrategy {
+
+    private static final Log LOG = Log.getLog(PersistentSearchSyncStrategy.class);
+
+    private final LdapConnection conn;
+
+    private final ObjectClass oclass;
+
+    private final SunDSChangeLogSyncStrategy changeLogStrategy;
+
+    public PersistentSearchSyncStrategy(final LdapConnection conn, final ObjectClass oclass) {
+        this.conn = conn;
+        this.oclass = oclass;
+        this.changeLogStrategy = new SunDSChangeLogSyncStrategy(conn, oclass);
+    }
+
+    @Override
+    public SyncToken getLatestSyncToken() {
+        // Start listening as soon as possible, so that the next sync does not need to catch up.
+        PersistentSearchListener.getInstance(conn, oclass);
+        return changeLogStrategy.getLatestSyncToken();
+    }
+
+    @Override
+    public void sync(
+            final SyncToken token,
+            final SyncResultsHandler handler,
+            final OperationOptions options) {
+
+        PersistentSearchListener listener = PersistentSearchListener.getInstance(conn, oclass);
+        synchronized (listener) {
+            Long lastChangeNumber = SunDSChangeLogSyncStrategy.getChangeNumber(token);
+            if (lastChangeNumber == null || !listener.isCaughtUp(lastChangeNumber)) {
+                catchUp(listener, token, handler, options);
+            } else {
+                drain(listener, lastChangeNumber, handler, options);
+            }
+        }
+    }
+
+    private void catchUp(
+            final PersistentSearchListener listener,
+            final SyncToken token,
+            final SyncResultsHandler handler,
+            final OperationOptions options) {
+
+        LOG.ok("Reading changes from the change log");
+        listener.beginCatchUp();
+
+        long latestChangeNumber = changeLogStrategy.getChangeLogAttributes().getLastChangeNumber();
+        final long[] lastHandledChangeNumber = { latestChangeNumber };
+
+        changeLogStrategy.sync(token, new SyncTokenResultsHandler() {
+
+            @Override
+            public boolean handle(final SyncDelta delta) {
+                handled(delta.getToken());
+                return handler.handle(delta);
+            }
+
+            @Override
+            public void handleResult(final SyncToken result) {
+                handled(result);
+                if (handler instanceof SyncTokenResultsHandler) {
+                    ((SyncTokenResultsHandler) handler).handleResult(result);
+                }
+            }
+
+            private void handled(final SyncToken handledToken) {
+                long changeNumber = SunDSChangeLogSyncStrategy.getChangeNumber(handledToken);
+                if (changeNumber > lastHandledChangeNumber[0]) {
+                    lastHandledChangeNumber[0] = changeNumber;
+                }
+            }
+        }, options);
+
+        listener.endCatchUp(latestChangeNumber, lastHandledChangeNumber[0]);
+    }
+
+    private void drain(
+            final PersistentSearchListener listener,
+            final long lastChangeNumber,
+            final SyncResultsHandler handler,
+            final OperationOptions options) {
+
+        List<EntryChangeNotification> notifications = listener.drain();
+        LOG.ok("Delivering {0} changes from the persistent search", notifications.size());
+
+        SyncBatch batch = new SyncBatch(handler, conn.getConfiguration());
+        for (EntryChangeNotification notification : notifications) {
+            if (notification.getChangeNumber() <= lastChangeNumber) {
+                continue;
+            }
+            if (batch.isFull()) {
+                // The remaining changes were removed from the queue,
+                // so they will have to be read from the change log.
+                listener.requireCatchUp();
+                break;
+            }
+            SyncDelta delta = createSyncDelta(notification, options.getAttributesToGet());
+            if (delta != null && !handler.handle(delta)) {
+                listener.requireCatchUp();
+                return;
+            }
+            batch.read(new SyncToken(notification.getChangeNumber()));
+        }
+        batch.finish();
+    }
+
+    private SyncDelta createSyncDelta(
+            final EntryChangeNotification notification,
+            final String[] attrsToGetOption) {
+
+        LOG.ok("Attempting to create sync delta for {0}", notification);
+
+        if (notification.getModifiersName() != null) {
+            Map<String, List<Object>> changes = CollectionUtil.newCaseInsensitiveMap();
+            changes.put("modifiersName", singletonList((Object) notification.getModifiersName()));
+            if (changeLogStrategy.filterOutByModifiersNames(changes)) {
+                LOG.ok("Skipping entry because modifiersName is in the list of "
+                        + "modifiersName's to filter out");
+                return null;
+            }
+        }
+
+        try {
+            // The changed attributes are not reported by the persistent search.
+            return changeLogStrategy.createSyncDelta(
+                    notification.getChangeNumber(),
+                    notification.getChangeType(),
+                    notification.getTargetDN(),
+                    notification.getNewTargetDN(),
+                    notification.getTargetEntryUUID(),
+                    null,
+                    attrsToGetOption);
+        } catch (InvalidNameException e) {
+            throw new ConnectorException(e);
+        }
+    }
+}
@@ -32,6 +32,7 @@ import static org.identityconnectors.common.CollectionUtil.nullAsEmpty;
 import static org.identityconnectors.common.StringUtil.isBlank;
 import static net.tirasa.connid.bundles.ldap.commons.LdapUtil.checkedListByFilter;
 import static net.tirasa.connid.bundles.ldap.commons.LdapUtil.getStringAttrValue;
+import static net.tirasa.connid.bundles.ldap.commons.LdapUtil.escapeAttrValue;
 import static net.tirasa.connid.bundles.ldap.commons.LdapUtil.isUnderContexts;
 import static net.tirasa.connid.bundles.ldap.commons.LdapUtil.nullAsEmpty;
 import static net.tirasa.connid.bundles.ldap.commons.LdapUtil.quietCreateLdapName;
@@ -55,8 +56,6 @@ import javax.naming.ldap.Rdn;
 
 import org.identityconnectors.common.Base64;
 import org.identityconnectors.common.logging.Log;
-import org.identityconnectors.common.security.GuardedString;
-import org.identityconnectors.common.security.GuardedByteArray.Accessor;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.objects.Attribute;
 import org.identityconnectors.framework.common.objects.AttributeBuilder;
@@ -78,6 +77,7 @@ import net.tirasa.connid.bundles.ldap.search.LdapSearch;
 import net.tirasa.connid.bundles.ldap.search.LdapSearches;
 import net.tirasa.connid.bundles.ldap.search.LdapSearchResultsHandler;
 import net.tirasa.connid.bundles.ldap.sync.LdapSyncStrategy;
+import net.tirasa.connid.bundles.ldap.sync.SyncBatch;
 import net.tirasa.connid.bundles.ldap.sync.sunds.LdifParser.ChangeSeparator;
 import net.tirasa.connid.bundles.ldap.sync.sunds.LdifParser.Line;
 import net.tirasa.connid.bundles.ldap.sync.sunds.LdifParser.NameValue;
@@ -110,8 +110,6 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
 
     private Set<String> attrsToSync;
 
-    private PasswordDecryptor passwordDecryptor;
-
     static {
         LDIF_MODIFY_OPS = newCaseInsensitiveSet();
         LDIF_MODIFY_OPS.add("add");
@@ -154,9 +152,15 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
             "deleteOldRdn",
             "newSuperior" });
 
-        final int[] currentChangeNumber = { getStartChangeNumber(token) };
+        final SyncBatch batch = new SyncBatch(handler, conn.getConfiguration());
+
+        final long[] currentChangeNumber = { getStartChangeNumber(token) };
+        final long lastChangeNumber = getChangeLogAttributes().getLastChangeNumber();
+        final int blockSize = conn.getConfiguration().getChangeLogBlockSize();
 
         final boolean[] results = new boolean[1];
+        final boolean[] stopped = new boolean[1];
+        boolean more;
         do {
             results[0] = false;
 
@@ -178,7 +182,7 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
                     results[0] = true;
                     final LdapEntry entry = LdapEntry.create(baseDN, result);
 
-                    int changeNumber = convertToInt(getStringAttrValue(entry.getAttributes(), changeNumberAttr), -1);
+                    long changeNumber = convertToLong(getStringAttrValue(entry.getAttributes(), changeNumberAttr), -1);
 
                     if (changeNumber > currentChangeNumber[0]) {
                         currentChangeNumber[0] = changeNumber;
@@ -186,9 +190,12 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
 
                     final SyncDelta delta = createSyncDelta(entry, changeNumber, options.getAttributesToGet());
 
-                    if (delta != null) {
-                        return handler.handle(delta);
+                    if (delta != null && !handler.handle(delta)) {
+                        stopped[0] = true;
+                        return false;
                     }
+                    // The entries of a block are not sorted, so the batch is only checked between blocks.
+                    batch.read(new SyncToken(currentChangeNumber[0]));
                     return true;
                 }
             });
@@ -197,14 +204,28 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
             // In the next cycle we want to start with the next change.
             if (results[0]) {
                 currentChangeNumber[0]++;
+                more = true;
+            } else {
+                // A block can be empty because of gaps in the change numbers or, when filtering on
+                // the server, because all its entries were filtered out: go on up to the last change.
+                long blockEnd = currentChangeNumber[0] + blockSize;
+                more = blockEnd < lastChangeNumber;
+                if (more) {
+                    currentChangeNumber[0] = blockEnd + 1;
+                    batch.read(new SyncToken(blockEnd), 0);
+                }
             }
 
-        } while (results[0]);
+        } while (more && !stopped[0] && !batch.isFull());
+
+        if (!stopped[0]) {
+            batch.finish();
+        }
     }
 
     private SyncDelta createSyncDelta(
             final LdapEntry changeLogEntry,
-            final int changeNumber,
+            final long changeNumber,
             final String[] attrsToGetOption) throws InvalidNameException {
 
         LOG.ok("Attempting to create sync delta for log entry {0}", changeNumber);
@@ -216,6 +237,55 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
             return null;
         }
 
+        final String changeType = getStringAttrValue(changeLogEntry.getAttributes(), "changeType");
+
+        final String targetEntryUUID = getStringAttrValue(changeLogEntry.getAttributes(), "targetEntryUUID");
+
+        if (getSyncDeltaType(changeType).equals(SyncDeltaType.DELETE)) {
+            return createSyncDelta(changeNumber, changeType, targetDN, targetDN, targetEntryUUID,
+                    null, attrsToGetOption);
+        }
+
+        final String changes = getStringAttrValue(changeLogEntry.getAttributes(), "changes");
+
+        final Map<String, List<Object>> attrChanges = getAttributeChanges(changeType, changes);
+
+        // If the change type was modrdn, we need to compute the DN that the entry
+        // was modified to.
+        String newTargetDN = targetDN;
+
+        if ("modrdn".equalsIgnoreCase(changeType)) {
+            final String newRdn = getStringAttrValue(changeLogEntry.getAttributes(), "newRdn");
+
+            if (isBlank(newRdn)) {
+                LOG.error("Skipping log entry because it does not have a newRdn attribute");
+                return null;
+            }
+
+            final String newSuperior = getStringAttrValue(changeLogEntry.getAttributes(), "newSuperior");
+
+            newTargetDN = getNewTargetDN(quietCreateLdapName(targetDN), newSuperior, newRdn);
+        }
+
+        return createSyncDelta(changeNumber, changeType, targetDN, newTargetDN, targetEntryUUID,
+                attrChanges, attrsToGetOption);
+    }
+
+    /**
+     * Creates a sync delta for a change of the given type made to the entry {@code targetDN}.
+     * For a "modrdn" change {@code newTargetDN} is the DN the entry was renamed to, otherwise it equals
+     * {@code targetDN}. {@code attrChanges} can be {@code null} when the changed attributes are not
+     * known; filtering by attributes and password synchronization are skipped in that case.
+     */
+    SyncDelta createSyncDelta(
+            final long changeNumber,
+            final String changeType,
+            final String targetDN,
+            final String newTargetDN,
+            final String targetEntryUUID,
+            final Map<String, List<Object>> attrChanges,
+            final String[] attrsToGetOption) throws InvalidNameException {
+
         final LdapName targetName = quietCreateLdapName(targetDN);
 
         if (filterOutByBaseContexts(targetName)) {
@@ -224,8 +294,6 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
             return null;
         }
 
-        final String changeType = getStringAttrValue(changeLogEntry.getAttributes(), "changeType");
-
         SyncDeltaType deltaType = getSyncDeltaType(changeType);
 
         SyncDeltaBuilder syncDeltaBuilder = new SyncDeltaBuilder();
@@ -233,8 +301,7 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
         syncDeltaBuilder.setDeltaType(deltaType);
 
         if (deltaType.equals(SyncDeltaType.DELETE)) {
-            LOG.ok("Creating sync delta for deleted entry " + getStringAttrValue(changeLogEntry.getAttributes(),
-                    "targetEntryUUID"));
+            LOG.ok("Creating sync delta for deleted entry " + targetEntryUUID);
 
             String uidAttr = conn.getSchemaMapping().getLdapUidAttribute(oclass);
 
@@ -242,7 +309,7 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
             if (LDAP_DN_ATTRIBUTES.contains(uidAttr)) {
                 deletedUid = createUid(uidAttr, targetDN);
             } else if ("entryUUID".equalsIgnoreCase(uidAttr)) {
-                deletedUid = new Uid(getStringAttrValue(changeLogEntry.getAttributes(), "targetEntryUUID"));
+                deletedUid = new Uid(targetEntryUUID);
             } else {
                 // ever fallback to dn without throwing any exception more reliable
                 deletedUid = new Uid(targetDN);
@@ -260,37 +327,18 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
             return syncDeltaBuilder.build();
         }
 
-        final String changes = getStringAttrValue(changeLogEntry.getAttributes(), "changes");
-
-        final Map<String, List<Object>> attrChanges = getAttributeChanges(changeType, changes);
-
-        if (filterOutByModifiersNames(attrChanges)) {
-            LOG.ok("Skipping entry because modifiersName is in the list of "
-                    + "modifiersName's to filter out");
-            return null;
-        }
-
-        if (filterOutByAttributes(attrChanges)) {
-            LOG.ok("Skipping entry because no changed attributes in the list "
-                    + "of attributes to synchronize");
-            return null;
-        }
-
-        // If the change type was modrdn, we need to compute the DN that the entry
-        // was modified to.
-        String newTargetDN = targetDN;
-
-        if ("modrdn".equalsIgnoreCase(changeType)) {
-            final String newRdn = getStringAttrValue(changeLogEntry.getAttributes(), "newRdn");
-
-            if (isBlank(newRdn)) {
-                LOG.error("Skipping log entry because it does not have a newRdn attribute");
+        if (attrChanges != null) {
+            if (filterOutByModifiersNames(attrChanges)) {
+                LOG.ok("Skipping entry because modifiersName is in the list of "
+                        + "modifiersName's to filter out");
                 return null;
             }
 
-            final String newSuperior = getStringAttrValue(changeLogEntry.getAttributes(), "newSuperior");
-
-            newTargetDN = getNewTargetDN(targetName, newSuperior, newRdn);
+            if (filterOutByAttributes(attrChanges)) {
+                LOG.ok("Skipping entry because no changed attributes in the list "
+                        + "of attributes to synchronize");
+                return null;
+            }
         }
 
         // Always specify the attributes to get. This will return attributes with
@@ -332,16 +380,15 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
 
         Attribute passwordAttr = null;
 
-        if (conn.getConfiguration().isSynchronizePasswords()) {
+        if (attrChanges != null && conn.getConfiguration().isSynchronizePasswords()) {
             final List<Object> passwordValues = attrChanges.get(
                     conn.getConfiguration().getPasswordAttributeToSynchronize());
 
             if (!passwordValues.isEmpty()) {
                 byte[] encryptedPwd = (byte[]) passwordValues.get(0);
 
-                final String decryptedPwd = getPasswordDecryptor().decryptPassword(encryptedPwd);
-
-                passwordAttr = AttributeBuilder.buildPassword(new GuardedString(decryptedPwd.toCharArray()));
+                passwordAttr = AttributeBuilder.buildPassword(
+                        conn.getPasswordDecryptor().decryptGuardedPassword(encryptedPwd));
             }
         }
 
@@ -420,7 +467,7 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
         return false;
     }
 
-    private boolean filterOutByModifiersNames(
+    boolean filterOutByModifiersNames(
             final Map<String, List<Object>> changes) {
         Set<LdapName> filter = conn.getConfiguration().
                 getModifiersNamesToFilterOutAsLdapNames();
@@ -473,9 +520,8 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
         return null;
     }
 
-    private int getStartChangeNumber(final SyncToken lastToken) {
-        Integer lastTokenValue = lastToken != null ? (Integer) lastToken.
-                getValue() : null;
+    private long getStartChangeNumber(final SyncToken lastToken) {
+        Long lastTokenValue = getChangeNumber(lastToken);
         if (lastTokenValue == null) {
             return getChangeLogAttributes().getFirstChangeNumber();
         }
@@ -564,7 +610,7 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
     }
 
     private String getChangeLogSearchFilter(
-            final String changeNumberAttr, final int startChangeNumber) {
+            final String changeNumberAttr, final long startChangeNumber) {
         int blockSize = conn.getConfiguration().getChangeLogBlockSize();
         boolean filterWithOrInsteadOfAnd = conn.getConfiguration().
                 isFilterWithOrInsteadOfAnd();
@@ -582,8 +628,8 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
             result.append(startChangeNumber);
             result.append(')');
 
-            int endChangeNumber = startChangeNumber + blockSize;
-            for (int i = startChangeNumber + 1; i <= endChangeNumber; i++) {
+            long endChangeNumber = startChangeNumber + blockSize;
+            for (long i = startChangeNumber + 1; i <= endChangeNumber; i++) {
                 result.append("(");
                 result.append(changeNumberAttr);
                 result.append('=');
@@ -606,7 +652,7 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
             result.append(startChangeNumber);
             result.append(')');
 
-            int endChangeNumber = startChangeNumber + blockSize;
+            long endChangeNumber = startChangeNumber + blockSize;
             result.append("(");
             result.append(changeNumberAttr);
             result.append("<=");
@@ -616,9 +662,71 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
             result.append(')');
         }
 
+        String serverFilter = getChangeLogServerFilter();
+        if (serverFilter != null) {
+            result.insert(0, "(&").append(serverFilter).append(')');
+        }
+
         return result.toString();
     }
 
+    /**
+     * Returns the filter which selects on the server the change log entries that would not be skipped,
+     * or {@code null} if not filtering on the server. It can only let through more entries than
+     * the client-side checks, which are still applied.
+     */
+    String getChangeLogServerFilter() {
+        if (!conn.getConfiguration().isFilterChangeLogOnServer()) {
+            return null;
+        }
+
+        StringBuilder result = new StringBuilder();
+        int parts = 0;
+
+        List<LdapName> baseContexts = conn.getConfiguration().getBaseContextsToSynchronizeAsLdapNames();
+        if (baseContexts.isEmpty()) {
+            baseContexts = conn.getConfiguration().getBaseContextsAsLdapNames();
+        }
+        if (!baseContexts.isEmpty()) {
+            result.append("(|");
+            for (LdapName baseContext : baseContexts) {
+                result.append("(targetDN=");
+                escapeAttrValue(baseContext.toString(), result);
+                result.append(")(targetDN=*,");
+                escapeAttrValue(baseContext.toString(), result);
+                result.append(')');
+            }
+            result.append(')');
+            parts++;
+        }
+
+        for (LdapName modifiersName : conn.getConfiguration().getModifiersNamesToFilterOutAsLdapNames()) {
+            // The trailing new line avoids excluding the modifiers whose name only starts with this one.
+            result.append("(!(changes=*modifiersName: ");
+            escapeAttrValue(modifiersName.toString(), result);
+            result.append("\\0a*))");
+            parts++;
+        }
+
+        Set<String> attrsToSync = getAttributesToSynchronize();
+        if (!attrsToSync.isEmpty()) {
+            // Deleted entries are never filtered by attributes.
+            result.append("(|(changeType=delete)");
+            for (String attr : attrsToSync) {
+                result.append("(changes=*");
+                escapeAttrValue(attr, result);
+                result.append("*)");
+            }
+            result.append(')');
+            parts++;
+        }
+
+        if (parts == 0) {
+            return null;
+        }
+        return parts > 1 ? "(&" + result + ")" : result.toString();
+    }
+
     ChangeLogAttributes getChangeLogAttributes() {
         if (changeLogAttrs == null) {
             try {
@@ -639,7 +747,7 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
                     throw new ConnectorException(error);
                 }
                 changeLogAttrs = new ChangeLogAttributes(changeLog,
-                        convertToInt(firstChangeNumber, 0), convertToInt(
+                        convertToLong(firstChangeNumber, 0), convertToLong(
                         lastChangeNumber, 0));
             } catch (NamingException e) {
                 throw new ConnectorException(e);
@@ -680,29 +788,6 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
         return oclassesToSync;
     }
 
-    private PasswordDecryptor getPasswordDecryptor() {
-        if (passwordDecryptor == null) {
-            conn.getConfiguration().getPasswordDecryptionKey().access(new Accessor() {
-
-                @Override
-                public void access(final byte[] decryptionKey) {
-                    conn.getConfiguration().
-                            getPasswordDecryptionInitializationVector().access(
-                                    new Accessor() {
-
-                                @Override
-                                public void access(byte[] decryptionIV) {
-                                    passwordDecryptor = new PasswordDecryptor(
-                                            decryptionKey, decryptionIV);
-                                }
-                            });
-                }
-            });
-        }
-        assert passwordDecryptor != null;
-        return passwordDecryptor;
-    }
-
     private boolean containsAny(
             final Set<String> haystack, final Collection<String> needles) {
         for (String needle : needles) {
@@ -723,15 +808,29 @@ public class SunDSChangeLogSyncStrategy implements LdapSyncStrategy {
         return matchingRnd == null ? null : new Uid(matchingRnd.getValue().toString());
     }
 
-    public static int convertToInt(String number, final int def) {
-        int result = def;
+    /**
+     * Returns the change number held by the given token, or {@code null} if there is no token.
+     * Tokens created before change numbers were handled as {@code long} hold an {@link Integer}.
+     */
+    static Long getChangeNumber(final SyncToken token) {
+        if (token == null) {
+            return null;
+        }
+        if (!(token.getValue() instanceof Number)) {
+            throw new ConnectorException("Invalid change log sync token: " + token.getValue());
+        }
+        return ((Number) token.getValue()).longValue();
+    }
+
+    public static long convertToLong(String number, final long def) {
+        long result = def;
         if (number != null && number.length() > 0) {
             int decimal = number.indexOf('.');
             if (decimal > 0) {
                 number = number.substring(0, decimal);
             }
             try {
-                result = Integer.parseInt(number);
+                result = Long.parseLong(number);
             } catch (NumberFormatException e) {
                 // Ignore.
             }
@@ -0,0 +1,401 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.sync.timestamp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import net.tirasa.connid.bundles.ldap.LdapConnection;
+import net.tirasa.connid.bundles.ldap.commons.LdapUtil;
+import net.tirasa.connid.bundles.ldap.search.LdapFilter;
+import net.tirasa.connid.bundles.ldap.search.LdapSearch;
+import net.tirasa.connid.bundles.ldap.sync.LdapSyncStrategy;
+import net.tirasa.connid.bundles.ldap.sync.SyncBatch;
+import org.identityconnectors.common.CollectionUtil;
+import org.identityconnectors.common.StringUtil;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.AttributeUtil;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.SearchResult;
+import org.identityconnectors.framework.common.objects.SortKey;
+import org.identityconnectors.framework.common.objects.SyncDeltaBuilder;
+import org.identityconnectors.framework.common.objects.SyncDeltaType;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.identityconnectors.framework.spi.SearchResultsHandler;
+
+/**
+ * An implementation of the sync operation for servers without a change log, based on the
+ * {@code modifyTimestamp} and {@code createTimestamp} operational attributes.
+ *
+ * The token of an entry is its modification timestamp, or its creation timestamp if it was never
+ * modified, and its Uid. The entries changed since the token are read one page at a time, sorted
+ * by the timestamp their token uses and Uid: the modified entries and the never modified ones are
+ * read by separate searches, since the server would sort the latter last. Since the server only
+ * sorts within a base context, each base context is read by its own paged searches. All their pages
+ * are merged in token order, so that the token always increases and a sync stopped at any entry can
+ * be resumed from it.
+ * Since the timestamp filter is inclusive, the entries with the same timestamp as the token
+ * which sort before or at the token Uid are skipped.
+ *
+ * Deleted entries cannot be detected this way, so they still require a reconciliation.
+ */
+public class TimestampSyncStrategy implements LdapSyncStrategy {
+
+    private static final Log LOG = Log.getLog(TimestampSyncStrategy.class);
+
+    static final String MODIFY_TIMESTAMP = "modifyTimestamp";
+
+    static final String CREATE_TIMESTAMP = "createTimestamp";
+
+    private final LdapConnection conn;
+
+    private final ObjectClass oclass;
+
+    public TimestampSyncStrategy(final LdapConnection conn, final ObjectClass oclass) {
+        this.conn = conn;
+        this.oclass = oclass;
+    }
+
+    @Override
+    public SyncToken getLatestSyncToken() {
+        TimestampSyncToken latest = null;
+        // The entries are only sorted within a base context.
+        for (String baseDN : getBaseContextsToSynchronize()) {
+            latest = getLatestToken(baseDN, getSearchFilter(getModifiedFilter(null)), MODIFY_TIMESTAMP, latest);
+            latest = getLatestToken(baseDN, getSearchFilter(getCreatedFilter(null)), CREATE_TIMESTAMP, latest);
+        }
+
+        LOG.ok("Latest change: {0}", latest);
+        return latest == null ? null : latest.toSyncToken();
+    }
+
+    private TimestampSyncToken getLatestToken(
+            final String baseDN, final LdapFilter filter, final String timestampAttr, final TimestampSyncToken latest) {
+
+        OperationOptionsBuilder builder = new OperationOptionsBuilder();
+        builder.setAttributesToGet(MODIFY_TIMESTAMP, CREATE_TIMESTAMP);
+        builder.setPageSize(1);
+        builder.setSortKeys(new SortKey(timestampAttr, false), new SortKey(getLdapUidAttribute(), false));
+
+        ConnectorObject object = new LdapSearch(conn, oclass, filter, null, builder.build(), baseDN).getSingleResult();
+        if (object != null) {
+            TimestampSyncToken token = createToken(object);
+            if (latest == null || token.compareTo(latest) > 0) {
+                return token;
+            }
+        }
+        return latest;
+    }
+
+    @Override
+    public void sync(
+            final SyncToken token,
+            final SyncResultsHandler handler,
+            final OperationOptions options) {
+
+        final TimestampSyncToken startToken = TimestampSyncToken.fromSyncToken(token);
+
+        LdapFilter modifiedFilter = getSearchFilter(getModifiedFilter(startToken));
+        LdapFilter createdFilter = getSearchFilter(getCreatedFilter(startToken));
+
+        Set<String> attrsToGet = CollectionUtil.newCaseInsensitiveSet();
+        if (options.getAttributesToGet() != null) {
+            attrsToGet.addAll(Arrays.asList(options.getAttributesToGet()));
+        } else {
+            attrsToGet.addAll(LdapSearch.getAttributesReturnedByDefault(conn, oclass));
+        }
+        boolean removeModifyTimestamp = attrsToGet.add(MODIFY_TIMESTAMP);
+        boolean removeCreateTimestamp = attrsToGet.add(CREATE_TIMESTAMP);
+
+        List<Cursor> cursors = new ArrayList<Cursor>();
+        for (String baseDN : getBaseContextsToSynchronize()) {
+            cursors.add(new BaseContextCursor(baseDN, modifiedFilter, MODIFY_TIMESTAMP, attrsToGet));
+            cursors.add(new BaseContextCursor(baseDN, createdFilter, CREATE_TIMESTAMP, attrsToGet));
+        }
+
+        SyncBatch batch = new SyncBatch(handler, conn.getConfiguration());
+        if (sync(cursors, startToken, handler, batch, removeModifyTimestamp, removeCreateTimestamp)) {
+            batch.finish();
+        }
+    }
+
+    /**
+     * Delivers the entries of the given cursors in token order.
+     *
+     * @return whether the sync ended normally, rather than being stopped by the handler
+     */
+    static boolean sync(
+            final List<? extends Cursor> cursors,
+            final TimestampSyncToken startToken,
+            final SyncResultsHandler handler,
+            final SyncBatch batch,
+            final boolean removeModifyTimestamp,
+            final boolean removeCreateTimestamp) {
+
+        for (;;) {
+            Cursor next = null;
+            for (Cursor cursor : cursors) {
+                if (cursor.hasNext() && (next == null || cursor.peekToken().compareTo(next.peekToken()) < 0)) {
+                    next = cursor;
+                }
+            }
+            if (next == null) {
+                return true;
+            }
+            TimestampSyncToken entryToken = next.peekToken();
+            ConnectorObject object = next.next();
+
+            if (startToken != null && entryToken.compareTo(startToken) <= 0) {
+                LOG.ok("Skipping entry {0} because it was already synchronized", object.getUid());
+                continue;
+            }
+
+            SyncDeltaBuilder syncDeltaBuilder = new SyncDeltaBuilder();
+            syncDeltaBuilder.setToken(entryToken.toSyncToken());
+            syncDeltaBuilder.setDeltaType(SyncDeltaType.CREATE_OR_UPDATE);
+            syncDeltaBuilder.setUid(object.getUid());
+            syncDeltaBuilder.setObject(removeAttributes(object, removeModifyTimestamp, removeCreateTimestamp));
+            if (!handler.handle(syncDeltaBuilder.build())) {
+                return false;
+            }
+            // The entries are merged in token order, so the batch can end at any of them.
+            if (!batch.read(entryToken.toSyncToken())) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns the filter matching the entries modified since the given token, inclusive,
+     * or all the modified entries if there is no token.
+     */
+    static String getModifiedFilter(final TimestampSyncToken token) {
+        StringBuilder builder = new StringBuilder("(").append(MODIFY_TIMESTAMP);
+        if (token == null) {
+            return builder.append("=*)").toString();
+        }
+        builder.append(">=");
+        LdapUtil.escapeAttrValue(token.getTimestamp(), builder);
+        return builder.append(")").toString();
+    }
+
+    /**
+     * Returns the filter matching the entries never modified and created since the given token, inclusive,
+     * or all the never modified entries if there is no token.
+     */
+    static String getCreatedFilter(final TimestampSyncToken token) {
+        StringBuilder builder = new StringBuilder("(!(").append(MODIFY_TIMESTAMP).append("=*))");
+        if (token == null) {
+            return builder.toString();
+        }
+        builder.insert(0, "(&").append("(").append(CREATE_TIMESTAMP).append(">=");
+        LdapUtil.escapeAttrValue(token.getTimestamp(), builder);
+        return builder.append("))").toString();
+    }
+
+    private LdapFilter getSearchFilter(final String timestampFilter) {
+        String syncFilter = null;
+        if (oclass.equals(ObjectClass.ACCOUNT)) {
+            syncFilter = conn.getConfiguration().getAccountSynchronizationFilter();
+        }
+        if (StringUtil.isBlank(syncFilter)) {
+            return LdapFilter.forNativeFilter(timestampFilter);
+        }
+        syncFilter = syncFilter.trim();
+        if (syncFilter.charAt(0) != '(') {
+            syncFilter = "(" + syncFilter + ")";
+        }
+        return LdapFilter.forNativeFilter(timestampFilter).and(LdapFilter.forNativeFilter(syncFilter));
+    }
+
+    private List<String> getBaseContextsToSynchronize() {
+        String[] baseDNs = LdapUtil.nullAsEmpty(conn.getConfiguration().getBaseContextsToSynchronize());
+        if (baseDNs.length == 0) {
+            baseDNs = conn.getConfiguration().getBaseContexts();
+        }
+        return Arrays.asList(baseDNs);
+    }
+
+    private String getLdapUidAttribute() {
+        return conn.getSchemaMapping().getLdapUidAttribute(oclass);
+    }
+
+    static TimestampSyncToken createToken(final ConnectorObject object) {
+        String timestamp = getStringValue(object, MODIFY_TIMESTAMP);
+        if (timestamp == null) {
+            timestamp = getStringValue(object, CREATE_TIMESTAMP);
+        }
+        return new TimestampSyncToken(timestamp == null ? "19700101000000Z" : timestamp,
+                object.getUid().getUidValue());
+    }
+
+    private static String getStringValue(final ConnectorObject object, final String attrName) {
+        Attribute attr = object.getAttributeByName(attrName);
+        if (attr == null || attr.getValue() == null || attr.getValue().isEmpty()) {
+            return null;
+        }
+        return AttributeUtil.getStringValue(attr);
+    }
+
+    private static ConnectorObject removeAttributes(
+            final ConnectorObject object,
+            final boolean removeModifyTimestamp,
+            final boolean removeCreateTimestamp) {
+
+        if (!removeModifyTimestamp && !removeCreateTimestamp) {
+            return object;
+        }
+
+        ConnectorObjectBuilder objectBuilder = new ConnectorObjectBuilder();
+        objectBuilder.setObjectClass(object.getObjectClass());
+        objectBuilder.setUid(object.getUid());
+        objectBuilder.setName(object.getName());
+        for (Attribute attr : object.getAttributes()) {
+            if (removeModifyTimestamp && attr.is(MODIFY_TIMESTAMP)) {
+                continue;
+            }
+            if (removeCreateTimestamp && attr.is(CREATE_TIMESTAMP)) {
+                continue;
+            }
+            objectBuilder.addAttribute(attr);
+        }
+        return objectBuilder.build();
+    }
+
+    /**
+     * A sequence of changed entries, in token order.
+     */
+    abstract static class Cursor {
+
+        abstract boolean hasNext();
+
+        abstract TimestampSyncToken peekToken();
+
+        abstract ConnectorObject next();
+    }
+
+    /**
+     * Reads the changed entries of a base context in order of the given timestamp, one page at a time.
+     */
+    private class BaseContextCursor extends Cursor {
+
+        private final String baseDN;
+
+        private final LdapFilter filter;
+
+        private final String timestampAttr;
+
+        private final Set<String> attrsToGet;
+
+        private List<ConnectorObject> objects = Collections.emptyList();
+
+        private List<TimestampSyncToken> tokens = Collections.emptyList();
+
+        private int index;
+
+        private String cookie;
+
+        private boolean lastPage;
+
+        BaseContextCursor(
+                final String baseDN,
+                final LdapFilter filter,
+                final String timestampAttr,
+                final Set<String> attrsToGet) {
+
+            this.baseDN = baseDN;
+            this.filter = filter;
+            this.timestampAttr = timestampAttr;
+            this.attrsToGet = attrsToGet;
+        }
+
+        @Override
+        boolean hasNext() {
+            while (index >= objects.size() && !lastPage) {
+                readPage();
+            }
+            return index < objects.size();
+        }
+
+        @Override
+        TimestampSyncToken peekToken() {
+            return tokens.get(index);
+        }
+
+        @Override
+        ConnectorObject next() {
+            return objects.get(index++);
+        }
+
+        private void readPage() {
+            OperationOptionsBuilder builder = new OperationOptionsBuilder();
+            builder.setAttributesToGet(attrsToGet);
+            builder.setPageSize(conn.getConfiguration().getChangeLogBlockSize());
+            builder.setPagedResultsCookie(cookie);
+            builder.setSortKeys(new SortKey(timestampAttr, true), new SortKey(getLdapUidAttribute(), true));
+
+            PageHandler page = new PageHandler();
+            new LdapSearch(conn, oclass, filter, page, builder.build(), baseDN).execute();
+            LOG.ok("Read a page of {0} changed entries under {1}", page.objects.size(), baseDN);
+
+            objects = page.objects;
+            tokens = new ArrayList<TimestampSyncToken>(objects.size());
+            for (ConnectorObject object : objects) {
+                tokens.add(createToken(object));
+            }
+            index = 0;
+            cookie = page.cookie;
+            lastPage = cookie == null;
+        }
+    }
+
+    /**
+     * Collects a page of results and the cookie to read the next one.
+     */
+    private static class PageHandler implements SearchResultsHandler {
+
+        private final List<ConnectorObject> objects = new ArrayList<ConnectorObject>();
+
+        private String cookie;
+
+        @Override
+        public boolean handle(final ConnectorObject object) {
+            objects.add(object);
+            return true;
+        }
+
+        @Override
+        public void handleResult(final SearchResult result) {
+            cookie = result.getPagedResultsCookie();
+        }
+    }
+}
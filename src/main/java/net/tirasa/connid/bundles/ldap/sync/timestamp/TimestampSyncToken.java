@@ -0,0 +1,135 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.sync.timestamp;
+
+import java.util.Locale;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.SyncToken;
+
+/**
+ * The position reached by {@link TimestampSyncStrategy}: the timestamp of the last synchronized entry
+ * and its Uid, to tell apart the entries changed within the same timestamp.
+ * The token value is a string in the form {@code <generalized time>|<uid>}.
+ */
+public final class TimestampSyncToken implements Comparable<TimestampSyncToken> {
+
+    private static final char SEPARATOR = '|';
+
+    private final String timestamp;
+
+    private final String uid;
+
+    private final String sortKey;
+
+    public TimestampSyncToken(final String timestamp, final String uid) {
+        this.timestamp = timestamp;
+        this.uid = uid == null ? "" : uid;
+        this.sortKey = toSortKey(timestamp);
+    }
+
+    public static TimestampSyncToken fromSyncToken(final SyncToken token) {
+        if (token == null || token.getValue() == null) {
+            return null;
+        }
+        String value = token.getValue().toString();
+        int separator = value.indexOf(SEPARATOR);
+        if (separator <= 0) {
+            throw new ConnectorException("Invalid timestamp sync token " + value);
+        }
+        return new TimestampSyncToken(value.substring(0, separator), value.substring(separator + 1));
+    }
+
+    public SyncToken toSyncToken() {
+        return new SyncToken(timestamp + SEPARATOR + uid);
+    }
+
+    /**
+     * Returns the generalized time as returned by the server, to be used in search filters.
+     */
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    public String getUid() {
+        return uid;
+    }
+
+    /**
+     * Orders by timestamp first, then by Uid ignoring case, as the server sorts the Uid attributes with their
+     * case-insensitive ordering rule.
+     */
+    @Override
+    public int compareTo(final TimestampSyncToken other) {
+        int result = sortKey.compareTo(other.sortKey);
+        return result != 0 ? result : uid.compareToIgnoreCase(other.uid);
+    }
+
+    /**
+     * Converts a generalized time in UTC ({@code yyyyMMddHHmmss[.fraction]Z}) to a string
+     * which can be compared lexicographically regardless of the fraction precision.
+     */
+    static String toSortKey(final String timestamp) {
+        StringBuilder digits = new StringBuilder(24);
+        StringBuilder fraction = new StringBuilder(9);
+        boolean inFraction = false;
+        for (int i = 0; i < timestamp.length(); i++) {
+            char c = timestamp.charAt(i);
+            if (c == '.' || c == ',') {
+                inFraction = true;
+            } else if (Character.isDigit(c)) {
+                if (inFraction) {
+                    fraction.append(c);
+                } else {
+                    digits.append(c);
+                }
+            } else {
+                // The time zone, always "Z" for operational attributes.
+                break;
+            }
+        }
+        // Minutes and seconds are optional in a generalized time.
+        while (digits.length() < 14) {
+            digits.append('0');
+        }
+        while (fraction.length() < 9) {
+            fraction.append('0');
+        }
+        return digits.append(fraction).toString();
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        return obj instanceof TimestampSyncToken && compareTo((TimestampSyncToken) obj) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return sortKey.hashCode() ^ uid.toLowerCase(Locale.ENGLISH).hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "TimestampSyncToken[timestamp: " + timestamp + "; uid: " + uid + "]";
+    }
+}
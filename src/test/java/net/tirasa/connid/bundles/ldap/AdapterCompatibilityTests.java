@@ -26,12 +26,17 @@ package net.tirasa.connid.bundles.ldap;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
 
 import java.io.UnsupportedEncodingException;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import javax.naming.NamingException;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.framework.api.ConnectorFacade;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
@@ -51,6 +56,8 @@ import org.identityconnectors.framework.common.objects.filter.Filter;
 import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
 import net.tirasa.connid.bundles.ldap.schema.LdapSchemaMapping;
 import org.identityconnectors.test.common.TestHelpers;
+import net.tirasa.connid.bundles.ldap.commons.GroupHelper;
+import net.tirasa.connid.bundles.ldap.commons.GroupHelper.GroupMembership;
 import net.tirasa.connid.bundles.ldap.commons.LdapConstants;
 import net.tirasa.connid.bundles.ldap.commons.LdapUtil;
 import org.identityconnectors.common.CollectionUtil;
@@ -163,6 +170,76 @@ public class AdapterCompatibilityTests extends LdapConnectorTestBase {
                 object.getAttributeByName(LdapConstants.LDAP_GROUPS_NAME));
     }
 
+    @Test
+    public void testRetrieveLdapGroupsFromMemberOf() {
+        LdapConfiguration config = newConfiguration();
+        config.setReadLdapGroupsFromMemberOf(true);
+        LdapConnection conn = new LdapConnection(config);
+        try {
+            assumeTrue(conn.getMemberOfAttribute() != null);
+        } finally {
+            conn.close();
+        }
+
+        ConnectorObject object = searchByAttribute(
+                newFacade(config), ObjectClass.ACCOUNT, new Name(SYLVESTER_DN), LdapConstants.LDAP_GROUPS_NAME);
+        // The server lists the groups of any kind, not only those referencing the entry by the member attribute.
+        List<Object> groups = object.getAttributeByName(LdapConstants.LDAP_GROUPS_NAME).getValue();
+        assertTrue(groups.containsAll(CollectionUtil.newList(UNIQUE_BUGS_AND_FRIENDS_DN, UNIQUE_EXTERNAL_PEERS_DN)));
+    }
+
+    @Test
+    public void testRetrieveTransitiveLdapGroups() throws NamingException {
+        LdapConfiguration config = newConfiguration();
+        LdapConnection conn = new LdapConnection(config);
+        try {
+            // Nest the external peers in the empty group, and the empty group back in the external peers.
+            conn.getInitialContext().modifyAttributes(UNIQUE_EMPTY_GROUP_DN, DirContext.ADD_ATTRIBUTE,
+                    new BasicAttributes("uniqueMember", UNIQUE_EXTERNAL_PEERS_DN));
+            conn.getInitialContext().modifyAttributes(UNIQUE_EXTERNAL_PEERS_DN, DirContext.ADD_ATTRIBUTE,
+                    new BasicAttributes("uniqueMember", UNIQUE_EMPTY_GROUP_DN));
+        } finally {
+            conn.close();
+        }
+
+        ConnectorObject object = searchByAttribute(newFacade(config), ObjectClass.ACCOUNT, new Name(SYLVESTER_DN),
+                LdapConstants.LDAP_GROUPS_NAME, LdapConstants.TRANSITIVE_LDAP_GROUPS_NAME);
+        assertAttributeValue(
+                CollectionUtil.newList(UNIQUE_BUGS_AND_FRIENDS_DN, UNIQUE_EXTERNAL_PEERS_DN, UNIQUE_EMPTY_GROUP_DN),
+                object.getAttributeByName(LdapConstants.TRANSITIVE_LDAP_GROUPS_NAME));
+        // The groups to write back are still the direct ones only.
+        assertAttributeValue(CollectionUtil.newList(UNIQUE_BUGS_AND_FRIENDS_DN, UNIQUE_EXTERNAL_PEERS_DN),
+                object.getAttributeByName(LdapConstants.LDAP_GROUPS_NAME));
+
+        // Writing back what was read does not add the entry to the nested groups.
+        config.setMaintainLdapGroupMembership(true);
+        ConnectorFacade facade = newFacade(config);
+        facade.update(ObjectClass.ACCOUNT, object.getUid(), CollectionUtil.newSet(
+                object.getAttributeByName(LdapConstants.LDAP_GROUPS_NAME),
+                object.getAttributeByName(LdapConstants.TRANSITIVE_LDAP_GROUPS_NAME)), null);
+        assertAttributeValue(CollectionUtil.newList(UNIQUE_BUGS_AND_FRIENDS_DN, UNIQUE_EXTERNAL_PEERS_DN),
+                facade, ObjectClass.ACCOUNT, object.getUid(), LdapConstants.LDAP_GROUPS_NAME);
+    }
+
+    @Test
+    public void testPosixGroupMembershipsOfSeveralRefs() throws NamingException {
+        LdapConnection conn = new LdapConnection(newConfiguration());
+        try {
+            conn.getInitialContext().modifyAttributes(POSIX_EMPTY_GROUP_DN, DirContext.ADD_ATTRIBUTE,
+                    new BasicAttributes("memberUid", "sylvester.the.cat"));
+
+            // All the references are looked up with a single search.
+            Set<GroupMembership> memberships = new GroupHelper(conn).getPosixGroupMemberships(
+                    CollectionUtil.newList(SYLVESTER_UID, "sylvester.the.cat", "tweety.bird"));
+            assertEquals(CollectionUtil.newSet(
+                    new GroupMembership(SYLVESTER_UID, POSIX_BUGS_AND_FRIENDS_DN),
+                    new GroupMembership(SYLVESTER_UID, POSIX_EXTERNAL_PEERS_DN),
+                    new GroupMembership("sylvester.the.cat", POSIX_EMPTY_GROUP_DN)), memberships);
+        } finally {
+            conn.close();
+        }
+    }
+
     @Test
     public void testRetrivePosixGroups() {
         ConnectorFacade facade = newFacade();
@@ -300,6 +377,35 @@ public class AdapterCompatibilityTests extends LdapConnectorTestBase {
         assertAttributeValue(oldGroups, facade, ObjectClass.ACCOUNT, uid, groupsAttr.getName());
     }
 
+    @Test
+    public void testPermissiveLdapGroupModifications() {
+        LdapConnection conn = new LdapConnection(newConfiguration());
+        try {
+            assumeTrue(conn.supportsControl(GroupHelper.PERMISSIVE_MODIFY_OID));
+        } finally {
+            conn.close();
+        }
+
+        ConnectorFacade facade = newFacade();
+        ConnectorObject object = searchByAttribute(
+                facade, ObjectClass.ACCOUNT, new Name(SYLVESTER_DN), LdapConstants.LDAP_GROUPS_NAME);
+        Set<Object> groups = new HashSet<Object>(object.getAttributeByName(LdapConstants.LDAP_GROUPS_NAME).getValue());
+        groups.add(UNIQUE_EXTERNAL_PEERS_DN);
+        groups.remove(UNIQUE_EMPTY_GROUP_DN);
+
+        // Adding an existing membership and removing a missing one do not fail.
+        Attribute added = AttributeBuilder.build(LdapConstants.LDAP_GROUPS_NAME, UNIQUE_EXTERNAL_PEERS_DN);
+        Attribute removed = AttributeBuilder.build(LdapConstants.LDAP_GROUPS_NAME, UNIQUE_EMPTY_GROUP_DN);
+        Uid uid = object.getUid();
+        for (int i = 0; i < 2; i++) {
+            uid = facade.addAttributeValues(ObjectClass.ACCOUNT, uid, Collections.singleton(added), null);
+            uid = facade.removeAttributeValues(ObjectClass.ACCOUNT, uid, Collections.singleton(removed), null);
+        }
+
+        assertAttributeValue(
+                CollectionUtil.newList(groups), facade, ObjectClass.ACCOUNT, uid, LdapConstants.LDAP_GROUPS_NAME);
+    }
+
     @Test(expected = ConnectorException.class)
     public void testCannotRemoveUidWhenInPosixGroups() {
         ConnectorFacade facade = newFacade();
@@ -358,6 +464,37 @@ public class AdapterCompatibilityTests extends LdapConnectorTestBase {
         }
     }
 
+    @Test
+    public void testRenameLeavesGroupMembershipsToServer() {
+        LdapConnection conn = new LdapConnection(newConfiguration());
+        try {
+            // Otherwise the server would update the groups itself.
+            assumeFalse(conn.hasReferentialIntegrity("uniqueMember"));
+        } finally {
+            conn.close();
+        }
+
+        LdapConfiguration config = newConfiguration();
+        config.setMaintainLdapGroupMembership(true);
+        config.setServerReferentialIntegrity(true);
+        ConnectorFacade facade = newFacade(config);
+
+        ConnectorObject object = searchByAttribute(
+                facade, ObjectClass.ACCOUNT, new Name(SYLVESTER_DN), LdapConstants.LDAP_GROUPS_NAME);
+        List<String> oldLdapGroups = LdapUtil.checkedListByFilter(
+                object.getAttributeByName(LdapConstants.LDAP_GROUPS_NAME).getValue(), String.class);
+
+        Name newName = new Name("uid=sylvester.the.cat," + ACME_USERS_DN);
+        facade.update(ObjectClass.ACCOUNT, object.getUid(), Collections.singleton((Attribute) newName), null);
+
+        // The groups were not touched by the connector.
+        for (String group : oldLdapGroups) {
+            object = searchByAttribute(facade, new ObjectClass("groupOfUniqueNames"), new Name(group), "uniqueMember");
+            List<Object> members = object.getAttributeByName("uniqueMember").getValue();
+            assertTrue("Group " + group + " should contain " + SYLVESTER_DN, members.contains(SYLVESTER_DN));
+        }
+    }
+
     @Test
     public void testRenameAndUpdateGroupMemberships() {
         LdapConfiguration config = newConfiguration();
@@ -400,6 +537,43 @@ public class AdapterCompatibilityTests extends LdapConnectorTestBase {
         }
     }
 
+    @Test
+    public void testRenameAndKeepLdapGroupWithPermissiveModify() {
+        LdapConnection conn = new LdapConnection(newConfiguration());
+        try {
+            assumeTrue(conn.supportsControl(GroupHelper.PERMISSIVE_MODIFY_OID));
+            // Otherwise the server would move the memberships itself.
+            assumeFalse(conn.hasReferentialIntegrity("uniqueMember"));
+        } finally {
+            conn.close();
+        }
+
+        LdapConfiguration config = newConfiguration();
+        config.setMaintainLdapGroupMembership(true);
+        ConnectorFacade facade = newFacade(config);
+
+        ConnectorObject object = searchByAttribute(
+                facade, ObjectClass.ACCOUNT, new Name(SYLVESTER_DN), LdapConstants.LDAP_GROUPS_NAME);
+        assertTrue(object.getAttributeByName(LdapConstants.LDAP_GROUPS_NAME).getValue().
+                contains(UNIQUE_EXTERNAL_PEERS_DN));
+
+        // Keep one of the current groups, drop the others and add a new one, while renaming.
+        String newDN = "uid=sylvester.the.cat," + ACME_USERS_DN;
+        Attribute ldapGroupsAttr = AttributeBuilder.build(
+                LdapConstants.LDAP_GROUPS_NAME, UNIQUE_EXTERNAL_PEERS_DN, UNIQUE_EMPTY_GROUP_DN);
+        Uid uid = facade.update(ObjectClass.ACCOUNT, object.getUid(),
+                CollectionUtil.newSet(new Name(newDN), ldapGroupsAttr), null);
+
+        assertAttributeValue(
+                ldapGroupsAttr.getValue(), facade, ObjectClass.ACCOUNT, uid, LdapConstants.LDAP_GROUPS_NAME);
+
+        object = searchByAttribute(
+                facade, new ObjectClass("groupOfUniqueNames"), new Name(UNIQUE_EXTERNAL_PEERS_DN), "uniqueMember");
+        List<Object> members = object.getAttributeByName("uniqueMember").getValue();
+        assertTrue(members.contains(newDN));
+        assertFalse(members.contains(SYLVESTER_DN));
+    }
+
     @Test
     public void testRenameDoesNotMaintainGroupMembershipsUnlessConfigured() {
         LdapConfiguration config = newConfiguration();
@@ -30,6 +30,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.util.Arrays;
+import net.tirasa.connid.bundles.ldap.sync.sunds.SunDSChangeLogSyncStrategy;
 import org.identityconnectors.common.CollectionUtil;
 import org.identityconnectors.common.security.GuardedByteArray;
 import org.identityconnectors.framework.common.exceptions.ConfigurationException;
@@ -220,6 +221,109 @@ public class LdapConfigurationTests {
         config.validate();
     }
 
+    @Test(expected = ConfigurationException.class)
+    public void testSyncStrategyNotBlank() {
+        config.setSyncStrategy(" ");
+        config.validate();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testSyncStrategyExists() {
+        config.setSyncStrategy("net.tirasa.connid.bundles.ldap.sync.NoSuchSyncStrategy");
+        config.validate();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testSyncStrategyIsLdapSyncStrategy() {
+        config.setSyncStrategy(String.class.getName());
+        config.validate();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testPersistentSearchQueueSizeGreatherThanZero() {
+        config.setPersistentSearchQueueSize(0);
+        config.validate();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testSyncBatchSizeNotNegative() {
+        config.setSyncBatchSize(-1);
+        config.validate();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testSyncBatchTimeNotNegative() {
+        config.setSyncBatchTime(-1);
+        config.validate();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testMetricsClassExists() {
+        config.setMetricsClass("net.tirasa.connid.bundles.ldap.commons.NoSuchMetrics");
+        config.validate();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testMetricsClassIsLdapMetrics() {
+        config.setMetricsClass(String.class.getName());
+        config.validate();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testSlowOperationThresholdNotNegative() {
+        config.setSlowOperationThreshold(-1);
+        config.validate();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testSlowOperationLogSizeGreaterThanZero() {
+        config.setSlowOperationLogSize(0);
+        config.validate();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testSearchResultsQueueSizeNotNegative() {
+        config.setSearchResultsQueueSize(-1);
+        config.validate();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testSearchResultsConversionThreadsNotNegative() {
+        config.setSearchResultsConversionThreads(-1);
+        config.validate();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testUidLookupBatchWindowNotNegative() {
+        config.setUidLookupBatchWindow(-1);
+        config.validate();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testUidLookupBatchSizeGreaterThanZero() {
+        config.setUidLookupBatchSize(0);
+        config.validate();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testUidBulkGetThreadsGreaterThanZero() {
+        config.setUidBulkGetThreads(0);
+        config.validate();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testIndexedAttributesItemNotBlank() {
+        config.setIndexedAttributes(" ");
+        config.validate();
+    }
+
+    @Test
+    public void testIndexedAttributesNull() {
+        config.setIndexedAttributes((String[]) null);
+        assertEquals(0, config.getIndexedAttributes().length);
+        config.validate();
+    }
+
     @Test(expected = ConfigurationException.class)
     public void testPasswordAttributeToSynchronizeNotNull() {
         config.setSynchronizePasswords(true);
@@ -307,11 +411,42 @@ public class LdapConfigurationTests {
         assertNull(config.getPasswordAttributeToSynchronize());
         assertNull(config.getPasswordDecryptionKey());
         assertNull(config.getPasswordDecryptionInitializationVector());
+        assertEquals(SunDSChangeLogSyncStrategy.class.getName(), config.getSyncStrategy());
+        assertFalse(config.isUsePersistentSearch());
+        assertEquals(1000, config.getPersistentSearchQueueSize());
+        assertEquals(0, config.getSyncBatchSize());
+        assertEquals(0, config.getSyncBatchTime());
+        assertFalse(config.isFilterChangeLogOnServer());
+        assertNull(config.getMetricsClass());
+        assertEquals(0, config.getSlowOperationThreshold());
+        assertEquals(100, config.getSlowOperationLogSize());
+        assertEquals(0, config.getSearchResultsQueueSize());
+        assertEquals(2, config.getSearchResultsConversionThreads());
+        assertFalse(config.isReadLdapGroupsFromMemberOf());
+        assertFalse(config.isServerReferentialIntegrity());
+        assertEquals(0, config.getUidLookupBatchWindow());
+        assertEquals(50, config.getUidLookupBatchSize());
+        assertEquals(1, config.getUidBulkGetThreads());
+        assertEquals(0, config.getIndexedAttributes().length);
         assertNull(config.getGroupSearchFilter());
         assertEquals(0, config.getReadTimeout());
         assertEquals(0, config.getConnectTimeout());
     }
 
+    @Test
+    public void testEqualityKey() {
+        LdapConfiguration other = new LdapConfiguration();
+        other.setHost("localhost");
+        other.setBaseContexts("dc=example,dc=com");
+        Object key = config.getEqualityKey();
+        assertEquals(key, other.getEqualityKey());
+
+        // The key does not follow the later changes.
+        other.setHost("otherhost");
+        assertEquals(key, config.getEqualityKey());
+        assertFalse(key.equals(other.getEqualityKey()));
+    }
+
     private static void assertCanValidate(LdapConfiguration config) {
         try {
             config.validate();
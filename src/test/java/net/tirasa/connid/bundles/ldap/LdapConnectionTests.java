@@ -24,15 +24,26 @@
 package net.tirasa.connid.bundles.ldap;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.sun.jndi.ldap.ctl.PagedResultsControl;
 import com.sun.jndi.ldap.ctl.VirtualListViewControl;
+import java.util.Arrays;
+import java.util.List;
 import javax.naming.Context;
+import javax.naming.InvalidNameException;
 import javax.naming.NamingException;
 import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.ldap.LdapName;
 import net.tirasa.connid.bundles.ldap.commons.LdapUtil;
+import net.tirasa.connid.bundles.ldap.sync.sunds.PasswordDecryptor;
+import org.identityconnectors.common.security.GuardedByteArray;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import net.tirasa.connid.bundles.ldap.LdapConnection.ServerType;
@@ -179,4 +190,52 @@ public class LdapConnectionTests extends LdapConnectorTestBase {
         LdapConnection conn = new LdapConnection(newConfiguration());
         assertEquals(ServerType.OPENDJ, conn.getServerType());
     }
+
+    @Test
+    public void testReferentialIntegrityPluginScope() throws InvalidNameException {
+        List<LdapName> baseContexts = Arrays.asList(
+                new LdapName("ou=People,dc=example,dc=com"), new LdapName("ou=Groups,dc=example,dc=com"));
+        String[] scopeAttrs = { "nsslapd-pluginEntryScope", "nsslapd-pluginContainerScope" };
+
+        // No scope covers the whole server.
+        assertTrue(LdapConnection.isInPluginScope(baseContexts, new BasicAttributes(true),
+                "nsslapd-pluginExcludeEntryScope", scopeAttrs));
+
+        Attributes attrs = new BasicAttributes(true);
+        attrs.put("nsslapd-pluginEntryScope", "dc=example,dc=com");
+        assertTrue(LdapConnection.isInPluginScope(baseContexts, attrs, "nsslapd-pluginExcludeEntryScope", scopeAttrs));
+
+        // The groups would not be updated outside of the container scope.
+        attrs.put("nsslapd-pluginContainerScope", "ou=Groups,dc=example,dc=com");
+        assertFalse(LdapConnection.isInPluginScope(baseContexts, attrs, "nsslapd-pluginExcludeEntryScope", scopeAttrs));
+        attrs.remove("nsslapd-pluginContainerScope");
+
+        attrs.put("nsslapd-pluginExcludeEntryScope", "ou=Admins,ou=People,dc=example,dc=com");
+        assertFalse(LdapConnection.isInPluginScope(baseContexts, attrs, "nsslapd-pluginExcludeEntryScope", scopeAttrs));
+        attrs.put("nsslapd-pluginExcludeEntryScope", "ou=Other,dc=example,dc=com");
+        assertTrue(LdapConnection.isInPluginScope(baseContexts, attrs, "nsslapd-pluginExcludeEntryScope", scopeAttrs));
+
+        Attributes openDJ = new BasicAttributes(true);
+        BasicAttribute baseDNs = new BasicAttribute("ds-cfg-base-dn");
+        baseDNs.add("ou=People,dc=example,dc=com");
+        baseDNs.add("ou=Groups,dc=example,dc=com");
+        openDJ.put(baseDNs);
+        assertTrue(LdapConnection.isInPluginScope(baseContexts, openDJ, null, "ds-cfg-base-dn"));
+        baseDNs.remove("ou=Groups,dc=example,dc=com");
+        assertFalse(LdapConnection.isInPluginScope(baseContexts, openDJ, null, "ds-cfg-base-dn"));
+    }
+
+    @Test
+    public void testPasswordDecryptorScopedToConnection() {
+        LdapConfiguration config = newConfiguration();
+        config.setPasswordDecryptionKey(new GuardedByteArray("0123456789abcdefghijklmn".getBytes()));
+        config.setPasswordDecryptionInitializationVector(new GuardedByteArray("12345678".getBytes()));
+        LdapConnection conn = new LdapConnection(config);
+        PasswordDecryptor decryptor = conn.getPasswordDecryptor();
+        assertSame(decryptor, conn.getPasswordDecryptor());
+        conn.close();
+        // Closing disposes of the decryptor, the next operation gets a new one.
+        assertNotSame(decryptor, conn.getPasswordDecryptor());
+        conn.close();
+    }
 }
@@ -0,0 +1,331 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import net.tirasa.connid.bundles.ldap.commons.DefaultLdapMetrics;
+import net.tirasa.connid.bundles.ldap.commons.DefaultLdapMetrics.OperationStatistics;
+import net.tirasa.connid.bundles.ldap.commons.DefaultLdapMetrics.Statistics;
+import net.tirasa.connid.bundles.ldap.commons.InstrumentedLdapContext;
+import net.tirasa.connid.bundles.ldap.commons.LdapMetrics;
+import net.tirasa.connid.bundles.ldap.commons.LdapMetrics.Request;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.junit.After;
+import org.junit.Test;
+
+public class LdapMetricsTests {
+
+    private final DefaultLdapMetrics metrics = new DefaultLdapMetrics();
+
+    @After
+    public void after() {
+        LdapMetrics.endOperation();
+    }
+
+    @Test
+    public void testRecord() {
+        metrics.record("update", ObjectClass.ACCOUNT, Request.MODIFY, 1500, 10, false);
+        metrics.record("update", ObjectClass.ACCOUNT, Request.MODIFY, 3000000, 20, true);
+        metrics.record("update", ObjectClass.ACCOUNT, Request.SEARCH, 500, 5, false);
+        metrics.record("create", ObjectClass.GROUP, Request.ADD, 500, 5, false);
+
+        Statistics modify = metrics.getStatistics("update", ObjectClass.ACCOUNT, Request.MODIFY);
+        assertEquals(2, modify.getCount());
+        assertEquals(1, modify.getFailures());
+        assertEquals(30, modify.getBytes());
+        assertEquals(3001500, modify.getTotalNanos());
+        long[] histogram = modify.getHistogram();
+        // 1 microsecond is in [1, 2), 3000 microseconds in [2048, 4096).
+        assertEquals(1, histogram[1]);
+        assertEquals(1, histogram[12]);
+        assertEquals(2, histogram[1] + histogram[12]);
+        assertEquals(2, modify.getPercentileMicros(50));
+        assertEquals(4096, modify.getPercentileMicros(99));
+
+        assertEquals(3, metrics.getRequestCount("update"));
+        assertEquals(4, metrics.getRequestCount(null));
+        assertNull(metrics.getStatistics("update", ObjectClass.GROUP, Request.MODIFY));
+
+        metrics.reset();
+        assertEquals(0, metrics.getRequestCount(null));
+    }
+
+    @Test
+    public void testConcurrentRecord() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() {
+                        for (int j = 0; j < 10000; j++) {
+                            metrics.record("executeQuery", ObjectClass.ACCOUNT, Request.SEARCH, j, 1, false);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Statistics search = metrics.getStatistics("executeQuery", ObjectClass.ACCOUNT, Request.SEARCH);
+        assertEquals(40000, search.getCount());
+        assertEquals(40000, search.getBytes());
+    }
+
+    @Test
+    public void testSharedInstance() {
+        assertNull(LdapMetrics.getInstance(null));
+        assertSame(LdapMetrics.getInstance(DefaultLdapMetrics.class.getName()),
+                LdapMetrics.getInstance(DefaultLdapMetrics.class.getName()));
+    }
+
+    @Test
+    public void testInstrumentedContext() throws Exception {
+        LdapContext ctx = InstrumentedLdapContext.wrap(newFakeContext(), metrics, null);
+
+        LdapMetrics.beginOperation("update", ObjectClass.ACCOUNT);
+        ctx.modifyAttributes("uid=foo", new ModificationItem[] {
+            new ModificationItem(DirContext.REPLACE_ATTRIBUTE, new BasicAttribute("cn", "Foo")) });
+        ctx.getAttributes("uid=foo", new String[] { "cn" });
+        try {
+            ctx.destroySubcontext("uid=bar");
+            fail();
+        } catch (NameNotFoundException e) {
+            // Expected.
+        }
+
+        NamingEnumeration<SearchResult> results = ctx.newInstance(null).search("dc=example", "(uid=*)",
+                new SearchControls());
+        int count = 0;
+        while (results.hasMore()) {
+            results.next();
+            count++;
+        }
+        results.close();
+        assertEquals(2, count);
+        LdapMetrics.endOperation();
+        ctx.getAttributes("");
+
+        Statistics modify = metrics.getStatistics("update", ObjectClass.ACCOUNT, Request.MODIFY);
+        assertEquals(1, modify.getCount());
+        // The name, "cn" and "Foo".
+        assertEquals(12, modify.getBytes());
+        Statistics read = metrics.getStatistics("update", ObjectClass.ACCOUNT, Request.READ);
+        assertEquals(1, read.getCount());
+        // The name and the returned "cn: Foo".
+        assertEquals(12, read.getBytes());
+        Statistics delete = metrics.getStatistics("update", ObjectClass.ACCOUNT, Request.DELETE);
+        assertEquals(1, delete.getCount());
+        assertEquals(1, delete.getFailures());
+        Statistics search = metrics.getStatistics("update", ObjectClass.ACCOUNT, Request.SEARCH);
+        assertEquals(1, search.getCount());
+        assertFalse(search.getBytes() == 0);
+        assertEquals(1, metrics.getStatistics(LdapMetrics.NO_OPERATION, null, Request.READ).getCount());
+        assertEquals(5, metrics.getRequestCount(null));
+    }
+
+    @Test
+    public void testOperationStatistics() throws Exception {
+        LdapContext ctx = InstrumentedLdapContext.wrap(newFakeContext(), metrics, null);
+
+        LdapMetrics.beginOperation("get", ObjectClass.ACCOUNT);
+        for (int i = 0; i < 3; i++) {
+            ctx.getAttributes("uid=foo", new String[] { "cn" });
+        }
+        LdapMetrics.endOperation(metrics);
+        LdapMetrics.beginOperation("get", ObjectClass.ACCOUNT);
+        ctx.getAttributes("uid=foo", new String[] { "cn" });
+        LdapMetrics.endOperation(metrics);
+        LdapMetrics.beginOperation("get", ObjectClass.GROUP);
+        LdapMetrics.endOperation(metrics);
+
+        OperationStatistics account = metrics.getOperationStatistics("get", ObjectClass.ACCOUNT);
+        assertEquals(2, account.getCount());
+        assertEquals(4, account.getRequests());
+        assertEquals(2.0, account.getRequestsPerOperation(), 0);
+        OperationStatistics group = metrics.getOperationStatistics("get", ObjectClass.GROUP);
+        assertEquals(1, group.getCount());
+        assertEquals(0, group.getRequests());
+        assertNull(metrics.getOperationStatistics("update", ObjectClass.ACCOUNT));
+
+        assertEquals(4.0 / 3, metrics.getRequestsPerOperation("get"), 0.0001);
+        assertEquals(0, metrics.getRequestsPerOperation("update"), 0);
+        assertEquals(metrics.getRequestCount("get"), account.getRequests() + group.getRequests());
+
+        metrics.reset();
+        assertEquals(0, metrics.getOperationStatistics().size());
+    }
+
+    @Test
+    public void testStartHooks() throws Exception {
+        final List<Object> recorded = new ArrayList<Object>();
+        DefaultLdapMetrics hooked = new DefaultLdapMetrics() {
+
+            @Override
+            public Object startOperation(final String operation, final ObjectClass oclass) {
+                return "operation " + operation;
+            }
+
+            @Override
+            public void recordOperation(
+                    final Object started,
+                    final String operation,
+                    final ObjectClass oclass,
+                    final long nanos,
+                    final int requests) {
+
+                recorded.add(started);
+                super.recordOperation(started, operation, oclass, nanos, requests);
+            }
+
+            @Override
+            public Object startRequest(final String operation, final ObjectClass oclass, final Request request) {
+                // The request is started within the operation.
+                assertEquals(0, recorded.size());
+                return "request " + request;
+            }
+
+            @Override
+            public void record(
+                    final Object started,
+                    final String operation,
+                    final ObjectClass oclass,
+                    final Request request,
+                    final String name,
+                    final String filter,
+                    final int entryCount,
+                    final long nanos,
+                    final long bytes,
+                    final boolean failed) {
+
+                recorded.add(started);
+                super.record(started, operation, oclass, request, name, filter, entryCount, nanos, bytes, failed);
+            }
+        };
+        LdapContext ctx = InstrumentedLdapContext.wrap(newFakeContext(), hooked, null);
+
+        LdapMetrics.beginOperation("get", ObjectClass.ACCOUNT, hooked);
+        ctx.getAttributes("uid=foo", new String[] { "cn" });
+        LdapMetrics.endOperation(hooked);
+
+        assertEquals(Arrays.<Object>asList("request READ", "operation get"), recorded);
+        // The default recording still happens.
+        assertEquals(1, hooked.getStatistics("get", ObjectClass.ACCOUNT, Request.READ).getCount());
+        assertEquals(1, hooked.getOperationStatistics("get", ObjectClass.ACCOUNT).getRequests());
+    }
+
+    static LdapContext newFakeContext() {
+        return (LdapContext) Proxy.newProxyInstance(LdapMetricsTests.class.getClassLoader(),
+                new Class<?>[] { LdapContext.class }, new InvocationHandler() {
+
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                String name = method.getName();
+                if ("getAttributes".equals(name)) {
+                    return new BasicAttributes("cn", "Foo", true);
+                } else if ("destroySubcontext".equals(name)) {
+                    throw new NameNotFoundException();
+                } else if ("search".equals(name)) {
+                    return new FakeEnumeration(Arrays.asList(
+                            new SearchResult("uid=foo", null, new BasicAttributes("cn", "Foo", true)),
+                            new SearchResult("uid=bar", null, new BasicAttributes("cn", "Bar", true))));
+                } else if ("newInstance".equals(name)) {
+                    return proxy;
+                } else if ("getRequestControls".equals(name)) {
+                    return new Control[] { new BasicControl("1.2.840.113556.1.4.319") };
+                }
+                return null;
+            }
+        });
+    }
+
+    private static final class FakeEnumeration implements NamingEnumeration<SearchResult> {
+
+        private final List<SearchResult> results;
+
+        private int index;
+
+        public FakeEnumeration(final List<SearchResult> results) {
+            this.results = results;
+        }
+
+        @Override
+        public boolean hasMore() throws NamingException {
+            return hasMoreElements();
+        }
+
+        @Override
+        public SearchResult next() throws NamingException {
+            return nextElement();
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+            return index < results.size();
+        }
+
+        @Override
+        public SearchResult nextElement() {
+            return results.get(index++);
+        }
+
+        @Override
+        public void close() {
+            // Nothing to close.
+        }
+    }
+}
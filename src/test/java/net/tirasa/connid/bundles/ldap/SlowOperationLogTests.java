@@ -0,0 +1,124 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.naming.NamingEnumeration;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapContext;
+import net.tirasa.connid.bundles.ldap.commons.InstrumentedLdapContext;
+import net.tirasa.connid.bundles.ldap.commons.LdapMetrics;
+import net.tirasa.connid.bundles.ldap.commons.LdapMetrics.Request;
+import net.tirasa.connid.bundles.ldap.commons.SlowOperationLog;
+import net.tirasa.connid.bundles.ldap.commons.SlowOperationLog.SlowOperation;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.junit.Test;
+
+public class SlowOperationLogTests {
+
+    private static SlowOperation newOperation(final String name, final long millis) {
+        return new SlowOperation("update", ObjectClass.ACCOUNT, Request.MODIFY, name, null, null, null, -1,
+                TimeUnit.MILLISECONDS.toNanos(millis), false);
+    }
+
+    @Test
+    public void testThreshold() {
+        SlowOperationLog log = new SlowOperationLog(100, 10);
+        assertFalse(log.isSlow(TimeUnit.MILLISECONDS.toNanos(99)));
+        assertTrue(log.isSlow(TimeUnit.MILLISECONDS.toNanos(100)));
+
+        log.record(newOperation("uid=fast", 99));
+        log.record(newOperation("uid=slow", 150));
+        List<SlowOperation> operations = log.getOperations();
+        assertEquals(1, operations.size());
+        assertEquals("uid=slow", operations.get(0).getName());
+
+        log.clear();
+        assertTrue(log.getOperations().isEmpty());
+    }
+
+    @Test
+    public void testRingBuffer() {
+        SlowOperationLog log = new SlowOperationLog(0, 3);
+        for (int i = 0; i < 5; i++) {
+            log.record(newOperation("uid=" + i, 1));
+        }
+        List<SlowOperation> operations = log.getOperations();
+        assertEquals(3, operations.size());
+        assertEquals("uid=2", operations.get(0).getName());
+        assertEquals("uid=3", operations.get(1).getName());
+        assertEquals("uid=4", operations.get(2).getName());
+    }
+
+    @Test
+    public void testSearchDetails() throws Exception {
+        SlowOperationLog log = new SlowOperationLog(0, 10);
+        LdapContext ctx = InstrumentedLdapContext.wrap(LdapMetricsTests.newFakeContext(), null, log);
+
+        SearchControls controls = new SearchControls();
+        controls.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+        controls.setReturningAttributes(new String[] { "cn", "mail" });
+        LdapMetrics.beginOperation("executeQuery", ObjectClass.ACCOUNT);
+        try {
+            NamingEnumeration<SearchResult> results = ctx.search("dc=example,dc=com", "(mail=*)", controls);
+            while (results.hasMore()) {
+                results.next();
+            }
+            ctx.modifyAttributes("uid=foo,dc=example,dc=com", new ModificationItem[] {
+                new ModificationItem(DirContext.REPLACE_ATTRIBUTE, new BasicAttribute("cn", "Foo")) });
+        } finally {
+            LdapMetrics.endOperation();
+        }
+
+        List<SlowOperation> operations = log.getOperations();
+        assertEquals(2, operations.size());
+
+        SlowOperation search = operations.get(0);
+        assertEquals(Request.SEARCH, search.getRequest());
+        assertEquals("executeQuery", search.getOperation());
+        assertEquals(ObjectClass.ACCOUNT, search.getObjectClass());
+        assertEquals("dc=example,dc=com", search.getName());
+        assertEquals("(mail=*)", search.getFilter());
+        assertEquals("ONELEVEL", search.getScope());
+        assertEquals(Arrays.asList("cn", "mail"), search.getAttributes());
+        assertEquals(Collections.singletonList("1.2.840.113556.1.4.319"), search.getControls());
+        assertEquals(2, search.getResultCount());
+
+        SlowOperation modify = operations.get(1);
+        assertEquals(Request.MODIFY, modify.getRequest());
+        assertEquals("uid=foo,dc=example,dc=com", modify.getName());
+        assertEquals(-1, modify.getResultCount());
+    }
+}
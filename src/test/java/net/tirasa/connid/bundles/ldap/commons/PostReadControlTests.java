@@ -0,0 +1,116 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.commons;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.junit.Test;
+
+public class PostReadControlTests {
+
+    @Test
+    public void testEncodeValue() {
+        byte[] value = PostReadControl.encodeValue(new String[] { "entryUUID", "cn" });
+        assertArrayEquals(new byte[] {
+            0x30, 0x0f,
+            0x04, 0x09, 'e', 'n', 't', 'r', 'y', 'U', 'U', 'I', 'D',
+            0x04, 0x02, 'c', 'n' }, value);
+    }
+
+    @Test
+    public void testDecodeResponse() throws NamingException {
+        // SearchResultEntry for "uid=foo" with entryUUID and two cn values.
+        byte[] value = new byte[] {
+            0x64, 0x2c,
+            0x04, 0x07, 'u', 'i', 'd', '=', 'f', 'o', 'o',
+            0x30, 0x21,
+            0x30, 0x12,
+            0x04, 0x09, 'e', 'n', 't', 'r', 'y', 'U', 'U', 'I', 'D',
+            0x31, 0x05, 0x04, 0x03, 'a', 'b', 'c',
+            0x30, 0x0b,
+            0x04, 0x02, 'c', 'n',
+            0x31, 0x05, 0x04, 0x01, 'x', 0x04, 0x00 };
+
+        Attributes entry = PostReadControl.getEntry(new Control[] {
+            new BasicControl("1.2.3.4"), new BasicControl(PostReadControl.OID, false, value) });
+        assertEquals(2, entry.size());
+        assertEquals("abc", entry.get("ENTRYUUID").get());
+        Attribute cn = entry.get("cn");
+        assertEquals(2, cn.size());
+        assertEquals("x", cn.get(0));
+        assertEquals("", cn.get(1));
+    }
+
+    @Test
+    public void testDecodeLongResponse() throws NamingException {
+        byte[] longValue = new byte[300];
+        Arrays.fill(longValue, (byte) 'v');
+
+        byte[] value = tlv(PostReadControl.TAG_SEARCH_RESULT_ENTRY, concat(
+                tlv(PostReadControl.TAG_OCTET_STRING, new byte[0]),
+                tlv(PostReadControl.TAG_SEQUENCE, tlv(PostReadControl.TAG_SEQUENCE, concat(
+                        tlv(PostReadControl.TAG_OCTET_STRING, "description".getBytes()),
+                        tlv(PostReadControl.TAG_SET, tlv(PostReadControl.TAG_OCTET_STRING, longValue)))))));
+        // The long value needs a long form length.
+        assertEquals((byte) 0x82, value[1]);
+
+        Attributes entry = PostReadControl.getEntry(new Control[] {
+            new BasicControl(PostReadControl.OID, false, value) });
+        assertEquals(new String(longValue), entry.get("description").get());
+    }
+
+    @Test
+    public void testNoResponse() {
+        assertNull(PostReadControl.getEntry(null));
+        assertNull(PostReadControl.getEntry(new Control[] { new BasicControl("1.2.3.4") }));
+    }
+
+    @Test(expected = ConnectorException.class)
+    public void testTruncatedResponse() {
+        PostReadControl.getEntry(new Control[] {
+            new BasicControl(PostReadControl.OID, false, new byte[] { 0x64, 0x10, 0x04, 0x00 }) });
+    }
+
+    private static byte[] tlv(final int tag, final byte[] content) {
+        byte[] header = content.length < 0x80
+                ? new byte[] { (byte) tag, (byte) content.length }
+                : new byte[] { (byte) tag, (byte) 0x82, (byte) (content.length >> 8), (byte) content.length };
+        return concat(header, content);
+    }
+
+    private static byte[] concat(final byte[] first, final byte[] second) {
+        byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
@@ -0,0 +1,206 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.commons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import javax.naming.ldap.LdapContext;
+import net.tirasa.connid.bundles.ldap.LdapConfiguration;
+import net.tirasa.connid.bundles.ldap.LdapConnection;
+import org.junit.Test;
+
+public class RangedAttributesTests {
+
+    private static final String ENTRY_DN = "cn=group,dc=example,dc=com";
+
+    /**
+     * A connection to a server holding "member;range=2-3" and "member;range=4-*" of {@link #ENTRY_DN}, which records
+     * the attributes requested.
+     */
+    private static final class RangedConnection extends LdapConnection {
+
+        private final List<String> requested = new ArrayList<String>();
+
+        private final Attributes current;
+
+        RangedConnection(final Attributes current) {
+            super(new LdapConfiguration());
+            this.current = current;
+        }
+
+        @Override
+        public LdapContext getInitialContext() {
+            return (LdapContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { LdapContext.class }, new InvocationHandler() {
+
+                @Override
+                public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                    if ("newInstance".equals(method.getName())) {
+                        return proxy;
+                    }
+                    if ("getAttributes".equals(method.getName())) {
+                        assertEquals(ENTRY_DN, args[0]);
+                        String attrName = ((String[]) args[1])[0];
+                        requested.add(attrName);
+                        if ("member;range=2-*".equals(attrName)) {
+                            return attributes(range("member;range=2-3", "cn=c", "cn=d"));
+                        }
+                        if ("member;range=4-*".equals(attrName)) {
+                            return attributes(range("member;range=4-*", "cn=e"));
+                        }
+                        return current;
+                    }
+                    return null;
+                }
+            });
+        }
+    }
+
+    private static Attribute range(final String id, final String... values) {
+        Attribute attr = new BasicAttribute(id);
+        for (String value : values) {
+            attr.add(value);
+        }
+        return attr;
+    }
+
+    private static Attributes attributes(final Attribute... attrs) {
+        Attributes result = new BasicAttributes(true);
+        for (Attribute attr : attrs) {
+            result.put(attr);
+        }
+        return result;
+    }
+
+    /**
+     * Collects the ranges of an attribute, stopping after the given number of them.
+     */
+    private static final class RangeCollector implements RangedAttributes.RangeHandler {
+
+        private final List<Attribute> ranges = new ArrayList<Attribute>();
+
+        private final int limit;
+
+        RangeCollector(final int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean handle(final Attribute range) {
+            ranges.add(range);
+            return ranges.size() < limit;
+        }
+    }
+
+    @Test
+    public void testReadNotRanged() {
+        RangedConnection conn = new RangedConnection(null);
+        Attribute member = range("member", "cn=a");
+        RangeCollector collector = new RangeCollector(Integer.MAX_VALUE);
+        assertTrue(RangedAttributes.read(conn, ENTRY_DN, attributes(member), "member", collector));
+        assertEquals(1, collector.ranges.size());
+        assertSame(member, collector.ranges.get(0));
+
+        collector = new RangeCollector(Integer.MAX_VALUE);
+        assertFalse(RangedAttributes.read(conn, ENTRY_DN, attributes(member), "uniqueMember", collector));
+        assertEquals(0, collector.ranges.size());
+        assertEquals(0, conn.requested.size());
+    }
+
+    @Test
+    public void testReadRanged() throws NamingException {
+        RangedConnection conn = new RangedConnection(null);
+        RangeCollector collector = new RangeCollector(Integer.MAX_VALUE);
+        assertTrue(RangedAttributes.read(conn, ENTRY_DN,
+                attributes(range("cn", "group"), range("member;range=0-1", "cn=a", "cn=b")), "member", collector));
+
+        // Each range is passed on its own.
+        assertEquals(3, collector.ranges.size());
+        assertEquals(2, collector.ranges.get(0).size());
+        assertEquals(2, collector.ranges.get(1).size());
+        assertEquals(1, collector.ranges.get(2).size());
+        assertTrue(collector.ranges.get(0).contains("cn=a"));
+        assertTrue(collector.ranges.get(2).contains("cn=e"));
+        assertEquals(2, conn.requested.size());
+    }
+
+    @Test
+    public void testReadStopped() {
+        RangedConnection conn = new RangedConnection(null);
+        RangeCollector collector = new RangeCollector(2);
+        RangedAttributes.read(conn, ENTRY_DN, attributes(range("member;range=0-1", "cn=a", "cn=b")), "member",
+                collector);
+
+        assertEquals(2, collector.ranges.size());
+        assertEquals(1, conn.requested.size());
+    }
+
+    @Test
+    public void testNormalizeDN() {
+        assertEquals("cn=a,dc=example,dc=com", RangedAttributes.normalizeDN("CN=A, dc = Example ,DC=com"));
+        assertEquals("cn=a b,dc=com", RangedAttributes.normalizeDN(" cn=A B,dc=com "));
+        assertEquals(RangedAttributes.normalizeDN("cn=a\\,b,dc=com"),
+                RangedAttributes.normalizeDN("CN=A\\2Cb, dc=com"));
+        assertEquals(RangedAttributes.normalizeDN("cn=a+uid=b,dc=com"),
+                RangedAttributes.normalizeDN("UID=b + cn=A,dc=com"));
+    }
+
+    @Test
+    public void testIncrementalModifications() throws NamingException {
+        RangedConnection conn = new RangedConnection(attributes(range("member;range=0-1", "cn=a", "CN=B")));
+        List<ModificationItem> mods = RangedAttributes.getIncrementalModifications(
+                conn, ENTRY_DN, range("member", "cn=b", "cn=c", "cn=d", "cn=e", "cn=f"));
+
+        assertEquals(2, mods.size());
+        assertEquals(DirContext.REMOVE_ATTRIBUTE, mods.get(0).getModificationOp());
+        assertEquals(1, mods.get(0).getAttribute().size());
+        assertEquals("cn=a", mods.get(0).getAttribute().get());
+        assertEquals(DirContext.ADD_ATTRIBUTE, mods.get(1).getModificationOp());
+        // The current values are cn=a, CN=B, cn=c, cn=d and cn=e.
+        assertEquals(1, mods.get(1).getAttribute().size());
+        assertEquals("cn=f", mods.get(1).getAttribute().get());
+    }
+
+    @Test
+    public void testNoIncrementalModifications() {
+        RangedConnection conn = new RangedConnection(attributes(range("member", "cn=a")));
+        assertEquals(0, RangedAttributes.getIncrementalModifications(
+                conn, ENTRY_DN, range("member", "CN=A")).size());
+    }
+}
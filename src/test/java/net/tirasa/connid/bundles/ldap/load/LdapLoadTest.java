@@ -0,0 +1,338 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import net.tirasa.connid.bundles.ldap.BcvLdapConnector;
+import net.tirasa.connid.bundles.ldap.LdapConfiguration;
+import net.tirasa.connid.bundles.ldap.LdapConnectorTestBase;
+import net.tirasa.connid.bundles.ldap.sync.timestamp.TimestampSyncStrategy;
+import org.identityconnectors.common.IOUtil;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.api.APIConfiguration;
+import org.identityconnectors.framework.api.ConnectorFacade;
+import org.identityconnectors.framework.api.ConnectorFacadeFactory;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncDelta;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.identityconnectors.test.common.TestHelpers;
+import org.junit.Test;
+
+/**
+ * Load test of the connector against the OpenDJ instance prepared for the tests.
+ *
+ * It seeds users and groups through the connector, then drives search, update, authenticate and sync with the
+ * configured concurrency, and reports ops/s, p50/p99 latency and LDAP requests per connector operation for each
+ * phase. It is not part of the regular test run; use {@code mvn -Ploadtest test}.
+ *
+ * The following system properties are read:
+ * <ul>
+ * <li>{@code loadtest.users}: the number of users to create (default 2000);</li>
+ * <li>{@code loadtest.groups}: the number of groups to create (default 100);</li>
+ * <li>{@code loadtest.groupSize}: the number of members of each group (default 50);</li>
+ * <li>{@code loadtest.operations}: the number of searches, updates and authentications (default 2000 each);</li>
+ * <li>{@code loadtest.syncs}: the number of full syncs after the updates (default 5);</li>
+ * <li>{@code loadtest.threads}: the number of concurrent callers (default 8);</li>
+ * <li>{@code loadtest.syncStrategy}: the sync strategy class (default {@link TimestampSyncStrategy});</li>
+ * <li>{@code loadtest.report}: a CSV file the results are appended to (optional).</li>
+ * </ul>
+ */
+public class LdapLoadTest extends LdapConnectorTestBase {
+
+    private static final Log LOG = Log.getLog(LdapLoadTest.class);
+
+    private static final String LOAD_DN = "ou=Load,o=Acme,dc=example,dc=com";
+
+    private static final GuardedString PASSWORD = new GuardedString("Load.Password.1".toCharArray());
+
+    private final int users = Integer.getInteger("loadtest.users", 2000);
+
+    private final int groups = Integer.getInteger("loadtest.groups", 100);
+
+    private final int groupSize = Integer.getInteger("loadtest.groupSize", 50);
+
+    private final int operations = Integer.getInteger("loadtest.operations", 2000);
+
+    private final int syncs = Integer.getInteger("loadtest.syncs", 5);
+
+    private final int threads = Integer.getInteger("loadtest.threads", 8);
+
+    private final String syncStrategy =
+            System.getProperty("loadtest.syncStrategy", TimestampSyncStrategy.class.getName());
+
+    private final String report = System.getProperty("loadtest.report");
+
+    /**
+     * A single connector operation, called with the index of the operation within its phase.
+     */
+    private interface LoadOperation {
+
+        void run(int index) throws Exception;
+    }
+
+    @Override
+    protected boolean restartServerAfterEachTest() {
+        return true;
+    }
+
+    @Test
+    public void load() throws Exception {
+        LdapConfiguration config = newConfiguration();
+        config.setBaseContexts(LOAD_DN);
+        config.setSyncStrategy(syncStrategy);
+        final ConnectorFacade facade = newLoadFacade(config);
+
+        ObjectClass organizationalUnit = new ObjectClass("organizationalUnit");
+        Set<Attribute> ouAttrs = new HashSet<Attribute>();
+        ouAttrs.add(new Name(LOAD_DN));
+        ouAttrs.add(AttributeBuilder.build("ou", "Load"));
+        assertNotNull(newLoadFacade(newConfiguration()).create(organizationalUnit, ouAttrs, null));
+
+        ServerStatistics server = newServerStatistics();
+        List<OperationStatistics> results = new ArrayList<OperationStatistics>();
+        try {
+            final Uid[] uids = new Uid[users];
+            results.add(run("create user", users, server, new LoadOperation() {
+
+                @Override
+                public void run(final int index) {
+                    Set<Attribute> attrs = new HashSet<Attribute>();
+                    attrs.add(new Name(getUserDN(index)));
+                    attrs.add(AttributeBuilder.build("uid", getUserId(index)));
+                    attrs.add(AttributeBuilder.build("cn", "Load User " + index));
+                    attrs.add(AttributeBuilder.build("sn", "User " + index));
+                    attrs.add(AttributeBuilder.buildPassword(PASSWORD));
+                    uids[index] = facade.create(ObjectClass.ACCOUNT, attrs, null);
+                }
+            }));
+
+            results.add(run("create group", groups, server, new LoadOperation() {
+
+                @Override
+                public void run(final int index) {
+                    List<String> members = new ArrayList<String>();
+                    for (int i = 0; i < Math.min(groupSize, users); i++) {
+                        members.add(getUserDN((index * groupSize + i) % users));
+                    }
+                    Set<Attribute> attrs = new HashSet<Attribute>();
+                    attrs.add(new Name("cn=load.group." + index + "," + LOAD_DN));
+                    attrs.add(AttributeBuilder.build("cn", "load.group." + index));
+                    attrs.add(AttributeBuilder.build("uniqueMember", members));
+                    facade.create(ObjectClass.GROUP, attrs, null);
+                }
+            }));
+
+            results.add(run("search", operations, server, new LoadOperation() {
+
+                @Override
+                public void run(final int index) {
+                    final AtomicInteger found = new AtomicInteger();
+                    facade.search(ObjectClass.ACCOUNT,
+                            FilterBuilder.equalTo(AttributeBuilder.build("uid", getUserId(index % users))),
+                            new ResultsHandler() {
+
+                        @Override
+                        public boolean handle(final ConnectorObject object) {
+                            found.incrementAndGet();
+                            return true;
+                        }
+                    }, new OperationOptionsBuilder().setAttributesToGet("uid", "cn", "sn", "ldapGroups").build());
+                    assertEquals(1, found.get());
+                }
+            }));
+
+            final SyncToken token = facade.getLatestSyncToken(ObjectClass.ACCOUNT);
+
+            results.add(run("update", operations, server, new LoadOperation() {
+
+                @Override
+                public void run(final int index) {
+                    Set<Attribute> attrs = Collections.singleton(
+                            AttributeBuilder.build("description", "Updated " + index));
+                    facade.update(ObjectClass.ACCOUNT, uids[index % users], attrs, null);
+                }
+            }));
+
+            results.add(run("authenticate", operations, server, new LoadOperation() {
+
+                @Override
+                public void run(final int index) {
+                    assertNotNull(facade.authenticate(ObjectClass.ACCOUNT, getUserId(index % users), PASSWORD, null));
+                }
+            }));
+
+            final AtomicLong deltas = new AtomicLong();
+            results.add(run("sync", syncs, server, new LoadOperation() {
+
+                @Override
+                public void run(final int index) {
+                    facade.sync(ObjectClass.ACCOUNT, token, new SyncResultsHandler() {
+
+                        @Override
+                        public boolean handle(final SyncDelta delta) {
+                            deltas.incrementAndGet();
+                            return true;
+                        }
+                    }, null);
+                }
+            }));
+            LOG.info("Sync delivered {0} deltas per run", syncs == 0 ? 0 : deltas.get() / syncs);
+        } finally {
+            server.close();
+        }
+
+        report(results);
+    }
+
+    private OperationStatistics run(
+            final String name,
+            final int count,
+            final ServerStatistics server,
+            final LoadOperation operation)
+            throws InterruptedException {
+
+        final long[] latencies = new long[count];
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long requestsBefore = server.getOperationsInitiated();
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    int index;
+                    while ((index = next.getAndIncrement()) < count) {
+                        long operationStart = System.nanoTime();
+                        try {
+                            operation.run(index);
+                        } catch (Throwable t) {
+                            if (errors.getAndIncrement() == 0) {
+                                LOG.error(t, "Operation {0} #{1} failed", name, index);
+                            }
+                        }
+                        latencies[index] = System.nanoTime() - operationStart;
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.DAYS);
+        long elapsed = System.nanoTime() - start;
+        long requestsAfter = server.getOperationsInitiated();
+
+        OperationStatistics statistics = new OperationStatistics(name, latencies, errors.get(), elapsed,
+                ServerStatistics.getRequestsBetween(requestsBefore, requestsAfter));
+        LOG.info("{0}", statistics);
+        return statistics;
+    }
+
+    private void report(final List<OperationStatistics> results) throws IOException {
+        StringBuilder summary = new StringBuilder();
+        summary.append("Load test with ").append(users).append(" users, ").append(groups).append(" groups, ").
+                append(threads).append(" threads:");
+        for (OperationStatistics result : results) {
+            summary.append('\n').append(result);
+        }
+        LOG.info("{0}", summary);
+
+        if (report != null) {
+            File file = new File(report);
+            boolean header = !file.exists();
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+            try {
+                if (header) {
+                    writer.println("timestamp,users,groups,threads," + OperationStatistics.CSV_HEADER);
+                }
+                long timestamp = System.currentTimeMillis();
+                for (OperationStatistics result : results) {
+                    writer.println(timestamp + "," + users + "," + groups + "," + threads + "," + result.toCsv());
+                }
+            } finally {
+                writer.close();
+            }
+        }
+    }
+
+    private ConnectorFacade newLoadFacade(final LdapConfiguration config) {
+        APIConfiguration impl = TestHelpers.createTestConfiguration(BcvLdapConnector.class, config);
+        impl.getResultsHandlerConfiguration().setFilteredResultsHandlerInValidationMode(true);
+        // One pooled connector per caller, otherwise the callers would wait for the pool.
+        impl.getConnectorPoolConfiguration().setMaxObjects(threads);
+        impl.getConnectorPoolConfiguration().setMaxIdle(threads);
+        return ConnectorFacadeFactory.getInstance().newInstance(impl);
+    }
+
+    private static ServerStatistics newServerStatistics() throws IOException {
+        InputStream propStream = null;
+        try {
+            Properties props = new Properties();
+            propStream = LdapLoadTest.class.getResourceAsStream("/test.properties");
+            props.load(propStream);
+            return new ServerStatistics(HOST, PORT,
+                    props.getProperty("opendj.principal"), props.getProperty("opendj.credentials"));
+        } finally {
+            IOUtil.quietClose(propStream);
+        }
+    }
+
+    private static String getUserId(final int index) {
+        return "load.user." + index;
+    }
+
+    private static String getUserDN(final int index) {
+        return "uid=" + getUserId(index) + "," + LOAD_DN;
+    }
+}
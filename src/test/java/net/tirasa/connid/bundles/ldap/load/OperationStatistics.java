@@ -0,0 +1,116 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.load;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of one phase of the load test: the latency of every operation, the wall clock time of the phase and
+ * the number of LDAP requests the server received meanwhile.
+ */
+public class OperationStatistics {
+
+    public static final String CSV_HEADER = "operation,count,errors,opsPerSecond,p50Millis,p99Millis,requestsPerOp";
+
+    private final String name;
+
+    private final long[] latencies;
+
+    private final int errors;
+
+    private final long elapsedNanos;
+
+    private final long ldapRequests;
+
+    public OperationStatistics(
+            final String name,
+            final long[] latencies,
+            final int errors,
+            final long elapsedNanos,
+            final long ldapRequests) {
+
+        this.name = name;
+        this.latencies = latencies.clone();
+        Arrays.sort(this.latencies);
+        this.errors = errors;
+        this.elapsedNanos = elapsedNanos;
+        this.ldapRequests = ldapRequests;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCount() {
+        return latencies.length;
+    }
+
+    public int getErrors() {
+        return errors;
+    }
+
+    public double getOperationsPerSecond() {
+        return elapsedNanos == 0 ? 0 : latencies.length * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    /**
+     * Returns the given percentile of the operation latency, in milliseconds.
+     */
+    public double getPercentileMillis(final double percentile) {
+        if (latencies.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+        return latencies[Math.max(0, Math.min(index, latencies.length - 1))] / (double) TimeUnit.MILLISECONDS.
+                toNanos(1);
+    }
+
+    /**
+     * Returns the average number of LDAP requests per connector operation, or a negative number if the server
+     * statistics were not available.
+     */
+    public double getRequestsPerOperation() {
+        if (ldapRequests < 0) {
+            return -1;
+        }
+        return latencies.length == 0 ? 0 : ldapRequests / (double) latencies.length;
+    }
+
+    public String toCsv() {
+        return String.format(Locale.ROOT, "%s,%d,%d,%.1f,%.3f,%.3f,%.2f", name, getCount(), errors,
+                getOperationsPerSecond(), getPercentileMillis(50), getPercentileMillis(99), getRequestsPerOperation());
+    }
+
+    @Override
+    public String toString() {
+        double requestsPerOperation = getRequestsPerOperation();
+        return String.format(Locale.ROOT, "%-14s %7d ops %5d errors %10.1f ops/s p50 %8.3f ms p99 %8.3f ms %s",
+                name, getCount(), errors, getOperationsPerSecond(), getPercentileMillis(50), getPercentileMillis(99),
+                requestsPerOperation < 0
+                        ? "n/a req/op"
+                        : String.format(Locale.ROOT, "%.2f req/op", requestsPerOperation));
+    }
+}
@@ -0,0 +1,123 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.load;
+
+import java.util.Hashtable;
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+import org.identityconnectors.common.logging.Log;
+
+/**
+ * Reads the number of operations received by the LDAP connection handler from the OpenDJ {@code cn=monitor}
+ * backend, so that the load test can report how many LDAP requests each connector operation costs.
+ *
+ * A single connection is kept open, so the only request counted besides the ones of the connector is the monitor
+ * search itself, which is subtracted.
+ */
+public class ServerStatistics {
+
+    private static final Log LOG = Log.getLog(ServerStatistics.class);
+
+    private static final String OPERATIONS_INITIATED = "operationsInitiated";
+
+    private final String port;
+
+    private LdapContext ctx;
+
+    public ServerStatistics(final String host, final int port, final String principal, final String credentials) {
+        this.port = String.valueOf(port);
+
+        Hashtable<Object, Object> env = new Hashtable<Object, Object>();
+        env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
+        env.put(Context.PROVIDER_URL, "ldap://" + host + ":" + port);
+        env.put(Context.SECURITY_AUTHENTICATION, "simple");
+        env.put(Context.SECURITY_PRINCIPAL, principal);
+        env.put(Context.SECURITY_CREDENTIALS, credentials);
+        try {
+            ctx = new InitialLdapContext(env, null);
+        } catch (NamingException e) {
+            LOG.warn(e, "Could not connect to read the server statistics");
+        }
+    }
+
+    /**
+     * Returns the number of operations initiated so far on the LDAP port, or -1 if it could not be read.
+     */
+    public long getOperationsInitiated() {
+        if (ctx == null) {
+            return -1;
+        }
+
+        SearchControls controls = new SearchControls();
+        controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        controls.setReturningAttributes(new String[] { OPERATIONS_INITIATED });
+        try {
+            NamingEnumeration<SearchResult> results =
+                    ctx.search("cn=monitor", "(" + OPERATIONS_INITIATED + "=*)", controls);
+            try {
+                while (results.hasMore()) {
+                    SearchResult result = results.next();
+                    // There is one statistics entry per connection handler, e.g.
+                    // "cn=LDAP Connection Handler 0.0.0.0 port 2389 Statistics,cn=monitor".
+                    if (result.getName().contains(" port " + port + " ")) {
+                        Attribute attr = result.getAttributes().get(OPERATIONS_INITIATED);
+                        return Long.parseLong(attr.get().toString());
+                    }
+                }
+            } finally {
+                results.close();
+            }
+        } catch (NamingException e) {
+            LOG.warn(e, "Could not read the server statistics");
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of operations initiated by others between the two given readings.
+     */
+    public static long getRequestsBetween(final long before, final long after) {
+        if (before < 0 || after < 0) {
+            return -1;
+        }
+        // The monitor search of the second reading is counted too.
+        return Math.max(0, after - before - 1);
+    }
+
+    public void close() {
+        if (ctx != null) {
+            try {
+                ctx.close();
+            } catch (NamingException e) {
+                LOG.warn(e, "Could not close the server statistics connection");
+            }
+        }
+    }
+}
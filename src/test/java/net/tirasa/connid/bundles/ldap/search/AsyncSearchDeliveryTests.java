@@ -0,0 +1,236 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.naming.NamingException;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchResult;
+import net.tirasa.connid.bundles.ldap.commons.LdapMetrics;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.junit.Test;
+
+public class AsyncSearchDeliveryTests {
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool();
+
+    private static final AsyncSearchDelivery.Converter CONVERTER = new AsyncSearchDelivery.Converter() {
+
+        @Override
+        public ConnectorObject convert(final String baseDN, final SearchResult result) {
+            return new ConnectorObjectBuilder().setUid(result.getName()).setName(result.getName()).build();
+        }
+    };
+
+    /**
+     * A search returning the given number of results, unless the handler stops it.
+     */
+    private static final class FakeSearch extends LdapInternalSearch {
+
+        private final int count;
+
+        private final RuntimeException failure;
+
+        private final AtomicInteger read = new AtomicInteger();
+
+        private volatile Thread thread;
+
+        private volatile boolean done;
+
+        FakeSearch(final int count, final RuntimeException failure) {
+            super(null, null, null, null, null);
+            this.count = count;
+            this.failure = failure;
+        }
+
+        @Override
+        public void execute(final LdapSearchResultsHandler handler) {
+            thread = Thread.currentThread();
+            try {
+                for (int i = 0; i < count; i++) {
+                    read.incrementAndGet();
+                    if (!handler.handle("dc=example,dc=com",
+                            new SearchResult("uid=" + i, null, new BasicAttributes(true)))) {
+                        return;
+                    }
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+            } catch (NamingException e) {
+                throw new ConnectorException(e);
+            } finally {
+                done = true;
+            }
+        }
+    }
+
+    @Test
+    public void testResultsInOrder() {
+        for (int threads : new int[] { 0, 4 }) {
+            final List<String> uids = new ArrayList<String>();
+            FakeSearch search = new FakeSearch(1000, null);
+
+            new AsyncSearchDelivery(EXECUTOR, 10, threads).execute(search, CONVERTER, new ResultsHandler() {
+
+                @Override
+                public boolean handle(final ConnectorObject object) {
+                    uids.add(object.getUid().getUidValue());
+                    return true;
+                }
+            });
+
+            assertEquals(1000, uids.size());
+            for (int i = 0; i < uids.size(); i++) {
+                assertEquals("uid=" + i, uids.get(i));
+            }
+            assertFalse(Thread.currentThread() == search.thread);
+        }
+    }
+
+    @Test
+    public void testBoundedReadAhead() {
+        final FakeSearch search = new FakeSearch(1000, null);
+        final AtomicInteger handled = new AtomicInteger();
+        final int[] maxAhead = new int[] { 0 };
+
+        new AsyncSearchDelivery(EXECUTOR, 5, 2).execute(search, CONVERTER, new ResultsHandler() {
+
+            @Override
+            public boolean handle(final ConnectorObject object) {
+                maxAhead[0] = Math.max(maxAhead[0], search.read.get() - handled.incrementAndGet());
+                return true;
+            }
+        });
+
+        assertEquals(1000, handled.get());
+        // The queued results, plus the one being offered.
+        assertTrue("Read ahead by " + maxAhead[0], maxAhead[0] <= 6);
+    }
+
+    @Test
+    public void testCancel() {
+        FakeSearch search = new FakeSearch(1000, null);
+        final AtomicInteger handled = new AtomicInteger();
+
+        new AsyncSearchDelivery(EXECUTOR, 5, 2).execute(search, CONVERTER, new ResultsHandler() {
+
+            @Override
+            public boolean handle(final ConnectorObject object) {
+                return handled.incrementAndGet() < 3;
+            }
+        });
+
+        assertEquals(3, handled.get());
+        // The reader is done with the connection when execute() returns.
+        assertTrue(search.done);
+        assertTrue(search.read.get() < 1000);
+    }
+
+    @Test
+    public void testHandlerFailure() {
+        FakeSearch search = new FakeSearch(1000, null);
+        final RuntimeException failure = new IllegalStateException();
+
+        try {
+            new AsyncSearchDelivery(EXECUTOR, 5, 2).execute(search, CONVERTER, new ResultsHandler() {
+
+                @Override
+                public boolean handle(final ConnectorObject object) {
+                    throw failure;
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(failure, e);
+        }
+        assertTrue(search.done);
+    }
+
+    @Test
+    public void testSearchFailure() {
+        RuntimeException failure = new ConnectorException("Search failed");
+        final AtomicInteger handled = new AtomicInteger();
+
+        try {
+            FakeSearch search = new FakeSearch(10, failure);
+            new AsyncSearchDelivery(EXECUTOR, 5, 2).execute(search, CONVERTER, new ResultsHandler() {
+
+                @Override
+                public boolean handle(final ConnectorObject object) {
+                    handled.incrementAndGet();
+                    return true;
+                }
+            });
+            fail();
+        } catch (ConnectorException e) {
+            assertSame(failure, e);
+        }
+        // The results read before the failure are still handled.
+        assertEquals(10, handled.get());
+    }
+
+    @Test
+    public void testConversionsJoinOperation() {
+        final Set<String> operations = Collections.synchronizedSet(new HashSet<String>());
+        LdapMetrics.beginOperation("executeQuery", ObjectClass.ACCOUNT);
+        try {
+            FakeSearch search = new FakeSearch(100, null);
+            new AsyncSearchDelivery(EXECUTOR, 5, 2).execute(search, new AsyncSearchDelivery.Converter() {
+
+                @Override
+                public ConnectorObject convert(final String baseDN, final SearchResult result) {
+                    operations.add(LdapMetrics.getOperation());
+                    return CONVERTER.convert(baseDN, result);
+                }
+            }, new ResultsHandler() {
+
+                @Override
+                public boolean handle(final ConnectorObject object) {
+                    return true;
+                }
+            });
+        } finally {
+            LdapMetrics.endOperation();
+        }
+        assertEquals(Collections.singleton("executeQuery"), operations);
+    }
+}
@@ -0,0 +1,79 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.search;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LdapFilterOptimizerTests {
+
+    private static final LdapFilterOptimizer OPTIMIZER = new LdapFilterOptimizer(new String[0]);
+
+    @Test
+    public void testFlatten() {
+        assertEquals("(&(objectClass=inetOrgPerson)(cn=foo)(sn=bar))",
+                OPTIMIZER.optimize("(&(&(objectClass=inetOrgPerson)(cn=foo))(sn=bar))"));
+        assertEquals("(|(uid=a)(uid=b)(uid=c))", OPTIMIZER.optimize("(|(|(uid=a)(uid=b))(uid=c))"));
+        assertEquals("(&(cn=foo)(|(uid=a)(uid=b)))", OPTIMIZER.optimize("(&(cn=foo)(|(uid=a)(uid=b)))"));
+        assertEquals("(cn=foo)", OPTIMIZER.optimize("(!(!(cn=foo)))"));
+    }
+
+    @Test
+    public void testRemoveDuplicates() {
+        assertEquals("(&(objectClass=inetOrgPerson)(cn=foo))",
+                OPTIMIZER.optimize("(&(objectClass=inetOrgPerson)(&(objectclass=INETORGPERSON)(cn=foo)))"));
+        assertEquals("(|(cn=foo)(cn=Foo))", OPTIMIZER.optimize("(|(cn=foo)(CN=foo)(cn=Foo))"));
+        assertEquals("(cn=foo)", OPTIMIZER.optimize("(&(cn=foo)(cn=foo))"));
+    }
+
+    @Test
+    public void testRemoveAlwaysTrue() {
+        assertEquals("(cn=foo)", OPTIMIZER.optimize("(&(objectClass=*)(cn=foo))"));
+        assertEquals("(cn=foo)", OPTIMIZER.optimize("(&(&)(cn=foo))"));
+        assertEquals("(objectClass=*)", OPTIMIZER.optimize("(|(objectclass=*)(cn=foo))"));
+        assertEquals("(objectClass=*)", OPTIMIZER.optimize("(&(objectClass=*)(&))"));
+        assertEquals("(!(objectClass=*))", OPTIMIZER.optimize("(!(&(objectClass=*)))"));
+    }
+
+    @Test
+    public void testIndexedFirst() {
+        LdapFilterOptimizer optimizer = new LdapFilterOptimizer(new String[] { "uid", "mail" });
+        assertEquals("(&(uid=foo)(|(mail=a)(UID=b))(objectClass=person)(cn=x)(|(mail=a)(sn=b)))",
+                optimizer.optimize("(&(objectClass=person)(cn=x)(|(mail=a)(sn=b))(uid=foo)(|(mail=a)(UID=b)))"));
+        assertEquals("(&(objectClass=person)(!(uid=foo)))", optimizer.optimize("(&(objectClass=person)(!(uid=foo)))"));
+    }
+
+    @Test
+    public void testUnchanged() {
+        assertEquals("(&(cn=a\\29)(sn=b))", OPTIMIZER.optimize("(&(cn=a\\29)(sn=b))"));
+        assertEquals("(cn:dn:2.4.6.8.10:=Dino)", OPTIMIZER.optimize("(cn:dn:2.4.6.8.10:=Dino)"));
+        assertEquals("(|)", OPTIMIZER.optimize("(|)"));
+        // Not parseable: left to the server.
+        assertEquals("(&(cn=a)", OPTIMIZER.optimize("(&(cn=a)"));
+        assertEquals("(&(cn=a) (sn=b))", OPTIMIZER.optimize("(&(cn=a) (sn=b))"));
+        assertEquals("cn=a", OPTIMIZER.optimize("cn=a"));
+        assertEquals(null, OPTIMIZER.optimize(null));
+    }
+}
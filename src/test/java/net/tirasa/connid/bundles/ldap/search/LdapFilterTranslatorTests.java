@@ -26,8 +26,12 @@ package net.tirasa.connid.bundles.ldap.search;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
+import java.util.Arrays;
+import java.util.Collections;
+
 import org.identityconnectors.framework.common.objects.AttributeBuilder;
 import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.Uid;
 import org.identityconnectors.framework.common.objects.filter.ContainsAllValuesFilter;
 import org.identityconnectors.framework.common.objects.filter.ContainsFilter;
 import org.identityconnectors.framework.common.objects.filter.EndsWithFilter;
@@ -71,6 +75,25 @@ public class LdapFilterTranslatorTests {
                 LdapFilter.forEntryDN("dc=example,dc=com"), LdapFilter.forNativeFilter("(foo=1)")));
     }
 
+    @Test
+    public void testOrOfUidFiltersBranchingFromTheSameOne() {
+        LdapFilterTranslator translator = newTranslator();
+        LdapFilter ab = translator.createOrExpression(uidFilter("a"), uidFilter("b"));
+        LdapFilter abc = translator.createOrExpression(ab, uidFilter("c"));
+        LdapFilter abd = translator.createOrExpression(ab, uidFilter("d"));
+        LdapFilter abcd = translator.createOrExpression(abc, abd);
+
+        assertEquals("(|(entryUUID=a)(entryUUID=b))", ab.getNativeFilter());
+        assertEquals(Arrays.asList("a", "b", "c"), abc.getUids());
+        assertEquals("(|(entryUUID=a)(entryUUID=b)(entryUUID=d))", abd.getNativeFilter());
+        assertEquals(Arrays.asList("a", "b", "c", "a", "b", "d"), abcd.getUids());
+        assertEquals(Arrays.asList("a", "b"), ab.getUids());
+    }
+
+    private static LdapFilter uidFilter(final String uid) {
+        return LdapFilter.forUids(Collections.singletonList(uid), "(entryUUID=" + uid + ")");
+    }
+
     @Test
     public void testContains() {
         ContainsFilter filter = (ContainsFilter) FilterBuilder.contains(AttributeBuilder.build("foo", ""));
@@ -169,6 +192,25 @@ public class LdapFilterTranslatorTests {
         assertNull(newTranslator().createContainsAllValuesExpression(containsAllValues, false));
     }
 
+    @Test
+    public void testOrOfUids() {
+        LdapFilterTranslator translator = newTranslator();
+        LdapFilter filter = null;
+        for (String uid : new String[] { "1", "2", "3" }) {
+            LdapFilter equals = translator.createEqualsExpression((EqualsFilter) FilterBuilder.equalTo(new Uid(uid)), false);
+            assertEquals(Collections.singletonList(uid), equals.getUids());
+            filter = filter == null ? equals : translator.createOrExpression(filter, equals);
+        }
+        assertEquals("(|(entryUUID=1)(entryUUID=2)(entryUUID=3))", filter.getNativeFilter());
+        assertEquals(Arrays.asList("1", "2", "3"), filter.getUids());
+        assertEquals(filter, translator.createUidsExpression(Arrays.asList("1", "2", "3")));
+
+        // Anything else than Uids is not a bulk get.
+        assertNull(translator.createOrExpression(filter, LdapFilter.forNativeFilter("(foo=1)")).getUids());
+        assertNull(translator.createAndExpression(filter, LdapFilter.forNativeFilter("(foo=1)")).getUids());
+        assertNull(translator.createEqualsExpression((EqualsFilter) FilterBuilder.equalTo(new Uid("1")), true).getUids());
+    }
+
     private static LdapFilterTranslator newTranslator() {
         LdapConfiguration config = LdapConnectorTestBase.newConfiguration();
         LdapConnection conn = new LdapConnection(config);
@@ -31,6 +31,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -38,6 +39,7 @@ import org.identityconnectors.common.CollectionUtil;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.common.security.GuardedString.Accessor;
 import org.identityconnectors.framework.api.ConnectorFacade;
+import org.identityconnectors.framework.common.exceptions.UnknownUidException;
 import org.identityconnectors.framework.common.objects.Attribute;
 import org.identityconnectors.framework.common.objects.AttributeBuilder;
 import org.identityconnectors.framework.common.objects.AttributeInfo;
@@ -55,6 +57,7 @@ import org.identityconnectors.framework.common.objects.SearchResult;
 import org.identityconnectors.framework.common.objects.Uid;
 import org.identityconnectors.framework.common.objects.filter.Filter;
 import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.identityconnectors.framework.spi.SearchResultsHandler;
 import org.identityconnectors.test.common.TestHelpers;
 import org.identityconnectors.test.common.ToListResultsHandler;
 import org.junit.Test;
@@ -62,6 +65,9 @@ import org.junit.Test;
 import net.tirasa.connid.bundles.ldap.LdapConfiguration;
 import net.tirasa.connid.bundles.ldap.LdapConnection;
 import net.tirasa.connid.bundles.ldap.LdapConnectorTestBase;
+import net.tirasa.connid.bundles.ldap.commons.DefaultLdapMetrics;
+import net.tirasa.connid.bundles.ldap.commons.LdapMetrics;
+import net.tirasa.connid.bundles.ldap.commons.LdapMetrics.Request;
 
 public class LdapSearchTests extends LdapConnectorTestBase {
 
@@ -87,6 +93,31 @@ public class LdapSearchTests extends LdapConnectorTestBase {
         assertTrue(handler.getObjects().isEmpty());
     }
 
+    @Test
+    public void testSearchPlanIsCached() {
+        LdapConnection conn = new LdapConnection(newConfiguration());
+        OperationOptions options = new OperationOptionsBuilder().setAttributesToGet("telephoneNumber").build();
+
+        LdapFilter filter = LdapFilter.forEntryDN(BUGS_BUNNY_DN);
+        ToListResultsHandler handler = new ToListResultsHandler();
+        new LdapSearch(conn, ObjectClass.ACCOUNT, filter, handler, options).execute();
+        assertEquals(1, handler.getObjects().size());
+        assertEquals(1, conn.getSearchPlanCache().size());
+
+        // Same options, different filter: the plan is reused.
+        filter = filter.withNativeFilter("(uid=bugs.bunny)");
+        handler = new ToListResultsHandler();
+        new LdapSearch(conn, ObjectClass.ACCOUNT, filter, handler, options).execute();
+        assertEquals(1, handler.getObjects().size());
+        assertEquals(1, conn.getSearchPlanCache().size());
+
+        // Different attributes to get: a new plan.
+        handler = new ToListResultsHandler();
+        new LdapSearch(conn, ObjectClass.ACCOUNT, filter, handler, new OperationOptionsBuilder().build()).execute();
+        assertEquals(1, handler.getObjects().size());
+        assertEquals(2, conn.getSearchPlanCache().size());
+    }
+
     @Test
     public void testLdapFilterWithNonExistingEntryDN() {
         LdapFilter filter = LdapFilter.forEntryDN("dc=foo,dc=bar");
@@ -460,6 +491,87 @@ public class LdapSearchTests extends LdapConnectorTestBase {
         });
     }
 
+    @Test
+    public void testBulkGetReportsMissingUids() {
+        ConnectorFacade facade = newFacade();
+        Uid bugs = searchByAttribute(facade, ObjectClass.ACCOUNT, new Name(BUGS_BUNNY_DN)).getUid();
+        Uid elmer = searchByAttribute(facade, ObjectClass.ACCOUNT, new Name(ELMER_FUDD_DN)).getUid();
+
+        LdapConfiguration config = newConfiguration();
+        config.setUidLookupBatchSize(1);
+        config.setUidBulkGetThreads(2);
+        LdapConnection conn = new LdapConnection(config);
+        final List<ConnectorObject> objects = Collections.synchronizedList(new ArrayList<ConnectorObject>());
+        final List<Set<String>> missing = new ArrayList<Set<String>>();
+        final List<SearchResult> results = new ArrayList<SearchResult>();
+        try {
+            new LdapBulkGet(conn, ObjectClass.ACCOUNT,
+                    CollectionUtil.newList(bugs.getUidValue(), "unknown", elmer.getUidValue()),
+                    new BulkGetHandler(objects, missing, results), new OperationOptionsBuilder().build()).execute();
+        } finally {
+            conn.close();
+        }
+
+        assertEquals(2, objects.size());
+        assertNotNull(getObjectByName(objects, BUGS_BUNNY_DN));
+        assertNotNull(getObjectByName(objects, ELMER_FUDD_DN));
+        assertEquals(Collections.singletonList(Collections.singleton("unknown")), missing);
+        assertEquals(1, results.size());
+        // The missing Uids are only reported to the MissingUidsHandler, the search itself completed.
+        assertTrue(results.get(0).isAllResultsReturned());
+    }
+
+    @Test
+    public void testCoalescedEntryDNLookups() throws InterruptedException {
+        ConnectorFacade facade = newFacade();
+        final String[] dns = { BUGS_BUNNY_DN, ELMER_FUDD_DN, SYLVESTER_DN, BUGS_BUNNY_DN };
+        final Uid[] uids = new Uid[dns.length];
+        for (int i = 0; i < dns.length; i++) {
+            uids[i] = searchByAttribute(facade, ObjectClass.ACCOUNT, new Name(dns[i])).getUid();
+        }
+
+        LdapConfiguration config = newConfiguration();
+        config.setUidLookupBatchWindow(200);
+        config.setMetricsClass(DefaultLdapMetrics.class.getName());
+        DefaultLdapMetrics metrics = (DefaultLdapMetrics) LdapMetrics.getInstance(config.getMetricsClass());
+        final String[] found = new String[dns.length + 1];
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i <= dns.length; i++) {
+            final int index = i;
+            final LdapConnection conn = new LdapConnection(config);
+            threads.add(new Thread() {
+
+                @Override
+                public void run() {
+                    LdapMetrics.beginOperation("coalescedLookup", ObjectClass.ACCOUNT);
+                    try {
+                        found[index] = index < dns.length
+                                ? LdapSearches.getEntryDN(conn, ObjectClass.ACCOUNT, uids[index])
+                                : LdapSearches.getEntryDN(conn, ObjectClass.ACCOUNT, new Uid("unknown"));
+                    } catch (UnknownUidException e) {
+                        found[index] = null;
+                    } finally {
+                        LdapMetrics.endOperation();
+                        conn.close();
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int i = 0; i < dns.length; i++) {
+            assertTrue(dns[i].equalsIgnoreCase(found[i]));
+        }
+        assertNull(found[dns.length]);
+        // All the lookups were resolved by a single search.
+        assertEquals(1, metrics.getStatistics("coalescedLookup", ObjectClass.ACCOUNT, Request.SEARCH).getCount());
+    }
+
     private static ConnectorObject getObjectByName(List<ConnectorObject> objects, String name) {
         for (ConnectorObject object : objects) {
             if (name.equals(object.getName().getNameValue())) {
@@ -469,6 +581,41 @@ public class LdapSearchTests extends LdapConnectorTestBase {
         return null;
     }
 
+    private static final class BulkGetHandler implements SearchResultsHandler, MissingUidsHandler {
+
+        private final List<ConnectorObject> objects;
+
+        private final List<Set<String>> missing;
+
+        private final List<SearchResult> results;
+
+        BulkGetHandler(
+                final List<ConnectorObject> objects,
+                final List<Set<String>> missing,
+                final List<SearchResult> results) {
+
+            this.objects = objects;
+            this.missing = missing;
+            this.results = results;
+        }
+
+        @Override
+        public boolean handle(final ConnectorObject obj) {
+            objects.add(obj);
+            return true;
+        }
+
+        @Override
+        public void handleMissingUids(final Set<String> uids) {
+            missing.add(new HashSet<String>(uids));
+        }
+
+        @Override
+        public void handleResult(final SearchResult result) {
+            results.add(result);
+        }
+    }
+
     private static final class FirstOnlyResultsHandler implements ResultsHandler {
 
         private final List<ConnectorObject> objects = new ArrayList<ConnectorObject>();
@@ -487,4 +634,4 @@ public class LdapSearchTests extends LdapConnectorTestBase {
             return objects.get(0);
         }
     }
-}
\ No newline at end of file
+}
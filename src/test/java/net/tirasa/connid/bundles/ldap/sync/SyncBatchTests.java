@@ -0,0 +1,117 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.identityconnectors.framework.common.objects.SyncDelta;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.identityconnectors.framework.spi.SyncTokenResultsHandler;
+import org.junit.Test;
+
+public class SyncBatchTests {
+
+    @Test
+    public void testUnlimited() {
+        SyncBatch batch = new SyncBatch(new TokenHandler(), 0, 0);
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(batch.read(new SyncToken(i)));
+        }
+        assertFalse(batch.isFull());
+    }
+
+    @Test
+    public void testSize() {
+        SyncBatch batch = new SyncBatch(new TokenHandler(), 3, 0);
+        assertTrue(batch.read(new SyncToken(1)));
+        assertTrue(batch.read(new SyncToken(2)));
+        assertFalse(batch.read(new SyncToken(3)));
+        assertTrue(batch.isFull());
+
+        batch = new SyncBatch(new TokenHandler(), 3, 0);
+        assertTrue(batch.read(new SyncToken(1), 2));
+        assertFalse(batch.read(new SyncToken(2), 2));
+    }
+
+    @Test
+    public void testTime() throws InterruptedException {
+        SyncBatch batch = new SyncBatch(new TokenHandler(), 0, 1);
+        Thread.sleep(10);
+        assertTrue(batch.isFull());
+    }
+
+    @Test
+    public void testFinishReportsLastToken() {
+        TokenHandler handler = new TokenHandler();
+        SyncBatch batch = new SyncBatch(handler, 0, 0);
+        batch.finish();
+        assertTrue(handler.results.isEmpty());
+
+        batch.read(new SyncToken(1));
+        batch.read(new SyncToken(2));
+        batch.finish();
+        assertEquals(1, handler.results.size());
+        assertEquals(2, handler.results.get(0).getValue());
+    }
+
+    @Test
+    public void testFinishWithoutTokenHandler() {
+        SyncBatch batch = new SyncBatch(new SyncResultsHandler() {
+
+            @Override
+            public boolean handle(final SyncDelta delta) {
+                return true;
+            }
+        }, 0, 0);
+        batch.read(new SyncToken(1));
+        batch.finish();
+        assertEquals(1, batch.getLastToken().getValue());
+    }
+
+    @Test
+    public void testNoLastToken() {
+        assertNull(new SyncBatch(new TokenHandler(), 0, 0).getLastToken());
+    }
+
+    private static class TokenHandler implements SyncTokenResultsHandler {
+
+        private final List<SyncToken> results = new ArrayList<SyncToken>();
+
+        @Override
+        public boolean handle(final SyncDelta delta) {
+            return true;
+        }
+
+        @Override
+        public void handleResult(final SyncToken result) {
+            results.add(result);
+        }
+    }
+}
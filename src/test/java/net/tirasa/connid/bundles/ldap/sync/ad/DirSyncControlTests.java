@@ -0,0 +1,118 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.sync.ad;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapName;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.junit.Test;
+
+public class DirSyncControlTests {
+
+    @Test
+    public void testEncodeValue() {
+        byte[] value = DirSyncControl.encodeValue(DirSyncControl.OBJECT_SECURITY, 1000, new byte[] { 1, 2, 3 });
+        assertArrayEquals(new byte[] {
+            0x30, 0x0c,
+            0x02, 0x01, 0x01,
+            0x02, 0x02, 0x03, (byte) 0xe8,
+            0x04, 0x03, 0x01, 0x02, 0x03 }, value);
+    }
+
+    @Test
+    public void testEncodeNegativeFlagsAndNoCookie() {
+        byte[] value = DirSyncControl.encodeValue(DirSyncControl.INCREMENTAL_VALUES, Integer.MAX_VALUE, null);
+        assertArrayEquals(new byte[] {
+            0x30, 0x0e,
+            0x02, 0x04, (byte) 0x80, 0x00, 0x00, 0x00,
+            0x02, 0x04, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+            0x04, 0x00 }, value);
+    }
+
+    @Test
+    public void testDecodeResponse() {
+        byte[] cookie = new byte[200];
+        Arrays.fill(cookie, (byte) 7);
+        byte[] value = DirSyncControl.encodeValue(1, 0, cookie);
+        // The long cookie needs a long form length.
+        assertEquals((byte) 0x81, value[1]);
+
+        DirSyncResponseControl response = DirSyncResponseControl.find(new Control[] {
+            new BasicControl("1.2.3.4"), new BasicControl(DirSyncControl.OID, false, value) });
+        assertTrue(response.hasMoreResults());
+        assertArrayEquals(cookie, response.getCookie());
+
+        response = DirSyncResponseControl.decode(DirSyncControl.encodeValue(0, 0, new byte[] { 9 }));
+        assertFalse(response.hasMoreResults());
+        assertArrayEquals(new byte[] { 9 }, response.getCookie());
+    }
+
+    @Test
+    public void testNoResponse() {
+        assertNull(DirSyncResponseControl.find(null));
+        assertNull(DirSyncResponseControl.find(new Control[] { new BasicControl("1.2.3.4") }));
+    }
+
+    @Test(expected = ConnectorException.class)
+    public void testDecodeTruncatedResponse() {
+        byte[] value = DirSyncControl.encodeValue(0, 0, new byte[] { 1, 2, 3 });
+        DirSyncResponseControl.decode(Arrays.copyOf(value, value.length - 1));
+    }
+
+    @Test
+    public void testCookie() {
+        assertNull(ADDirSyncStrategy.getCookie(null));
+        assertNull(ADDirSyncStrategy.getCookie(new SyncToken(new byte[0])));
+        assertArrayEquals(new byte[] { 1 }, ADDirSyncStrategy.getCookie(new SyncToken(new byte[] { 1 })));
+    }
+
+    @Test(expected = ConnectorException.class)
+    public void testInvalidCookie() {
+        ADDirSyncStrategy.getCookie(new SyncToken(42));
+    }
+
+    @Test
+    public void testNamingContext() throws InvalidNameException {
+        LdapName domain = new LdapName("dc=example,dc=com");
+        LdapName child = new LdapName("dc=child,dc=example,dc=com");
+        LdapName configuration = new LdapName("cn=Configuration,dc=example,dc=com");
+
+        assertEquals(domain, ADDirSyncStrategy.getNamingContext(
+                new LdapName("ou=People,dc=example,dc=com"), Arrays.asList(child, domain, configuration)));
+        assertEquals(child, ADDirSyncStrategy.getNamingContext(
+                new LdapName("ou=People,dc=child,dc=example,dc=com"), Arrays.asList(domain, child)));
+        assertNull(ADDirSyncStrategy.getNamingContext(
+                new LdapName("dc=other,dc=com"), Arrays.asList(domain, child)));
+    }
+}
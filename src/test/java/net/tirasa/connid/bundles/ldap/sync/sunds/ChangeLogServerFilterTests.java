@@ -0,0 +1,72 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.sync.sunds;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import net.tirasa.connid.bundles.ldap.LdapConfiguration;
+import net.tirasa.connid.bundles.ldap.LdapConnection;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.junit.Test;
+
+public class ChangeLogServerFilterTests {
+
+    private static String getFilter(final LdapConfiguration config) {
+        return new SunDSChangeLogSyncStrategy(new LdapConnection(config), ObjectClass.ACCOUNT).
+                getChangeLogServerFilter();
+    }
+
+    @Test
+    public void testDisabled() {
+        LdapConfiguration config = new LdapConfiguration();
+        config.setBaseContexts("dc=example,dc=com");
+        config.setAttributesToSynchronize("cn");
+        assertNull(getFilter(config));
+    }
+
+    @Test
+    public void testBaseContexts() {
+        LdapConfiguration config = new LdapConfiguration();
+        config.setFilterChangeLogOnServer(true);
+        config.setBaseContexts("dc=example,dc=com");
+        config.setBaseContextsToSynchronize("ou=People,dc=example,dc=com", "ou=Groups,dc=example,dc=com");
+        assertEquals("(|(targetDN=ou=People,dc=example,dc=com)(targetDN=*,ou=People,dc=example,dc=com)"
+                + "(targetDN=ou=Groups,dc=example,dc=com)(targetDN=*,ou=Groups,dc=example,dc=com))",
+                getFilter(config));
+    }
+
+    @Test
+    public void testAllCriteria() {
+        LdapConfiguration config = new LdapConfiguration();
+        config.setFilterChangeLogOnServer(true);
+        config.setBaseContexts("o=a(b)");
+        config.setModifiersNamesToFilterOut("cn=Sync");
+        config.setAttributesToSynchronize("mail");
+        assertEquals("(&(|(targetDN=o=a\\28b\\29)(targetDN=*,o=a\\28b\\29))"
+                + "(!(changes=*modifiersName: cn=Sync\\0a*))"
+                + "(|(changeType=delete)(changes=*mail*)))",
+                getFilter(config));
+    }
+}
@@ -26,6 +26,7 @@ package net.tirasa.connid.bundles.ldap.sync.sunds;
 import net.tirasa.connid.bundles.ldap.sync.sunds.LdifParser;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Iterator;
@@ -73,6 +74,32 @@ public class LdifParserTests {
         assertTrue(lines.next() instanceof ChangeSeparator);
     }
 
+    @Test
+    public void testCharSequenceWithTrailingFoldedLine() {
+        StringBuilder ldif = new StringBuilder("replace: description\ndescription: ");
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            ldif.append("0123456789\n ");
+            expected.append("0123456789");
+        }
+
+        LdifParser parser = new LdifParser(ldif);
+        Iterator<Line> lines = parser.iterator();
+        assertLineEquals(lines.next(), new NameValue("replace", "description"));
+        assertLineEquals(lines.next(), new NameValue("description", expected.toString()));
+        assertTrue(lines.next() instanceof ChangeSeparator);
+        assertFalse(lines.hasNext());
+    }
+
+    @Test
+    public void testLeadingContinuationLine() {
+        LdifParser parser = new LdifParser(" changeType: add\n\n");
+        Iterator<Line> lines = parser.iterator();
+        assertLineEquals(lines.next(), new NameValue("changeType", "add"));
+        assertTrue(lines.next() instanceof ChangeSeparator);
+        assertFalse(lines.hasNext());
+    }
+
     private static void assertLineEquals(Line expected, NameValue value) {
         assertTrue(expected instanceof NameValue);
         NameValue expectedValue = (NameValue) expected;
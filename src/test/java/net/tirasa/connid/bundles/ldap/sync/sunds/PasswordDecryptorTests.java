@@ -0,0 +1,124 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.sync.sunds;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.junit.Test;
+
+public class PasswordDecryptorTests {
+
+    private static final byte[] KEY = "0123456789abcdefghijklmn".getBytes();
+
+    private static final byte[] IV = "12345678".getBytes();
+
+    private static final int MAGIC = 0x132d1403;
+
+    private static byte[] encrypt(final String password) throws Exception {
+        byte[] bytes = password.getBytes("UTF-8");
+        int length = 12 + bytes.length;
+        length += (8 - length % 8) % 8;
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(MAGIC).putInt(bytes.length).put(bytes).putInt(MAGIC);
+
+        Cipher cipher = Cipher.getInstance("DESede/CBC/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(KEY, "DESede"), new IvParameterSpec(IV));
+        return cipher.doFinal(buffer.array());
+    }
+
+    private static String toString(final GuardedString password) {
+        final StringBuilder result = new StringBuilder();
+        password.access(new GuardedString.Accessor() {
+
+            @Override
+            public void access(final char[] clearChars) {
+                result.append(clearChars);
+            }
+        });
+        return result.toString();
+    }
+
+    @Test
+    public void testDecrypt() throws Exception {
+        PasswordDecryptor decryptor = new PasswordDecryptor(KEY, IV);
+        assertEquals("secret", decryptor.decryptPassword(encrypt("secret")));
+        assertEquals("s\u00e9cr\u00e8t", toString(decryptor.decryptGuardedPassword(encrypt("s\u00e9cr\u00e8t"))));
+        // The buffers are reused for a shorter password.
+        assertEquals("pwd", toString(decryptor.decryptGuardedPassword(encrypt("pwd"))));
+    }
+
+    @Test(expected = ConnectorException.class)
+    public void testWrongKey() throws Exception {
+        new PasswordDecryptor("nmlkjihgfedcba9876543210".getBytes(), IV).decryptPassword(encrypt("secret"));
+    }
+
+    @Test
+    public void testDecryptAfterDispose() throws Exception {
+        PasswordDecryptor decryptor = new PasswordDecryptor(KEY, IV);
+        assertEquals("secret", decryptor.decryptPassword(encrypt("secret")));
+        decryptor.dispose();
+        assertEquals("secret", decryptor.decryptPassword(encrypt("secret")));
+    }
+
+    @Test
+    public void testParallelDecrypt() throws Exception {
+        final PasswordDecryptor decryptor = new PasswordDecryptor(KEY, IV);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (int i = 0; i < 8; i++) {
+                final String password = "password" + i;
+                final byte[] encrypted = encrypt(password);
+                results.add(executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() {
+                        for (int j = 0; j < 500; j++) {
+                            assertEquals(password, PasswordDecryptorTests.toString(
+                                    decryptor.decryptGuardedPassword(encrypted)));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.sync.sunds;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.junit.Test;
+
+public class PersistentSearchControlTests {
+
+    @Test
+    public void testEncodeValue() {
+        assertArrayEquals(new byte[] {
+            0x30, 0x09,
+            0x02, 0x01, 0x0f,
+            0x01, 0x01, (byte) 0xff,
+            0x01, 0x01, (byte) 0xff },
+                PersistentSearchControl.encodeValue(PersistentSearchControl.ANY, true, true));
+        assertArrayEquals(new byte[] {
+            0x30, 0x09,
+            0x02, 0x01, 0x05,
+            0x01, 0x01, 0x00,
+            0x01, 0x01, (byte) 0xff },
+                PersistentSearchControl.encodeValue(
+                        PersistentSearchControl.ADD | PersistentSearchControl.MODIFY, false, true));
+
+        PersistentSearchControl control =
+                new PersistentSearchControl(PersistentSearchControl.ANY, true, true, Control.CRITICAL);
+        assertEquals(PersistentSearchControl.OID, control.getID());
+        assertEquals(Control.CRITICAL, control.isCritical());
+    }
+
+    @Test
+    public void testDecodeResponse() {
+        byte[] value = new byte[] {
+            0x30, 0x1b,
+            0x0a, 0x01, 0x08,
+            0x04, 0x12, 'u', 'i', 'd', '=', 'o', 'l', 'd', ',', 'd', 'c', '=', 'e', 'x', 'a', 'm', 'p', 'l', 'e',
+            0x02, 0x02, 0x01, 0x00 };
+        EntryChangeResponseControl response = EntryChangeResponseControl.find(new Control[] {
+            new BasicControl("1.2.3.4"), new BasicControl(EntryChangeResponseControl.OID, false, value) });
+        assertEquals(PersistentSearchControl.RENAME, response.getChangeType());
+        assertEquals("uid=old,dc=example", response.getPreviousDN());
+        assertEquals(256, response.getChangeNumber());
+    }
+
+    @Test
+    public void testDecodeResponseWithoutOptionalFields() {
+        EntryChangeResponseControl response = EntryChangeResponseControl.decode(new byte[] {
+            0x30, 0x03, 0x0a, 0x01, 0x01 });
+        assertEquals(PersistentSearchControl.ADD, response.getChangeType());
+        assertNull(response.getPreviousDN());
+        assertEquals(-1, response.getChangeNumber());
+
+        // A change number without a previous DN.
+        response = EntryChangeResponseControl.decode(new byte[] {
+            0x30, 0x08, 0x0a, 0x01, 0x04, 0x02, 0x03, 0x01, 0x00, 0x00 });
+        assertEquals(PersistentSearchControl.MODIFY, response.getChangeType());
+        assertNull(response.getPreviousDN());
+        assertEquals(65536, response.getChangeNumber());
+    }
+
+    @Test
+    public void testNoResponse() {
+        assertNull(EntryChangeResponseControl.find(null));
+        assertNull(EntryChangeResponseControl.find(new Control[] { new BasicControl("1.2.3.4") }));
+    }
+
+    @Test(expected = ConnectorException.class)
+    public void testDecodeTruncatedResponse() {
+        byte[] value = new byte[] { 0x30, 0x06, 0x0a, 0x01, 0x02, 0x02, 0x01, 0x07 };
+        EntryChangeResponseControl.decode(Arrays.copyOf(value, value.length - 1));
+    }
+}
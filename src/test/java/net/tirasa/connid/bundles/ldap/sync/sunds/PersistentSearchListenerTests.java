@@ -0,0 +1,150 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.sync.sunds;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import net.tirasa.connid.bundles.ldap.LdapConfiguration;
+import net.tirasa.connid.bundles.ldap.LdapConnection;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.junit.Test;
+
+public class PersistentSearchListenerTests {
+
+    @Test
+    public void testCatchUpRequiredUntilEnded() {
+        PersistentSearchListener listener = new PersistentSearchListener(new LdapConfiguration(), 10);
+        assertFalse(listener.isCaughtUp(5));
+
+        listener.beginCatchUp();
+        listener.endCatchUp(5, 5);
+        assertTrue(listener.isCaughtUp(5));
+        // A token older than the catch-up point cannot be served from the queue.
+        assertFalse(listener.isCaughtUp(4));
+
+        listener.requireCatchUp();
+        assertFalse(listener.isCaughtUp(5));
+    }
+
+    @Test
+    public void testOverflowRequiresCatchUp() {
+        PersistentSearchListener listener = new PersistentSearchListener(new LdapConfiguration(), 2);
+        listener.beginCatchUp();
+        listener.endCatchUp(0, 0);
+
+        listener.offer(newNotification(1));
+        listener.offer(newNotification(2));
+        assertTrue(listener.isCaughtUp(0));
+
+        listener.offer(newNotification(3));
+        assertFalse(listener.isCaughtUp(0));
+        assertTrue(listener.drain().isEmpty());
+    }
+
+    @Test
+    public void testEndCatchUpDiscardsReadChanges() {
+        PersistentSearchListener listener = new PersistentSearchListener(new LdapConfiguration(), 10);
+        listener.offer(newNotification(3));
+        listener.offer(newNotification(7));
+        listener.offer(newNotification(5));
+
+        listener.beginCatchUp();
+        listener.endCatchUp(4, 5);
+
+        List<EntryChangeNotification> notifications = listener.drain();
+        assertEquals(1, notifications.size());
+        assertEquals(7, notifications.get(0).getChangeNumber());
+    }
+
+    @Test
+    public void testDrainOrdersByChangeNumber() {
+        PersistentSearchListener listener = new PersistentSearchListener(new LdapConfiguration(), 10);
+        listener.offer(newNotification(12));
+        listener.offer(newNotification(10));
+        listener.offer(newNotification(11));
+
+        List<EntryChangeNotification> notifications = listener.drain();
+        assertEquals(3, notifications.size());
+        assertEquals(10, notifications.get(0).getChangeNumber());
+        assertEquals(11, notifications.get(1).getChangeNumber());
+        assertEquals(12, notifications.get(2).getChangeNumber());
+        assertTrue(listener.drain().isEmpty());
+    }
+
+    @Test
+    public void testChangeNumbersBeyondInteger() {
+        long base = Integer.MAX_VALUE;
+        PersistentSearchListener listener = new PersistentSearchListener(new LdapConfiguration(), 10);
+        listener.beginCatchUp();
+        listener.endCatchUp(base + 1, base + 1);
+        assertTrue(listener.isCaughtUp(base + 1));
+        assertFalse(listener.isCaughtUp(base));
+
+        listener.offer(newNotification(base + 3));
+        listener.offer(newNotification(base + 2));
+        List<EntryChangeNotification> notifications = listener.drain();
+        assertEquals(base + 2, notifications.get(0).getChangeNumber());
+        assertEquals(base + 3, notifications.get(1).getChangeNumber());
+    }
+
+    @Test
+    public void testReleasedByAllUsersStops() throws InterruptedException {
+        LdapConfiguration config = new LdapConfiguration();
+        config.setHost("localhost");
+        config.setPort(1);
+        config.setBaseContexts("dc=example,dc=com");
+        LdapConnection first = new LdapConnection(config);
+        LdapConnection second = new LdapConnection(config);
+
+        PersistentSearchListener listener = PersistentSearchListener.getInstance(first, ObjectClass.ACCOUNT);
+        assertSame(listener, PersistentSearchListener.getInstance(second, ObjectClass.ACCOUNT));
+
+        PersistentSearchListener.release(first);
+        assertFalse(listener.isStopped());
+
+        // The thread, waiting to reconnect, ends once interrupted.
+        PersistentSearchListener.release(second);
+        assertTrue(listener.isStopped());
+        for (int i = 0; i < 100 && listener.isRunning(); i++) {
+            Thread.sleep(50);
+        }
+        assertFalse(listener.isRunning());
+
+        // A new user gets a new listener.
+        PersistentSearchListener restarted = PersistentSearchListener.getInstance(first, ObjectClass.ACCOUNT);
+        assertNotSame(listener, restarted);
+        PersistentSearchListener.release(first);
+        assertTrue(restarted.isStopped());
+    }
+
+    private static EntryChangeNotification newNotification(final long changeNumber) {
+        return new EntryChangeNotification(changeNumber, "modify", "uid=user,dc=example,dc=com",
+                "uid=user,dc=example,dc=com", null, null);
+    }
+}
@@ -0,0 +1,155 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.sync.timestamp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import net.tirasa.connid.bundles.ldap.LdapConfiguration;
+import net.tirasa.connid.bundles.ldap.sync.SyncBatch;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
+import org.identityconnectors.framework.common.objects.SyncDelta;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+import org.junit.Test;
+
+public class TimestampSyncStrategyTests {
+
+    @Test
+    public void testBatchEndsBeforeNeverModifiedEntry() {
+        // The never modified entry was created between the modifications of the others.
+        ConnectorObject first = createObject("a", "20240101000000Z", "20240102000000Z");
+        ConnectorObject created = createObject("b", "20240103000000Z", null);
+        ConnectorObject second = createObject("c", "20240101000000Z", "20240104000000Z");
+
+        List<String> uids = new ArrayList<String>();
+        SyncBatch batch = createBatch(1);
+        assertTrue(TimestampSyncStrategy.sync(
+                createCursors(first, second, created), null, collect(uids), batch, false, false));
+        assertEquals(Arrays.asList("a"), uids);
+
+        // Resuming after each batch delivers the never modified entry before the later modification.
+        for (int i = 0; i < 3; i++) {
+            TimestampSyncToken token = TimestampSyncToken.fromSyncToken(batch.getLastToken());
+            batch = createBatch(1);
+            TimestampSyncStrategy.sync(
+                    createCursors(first, second, created), token, collect(uids), batch, false, false);
+        }
+        assertEquals(Arrays.asList("a", "b", "c"), uids);
+    }
+
+    @Test
+    public void testHandlerStopBeforeNeverModifiedEntry() {
+        ConnectorObject first = createObject("a", "20240101000000Z", "20240102000000Z");
+        ConnectorObject created = createObject("b", "20240103000000Z", null);
+        ConnectorObject second = createObject("c", "20240101000000Z", "20240104000000Z");
+
+        final List<SyncDelta> deltas = new ArrayList<SyncDelta>();
+        assertFalse(TimestampSyncStrategy.sync(createCursors(first, second, created), null, new SyncResultsHandler() {
+
+            @Override
+            public boolean handle(final SyncDelta delta) {
+                deltas.add(delta);
+                return deltas.size() < 2;
+            }
+        }, createBatch(0), false, false));
+        assertEquals(2, deltas.size());
+        assertEquals("b", deltas.get(1).getUid().getUidValue());
+
+        // The token of the last processed delta does not skip the never modified entry.
+        List<String> uids = new ArrayList<String>();
+        TimestampSyncToken token = TimestampSyncToken.fromSyncToken(deltas.get(0).getToken());
+        TimestampSyncStrategy.sync(
+                createCursors(first, second, created), token, collect(uids), createBatch(0), false, false);
+        assertEquals(Arrays.asList("b", "c"), uids);
+    }
+
+    private static ConnectorObject createObject(final String uid, final String created, final String modified) {
+        ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
+        builder.setUid(uid);
+        builder.setName(uid);
+        builder.addAttribute(AttributeBuilder.build(TimestampSyncStrategy.CREATE_TIMESTAMP, created));
+        if (modified != null) {
+            builder.addAttribute(AttributeBuilder.build(TimestampSyncStrategy.MODIFY_TIMESTAMP, modified));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the cursors of a base context, as the server returns the modified and the never modified entries.
+     */
+    private static List<ListCursor> createCursors(
+            final ConnectorObject first, final ConnectorObject second, final ConnectorObject created) {
+
+        return Arrays.asList(new ListCursor(first, second), new ListCursor(created));
+    }
+
+    private static SyncBatch createBatch(final int size) {
+        LdapConfiguration config = new LdapConfiguration();
+        config.setSyncBatchSize(size);
+        return new SyncBatch(null, config);
+    }
+
+    private static SyncResultsHandler collect(final List<String> uids) {
+        return new SyncResultsHandler() {
+
+            @Override
+            public boolean handle(final SyncDelta delta) {
+                uids.add(delta.getUid().getUidValue());
+                return true;
+            }
+        };
+    }
+
+    private static class ListCursor extends TimestampSyncStrategy.Cursor {
+
+        private final List<ConnectorObject> objects;
+
+        private int index;
+
+        ListCursor(final ConnectorObject... objects) {
+            this.objects = Arrays.asList(objects);
+        }
+
+        @Override
+        boolean hasNext() {
+            return index < objects.size();
+        }
+
+        @Override
+        TimestampSyncToken peekToken() {
+            return TimestampSyncStrategy.createToken(objects.get(index));
+        }
+
+        @Override
+        ConnectorObject next() {
+            return objects.get(index++);
+        }
+    }
+}
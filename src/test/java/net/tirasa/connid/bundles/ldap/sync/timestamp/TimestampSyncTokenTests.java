@@ -0,0 +1,95 @@
+/* 
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ * 
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * 
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License").  You may not use this file
+ * except in compliance with the License.
+ * 
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/cddl1.php
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ * 
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at http://opensource.org/licenses/cddl1.php.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ * Portions Copyrighted 2011 ConnId.
+ */
+package net.tirasa.connid.bundles.ldap.sync.timestamp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.junit.Test;
+
+public class TimestampSyncTokenTests {
+
+    @Test
+    public void testRoundTrip() {
+        TimestampSyncToken token = new TimestampSyncToken("20240102030405Z", "uid=a|b,dc=example,dc=com");
+        TimestampSyncToken parsed = TimestampSyncToken.fromSyncToken(token.toSyncToken());
+        assertEquals("20240102030405Z", parsed.getTimestamp());
+        assertEquals("uid=a|b,dc=example,dc=com", parsed.getUid());
+        assertEquals(token, parsed);
+    }
+
+    @Test
+    public void testNullToken() {
+        assertNull(TimestampSyncToken.fromSyncToken(null));
+    }
+
+    @Test(expected = ConnectorException.class)
+    public void testInvalidToken() {
+        TimestampSyncToken.fromSyncToken(new SyncToken(42));
+    }
+
+    @Test
+    public void testOrderByTimestampThenUid() {
+        TimestampSyncToken first = new TimestampSyncToken("20240102030405Z", "b");
+        TimestampSyncToken second = new TimestampSyncToken("20240102030405Z", "c");
+        TimestampSyncToken third = new TimestampSyncToken("20240102030406Z", "a");
+        assertTrue(first.compareTo(second) < 0);
+        assertTrue(second.compareTo(third) < 0);
+        assertTrue(third.compareTo(first) > 0);
+    }
+
+    @Test
+    public void testUidIgnoresCase() {
+        TimestampSyncToken lower = new TimestampSyncToken("20240102030405Z", "b");
+        TimestampSyncToken upper = new TimestampSyncToken("20240102030405Z", "B");
+        assertTrue(new TimestampSyncToken("20240102030405Z", "a").compareTo(upper) < 0);
+        assertTrue(upper.compareTo(new TimestampSyncToken("20240102030405Z", "c")) < 0);
+        assertEquals(lower, upper);
+        assertEquals(lower.hashCode(), upper.hashCode());
+    }
+
+    @Test
+    public void testTimestampFilterIsEscaped() {
+        TimestampSyncToken token = new TimestampSyncToken("2024*)Z", "a");
+        assertEquals("(modifyTimestamp>=2024\\2a\\29Z)", TimestampSyncStrategy.getModifiedFilter(token));
+        assertEquals("(&(!(modifyTimestamp=*))(createTimestamp>=2024\\2a\\29Z))",
+                TimestampSyncStrategy.getCreatedFilter(token));
+        assertEquals("(modifyTimestamp=*)", TimestampSyncStrategy.getModifiedFilter(null));
+        assertEquals("(!(modifyTimestamp=*))", TimestampSyncStrategy.getCreatedFilter(null));
+    }
+
+    @Test
+    public void testFractionsOfSeconds() {
+        // A lexicographic comparison of the raw values would put "...05.5Z" before "...05Z".
+        TimestampSyncToken whole = new TimestampSyncToken("20240102030405Z", "a");
+        TimestampSyncToken fraction = new TimestampSyncToken("20240102030405.5Z", "a");
+        TimestampSyncToken longerFraction = new TimestampSyncToken("20240102030405.123Z", "a");
+        assertTrue(whole.compareTo(fraction) < 0);
+        assertTrue(longerFraction.compareTo(fraction) < 0);
+        assertEquals(new TimestampSyncToken("20240102030405.500Z", "a"), fraction);
+    }
+}